@@ -1,26 +1,42 @@
 package uk.ac.ebi.ega.egacryptor;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import uk.ac.ebi.ega.egacryptor.bundle.BundleService;
+import uk.ac.ebi.ega.egacryptor.daemon.EncryptionDaemonClient;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.rewrap.RewrapService;
 import uk.ac.ebi.ega.egacryptor.runner.EgaCryptorCommandLinerRunner;
 import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
 import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.transcode.TranscodeService;
 
 @SpringBootApplication
 public class EgaCryptorApplication {
 
     public static void main(String[] args) {
+        if (EncryptionDaemonClient.isClientInvocation(args)) {
+            System.exit(EncryptionDaemonClient.submit(System.out, args));
+        }
+        EgaCryptorCommandLinerRunner.redirectConsoleIfStreamingToStdout(args);
         SpringApplication.run(EgaCryptorApplication.class, args);
     }
 
     @Bean
     public EgaCryptorCommandLinerRunner initEgaCryptorCommandLinerRunner(final ITaskExecutorService taskExecutorService,
+                                                                         final CryptographyPipeline cryptographyPipeline,
                                                                          final IFileDiscoveryService fileDiscoveryService,
+                                                                         final ObjectProvider<TranscodeService> transcodeService,
+                                                                         final ObjectProvider<RewrapService> rewrapService,
+                                                                         final BundleService bundleService,
                                                                          final ApplicationContext applicationContext,
                                                                          @Value("output.files.path.default") final String defaultOutputFilePath) {
-        return new EgaCryptorCommandLinerRunner(taskExecutorService, fileDiscoveryService, applicationContext, defaultOutputFilePath);
+        return new EgaCryptorCommandLinerRunner(taskExecutorService, cryptographyPipeline, fileDiscoveryService,
+                transcodeService.getIfAvailable(), rewrapService.getIfAvailable(), bundleService, applicationContext,
+                defaultOutputFilePath);
     }
 }
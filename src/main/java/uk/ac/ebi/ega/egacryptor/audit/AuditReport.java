@@ -0,0 +1,77 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.audit;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class AuditReport {
+
+    private final List<AuditResult> results;
+    private final long elapsedMillis;
+    private final Map<AuditResult.Status, Integer> counts = new EnumMap<>(AuditResult.Status.class);
+    private final long bytesRead;
+
+    public AuditReport(final List<AuditResult> results, final long elapsedMillis) {
+        this.results = results;
+        this.elapsedMillis = elapsedMillis;
+        for (final AuditResult.Status status : AuditResult.Status.values()) {
+            counts.put(status, 0);
+        }
+        long totalBytesRead = 0;
+        for (final AuditResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+            totalBytesRead += result.getBytesRead();
+        }
+        this.bytesRead = totalBytesRead;
+    }
+
+    public List<AuditResult> getResults() {
+        return results;
+    }
+
+    public int getCount(final AuditResult.Status status) {
+        return counts.get(status);
+    }
+
+    public boolean isSuccessful() {
+        return getCount(AuditResult.Status.OK) == results.size();
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the hashing throughput in MiB per second.
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : bytesRead / (1024.0 * 1024.0) / (elapsedMillis / 1000.0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Audited %d file set(s): %s. Hashed %d bytes in %.1f s (%.1f MiB/s)",
+                results.size(), counts, bytesRead, elapsedMillis / 1000.0, getThroughput());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.audit;
+
+import java.nio.file.Path;
+
+public class AuditResult {
+
+    public enum Status {
+        /** The ciphertext matches its checksum file and both checksum files exist. */
+        OK,
+        /** The ciphertext does not match its checksum file, e.g. because it is truncated. */
+        MISMATCH,
+        /** The ciphertext exists but one of its checksum files is missing. */
+        MISSING_CHECKSUM,
+        /** Checksum files exist without the ciphertext. */
+        ORPHAN,
+        /** The ciphertext or its checksum file could not be read. */
+        UNREADABLE
+    }
+
+    private final Status status;
+    private final Path path;
+    private final String message;
+    private final long bytesRead;
+
+    public AuditResult(final Status status, final Path path, final String message, final long bytesRead) {
+        this.status = status;
+        this.path = path;
+        this.message = message;
+        this.bytesRead = bytesRead;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public String toString() {
+        return status.name().concat(" ").concat(path.toString()).concat(" - ").concat(message);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.model.EncryptedFileSet;
+import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Re-verifies existing output files: every ciphertext is hashed again and compared with its checksum file, and
+ * ciphertexts without checksum files or checksum files without ciphertext are reported.
+ * <p>
+ * Ciphertexts are hashed in parallel, largest first so a big file does not start last and delay the end of the run.
+ * Each thread reads with one large direct buffer, which keeps the reads sequential and avoids copying the data into
+ * the heap.
+ */
+public class AuditService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditService.class);
+
+    public static final int DEFAULT_READ_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final IFileDiscoveryService fileDiscoveryService;
+    private final ThreadLocal<ByteBuffer> readBuffer;
+
+    public AuditService(final IFileDiscoveryService fileDiscoveryService) {
+        this(fileDiscoveryService, DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    public AuditService(final IFileDiscoveryService fileDiscoveryService, final int readBufferSize) {
+        this.fileDiscoveryService = fileDiscoveryService;
+        this.readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(readBufferSize));
+    }
+
+    public AuditReport audit(final List<Path> rootFilePaths, final int noOfThreads)
+            throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final List<EncryptedFileSet> encryptedFileSets = fileDiscoveryService.discoverEncryptedFiles(rootFilePaths);
+        LOGGER.info("Auditing {} encrypted file set(s) using {} thread(s)", encryptedFileSets.size(), noOfThreads);
+
+        final Map<EncryptedFileSet, Long> sizes = new HashMap<>();
+        encryptedFileSets.forEach(encryptedFileSet -> sizes.put(encryptedFileSet, encryptedFileSize(encryptedFileSet)));
+        final List<EncryptedFileSet> largestFirst = new ArrayList<>(encryptedFileSets);
+        largestFirst.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(noOfThreads);
+        try {
+            final List<Future<AuditResult>> futures = new ArrayList<>(largestFirst.size());
+            for (final EncryptedFileSet encryptedFileSet : largestFirst) {
+                futures.add(executorService.submit(() -> audit(encryptedFileSet)));
+            }
+            final List<AuditResult> results = new ArrayList<>(futures.size());
+            for (final Future<AuditResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IOException("Audit failed - ".concat(String.valueOf(e.getCause().getMessage())),
+                            e.getCause());
+                }
+            }
+            results.sort(Comparator.comparing(AuditResult::getPath));
+            return new AuditReport(results, (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    AuditResult audit(final EncryptedFileSet encryptedFileSet) {
+        if (!encryptedFileSet.getEncryptedFilePath().isPresent()) {
+            return new AuditResult(AuditResult.Status.ORPHAN, encryptedFileSet.getBasePath(),
+                    "checksum file(s) without encrypted file", 0);
+        }
+        final Path encryptedFilePath = encryptedFileSet.getEncryptedFilePath().get();
+        if (!encryptedFileSet.getEncryptedMD5Path().isPresent()) {
+            return new AuditResult(AuditResult.Status.MISSING_CHECKSUM, encryptedFilePath,
+                    "checksum file of the encrypted file is missing", 0);
+        }
+
+        final String expectedMD5;
+        final long[] bytesRead = new long[1];
+        final String actualMD5;
+        try {
+            expectedMD5 = Hash.readChecksum(encryptedFileSet.getEncryptedMD5Path().get());
+            actualMD5 = hash(encryptedFilePath, bytesRead);
+        } catch (IOException e) {
+            return new AuditResult(AuditResult.Status.UNREADABLE, encryptedFilePath, e.toString(), bytesRead[0]);
+        }
+
+        if (!actualMD5.equals(expectedMD5)) {
+            return new AuditResult(AuditResult.Status.MISMATCH, encryptedFilePath,
+                    "expected ".concat(expectedMD5).concat(" but was ").concat(actualMD5)
+                            .concat(" for ").concat(String.valueOf(bytesRead[0])).concat(" bytes"), bytesRead[0]);
+        }
+        if (!encryptedFileSet.getPlainTextMD5Path().isPresent()) {
+            return new AuditResult(AuditResult.Status.MISSING_CHECKSUM, encryptedFilePath,
+                    "checksum file of the unencrypted file is missing", bytesRead[0]);
+        }
+        return new AuditResult(AuditResult.Status.OK, encryptedFilePath, actualMD5, bytesRead[0]);
+    }
+
+    private String hash(final Path file, final long[] bytesRead) throws IOException {
+        final MessageDigest messageDigest = Hash.getMD5();
+        final ByteBuffer buffer = readBuffer.get();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ((Buffer) buffer).clear();
+            while (channel.read(buffer) != -1) {
+                ((Buffer) buffer).flip();
+                bytesRead[0] += buffer.remaining();
+                messageDigest.update(buffer);
+                ((Buffer) buffer).clear();
+            }
+        }
+        return Hash.normalize(messageDigest);
+    }
+
+    private static long encryptedFileSize(final EncryptedFileSet encryptedFileSet) {
+        try {
+            return encryptedFileSet.getEncryptedFilePath().isPresent()
+                    ? Files.size(encryptedFileSet.getEncryptedFilePath().get())
+                    : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.bundle;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.memory.MemoryBudget;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+import uk.ac.ebi.ega.egacryptor.stream.CountingOutputStream;
+import uk.ac.ebi.ega.egacryptor.throttle.BandwidthLimiter;
+import uk.ac.ebi.ega.egacryptor.throttle.Throttle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
+
+/**
+ * Packs the files below each input folder into tar archives which are encrypted as one stream, so a submission of
+ * many small files becomes a few encrypted files with a single key wrap each. A folder is split into several
+ * bundles when it has more than {@code maxFiles} files or {@code maxBytes} bytes.
+ * <p>
+ * Every bundle "name-00001.tar.gpg" comes with the checksums of the tar archive and of the encrypted file and with
+ * an index "name-00001.tar.index.tsv" giving the path, header and data offsets in the tar archive, size and MD5 of
+ * every member, so single files can be found and checked without unpacking the bundle. As for single files, bundles
+ * whose output files exist are skipped, so a rerun only writes the bundles which failed. As the bundles are cut from
+ * the sorted files of a folder, a rerun checks the index of every bundle it skips against the files planned for it.
+ * <p>
+ * The bundles are run by the {@link TaskExecutorService} like single files, so the task listeners, the run report,
+ * the JFR events, the memory budget and the bandwidth limits apply to them too.
+ */
+public class BundleService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleService.class);
+
+    static final String TAR_EXTENSION = ".tar";
+    static final String INDEX_EXTENSION = FileExtensionType.TAR_INDEX.getFileExtension();
+    private static final String INDEX_HEADER = "#path\theader_offset\tdata_offset\tsize\tmd5\n";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final IFileDiscoveryService fileDiscoveryService;
+    private final Cryptography cryptography;
+    private final OutputSink outputSink;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final MemoryBudget memoryBudget;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TaskListener taskListener;
+
+    /**
+     * @param maxFiles Maximum number of files in one bundle.
+     * @param maxBytes Maximum size of the files in one bundle. A larger file gets a bundle of its own.
+     */
+    public BundleService(final IFileDiscoveryService fileDiscoveryService, final Cryptography cryptography,
+                         final OutputSink outputSink, final int maxFiles, final long maxBytes) {
+        this(fileDiscoveryService, cryptography, outputSink, maxFiles, maxBytes, MemoryBudget.unlimited(),
+                BandwidthLimiter.unlimited(), TaskListener.NONE);
+    }
+
+    /**
+     * @param memoryBudget     Budget the buffers of every bundle are leased from.
+     * @param bandwidthLimiter Caps the bandwidth of the files read into the bundles, all together and per bundle.
+     * @param taskListener     Listener notified about every bundle, e.g. to write the run report.
+     */
+    public BundleService(final IFileDiscoveryService fileDiscoveryService, final Cryptography cryptography,
+                         final OutputSink outputSink, final int maxFiles, final long maxBytes,
+                         final MemoryBudget memoryBudget, final BandwidthLimiter bandwidthLimiter,
+                         final TaskListener taskListener) {
+        if (maxFiles < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Bundle file count and size limits should be at least 1");
+        }
+        this.fileDiscoveryService = fileDiscoveryService;
+        this.cryptography = cryptography;
+        this.outputSink = outputSink;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.memoryBudget = memoryBudget;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.taskListener = taskListener;
+    }
+
+    /**
+     * @return the number of bundles which failed
+     */
+    public long bundle(final List<Path> rootFilePaths, final Path outputFilePath, final int noOfThreads)
+            throws IOException {
+        final List<Bundle> bundles = planBundles(fileDiscoveryService.discoverFilesRecursively(rootFilePaths,
+                outputFilePath), outputFilePath);
+        LOGGER.info("{} bundle(s) will be written to {}", bundles.size(), outputFilePath);
+        if (bundles.isEmpty()) {
+            return 0;
+        }
+
+        final Map<FileToProcess, Bundle> bundlesByFile = new LinkedHashMap<>();
+        bundles.forEach(bundle -> bundlesByFile.put(bundle.toFileToProcess(), bundle));
+        final LongAdder failedBundles = new LongAdder();
+        final TaskExecutorService taskExecutorService = new TaskExecutorService(new BundlePipeline(bundlesByFile),
+                TaskListener.of(taskListener, new TaskListener() {
+                    @Override
+                    public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+                        failedBundles.increment();
+                    }
+                }));
+        taskExecutorService.execute(new ArrayList<>(bundlesByFile.keySet()), noOfThreads);
+        return failedBundles.sum();
+    }
+
+    /**
+     * Groups the files by the folder they were found under, in path order, and cuts each group at the limits. A
+     * file given directly is bundled with the other files of its folder.
+     */
+    List<Bundle> planBundles(final List<FileToProcess> fileToProcessList, final Path outputFilePath)
+            throws IOException {
+        final Map<Path, List<Member>> membersByFolder = new LinkedHashMap<>();
+        for (final FileToProcess fileToProcess : fileToProcessList) {
+            final Path file = fileToProcess.getFileToEncryptPath().toAbsolutePath().normalize();
+            final Path rootPath = fileToProcess.getRootPath().toAbsolutePath().normalize();
+            final Path folder = rootPath.equals(file) ? file.getParent() : rootPath;
+            membersByFolder.computeIfAbsent(folder, key -> new ArrayList<>())
+                    .add(new Member(file, folder.relativize(file).toString().replace('\\', '/'), Files.size(file)));
+        }
+
+        final List<Bundle> bundles = new ArrayList<>();
+        final Set<String> bundleNames = new HashSet<>();
+        for (final Map.Entry<Path, List<Member>> folderMembers : membersByFolder.entrySet()) {
+            final Path folder = folderMembers.getKey();
+            final Path folderName = folder.getFileName();
+            final String name = folderName == null ? "bundle" : folderName.toString();
+            if (!bundleNames.add(name)) {
+                throw new IOException("Input folders with the same name " + name + " would be bundled to the " +
+                        "same files, bundle them to separate output folders");
+            }
+            final List<Member> members = folderMembers.getValue();
+            members.sort((first, second) -> first.name.compareTo(second.name));
+
+            List<Member> bundleMembers = new ArrayList<>();
+            long bundleBytes = 0;
+            int number = 1;
+            for (final Member member : members) {
+                if (!bundleMembers.isEmpty()
+                        && (bundleMembers.size() == maxFiles || bundleBytes + member.size > maxBytes)) {
+                    bundles.add(new Bundle(outputFilePath, folder, name, number++, bundleMembers));
+                    bundleMembers = new ArrayList<>();
+                    bundleBytes = 0;
+                }
+                bundleMembers.add(member);
+                bundleBytes += member.size;
+            }
+            bundles.add(new Bundle(outputFilePath, folder, name, number, bundleMembers));
+        }
+        return bundles;
+    }
+
+    /**
+     * Bundles whose output files exist, e.g. from an earlier run, are skipped once their index is checked. The
+     * encrypted bundle is only committed once all members have been written, a failed bundle is discarded by the
+     * sink. The index is kept in memory and written with the checksums after the encrypted bundle is committed, so a
+     * bundle never holds more than one stream of the sink, e.g. an SFTP session or the S3 part buffers.
+     *
+     * @return checksums of the encrypted bundle, or empty if the bundle was skipped because its output files exist
+     */
+    Optional<EncryptionResult> write(final Bundle bundle) throws IOException, CryptographyException {
+        final String extension = cryptography.getFileExtensionType().getFileExtension();
+        final Path encryptedPath = bundle.resolve(TAR_EXTENSION.concat(extension));
+        final Path indexPath = bundle.resolve(INDEX_EXTENSION);
+        final Path plainMD5Path = bundle.resolve(TAR_EXTENSION.concat(MD5.getFileExtension()));
+        final Path encryptedMD5Path = bundle.resolve(TAR_EXTENSION.concat(extension).concat(MD5.getFileExtension()));
+        if (outputSink.exists(encryptedPath) || outputSink.exists(indexPath) || outputSink.exists(plainMD5Path)
+                || outputSink.exists(encryptedMD5Path)) {
+            checkMembers(bundle, indexPath);
+            LOGGER.info("Bundle skip for {}. All or some of its files already exist - {},{},{}", encryptedPath,
+                    indexPath, plainMD5Path, encryptedMD5Path);
+            JfrEvents.fileSkipped(encryptedPath, "output files already exist");
+            return Optional.empty();
+        }
+        LOGGER.info("Writing {} file(s), {} bytes to bundle {}", bundle.members.size(), bundle.getBytes(),
+                encryptedPath);
+        outputSink.createDirectories(encryptedPath.getParent());
+        final MessageDigest plainMD5 = Hash.getMD5();
+        final MessageDigest encryptedMD5 = Hash.getMD5();
+        final StringBuilder index = new StringBuilder(INDEX_HEADER);
+        final CountingOutputStream countingOutputStream;
+        final long bytesRead;
+        final MemoryBudget.Lease lease = memoryBudget.lease(COPY_BUFFER_SIZE + cryptography.getBufferMemory()
+                + outputSink.getBufferMemoryPerStream());
+        try {
+            final SinkOutputStream encryptedOutputStream = outputSink.newOutputStream(encryptedPath);
+            try {
+                countingOutputStream = new CountingOutputStream(new DigestOutputStream(encryptedOutputStream,
+                        encryptedMD5));
+                // Closing the encrypted stream finishes the encrypted data without closing the output stream
+                try (final TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(new DigestOutputStream(
+                        cryptography.encrypt(countingOutputStream), plainMD5), StandardCharsets.UTF_8.name())) {
+                    writeMembers(bundle, tarOutputStream, index, bandwidthLimiter.newFileThrottle());
+                    bytesRead = tarOutputStream.getBytesWritten();
+                }
+            } catch (IOException | CryptographyException | RuntimeException e) {
+                encryptedOutputStream.abort();
+                throw e;
+            }
+            encryptedOutputStream.close();
+        } finally {
+            lease.close();
+        }
+        outputSink.write(indexPath, index.toString());
+        outputSink.write(plainMD5Path, Hash.normalize(plainMD5));
+        outputSink.write(encryptedMD5Path, Hash.normalize(encryptedMD5));
+        final EncryptionResult encryptionResult = new EncryptionResult(bytesRead, countingOutputStream.getCount(),
+                Hash.normalize(plainMD5), Hash.normalize(encryptedMD5));
+        LOGGER.info("Bundle {} is successfully written. Total bytes of the tar archive: {}", encryptedPath,
+                bytesRead);
+        return Optional.of(encryptionResult);
+    }
+
+    /**
+     * Files added to or removed from a folder since an earlier run shift the members of all later bundles of the
+     * folder, so the bundles of that run no longer hold the files planned for them now.
+     */
+    private void checkMembers(final Bundle bundle, final Path indexPath) throws IOException {
+        if (!outputSink.exists(indexPath)) {
+            throw new IOException("Files of bundle " + bundle.resolve(TAR_EXTENSION) + " exist without the index "
+                    + indexPath + " to check them against, delete them to write the bundle again");
+        }
+        final List<String> indexedNames = new ArrayList<>();
+        for (final String line : outputSink.read(indexPath).split("\n")) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                final int end = line.indexOf('\t');
+                indexedNames.add(end < 0 ? line : line.substring(0, end));
+            }
+        }
+        if (!indexedNames.equals(bundle.getMemberNames())) {
+            throw new IOException("Index " + indexPath + " of an earlier run lists other files than planned now for "
+                    + "the bundle, as the files of the input folder changed since. Bundle them to a new output "
+                    + "folder, or delete the bundles of the earlier run");
+        }
+    }
+
+    private static void writeMembers(final Bundle bundle, final TarArchiveOutputStream tarOutputStream,
+                                     final StringBuilder index, final Throttle throttle) throws IOException {
+        tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (final Member member : bundle.members) {
+            final long headerOffset = tarOutputStream.getBytesWritten();
+            tarOutputStream.putArchiveEntry(new TarArchiveEntry(member.file, member.name));
+            final long dataOffset = tarOutputStream.getBytesWritten();
+            final String md5 = copy(member.file, tarOutputStream, buffer, throttle);
+            tarOutputStream.closeArchiveEntry();
+            index.append(member.name).append('\t').append(headerOffset).append('\t').append(dataOffset)
+                    .append('\t').append(member.size).append('\t').append(md5).append('\n');
+        }
+        tarOutputStream.finish();
+    }
+
+    private static String copy(final Path file, final OutputStream outputStream, final byte[] buffer,
+                               final Throttle throttle) throws IOException {
+        final MessageDigest messageDigest = Hash.getMD5();
+        try (final InputStream inputStream = Files.newInputStream(file)) {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                throttle.acquire(bytesRead);
+                messageDigest.update(buffer, 0, bytesRead);
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        }
+        return Hash.normalize(messageDigest);
+    }
+
+    /**
+     * Lets the task executor run bundles like files: each bundle is given as the path of its tar archive in the
+     * output folder, with the input folder as its root so the folders share the workers fairly.
+     */
+    private class BundlePipeline implements CryptographyPipeline {
+
+        private final Map<FileToProcess, Bundle> bundlesByFile;
+
+        private BundlePipeline(final Map<FileToProcess, Bundle> bundlesByFile) {
+            this.bundlesByFile = bundlesByFile;
+        }
+
+        @Override
+        public Optional<EncryptionResult> process(final FileToProcess fileToProcess) {
+            try {
+                final Optional<EncryptionResult> encryptionResult = write(bundlesByFile.get(fileToProcess));
+                encryptionResult.ifPresent(result -> JfrEvents.fileCommitted(fileToProcess, result));
+                return encryptionResult;
+            } catch (CryptographyException | IOException e) {
+                LOGGER.error("Error while writing bundle {} - {}", fileToProcess.getFileToEncryptPath(),
+                        e.getMessage());
+                throw new RuntimeException("Error while processing request", e);
+            }
+        }
+
+        /**
+         * Bundles are only written from the files of a folder.
+         */
+        @Override
+        public EncryptionResult process(final InputStream inputStream, final OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileExtensionType getFileExtensionType() {
+            return cryptography.getFileExtensionType();
+        }
+    }
+
+    static class Bundle {
+
+        private final Path outputFilePath;
+        private final Path basePath;
+        private final Path folder;
+        private final List<Member> members;
+
+        private Bundle(final Path outputFilePath, final Path folder, final String name, final int number,
+                       final List<Member> members) {
+            this.outputFilePath = outputFilePath;
+            this.basePath = outputFilePath.resolve(String.format("%s-%05d", name, number));
+            this.folder = folder;
+            this.members = members;
+        }
+
+        Path resolve(final String extension) {
+            return basePath.resolveSibling(basePath.getFileName().toString().concat(extension));
+        }
+
+        FileToProcess toFileToProcess() {
+            return new FileToProcess(resolve(TAR_EXTENSION), outputFilePath, folder);
+        }
+
+        List<String> getMemberNames() {
+            final List<String> names = new ArrayList<>(members.size());
+            members.forEach(member -> names.add(member.name));
+            return names;
+        }
+
+        long getBytes() {
+            return members.stream().mapToLong(member -> member.size).sum();
+        }
+    }
+
+    private static class Member {
+
+        private final Path file;
+        private final String name;
+        private final long size;
+
+        private Member(final Path file, final String name, final long size) {
+            this.file = file;
+            this.name = name;
+            this.size = size;
+        }
+    }
+}
@@ -17,58 +17,422 @@
  */
 package uk.ac.ebi.ega.egacryptor.configuration;
 
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import uk.ac.ebi.ega.egacryptor.bundle.BundleService;
 import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPAeadCryptography;
 import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPDecryptor;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPRewrapper;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPUtils;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.SizeUtils;
+import uk.ac.ebi.ega.egacryptor.index.FingerprintIndex;
+import uk.ac.ebi.ega.egacryptor.index.FingerprintIndexListener;
+import uk.ac.ebi.ega.egacryptor.memory.MemoryBudget;
 import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
 import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.report.RunReportListener;
+import uk.ac.ebi.ega.egacryptor.resource.ResourcePlanner;
+import uk.ac.ebi.ega.egacryptor.rewrap.RewrapService;
+import uk.ac.ebi.ega.egacryptor.rewrap.RewrappingCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.DiscoveryFilter;
 import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
 import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
 import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
 import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.s3.S3OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.sftp.SftpOutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.sftp.SftpSessionPool;
+import uk.ac.ebi.ega.egacryptor.stream.pipeline.ReadBufferSize;
+import uk.ac.ebi.ega.egacryptor.throttle.BandwidthControlFile;
+import uk.ac.ebi.ega.egacryptor.throttle.BandwidthLimiter;
+import uk.ac.ebi.ega.egacryptor.transcode.TranscodeService;
+import uk.ac.ebi.ega.egacryptor.transcode.TranscodingCryptographyPipeline;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @Configuration
 public class EgaCryptorConfiguration {
 
-    @Value("${pgp.encryption.buffersize:2048}")
-    private int bufferSize;
+    private static final Logger LOGGER = LoggerFactory.getLogger(EgaCryptorConfiguration.class);
+
+    @Value("${pgp.packet.buffersize:${pgp.encryption.buffersize:2048}}")
+    private int packetBufferSize;
+
+    @Value("${pgp.literal.buffersize:${pgp.encryption.buffersize:2048}}")
+    private int literalBufferSize;
+
+    @Value("${io.read.buffersize:${pgp.encryption.buffersize:2048}}")
+    private String readBufferSize;
+
+    @Value("${io.write.buffersize:" + FileSystemOutputSink.DEFAULT_WRITE_BUFFER_SIZE + "}")
+    private int writeBufferSize;
 
     @Bean
-    public CryptographyPipeline initDefaultCryptographyPipeline(final Cryptography cryptography) {
-        if (bufferSize > 0 && ((bufferSize & (bufferSize - 1)) != 0)) {
-            throw new IllegalArgumentException("Buffer size for encryption should be power of 2");
+    public CryptographyPipeline initDefaultCryptographyPipeline(final Cryptography cryptography,
+                                                                final OutputSink outputSink,
+                                                                final MemoryBudget memoryBudget,
+                                                                @Value("${pipeline.stage-timing:false}") final boolean stageTiming,
+                                                                final BandwidthLimiter bandwidthLimiter) {
+        return new DefaultCryptographyPipeline(cryptography, ReadBufferSize.parse(readBufferSize), outputSink,
+                memoryBudget, stageTiming, bandwidthLimiter);
+    }
+
+    /**
+     * throttle.aggregate and throttle.per-file are bytes per second, e.g. 200M. Both are unlimited by default and
+     * can be changed while running over JMX or through throttle.control-file.
+     */
+    @Bean
+    public BandwidthLimiter initBandwidthLimiter(@Value("${throttle.aggregate:0}") final String aggregateRate,
+                                                 @Value("${throttle.per-file:0}") final String perFileRate) {
+        final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(SizeUtils.parseSize(aggregateRate),
+                SizeUtils.parseSize(perFileRate));
+        if (bandwidthLimiter.getAggregateRate() > 0 || bandwidthLimiter.getPerFileRate() > 0) {
+            LOGGER.info("Bandwidth limited to {} bytes/s in total and {} bytes/s per file (0 is unlimited)",
+                    bandwidthLimiter.getAggregateRate(), bandwidthLimiter.getPerFileRate());
         }
-        return new DefaultCryptographyPipeline(cryptography, bufferSize);
+        bandwidthLimiter.registerMBean();
+        return bandwidthLimiter;
     }
 
     @Bean
-    public ITaskExecutorService initTaskExecutorService(final CryptographyPipeline cryptographyPipeline) {
-        return new TaskExecutorService(cryptographyPipeline);
+    @ConditionalOnProperty("throttle.control-file")
+    public BandwidthControlFile initBandwidthControlFile(@Value("${throttle.control-file}") final String controlFile,
+                                                         @Value("${throttle.control-file.interval:10}") final long interval,
+                                                         final BandwidthLimiter bandwidthLimiter) {
+        return new BandwidthControlFile(Paths.get(controlFile), bandwidthLimiter, interval);
     }
 
     @Bean
-    public IFileDiscoveryService initFileDiscoveryService() {
-        return new FileDiscoveryService();
+    public MemoryBudget initMemoryBudget(@Value("${memory.budget:}") final String memoryBudget) {
+        final long limit = StringUtils.hasText(memoryBudget)
+                ? SizeUtils.parseSize(memoryBudget)
+                : ResourcePlanner.getPlan().getBufferBudget();
+        LOGGER.info("Memory budget for buffers is {} bytes", limit);
+        return new MemoryBudget(limit);
     }
 
     @Bean
-    public Cryptography initPGPCryptography(@Value("${pgp.public.key}") String publicKeyPath) throws IOException, PGPException {
-        final Resource resource = new ClassPathResource(publicKeyPath);
+    public OutputSink initOutputSink(@Value("${output.sink:filesystem}") final String outputSink,
+                                     final Environment environment) {
+        switch (outputSink) {
+            case "filesystem":
+                return new FileSystemOutputSink(writeBufferSize);
+            case "s3":
+                return initS3OutputSink(environment);
+            case "sftp":
+                return initSftpOutputSink(environment);
+            default:
+                throw new IllegalArgumentException("Unknown output sink ".concat(outputSink));
+        }
+    }
 
-        if (!resource.exists()) {
-            throw new IOException("Public key file ".concat(publicKeyPath).concat(" not found"));
+    private OutputSink initS3OutputSink(final Environment environment) {
+        final String bucket = environment.getProperty("output.s3.bucket", "");
+        if (!StringUtils.hasText(bucket)) {
+            throw new IllegalArgumentException("output.s3.bucket is required for the s3 output sink");
+        }
+        final S3ClientBuilder s3ClientBuilder = S3Client.builder()
+                .region(Region.of(environment.getProperty("output.s3.region", "us-east-1")))
+                .forcePathStyle(environment.getProperty("output.s3.path-style", Boolean.class, false))
+                .httpClientBuilder(UrlConnectionHttpClient.builder());
+        final String endpoint = environment.getProperty("output.s3.endpoint", "");
+        if (StringUtils.hasText(endpoint)) {
+            s3ClientBuilder.endpointOverride(URI.create(endpoint));
+        }
+        return new S3OutputSink(s3ClientBuilder.build(), bucket,
+                environment.getProperty("output.s3.prefix", ""),
+                environment.getProperty("output.s3.part-size", Integer.class, 16 * 1024 * 1024),
+                environment.getProperty("output.s3.max-buffered-parts", Integer.class, 8),
+                environment.getProperty("output.s3.upload-threads", Integer.class, 4));
+    }
+
+    private OutputSink initSftpOutputSink(final Environment environment) {
+        final String host = environment.getProperty("output.sftp.host", "");
+        final String username = environment.getProperty("output.sftp.username", "");
+        if (!StringUtils.hasText(host) || !StringUtils.hasText(username)) {
+            throw new IllegalArgumentException("output.sftp.host and output.sftp.username are required for the " +
+                    "sftp output sink");
+        }
+        final JSch jsch = new JSch();
+        try {
+            final String privateKey = environment.getProperty("output.sftp.private-key", "");
+            if (StringUtils.hasText(privateKey)) {
+                jsch.addIdentity(privateKey);
+            }
+            jsch.setKnownHosts(environment.getProperty("output.sftp.known-hosts",
+                    System.getProperty("user.home").concat("/.ssh/known_hosts")));
+        } catch (JSchException e) {
+            throw new IllegalArgumentException("Invalid SFTP key configuration - ".concat(e.getMessage()), e);
         }
+        final Properties sessionConfig = new Properties();
+        sessionConfig.put("StrictHostKeyChecking",
+                environment.getProperty("output.sftp.strict-host-key-checking", Boolean.class, true) ? "yes" : "no");
+        final SftpSessionPool sessionPool = new SftpSessionPool(jsch, host,
+                environment.getProperty("output.sftp.port", Integer.class, 22), username,
+                environment.getProperty("output.sftp.password", ""), sessionConfig,
+                environment.getProperty("output.sftp.max-sessions", Integer.class, 4),
+                environment.getProperty("output.sftp.connect-timeout", Integer.class, 30000));
+        return new SftpOutputSink(sessionPool, environment.getProperty("output.sftp.remote-directory", ""),
+                environment.getProperty("output.sftp.resume-buffer", Integer.class, 8 * 1024 * 1024),
+                environment.getProperty("output.sftp.retries", Integer.class, 3));
+    }
+
+    @Bean
+    public ITaskExecutorService initTaskExecutorService(final CryptographyPipeline cryptographyPipeline,
+                                                        final ObjectProvider<FingerprintIndex> fingerprintIndex,
+                                                        final ObjectProvider<RunReportListener> runReportListener) {
+        final List<TaskListener> taskListeners = new ArrayList<>();
+        fingerprintIndex.ifAvailable(index -> taskListeners.add(new FingerprintIndexListener(index)));
+        runReportListener.ifAvailable(taskListeners::add);
+        return new TaskExecutorService(cryptographyPipeline,
+                TaskListener.of(taskListeners.toArray(new TaskListener[0])));
+    }
+
+    @Bean
+    @ConditionalOnProperty("report.path")
+    public RunReportListener initRunReportListener(@Value("${report.path}") final String reportPath) {
+        return new RunReportListener(Paths.get(reportPath));
+    }
 
+    /**
+     * pgp.private.key is the secret keyring, loaded like pgp.public.key, which decrypts the files to transcode or
+     * rewrap.
+     */
+    @Bean
+    @ConditionalOnProperty("pgp.private.key")
+    public PGPDecryptor initPGPDecryptor(@Value("${pgp.private.key}") final String privateKeyPath,
+                                         @Value("${pgp.private.key.passphrase:}") final String passphrase)
+            throws IOException, PGPException {
+        final Resource resource = new DefaultResourceLoader().getResource(privateKeyPath);
+        if (!resource.exists()) {
+            throw new IOException("Private key file ".concat(privateKeyPath).concat(" not found"));
+        }
         try (final InputStream inputStream = resource.getInputStream()) {
-            return new PGPCryptography(inputStream, bufferSize);
+            return new PGPDecryptor(inputStream, passphrase.toCharArray());
+        }
+    }
+
+    @Bean
+    @ConditionalOnProperty("pgp.private.key")
+    public TranscodeService initTranscodeService(final PGPDecryptor pgpDecryptor,
+                                                 final CryptographyPipeline cryptographyPipeline,
+                                                 final OutputSink outputSink,
+                                                 final IFileDiscoveryService fileDiscoveryService,
+                                                 final ObjectProvider<RunReportListener> runReportListener) {
+        final TaskListener reportListener = runReportListener.getIfAvailable();
+        return new TranscodeService(fileDiscoveryService,
+                new TranscodingCryptographyPipeline(pgpDecryptor, cryptographyPipeline, outputSink),
+                reportListener != null ? reportListener : TaskListener.NONE);
+    }
+
+    /**
+     * The files are rewrapped for the keys of pgp.public.key, which replace all their current recipients.
+     */
+    @Bean
+    @ConditionalOnProperty("pgp.private.key")
+    public RewrapService initRewrapService(final PGPDecryptor pgpDecryptor,
+                                           @Value("${pgp.public.key}") final String publicKeyPath,
+                                           final IFileDiscoveryService fileDiscoveryService,
+                                           final ObjectProvider<RunReportListener> runReportListener)
+            throws IOException, PGPException {
+        final TaskListener reportListener = runReportListener.getIfAvailable();
+        return new RewrapService(fileDiscoveryService,
+                new RewrappingCryptographyPipeline(new PGPRewrapper(pgpDecryptor, loadPGPPublicKeys(publicKeyPath))),
+                reportListener != null ? reportListener : TaskListener.NONE);
+    }
+
+    /**
+     * bundle.max-size takes K, M or G suffixes.
+     */
+    @Bean
+    public BundleService initBundleService(final IFileDiscoveryService fileDiscoveryService,
+                                           final Cryptography cryptography,
+                                           final OutputSink outputSink,
+                                           final MemoryBudget memoryBudget,
+                                           final BandwidthLimiter bandwidthLimiter,
+                                           final ObjectProvider<RunReportListener> runReportListener,
+                                           @Value("${bundle.max-files:100000}") final int maxFiles,
+                                           @Value("${bundle.max-size:50G}") final String maxSize) {
+        final TaskListener reportListener = runReportListener.getIfAvailable();
+        return new BundleService(fileDiscoveryService, cryptography, outputSink, maxFiles,
+                SizeUtils.parseSize(maxSize), memoryBudget, bandwidthLimiter,
+                reportListener != null ? reportListener : TaskListener.NONE);
+    }
+
+    @Bean
+    @ConditionalOnProperty("incremental.index")
+    public FingerprintIndex initFingerprintIndex(@Value("${incremental.index}") final String indexPath)
+            throws IOException {
+        return FingerprintIndex.open(Paths.get(indexPath));
+    }
+
+    /**
+     * discovery.include and discovery.exclude are comma separated globs, the sizes take K, M or G suffixes and the
+     * ages are durations such as 10m or 7d, in seconds without a unit.
+     */
+    @Bean
+    public IFileDiscoveryService initFileDiscoveryService(final ObjectProvider<FingerprintIndex> fingerprintIndex,
+                                                          final Environment environment) {
+        final DiscoveryFilter discoveryFilter = new DiscoveryFilter(
+                Arrays.asList(StringUtils.commaDelimitedListToStringArray(environment.getProperty("discovery.include", ""))),
+                Arrays.asList(StringUtils.commaDelimitedListToStringArray(environment.getProperty("discovery.exclude", ""))),
+                parseOptionalSize(environment.getProperty("discovery.min-size")),
+                parseOptionalSize(environment.getProperty("discovery.max-size")),
+                parseOptionalDuration(environment.getProperty("discovery.min-age")),
+                parseOptionalDuration(environment.getProperty("discovery.max-age")));
+        return new FileDiscoveryService(fingerprintIndex.getIfAvailable(), discoveryFilter);
+    }
+
+    private static long parseOptionalSize(final String size) {
+        return StringUtils.hasText(size) ? SizeUtils.parseSize(size) : -1;
+    }
+
+    private static Duration parseOptionalDuration(final String duration) {
+        return StringUtils.hasText(duration) ? DurationStyle.detectAndParse(duration.trim(), ChronoUnit.SECONDS) : null;
+    }
+
+    @Bean
+    public Cryptography initCryptography(@Value("${cryptography.format:pgp}") final String format,
+                                         final Environment environment) throws IOException, PGPException {
+        switch (format) {
+            case "pgp":
+                return initPGPCryptography(environment.getRequiredProperty("pgp.public.key"), environment);
+            case "crypt4gh":
+                return initCrypt4GHCryptography(environment);
+            default:
+                throw new IllegalArgumentException("Unknown cryptography format ".concat(format));
+        }
+    }
+
+    /**
+     * pgp.public.key is a comma separated list of keyrings, e.g. "pubring.gpg,file:/keys/escrow.gpg". Plain names
+     * are loaded from the classpath. The files are encrypted once for the encryption keys of all key rings.
+     * pgp.aead=true switches to AEAD encrypted data, whose chunks are encrypted on a pool shared by all workers.
+     */
+    private Cryptography initPGPCryptography(final String publicKeyPath, final Environment environment)
+            throws IOException, PGPException {
+        checkPacketBufferSize("pgp.packet.buffersize", packetBufferSize);
+        checkPacketBufferSize("pgp.literal.buffersize", literalBufferSize);
+
+        final List<PGPPublicKey> publicKeys = loadPGPPublicKeys(publicKeyPath);
+        LOGGER.info("Encrypting for {} recipient key(s) {}", publicKeys.size(), publicKeys.stream()
+                .map(PGPPublicKey::getKeyID).map(Long::toHexString).map(keyId -> keyId.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toList()));
+        if (environment.getProperty("pgp.aead", Boolean.class, false)) {
+            final int threads = environment.getProperty("pgp.aead.threads", Integer.class,
+                    ResourcePlanner.getPlan().getCpus());
+            final int chunkSize = environment.getProperty("pgp.aead.chunk-size", Integer.class, 256 * 1024);
+            LOGGER.info("Encrypting AEAD chunks of {} bytes with {} chunk thread(s)", chunkSize, threads);
+            return new PGPAeadCryptography(publicKeys, packetBufferSize, literalBufferSize, chunkSize,
+                    newDaemonThreadPool(threads, "pgp-aead-chunk"),
+                    environment.getProperty("pgp.aead.chunks-in-flight", Integer.class, 2 * Math.max(threads, 1)));
+        }
+        return new PGPCryptography(publicKeys, packetBufferSize, literalBufferSize);
+    }
+
+    private static List<PGPPublicKey> loadPGPPublicKeys(final String publicKeyPath) throws IOException, PGPException {
+        final ResourceLoader resourceLoader = new DefaultResourceLoader();
+        final Map<Long, PGPPublicKey> publicKeys = new LinkedHashMap<>();
+        for (final String keyringPath : StringUtils.commaDelimitedListToStringArray(publicKeyPath)) {
+            final Resource resource = resourceLoader.getResource(keyringPath.trim());
+
+            if (!resource.exists()) {
+                throw new IOException("Public key file ".concat(keyringPath.trim()).concat(" not found"));
+            }
+
+            try (final InputStream inputStream = resource.getInputStream()) {
+                for (final PGPPublicKey publicKey : PGPUtils.readPublicKeys(inputStream)) {
+                    publicKeys.putIfAbsent(publicKey.getKeyID(), publicKey);
+                }
+            }
+        }
+        return new ArrayList<>(publicKeys.values());
+    }
+
+    /**
+     * crypt4gh.public.key is a comma separated list of Crypt4GH public key files, loaded like pgp.public.key.
+     * The segments are encrypted on a pool shared by all workers.
+     */
+    private Cryptography initCrypt4GHCryptography(final Environment environment) throws IOException {
+        final ResourceLoader resourceLoader = new DefaultResourceLoader();
+        final List<byte[]> publicKeys = new ArrayList<>();
+        for (final String publicKeyPath : StringUtils.commaDelimitedListToStringArray(
+                environment.getRequiredProperty("crypt4gh.public.key"))) {
+            final Resource resource = resourceLoader.getResource(publicKeyPath.trim());
+
+            if (!resource.exists()) {
+                throw new IOException("Public key file ".concat(publicKeyPath.trim()).concat(" not found"));
+            }
+
+            try (final InputStream inputStream = resource.getInputStream()) {
+                publicKeys.add(Crypt4GHKeys.readPublicKey(inputStream));
+            }
+        }
+
+        final int threads = environment.getProperty("crypt4gh.threads", Integer.class,
+                ResourcePlanner.getPlan().getCpus());
+        LOGGER.info("Encrypting to Crypt4GH for {} recipient key(s) with {} segment thread(s)", publicKeys.size(),
+                threads);
+        return new Crypt4GHCryptography(publicKeys, newDaemonThreadPool(threads, "crypt4gh-segment"),
+                environment.getProperty("crypt4gh.segments-in-flight", Integer.class, 2 * Math.max(threads, 1)));
+    }
+
+    /**
+     * @return a pool of daemon threads, or null for a single thread so the work is done by the calling thread
+     */
+    private static ExecutorService newDaemonThreadPool(final int threads, final String name) {
+        return threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    private static void checkPacketBufferSize(final String property, final int size) {
+        if (size <= 0 || ((size & (size - 1)) != 0)) {
+            throw new IllegalArgumentException("Buffer size for encryption should be power of 2 - "
+                    .concat(property).concat("=").concat(String.valueOf(size)));
         }
     }
 }
@@ -17,8 +17,14 @@
  */
 package uk.ac.ebi.ega.egacryptor.constant;
 
+/**
+ * Extensions of the files written by the tool, and of other files which are never encrypted. Besides the encrypted
+ * files and checksums these are the temporary files of unfinished outputs and the indexes of bundles, which discovery
+ * has to skip when the output folder is inside an input folder.
+ */
 public enum FileExtensionType {
-    GPG(".gpg"), MD5(".md5"), JAR(".jar");
+    GPG(".gpg"), C4GH(".c4gh"), MD5(".md5"), JAR(".jar"), PART(".part"), REWRAP(".rewrap"),
+    TAR_INDEX(".tar.index.tsv");
 
     private final String fileExtension;
 
@@ -0,0 +1,505 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.coordination;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the files of one run between several ega-cryptor processes, e.g. Slurm jobs on different nodes, which are
+ * started with the same inputs and the same work directory on a shared file system. No coordinator process is needed.
+ * <p>
+ * A process claims a file by creating its lease file with an exclusive create, which succeeds for one process only.
+ * The modification time of every held lease is refreshed by a heartbeat. A lease whose modification time has not
+ * changed for the lease timeout, measured on the clock of the observing process so the clocks of the nodes do not
+ * have to agree, belongs to a process which died and is taken over. A finished lease is renamed to a done marker, so
+ * a restarted run skips every file finished before. A failed file gets a failed marker with the error and is not
+ * retried until the marker is deleted.
+ * <p>
+ * A file only gets a done marker once the pipeline has written its output files. The sinks write under a temporary
+ * name and commit on success, so a process which died leaves no output under the final names and the file is simply
+ * processed again by the process taking over its lease. A file skipped because its output files already exist,
+ * e.g. from a run without coordination, gets a failed marker instead, as no process of this run can vouch for them.
+ * <p>
+ * A process which stalled for longer than the lease timeout, e.g. in a long GC pause or on a hanging mount, may find
+ * its lease taken over once it continues. The heartbeat and the finish check the owner written in the lease file, so
+ * such a process never refreshes or finishes the lease of the process which took over. It cancels the file instead,
+ * which aborts the output written so far, and leaves the file to the new owner.
+ * <p>
+ * Every process claims the files largest first, so the large files are spread over the processes early and the
+ * small files fill the gaps at the end. A process which runs out of claimable files keeps looking at the files
+ * leased by other processes until they are finished, taking over the expired ones.
+ */
+public class LeaseCoordinator implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    static final String LEASE_EXTENSION = ".lease";
+    static final String DONE_EXTENSION = ".done";
+    static final String FAILED_EXTENSION = ".failed";
+    private static final String RECLAIM_EXTENSION = ".reclaim";
+
+    private static final String OUTPUT_EXISTS_MESSAGE = "Output files already exist but no coordinated process "
+            + "finished them. Check or delete them and this marker to process the file again";
+
+    private final ITaskExecutorService taskExecutorService;
+    private final Path workDirectory;
+    private final long leaseTimeoutNanos;
+    private final long heartbeatIntervalMillis;
+    private final String owner;
+
+    private final Set<Path> heldLeases = ConcurrentHashMap.newKeySet();
+    private final Set<Path> processingLeases = ConcurrentHashMap.newKeySet();
+    private final Map<Path, Future<?>> runningTasks = new ConcurrentHashMap<>();
+    private final Map<Path, Observation> observations = new HashMap<>();
+    private final Deque<FileToProcess> candidates = new ArrayDeque<>();
+    private final List<FileToProcess> leasedByOthers = new ArrayList<>();
+    private final AtomicLong processedFiles = new AtomicLong();
+    private final ScheduledExecutorService heartbeat;
+    private boolean closed;
+
+    /**
+     * @param workDirectory           Directory on a file system shared by all processes of the run.
+     * @param leaseTimeoutMillis      Time after which a lease which has not been refreshed is taken over.
+     * @param heartbeatIntervalMillis Time between two refreshes of the held leases, well below the lease timeout.
+     */
+    public LeaseCoordinator(final ITaskExecutorService taskExecutorService, final Path workDirectory,
+                            final long leaseTimeoutMillis, final long heartbeatIntervalMillis) throws IOException {
+        if (heartbeatIntervalMillis <= 0 || heartbeatIntervalMillis >= leaseTimeoutMillis) {
+            throw new IllegalArgumentException("Heartbeat interval should be positive and below the lease timeout");
+        }
+        this.taskExecutorService = taskExecutorService;
+        this.workDirectory = Files.createDirectories(workDirectory);
+        this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName().concat(":")
+                .concat(UUID.randomUUID().toString().substring(0, 8));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::refreshLeases, heartbeatIntervalMillis, heartbeatIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        LOGGER.info("Coordinating with other processes through \"{}\" as {}", workDirectory, owner);
+    }
+
+    /**
+     * Processes the files claimed by this process until every file of the list is finished by one of the processes.
+     *
+     * @param fileToProcessList List of files shared by all processes. Every process must pass the same list.
+     * @param noOfThreads       No of threads to process the claimed files.
+     * @return the number of files of the list which failed in any of the processes.
+     */
+    public long execute(final List<FileToProcess> fileToProcessList, final int noOfThreads)
+            throws IOException, InterruptedException {
+        final Map<FileToProcess, Long> sizes = new HashMap<>();
+        for (final FileToProcess fileToProcess : fileToProcessList) {
+            sizes.put(fileToProcess, sizeOf(fileToProcess.getFileToEncryptPath()));
+        }
+        final List<FileToProcess> largestFirst = new ArrayList<>(fileToProcessList);
+        largestFirst.sort(Comparator.comparing((FileToProcess fileToProcess) -> sizes.get(fileToProcess)).reversed());
+        synchronized (this) {
+            candidates.clear();
+            candidates.addAll(largestFirst);
+            leasedByOthers.clear();
+        }
+
+        final int noOfThreadsToCreate = Math.max(1, Math.min(fileToProcessList.size(), noOfThreads));
+        final ExecutorService executorService = Executors.newFixedThreadPool(noOfThreadsToCreate);
+        final ExecutorService processingPool = Executors.newFixedThreadPool(noOfThreadsToCreate);
+        try {
+            final List<Callable<Void>> workers = Collections.nCopies(noOfThreadsToCreate, () -> {
+                work(processingPool);
+                return null;
+            });
+            for (final Future<Void> future : executorService.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Error while claiming files - ".concat(String.valueOf(cause.getMessage())), cause);
+        } finally {
+            executorService.shutdownNow();
+            processingPool.shutdownNow();
+        }
+
+        long failedFiles = 0;
+        for (final FileToProcess fileToProcess : fileToProcessList) {
+            if (Files.exists(markerOf(fileToProcess, FAILED_EXTENSION))) {
+                failedFiles++;
+            }
+        }
+        LOGGER.info("{} of {} file(s) were processed by this process, {} file(s) failed in all processes",
+                processedFiles.get(), fileToProcessList.size(), failedFiles);
+        return failedFiles;
+    }
+
+    private void work(final ExecutorService processingPool) throws IOException, InterruptedException {
+        FileToProcess fileToProcess;
+        while ((fileToProcess = claimNext()) != null) {
+            final Path lease = markerOf(fileToProcess, LEASE_EXTENSION);
+            try {
+                final String error = process(fileToProcess, lease, processingPool);
+                if (!isOwned(lease)) {
+                    heldLeases.remove(lease);
+                    LOGGER.error("Lease of {} was taken over by another process while it was processed, leaving the "
+                            + "file to it", fileToProcess.getFileToEncryptPath());
+                    leaveToOthers(fileToProcess);
+                    continue;
+                }
+                if (error == null) {
+                    finish(lease, markerOf(fileToProcess, DONE_EXTENSION), owner);
+                } else {
+                    finish(lease, markerOf(fileToProcess, FAILED_EXTENSION), owner.concat("\n").concat(error));
+                }
+            } finally {
+                processingLeases.remove(lease);
+            }
+            processedFiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return null once the output files of the file are written, otherwise the reason why the file failed.
+     */
+    private String process(final FileToProcess fileToProcess, final Path lease, final ExecutorService processingPool)
+            throws InterruptedException {
+        final AtomicBoolean written = new AtomicBoolean();
+        final Future<String> task = taskExecutorService.submit(fileToProcess, processingPool, new TaskListener() {
+            @Override
+            public void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+                written.set(encryptionResult != null);
+            }
+        });
+        runningTasks.put(lease, task);
+        try {
+            task.get();
+        } catch (CancellationException e) {
+            return "Lease was taken over by another process";
+        } catch (ExecutionException e) {
+            LOGGER.error("Error while processing {} - {}", fileToProcess.getFileToEncryptPath(),
+                    e.getCause().getMessage());
+            return String.valueOf(e.getCause().getMessage());
+        } finally {
+            runningTasks.remove(lease);
+        }
+        if (!written.get()) {
+            LOGGER.error("Error while processing {} - {}", fileToProcess.getFileToEncryptPath(),
+                    OUTPUT_EXISTS_MESSAGE);
+            return OUTPUT_EXISTS_MESSAGE;
+        }
+        return null;
+    }
+
+    /**
+     * @return the next file claimed by this process, or null once every file is finished or the coordinator is
+     * closed.
+     */
+    synchronized FileToProcess claimNext() throws IOException, InterruptedException {
+        while (!closed) {
+            while (!candidates.isEmpty()) {
+                final FileToProcess fileToProcess = candidates.poll();
+                final Claim claim = tryClaim(fileToProcess);
+                if (claim == Claim.CLAIMED) {
+                    processingLeases.add(markerOf(fileToProcess, LEASE_EXTENSION));
+                    return fileToProcess;
+                }
+                if (claim == Claim.LEASED) {
+                    leasedByOthers.add(fileToProcess);
+                }
+            }
+            if (leasedByOthers.isEmpty()) {
+                return null;
+            }
+            LOGGER.debug("Waiting for {} file(s) leased by other processes", leasedByOthers.size());
+            wait(heartbeatIntervalMillis);
+            candidates.addAll(leasedByOthers);
+            leasedByOthers.clear();
+        }
+        return null;
+    }
+
+    /**
+     * Watches a file whose lease was taken over like any other file leased by another process, so it is taken over
+     * again if the new owner dies as well.
+     */
+    private synchronized void leaveToOthers(final FileToProcess fileToProcess) {
+        leasedByOthers.add(fileToProcess);
+    }
+
+    private Claim tryClaim(final FileToProcess fileToProcess) throws IOException {
+        final Path lease = markerOf(fileToProcess, LEASE_EXTENSION);
+        if (isFinished(fileToProcess)) {
+            observations.remove(lease);
+            return Claim.FINISHED;
+        }
+        Files.createDirectories(lease.getParent());
+        if (!createLease(lease, fileToProcess)) {
+            if (!isExpired(lease)) {
+                return Claim.LEASED;
+            }
+            return reclaim(lease, fileToProcess);
+        }
+        // The file may have been finished by another process between the check and the create
+        if (isFinished(fileToProcess)) {
+            release(lease);
+            return Claim.FINISHED;
+        }
+        return Claim.CLAIMED;
+    }
+
+    /**
+     * Takes over an expired lease. The reclaim file makes sure that only one process deletes and recreates the
+     * lease, and the lease is checked once more while holding it.
+     */
+    private Claim reclaim(final Path lease, final FileToProcess fileToProcess) throws IOException {
+        final Path reclaim = lease.resolveSibling(lease.getFileName().toString().concat(RECLAIM_EXTENSION));
+        try {
+            Files.write(reclaim, owner.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            // Left behind by a process which died while reclaiming
+            if (isExpired(reclaim)) {
+                Files.deleteIfExists(reclaim);
+            }
+            return Claim.LEASED;
+        }
+        try {
+            if (!isExpired(lease)) {
+                return Claim.LEASED;
+            }
+            final String previousOwner = readOwner(lease);
+            Files.deleteIfExists(lease);
+            observations.remove(lease);
+            if (isFinished(fileToProcess) || !createLease(lease, fileToProcess)) {
+                return Claim.LEASED;
+            }
+            LOGGER.warn("Took over the expired lease of {} held by {}", fileToProcess.getFileToEncryptPath(),
+                    previousOwner);
+            return Claim.CLAIMED;
+        } finally {
+            Files.deleteIfExists(reclaim);
+            observations.remove(reclaim);
+        }
+    }
+
+    private boolean createLease(final Path lease, final FileToProcess fileToProcess) throws IOException {
+        try {
+            Files.write(lease, owner.concat("\n").concat(fileToProcess.getFileToEncryptPath().toString())
+                    .getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        heldLeases.add(lease);
+        return true;
+    }
+
+    /**
+     * A lease is expired once its modification time has not changed for the lease timeout since this process first
+     * saw it.
+     */
+    private boolean isExpired(final Path file) throws IOException {
+        final long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            observations.remove(file);
+            return false;
+        }
+        final long now = System.nanoTime();
+        final Observation observation = observations.get(file);
+        if (observation == null || observation.lastModified != lastModified) {
+            observations.put(file, new Observation(lastModified, now));
+            return false;
+        }
+        return now - observation.firstSeen >= leaseTimeoutNanos;
+    }
+
+    private boolean isFinished(final FileToProcess fileToProcess) {
+        return Files.exists(markerOf(fileToProcess, DONE_EXTENSION))
+                || Files.exists(markerOf(fileToProcess, FAILED_EXTENSION));
+    }
+
+    private void finish(final Path lease, final Path marker, final String content) throws IOException {
+        heldLeases.remove(lease);
+        try {
+            Files.move(lease, marker, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            LOGGER.error("Lease {} disappeared while it was held, leaving the file to the next run", lease);
+            return;
+        }
+        Files.write(marker, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void release(final Path lease) throws IOException {
+        heldLeases.remove(lease);
+        Files.deleteIfExists(lease);
+    }
+
+    private void refreshLeases() {
+        final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (final Path lease : heldLeases) {
+            if (!isOwned(lease)) {
+                // The lease may have been finished since the loop started
+                if (heldLeases.remove(lease)) {
+                    LOGGER.error("Lease {} was taken over by another process, cancelling its file", lease);
+                    final Future<?> task = runningTasks.get(lease);
+                    if (task != null) {
+                        task.cancel(true);
+                    }
+                }
+                continue;
+            }
+            try {
+                Files.setLastModifiedTime(lease, now);
+            } catch (IOException e) {
+                LOGGER.error("Error while refreshing lease {} - {}", lease, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return false once the lease is gone or names another owner. A lease which can not be read at the moment, e.g.
+     * during a hiccup of the shared file system, is still treated as owned and checked again by the next heartbeat.
+     */
+    private boolean isOwned(final Path lease) {
+        try {
+            final List<String> lines = Files.readAllLines(lease, StandardCharsets.UTF_8);
+            return !lines.isEmpty() && owner.equals(lines.get(0));
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Error while checking lease {} - {}", lease, e.getMessage());
+            return true;
+        }
+    }
+
+    private static String readOwner(final Path lease) {
+        try {
+            final List<String> lines = Files.readAllLines(lease, StandardCharsets.UTF_8);
+            return lines.isEmpty() ? "an unknown process" : lines.get(0);
+        } catch (IOException e) {
+            return "an unknown process";
+        }
+    }
+
+    /**
+     * Marker files are spread over 256 sub folders named after the first byte of the hash of the input and output
+     * path, as a single folder with millions of entries is slow on most shared file systems.
+     */
+    Path markerOf(final FileToProcess fileToProcess, final String extension) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(keyOf(fileToProcess.getFileToEncryptPath()));
+        messageDigest.update((byte) 0);
+        messageDigest.update(keyOf(fileToProcess.getOutputFilePath()));
+        final String key = Hash.normalize(messageDigest);
+        return workDirectory.resolve(key.substring(0, 2)).resolve(key.concat(extension));
+    }
+
+    private static byte[] keyOf(final Path path) {
+        return path == null
+                ? new byte[0]
+                : path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long sizeOf(final Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stops claiming files and stops the heartbeat. The leases of files which are not processed are released, so
+     * other processes can take them over without waiting for the lease timeout. The leases of files still being
+     * processed are kept, as their output files may still be committed, and expire after the lease timeout unless
+     * the file is finished first.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        heartbeat.shutdownNow();
+        for (final Path lease : heldLeases) {
+            if (!processingLeases.contains(lease)) {
+                release(lease);
+            }
+        }
+    }
+
+    private enum Claim {
+        CLAIMED,
+        LEASED,
+        FINISHED
+    }
+
+    private static class Observation {
+        private final long lastModified;
+        private final long firstSeen;
+
+        private Observation(final long lastModified, final long firstSeen) {
+            this.lastModified = lastModified;
+            this.firstSeen = firstSeen;
+        }
+    }
+}
@@ -17,7 +17,9 @@
  */
 package uk.ac.ebi.ega.egacryptor.cryptography;
 
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
 import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
 
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,5 +28,26 @@ public interface Cryptography {
 
     OutputStream encrypt(OutputStream fileOutputStream) throws CryptographyException;
 
+    /**
+     * @param stageTimings timings the layers of the returned stream add their time to, or null to not time them
+     */
+    default OutputStream encrypt(OutputStream fileOutputStream, StageTimings stageTimings) throws CryptographyException {
+        return encrypt(fileOutputStream);
+    }
+
     InputStream decrypt(InputStream fileToDecryptInputStream, char[] password) throws CryptographyException;
+
+    /**
+     * @return the memory, in bytes, held by the buffers of one stream returned by {@link #encrypt(OutputStream)}
+     */
+    default long getBufferMemory() {
+        return 0;
+    }
+
+    /**
+     * @return the extension of the encrypted files
+     */
+    default FileExtensionType getFileExtensionType() {
+        return FileExtensionType.GPG;
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh;
+
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.exception.crypt4gh.Crypt4GHCryptographyException;
+import uk.ac.ebi.ega.egacryptor.stream.timing.Stage;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+import uk.ac.ebi.ega.egacryptor.stream.timing.TimedOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Encrypts to the GA4GH Crypt4GH format: a header with one X25519 packet per recipient holding the data key, followed
+ * by the data in independently ChaCha20-Poly1305 encrypted segments of 64 KiB. The segments of one file are encrypted
+ * in parallel on the segment executor, so a single large file can use several cores.
+ */
+public class Crypt4GHCryptography implements Cryptography, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Crypt4GHCryptography.class);
+
+    private static final byte[] MAGIC = "crypt4gh".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int X25519_CHACHA20_IETF_POLY1305 = 0;
+    private static final int DATA_ENCRYPTION_PARAMETERS = 0;
+    private static final int CHACHA20_IETF_POLY1305 = 0;
+
+    private final List<byte[]> recipientPublicKeys;
+    private final ExecutorService segmentExecutor;
+    private final int segmentsInFlight;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    /**
+     * @param recipientPublicKeys X25519 public keys of all recipients
+     * @param segmentExecutor     executor encrypting the segments, shared by all files, or null to encrypt them in
+     *                            the thread writing the file
+     * @param segmentsInFlight    segments of one file which may be encrypted or waiting to be written at the same time
+     */
+    public Crypt4GHCryptography(final List<byte[]> recipientPublicKeys, final ExecutorService segmentExecutor,
+                                final int segmentsInFlight) {
+        if (recipientPublicKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient key is required");
+        }
+        if (segmentsInFlight < 1) {
+            throw new IllegalArgumentException("Crypt4GH segments in flight should be at least 1");
+        }
+        this.recipientPublicKeys = new ArrayList<>(recipientPublicKeys);
+        this.segmentExecutor = segmentExecutor;
+        this.segmentsInFlight = segmentsInFlight;
+    }
+
+    @Override
+    public OutputStream encrypt(final OutputStream fileOutputStream) throws CryptographyException {
+        return encrypt(fileOutputStream, null);
+    }
+
+    @Override
+    public OutputStream encrypt(final OutputStream fileOutputStream, final StageTimings stageTimings)
+            throws CryptographyException {
+        final byte[] dataKey = new byte[Crypt4GHKeys.KEY_SIZE];
+        secureRandom.nextBytes(dataKey);
+        try {
+            fileOutputStream.write(buildHeader(dataKey));
+        } catch (IOException e) {
+            LOGGER.error("Error in encryption - {}", e.getMessage());
+            throw new Crypt4GHCryptographyException(e.getMessage(), e);
+        }
+        return TimedOutputStream.wrap(new Crypt4GHOutputStream(fileOutputStream, dataKey, secureRandom,
+                segmentExecutor, segmentsInFlight), Stage.ENCRYPT, stageTimings);
+    }
+
+    private byte[] buildHeader(final byte[] dataKey) {
+        final X25519PrivateKeyParameters writerPrivateKey = new X25519PrivateKeyParameters(secureRandom);
+        final byte[] writerPublicKey = writerPrivateKey.generatePublicKey().getEncoded();
+
+        final ByteBuffer payload = ByteBuffer.allocate(8 + Crypt4GHKeys.KEY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(DATA_ENCRYPTION_PARAMETERS).putInt(CHACHA20_IETF_POLY1305).put(dataKey);
+
+        final int packetLength = 8 + Crypt4GHKeys.KEY_SIZE + Crypt4GHOutputStream.NONCE_SIZE + payload.capacity()
+                + Crypt4GHOutputStream.MAC_SIZE;
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 8 + packetLength * recipientPublicKeys.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(recipientPublicKeys.size());
+        for (final byte[] readerPublicKey : recipientPublicKeys) {
+            final byte[] sharedKey = Crypt4GHKeys.deriveSharedKey(writerPrivateKey,
+                    new X25519PublicKeyParameters(readerPublicKey, 0), readerPublicKey, writerPublicKey);
+            final byte[] nonce = new byte[Crypt4GHOutputStream.NONCE_SIZE];
+            secureRandom.nextBytes(nonce);
+            header.putInt(packetLength).putInt(X25519_CHACHA20_IETF_POLY1305).put(writerPublicKey)
+                    .put(Crypt4GHOutputStream.seal(sharedKey, nonce, payload.array(), payload.capacity()));
+        }
+        return header.array();
+    }
+
+    /**
+     * Segments in flight hold their plain and their encrypted data, plus the segment being filled.
+     */
+    @Override
+    public long getBufferMemory() {
+        return (long) Crypt4GHOutputStream.SEGMENT_SIZE * (2L * segmentsInFlight + 1);
+    }
+
+    @Override
+    public FileExtensionType getFileExtensionType() {
+        return FileExtensionType.C4GH;
+    }
+
+    @Override
+    public InputStream decrypt(final InputStream fileToDecryptInputStream, final char[] password) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (segmentExecutor != null) {
+            segmentExecutor.shutdown();
+        }
+    }
+}
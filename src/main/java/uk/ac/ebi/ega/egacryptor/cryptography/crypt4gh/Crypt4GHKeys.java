@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh;
+
+import org.bouncycastle.crypto.agreement.X25519Agreement;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class Crypt4GHKeys {
+
+    public static final int KEY_SIZE = 32;
+
+    private Crypt4GHKeys() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    /**
+     * Reads an X25519 public key in the format written by crypt4gh-keygen:
+     * <pre>
+     * -----BEGIN CRYPT4GH PUBLIC KEY-----
+     * base64 encoded 32 bytes
+     * -----END CRYPT4GH PUBLIC KEY-----
+     * </pre>
+     */
+    public static byte[] readPublicKey(final InputStream inputStream) throws IOException {
+        final StringBuilder encodedKey = new StringBuilder();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("-----")) {
+                    encodedKey.append(line.trim());
+                }
+            }
+        }
+        final byte[] publicKey;
+        try {
+            publicKey = Base64.getDecoder().decode(encodedKey.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Crypt4GH public key is not base64 encoded", e);
+        }
+        if (publicKey.length != KEY_SIZE) {
+            throw new IOException("Crypt4GH public key should be " + KEY_SIZE + " bytes but is " + publicKey.length);
+        }
+        return publicKey;
+    }
+
+    /**
+     * Derives the key of a header packet as libsodium's crypto_kx does: the first half of
+     * Blake2b-512(X25519(private, public) || reader public key || writer public key).
+     */
+    static byte[] deriveSharedKey(final X25519PrivateKeyParameters privateKey, final X25519PublicKeyParameters publicKey,
+                                  final byte[] readerPublicKey, final byte[] writerPublicKey) {
+        final byte[] dhKey = new byte[KEY_SIZE];
+        final X25519Agreement agreement = new X25519Agreement();
+        agreement.init(privateKey);
+        agreement.calculateAgreement(publicKey, dhKey, 0);
+
+        final Blake2bDigest blake2b = new Blake2bDigest(512);
+        blake2b.update(dhKey, 0, dhKey.length);
+        blake2b.update(readerPublicKey, 0, readerPublicKey.length);
+        blake2b.update(writerPublicKey, 0, writerPublicKey.length);
+        final byte[] keys = new byte[blake2b.getDigestSize()];
+        blake2b.doFinal(keys, 0);
+        return Arrays.copyOf(keys, KEY_SIZE);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.OrderedBlockOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Cuts the written data into segments of 64 KiB, which Crypt4GH encrypts independently, each with its own random
+ * nonce. The segments are encrypted and written in order by an {@link OrderedBlockOutputStream}.
+ * <p>
+ * Closing the stream writes the last, shorter segment but does not close the underlying stream.
+ */
+class Crypt4GHOutputStream extends OutputStream {
+
+    static final int SEGMENT_SIZE = 64 * 1024;
+    static final int NONCE_SIZE = 12;
+    static final int MAC_SIZE = 16;
+
+    private static final ThreadLocal<ChaCha20Poly1305> CIPHER = ThreadLocal.withInitial(ChaCha20Poly1305::new);
+
+    private final OrderedBlockOutputStream segments;
+
+    Crypt4GHOutputStream(final OutputStream outputStream, final byte[] dataKey, final SecureRandom secureRandom,
+                         final ExecutorService segmentExecutor, final int segmentsInFlight) {
+        this.segments = new OrderedBlockOutputStream(outputStream, SEGMENT_SIZE, segmentExecutor, segmentsInFlight,
+                (plainText, length, index) -> {
+                    final byte[] nonce = new byte[NONCE_SIZE];
+                    secureRandom.nextBytes(nonce);
+                    return seal(dataKey, nonce, plainText, length);
+                }, "a Crypt4GH segment");
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        segments.write(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+        segments.write(bytes, off, len);
+    }
+
+    /**
+     * @return the nonce, the encrypted data and the MAC of one segment
+     */
+    static byte[] seal(final byte[] key, final byte[] nonce, final byte[] plainText, final int length) {
+        final byte[] sealed = new byte[NONCE_SIZE + length + MAC_SIZE];
+        System.arraycopy(nonce, 0, sealed, 0, NONCE_SIZE);
+        final ChaCha20Poly1305 cipher = CIPHER.get();
+        cipher.init(true, new AEADParameters(new KeyParameter(key), MAC_SIZE * 8, nonce));
+        final int written = cipher.processBytes(plainText, 0, length, sealed, NONCE_SIZE);
+        try {
+            cipher.doFinal(sealed, NONCE_SIZE + written);
+        } catch (InvalidCipherTextException e) {
+            // Only raised when decrypting
+            throw new IllegalStateException(e);
+        }
+        return sealed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.close();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.bcpg.AEADAlgorithmTags;
+import org.bouncycastle.bcpg.AEADEncDataPacket;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Encrypts like {@link PGPCryptography}, but into an AES-256 OCB AEAD encrypted data packet instead of the CFB
+ * encrypted packet with its SHA-1 modification detection code. The AEAD chunks are independent, so the chunks of one
+ * file are encrypted in parallel on the chunk executor.
+ * <p>
+ * The packet is the version 1 AEAD encrypted data packet of the OpenPGP drafts (LibrePGP), which Bouncy Castle and
+ * GnuPG 2.3 or later decrypt. Older OpenPGP implementations cannot read it, so this format is opt-in.
+ */
+public class PGPAeadCryptography extends PGPCryptography implements Closeable {
+
+    public static final int MIN_CHUNK_SIZE = 64;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int CIPHER_ALGORITHM = SymmetricKeyAlgorithmTags.AES_256;
+    private static final int KEY_SIZE = 32;
+    private static final int IV_SIZE = 15;
+
+    private final int chunkSize;
+    private final ExecutorService chunkExecutor;
+    private final int chunksInFlight;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    /**
+     * @param chunkSize      size of the AEAD chunks, a power of 2 between 64 B and 4 MiB
+     * @param chunkExecutor  executor encrypting the chunks, shared by all files, or null to encrypt them in the thread
+     *                       writing the file
+     * @param chunksInFlight chunks of one file which may be encrypted or waiting to be written at the same time
+     */
+    public PGPAeadCryptography(final List<PGPPublicKey> pgpPublicKeys, final int packetBufferSize,
+                               final int literalBufferSize, final int chunkSize,
+                               final ExecutorService chunkExecutor, final int chunksInFlight) {
+        super(pgpPublicKeys, packetBufferSize, literalBufferSize);
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE || (chunkSize & (chunkSize - 1)) != 0) {
+            throw new IllegalArgumentException("AEAD chunk size should be a power of 2 between 64 B and 4 MiB");
+        }
+        if (chunksInFlight < 1) {
+            throw new IllegalArgumentException("AEAD chunks in flight should be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        this.chunkExecutor = chunkExecutor;
+        this.chunksInFlight = chunksInFlight;
+    }
+
+    @Override
+    protected OutputStream openEncryptedData(final OutputStream fileOutputStream,
+                                             final List<PGPPublicKey> pgpPublicKeys, final int packetBufferSize)
+            throws IOException, PGPException {
+        final byte[] sessionKey = new byte[KEY_SIZE];
+        secureRandom.nextBytes(sessionKey);
+        final byte[] sessionInfo = createSessionInfo(sessionKey);
+
+        final BCPGOutputStream packetOutputStream = new BCPGOutputStream(fileOutputStream, true);
+        for (final PGPPublicKey pgpPublicKey : pgpPublicKeys) {
+            packetOutputStream.writePacket(new JcePublicKeyKeyEncryptionMethodGenerator(pgpPublicKey)
+                    .setProvider("BC").setSecureRandom(secureRandom).generate(CIPHER_ALGORITHM, sessionInfo));
+        }
+
+        // The chunk size octet c gives chunks of 2^(c + 6) octets
+        final int chunkSizeOctet = Integer.numberOfTrailingZeros(chunkSize) - 6;
+        final byte[] iv = new byte[IV_SIZE];
+        secureRandom.nextBytes(iv);
+        final BCPGOutputStream aeadPacketOutputStream = new BCPGOutputStream(fileOutputStream,
+                PacketTags.AEAD_ENC_DATA, new byte[packetBufferSize]);
+        aeadPacketOutputStream.write(AEADEncDataPacket.VERSION_1);
+        aeadPacketOutputStream.write(CIPHER_ALGORITHM);
+        aeadPacketOutputStream.write(AEADAlgorithmTags.OCB);
+        aeadPacketOutputStream.write(chunkSizeOctet);
+        aeadPacketOutputStream.write(iv);
+        return new PGPAeadOutputStream(aeadPacketOutputStream, sessionKey, iv,
+                AEADEncDataPacket.createAAData(AEADEncDataPacket.VERSION_1, CIPHER_ALGORITHM, AEADAlgorithmTags.OCB,
+                        chunkSizeOctet), chunkSize, chunkExecutor, chunksInFlight);
+    }
+
+    /**
+     * @return the algorithm octet, the key and the two octet sum of the key octets
+     */
+    private static byte[] createSessionInfo(final byte[] sessionKey) {
+        final byte[] sessionInfo = new byte[sessionKey.length + 3];
+        sessionInfo[0] = (byte) CIPHER_ALGORITHM;
+        System.arraycopy(sessionKey, 0, sessionInfo, 1, sessionKey.length);
+        int checksum = 0;
+        for (final byte b : sessionKey) {
+            checksum += b & 0xff;
+        }
+        sessionInfo[sessionInfo.length - 2] = (byte) (checksum >> 8);
+        sessionInfo[sessionInfo.length - 1] = (byte) checksum;
+        return sessionInfo;
+    }
+
+    /**
+     * Chunks in flight hold their plain and their encrypted data, plus the chunk being filled.
+     */
+    @Override
+    public long getBufferMemory() {
+        return super.getBufferMemory() + (long) chunkSize * (2L * chunksInFlight + 1);
+    }
+
+    @Override
+    public void close() {
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.OCBBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.OrderedBlockOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes the body of an OpenPGP AEAD encrypted data packet: the data is cut into chunks which are encrypted with
+ * AES-OCB independently, each with a nonce and associated data derived from its index, followed by a final tag over
+ * the total length. The chunks are encrypted and written in order by an {@link OrderedBlockOutputStream}.
+ * <p>
+ * Closing the stream writes the last chunk and the final tag and finishes the packet, but does not close the
+ * underlying stream.
+ */
+class PGPAeadOutputStream extends OutputStream {
+
+    static final int TAG_SIZE = 16;
+
+    private static final ThreadLocal<OCBBlockCipher> CIPHER = ThreadLocal.withInitial(() ->
+            new OCBBlockCipher(AESEngine.newInstance(), AESEngine.newInstance()));
+
+    private final BCPGOutputStream packetOutputStream;
+    private final KeyParameter key;
+    private final byte[] iv;
+    private final byte[] associatedData;
+    private final OrderedBlockOutputStream chunks;
+
+    private boolean closed;
+
+    /**
+     * @param associatedData the packet tag and the version, algorithm and chunk size octets of the packet
+     */
+    PGPAeadOutputStream(final BCPGOutputStream packetOutputStream, final byte[] key, final byte[] iv,
+                        final byte[] associatedData, final int chunkSize, final ExecutorService chunkExecutor,
+                        final int chunksInFlight) {
+        this.packetOutputStream = packetOutputStream;
+        this.key = new KeyParameter(key);
+        this.iv = iv.clone();
+        this.associatedData = associatedData.clone();
+        this.chunks = new OrderedBlockOutputStream(packetOutputStream, chunkSize, chunkExecutor, chunksInFlight,
+                (plainText, length, index) -> seal(plainText, length, index, chunkAssociatedData(index)),
+                "an AEAD chunk");
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        chunks.write(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+        chunks.write(bytes, off, len);
+    }
+
+    /**
+     * The associated data of a chunk is the packet header followed by the chunk index.
+     */
+    private byte[] chunkAssociatedData(final long index) {
+        final byte[] chunkAssociatedData = new byte[associatedData.length + 8];
+        System.arraycopy(associatedData, 0, chunkAssociatedData, 0, associatedData.length);
+        putLong(chunkAssociatedData, associatedData.length, index);
+        return chunkAssociatedData;
+    }
+
+    /**
+     * @return the encrypted data followed by the tag; the nonce is the IV with the chunk index xor-ed into its last
+     * 8 octets
+     */
+    private byte[] seal(final byte[] plainText, final int length, final long index, final byte[] adata) {
+        final byte[] nonce = iv.clone();
+        for (int i = 0; i < 8; i++) {
+            nonce[nonce.length - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        final byte[] sealed = new byte[length + TAG_SIZE];
+        final OCBBlockCipher cipher = CIPHER.get();
+        cipher.init(true, new AEADParameters(key, TAG_SIZE * 8, nonce, adata));
+        final int written = cipher.processBytes(plainText, 0, length, sealed, 0);
+        try {
+            cipher.doFinal(sealed, written);
+        } catch (InvalidCipherTextException e) {
+            // Only raised when decrypting
+            throw new IllegalStateException(e);
+        }
+        return sealed;
+    }
+
+    private static void putLong(final byte[] bytes, final int off, final long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[off + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunks.close();
+        // The final tag authenticates the number of chunks and the total length
+        final long chunkCount = chunks.getBlockCount();
+        final byte[] finalAssociatedData = new byte[associatedData.length + 16];
+        System.arraycopy(chunkAssociatedData(chunkCount), 0, finalAssociatedData, 0, associatedData.length + 8);
+        putLong(finalAssociatedData, associatedData.length + 8, chunks.getByteCount());
+        packetOutputStream.write(seal(new byte[0], 0, chunkCount, finalAssociatedData));
+        packetOutputStream.finish();
+    }
+}
@@ -30,51 +30,106 @@ import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
 import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
 import uk.ac.ebi.ega.egacryptor.exception.pgp.PGPCryptographyException;
 import uk.ac.ebi.ega.egacryptor.stream.pgp.PGPEncryptedOutputStream;
+import uk.ac.ebi.ega.egacryptor.stream.timing.Stage;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+import uk.ac.ebi.ega.egacryptor.stream.timing.TimedOutputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.Security;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class PGPCryptography implements Cryptography {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PGPCryptography.class);
 
-    private final PGPPublicKey pgpPublicKey;
-    private final int bufferSize;
+    // zlib keeps 256 KiB of window and hash tables at the default compression level, plus its output buffer
+    private static final long COMPRESSION_MEMORY = 264 * 1024;
+
+    private final List<PGPPublicKey> pgpPublicKeys;
+    private final int packetBufferSize;
+    private final int literalBufferSize;
 
     public PGPCryptography(final InputStream publicKeyringInputStream, final int bufferSize) throws IOException, PGPException {
-        this.pgpPublicKey = PGPUtils.readPublicKey(publicKeyringInputStream);
-        this.bufferSize = bufferSize;
+        this(publicKeyringInputStream, bufferSize, bufferSize);
+    }
+
+    /**
+     * @param packetBufferSize  size of the partial packets of the encrypted data, a power of 2
+     * @param literalBufferSize size of the partial packets of the literal data handed to the compressor, a power of 2
+     */
+    public PGPCryptography(final InputStream publicKeyringInputStream, final int packetBufferSize,
+                           final int literalBufferSize) throws IOException, PGPException {
+        this(PGPUtils.readPublicKeys(publicKeyringInputStream), packetBufferSize, literalBufferSize);
+    }
+
+    /**
+     * @param pgpPublicKeys keys of all recipients; the data is compressed and encrypted once for all of them
+     */
+    public PGPCryptography(final List<PGPPublicKey> pgpPublicKeys, final int packetBufferSize,
+                           final int literalBufferSize) {
+        if (pgpPublicKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient key is required");
+        }
+        this.pgpPublicKeys = new ArrayList<>(pgpPublicKeys);
+        this.packetBufferSize = packetBufferSize;
+        this.literalBufferSize = literalBufferSize;
         installProviderIfNeeded();
     }
 
     @Override
     public OutputStream encrypt(final OutputStream fileOutputStream) throws CryptographyException {
+        return encrypt(fileOutputStream, null);
+    }
+
+    @Override
+    public OutputStream encrypt(final OutputStream fileOutputStream, final StageTimings stageTimings)
+            throws CryptographyException {
         try {
-            return doEncrypt(fileOutputStream);
+            return doEncrypt(fileOutputStream, stageTimings);
         } catch (IOException | PGPException e) {
             LOGGER.error("Error in encryption - {}", e.getMessage());
             throw new PGPCryptographyException(e.getMessage(), e);
         }
     }
 
+    @Override
+    public long getBufferMemory() {
+        return (long) packetBufferSize + literalBufferSize + COMPRESSION_MEMORY;
+    }
+
     @Override
     public InputStream decrypt(final InputStream fileToDecryptInputStream, final char[] password) {
         throw new UnsupportedOperationException();
     }
 
-    private OutputStream doEncrypt(final OutputStream fileOutputStream)
+    private OutputStream doEncrypt(final OutputStream fileOutputStream, final StageTimings stageTimings)
             throws IOException, PGPException {
-        final OutputStream pgpEncryptedDataGeneratorOutputStream = PGPUtils.getEncryptedGenerator(pgpPublicKey).open(fileOutputStream, new byte[bufferSize]);
+        final OutputStream pgpEncryptedDataGeneratorOutputStream = openEncryptedData(fileOutputStream, pgpPublicKeys,
+                packetBufferSize);
         final PGPCompressedDataGenerator pgpCompressedDataGenerator = new PGPCompressedDataGenerator(CompressionAlgorithmTags.ZIP);
-        final OutputStream pgpCompressedDataGeneratorOutputStream = pgpCompressedDataGenerator.open(pgpEncryptedDataGeneratorOutputStream);//Don't close this
+        final OutputStream pgpCompressedDataGeneratorOutputStream = pgpCompressedDataGenerator.open(
+                TimedOutputStream.wrap(pgpEncryptedDataGeneratorOutputStream, Stage.ENCRYPT, stageTimings));//Don't close this
         final PGPLiteralDataGenerator pgpLiteralDataGenerator = new PGPLiteralDataGenerator();
-        final OutputStream pgpLiteralDataGeneratorOutputStream = pgpLiteralDataGenerator.open(pgpCompressedDataGeneratorOutputStream, PGPLiteralData.BINARY, ""
-                , new Date(), new byte[bufferSize]);
-        return new PGPEncryptedOutputStream(pgpLiteralDataGeneratorOutputStream, pgpCompressedDataGenerator,
-                pgpEncryptedDataGeneratorOutputStream);
+        final OutputStream pgpLiteralDataGeneratorOutputStream = pgpLiteralDataGenerator.open(
+                TimedOutputStream.wrap(pgpCompressedDataGeneratorOutputStream, Stage.COMPRESS, stageTimings), PGPLiteralData.BINARY, ""
+                , new Date(), new byte[literalBufferSize]);
+        return new PGPEncryptedOutputStream(
+                TimedOutputStream.wrap(pgpLiteralDataGeneratorOutputStream, Stage.LITERAL, stageTimings),
+                pgpCompressedDataGenerator, pgpEncryptedDataGeneratorOutputStream);
+    }
+
+    /**
+     * Writes the session key packets and opens the encrypted data packet. Closing the returned stream finishes the
+     * packet without closing the file stream.
+     */
+    protected OutputStream openEncryptedData(final OutputStream fileOutputStream,
+                                             final List<PGPPublicKey> pgpPublicKeys, final int packetBufferSize)
+            throws IOException, PGPException {
+        return PGPUtils.getEncryptedGenerator(pgpPublicKeys).open(fileOutputStream, new byte[packetBufferSize]);
     }
 
     private void installProviderIfNeeded() {
@@ -0,0 +1,146 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPMarker;
+import org.bouncycastle.openpgp.PGPOnePassSignatureList;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.exception.pgp.PGPCryptographyException;
+import uk.ac.ebi.ega.egacryptor.stream.pgp.PGPDecryptedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decrypts OpenPGP files, e.g. archives encrypted by earlier versions of this tool, with the private keys of a
+ * secret keyring. The private keys are unlocked once and shared by all threads.
+ */
+public class PGPDecryptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PGPDecryptor.class);
+
+    private final PGPSecretKeyRingCollection pgpSecretKeyRings;
+    private final char[] passphrase;
+    private final Map<Long, PGPPrivateKey> privateKeys = new ConcurrentHashMap<>();
+
+    public PGPDecryptor(final InputStream secretKeyringInputStream, final char[] passphrase)
+            throws IOException, PGPException {
+        this.pgpSecretKeyRings = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(secretKeyringInputStream),
+                new JcaKeyFingerprintCalculator());
+        this.passphrase = passphrase.clone();
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * @return the literal data of the message; reading it to the end checks its integrity. Closing it closes the
+     * given stream.
+     */
+    public InputStream decrypt(final InputStream encryptedInputStream) throws CryptographyException {
+        try {
+            return doDecrypt(encryptedInputStream);
+        } catch (IOException | PGPException e) {
+            LOGGER.error("Error in decryption - {}", e.getMessage());
+            throw new PGPCryptographyException(e.getMessage(), e);
+        }
+    }
+
+    private InputStream doDecrypt(final InputStream encryptedInputStream) throws IOException, PGPException {
+        final JcaPGPObjectFactory pgpObjectFactory = new JcaPGPObjectFactory(PGPUtil.getDecoderStream(encryptedInputStream));
+        Object pgpObject = pgpObjectFactory.nextObject();
+        if (pgpObject instanceof PGPMarker) {
+            pgpObject = pgpObjectFactory.nextObject();
+        }
+        if (!(pgpObject instanceof PGPEncryptedDataList)) {
+            throw new PGPException("Input is not OpenPGP encrypted data");
+        }
+
+        PGPPublicKeyEncryptedData pgpPublicKeyEncryptedData = null;
+        PGPPrivateKey privateKey = null;
+        final Iterator<?> encryptedDataIterator = ((PGPEncryptedDataList) pgpObject).iterator();
+        while (privateKey == null && encryptedDataIterator.hasNext()) {
+            final Object encryptedData = encryptedDataIterator.next();
+            if (encryptedData instanceof PGPPublicKeyEncryptedData) {
+                pgpPublicKeyEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
+                privateKey = findPrivateKey(pgpPublicKeyEncryptedData.getKeyID());
+            }
+        }
+        if (privateKey == null) {
+            throw new PGPException("None of the recipient keys of the data is in the secret keyring");
+        }
+
+        final InputStream clearInputStream = pgpPublicKeyEncryptedData.getDataStream(
+                new JcePublicKeyDataDecryptorFactoryBuilder().setProvider("BC").build(privateKey));
+        JcaPGPObjectFactory messageFactory = new JcaPGPObjectFactory(clearInputStream);
+        Object message = messageFactory.nextObject();
+        if (message instanceof PGPCompressedData) {
+            messageFactory = new JcaPGPObjectFactory(((PGPCompressedData) message).getDataStream());
+            message = messageFactory.nextObject();
+        }
+        if (message instanceof PGPOnePassSignatureList) {
+            message = messageFactory.nextObject();
+        }
+        if (!(message instanceof PGPLiteralData)) {
+            throw new PGPException("Encrypted data does not contain a literal data packet");
+        }
+        return new PGPDecryptedInputStream(((PGPLiteralData) message).getInputStream(), pgpPublicKeyEncryptedData,
+                encryptedInputStream);
+    }
+
+    /**
+     * @return the unlocked private key with the given ID, or null if it is not in the secret keyring
+     */
+    PGPPrivateKey findPrivateKey(final long keyID) throws PGPException {
+        final PGPPrivateKey cachedPrivateKey = privateKeys.get(keyID);
+        if (cachedPrivateKey != null) {
+            return cachedPrivateKey;
+        }
+        final PGPSecretKey pgpSecretKey = pgpSecretKeyRings.getSecretKey(keyID);
+        if (pgpSecretKey == null) {
+            return null;
+        }
+        // Unlocking runs the S2K function of the key, which is deliberately slow
+        final PGPPrivateKey privateKey = pgpSecretKey.extractPrivateKey(new JcePBESecretKeyDecryptorBuilder(
+                new JcaPGPDigestCalculatorProviderBuilder().setProvider("BC").build())
+                .setProvider("BC").build(passphrase));
+        privateKeys.put(keyID, privateKey);
+        return privateKey;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.exception.pgp.PGPCryptographyException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Re-targets OpenPGP files to other recipients without decrypting the data: the session key is recovered from the
+ * public-key encrypted session key packets at the start of the file with one of our private keys and encrypted
+ * again for each new recipient. Everything after these packets stays byte for byte the same, so the caller only has
+ * to copy it.
+ */
+public class PGPRewrapper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PGPRewrapper.class);
+
+    private final PGPDecryptor pgpDecryptor;
+    private final List<PGPPublicKey> recipientPublicKeys;
+
+    public PGPRewrapper(final PGPDecryptor pgpDecryptor, final List<PGPPublicKey> recipientPublicKeys) {
+        if (recipientPublicKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one recipient key is required");
+        }
+        this.pgpDecryptor = pgpDecryptor;
+        this.recipientPublicKeys = new ArrayList<>(recipientPublicKeys);
+    }
+
+    /**
+     * Reads the session key packets from the start of an encrypted file and writes the session key packets of the
+     * new recipients, replacing all existing ones.
+     *
+     * @param encryptedInputStream start of the binary (not armored) encrypted file
+     * @param outputStream         receives the new session key packets
+     * @return the offset in the encrypted file of the first packet after the session key packets, from where the
+     * file has to be copied unchanged
+     */
+    public long rewrap(final InputStream encryptedInputStream, final OutputStream outputStream)
+            throws CryptographyException {
+        try {
+            return doRewrap(encryptedInputStream, outputStream);
+        } catch (IOException | PGPException e) {
+            LOGGER.error("Error in session key rewrap - {}", e.getMessage());
+            throw new PGPCryptographyException(e.getMessage(), e);
+        }
+    }
+
+    private long doRewrap(final InputStream encryptedInputStream, final OutputStream outputStream)
+            throws IOException, PGPException {
+        final List<PublicKeyEncSessionPacket> sessionKeyPackets = new ArrayList<>();
+        final long dataOffset = readSessionKeyPackets(encryptedInputStream, sessionKeyPackets);
+
+        byte[] sessionInfo = null;
+        for (final PublicKeyEncSessionPacket sessionKeyPacket : sessionKeyPackets) {
+            final PGPPrivateKey privateKey = pgpDecryptor.findPrivateKey(sessionKeyPacket.getKeyID());
+            if (privateKey != null) {
+                if (sessionKeyPacket.getVersion() != PublicKeyEncSessionPacket.VERSION_3) {
+                    throw new PGPException("Unsupported session key packet version " + sessionKeyPacket.getVersion());
+                }
+                sessionInfo = new JcePublicKeyDataDecryptorFactoryBuilder().setProvider("BC").build(privateKey)
+                        .recoverSessionData(sessionKeyPacket.getAlgorithm(), sessionKeyPacket.getEncSessionKey());
+                break;
+            }
+        }
+        if (sessionInfo == null) {
+            throw new PGPException("None of the " + sessionKeyPackets.size()
+                    + " recipient keys of the data is in the secret keyring");
+        }
+        if (!isChecksumValid(sessionInfo)) {
+            throw new PGPException("Checksum of the recovered session key is invalid");
+        }
+
+        for (final PGPPublicKey recipientPublicKey : recipientPublicKeys) {
+            outputStream.write(new JcePublicKeyKeyEncryptionMethodGenerator(recipientPublicKey).setProvider("BC")
+                    .generate(sessionInfo[0] & 0xff, sessionInfo).getEncoded());
+        }
+        return dataOffset;
+    }
+
+    /**
+     * Parses the packet headers itself, as the offset of the encrypted data has to be known exactly.
+     */
+    private static long readSessionKeyPackets(final InputStream inputStream,
+                                              final List<PublicKeyEncSessionPacket> sessionKeyPackets)
+            throws IOException, PGPException {
+        long offset = 0;
+        while (true) {
+            final ByteArrayOutputStream header = new ByteArrayOutputStream(6);
+            final int tag = readByte(inputStream, header);
+            if ((tag & 0x80) == 0) {
+                throw new PGPException("Input is not a binary OpenPGP file");
+            }
+            final int packetTag;
+            final long bodyLength;
+            if ((tag & 0x40) != 0) {
+                packetTag = tag & 0x3f;
+                final int firstOctet = readByte(inputStream, header);
+                if (firstOctet < 192) {
+                    bodyLength = firstOctet;
+                } else if (firstOctet <= 223) {
+                    bodyLength = ((firstOctet - 192) << 8) + readByte(inputStream, header) + 192;
+                } else if (firstOctet == 255) {
+                    bodyLength = readFourOctetLength(inputStream, header);
+                } else {
+                    // Partial body lengths are only used by data packets
+                    bodyLength = -1;
+                }
+            } else {
+                packetTag = (tag & 0x3f) >> 2;
+                switch (tag & 0x03) {
+                    case 0:
+                        bodyLength = readByte(inputStream, header);
+                        break;
+                    case 1:
+                        bodyLength = (readByte(inputStream, header) << 8) | readByte(inputStream, header);
+                        break;
+                    case 2:
+                        bodyLength = readFourOctetLength(inputStream, header);
+                        break;
+                    default:
+                        bodyLength = -1;
+                }
+            }
+
+            if (packetTag != PacketTags.PUBLIC_KEY_ENC_SESSION && packetTag != PacketTags.MARKER) {
+                if (sessionKeyPackets.isEmpty()) {
+                    throw new PGPException("Input does not start with public-key encrypted session key packets");
+                }
+                return offset;
+            }
+            if (bodyLength < 0 || bodyLength > 64 * 1024) {
+                throw new PGPException("Invalid length of session key packet at offset " + offset);
+            }
+            final byte[] body = new byte[(int) bodyLength];
+            readFully(inputStream, body);
+            if (packetTag == PacketTags.PUBLIC_KEY_ENC_SESSION) {
+                header.write(body);
+                sessionKeyPackets.add((PublicKeyEncSessionPacket) new BCPGInputStream(
+                        new ByteArrayInputStream(header.toByteArray())).readPacket());
+            }
+            offset += header.size() + (packetTag == PacketTags.PUBLIC_KEY_ENC_SESSION ? 0 : bodyLength);
+        }
+    }
+
+    private static int readByte(final InputStream inputStream, final ByteArrayOutputStream header) throws IOException {
+        final int b = inputStream.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of the encrypted file");
+        }
+        header.write(b);
+        return b;
+    }
+
+    private static long readFourOctetLength(final InputStream inputStream, final ByteArrayOutputStream header)
+            throws IOException {
+        return ((long) readByte(inputStream, header) << 24) | (readByte(inputStream, header) << 16)
+                | (readByte(inputStream, header) << 8) | readByte(inputStream, header);
+    }
+
+    private static void readFully(final InputStream inputStream, final byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            final int read = inputStream.read(bytes, off, bytes.length - off);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the encrypted file");
+            }
+            off += read;
+        }
+    }
+
+    /**
+     * The session info is the algorithm, the key and a two octet sum of the key octets.
+     */
+    private static boolean isChecksumValid(final byte[] sessionInfo) {
+        int checksum = 0;
+        for (int i = 1; i < sessionInfo.length - 2; i++) {
+            checksum += sessionInfo[i] & 0xff;
+        }
+        return sessionInfo.length > 3
+                && (byte) (checksum >> 8) == sessionInfo[sessionInfo.length - 2]
+                && (byte) checksum == sessionInfo[sessionInfo.length - 1];
+    }
+}
@@ -37,7 +37,10 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -69,34 +72,78 @@ public class PGPUtils {
         final Iterator<PGPPublicKeyRing> publicKeyRingIterator = pgpPublicKeyRings.getKeyRings();
 
         while (publicKey == null && publicKeyRingIterator.hasNext()) {
-            final PGPPublicKeyRing pgpPublicKeyRing = publicKeyRingIterator.next();
-            final Iterator<PGPPublicKey> publicKeyIterator = pgpPublicKeyRing.getPublicKeys();
-            while (publicKey == null && publicKeyIterator.hasNext()) {
-                PGPPublicKey key = publicKeyIterator.next();
-                if (key.isEncryptionKey()) {
-                    publicKey = key;
-                }
-            }
+            publicKey = findEncryptionKey(publicKeyRingIterator.next());
         }
 
         if (publicKey == null) {
             throw new IllegalArgumentException("Can't find public key in the key ring.");
         }
 
+        checkForEncryption(publicKey);
+        return publicKey;
+    }
+
+    /**
+     * Reads the encryption key of every key ring in the given keyring, i.e. one key per recipient.
+     */
+    public static List<PGPPublicKey> readPublicKeys(final InputStream inputStream) throws IOException, PGPException {
+
+        LOGGER.trace("Searching for public keys in keyring");
+
+        final PGPPublicKeyRingCollection pgpPublicKeyRings = new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(inputStream),
+                new JcaKeyFingerprintCalculator());
+
+        final List<PGPPublicKey> publicKeys = new ArrayList<>();
+        final Iterator<PGPPublicKeyRing> publicKeyRingIterator = pgpPublicKeyRings.getKeyRings();
+        while (publicKeyRingIterator.hasNext()) {
+            final PGPPublicKey publicKey = findEncryptionKey(publicKeyRingIterator.next());
+            if (publicKey != null) {
+                checkForEncryption(publicKey);
+                publicKeys.add(publicKey);
+            }
+        }
+
+        if (publicKeys.isEmpty()) {
+            throw new IllegalArgumentException("Can't find public key in the key ring.");
+        }
+        return publicKeys;
+    }
+
+    private static PGPPublicKey findEncryptionKey(final PGPPublicKeyRing pgpPublicKeyRing) {
+        final Iterator<PGPPublicKey> publicKeyIterator = pgpPublicKeyRing.getPublicKeys();
+        while (publicKeyIterator.hasNext()) {
+            final PGPPublicKey key = publicKeyIterator.next();
+            if (key.isEncryptionKey()) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static void checkForEncryption(final PGPPublicKey publicKey) {
         if (!isForEncryption(publicKey)) {
             throw new IllegalArgumentException("KeyID ".concat(publicKey.getKeyID() + " not flagged for encryption."));
         }
         LOGGER.debug("Public key found for encryption with KeyID {}", publicKey.getKeyID());
-        return publicKey;
     }
 
     public static PGPEncryptedDataGenerator getEncryptedGenerator(final PGPPublicKey pgpPublicKey) {
+        return getEncryptedGenerator(Collections.singletonList(pgpPublicKey));
+    }
+
+    /**
+     * The data is encrypted once with a single session key, which is encrypted separately for each recipient key.
+     * Any of the recipients can decrypt the data.
+     */
+    public static PGPEncryptedDataGenerator getEncryptedGenerator(final Collection<PGPPublicKey> pgpPublicKeys) {
         final PGPEncryptedDataGenerator pgpEncryptedDataGenerator = new PGPEncryptedDataGenerator(
                 new JcePGPDataEncryptorBuilder(SymmetricKeyAlgorithmTags.CAST5).
                         setWithIntegrityPacket(true).
                         setSecureRandom(new SecureRandom()).
                         setProvider("BC"));
-        pgpEncryptedDataGenerator.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(pgpPublicKey).setProvider("BC"));
+        for (final PGPPublicKey pgpPublicKey : pgpPublicKeys) {
+            pgpEncryptedDataGenerator.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(pgpPublicKey).setProvider("BC"));
+        }
         return pgpEncryptedDataGenerator;
     }
 
@@ -20,12 +20,19 @@ package uk.ac.ebi.ega.egacryptor.cryptography.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 public class FileUtils {
 
+    private static final List<String> NETWORK_FILE_SYSTEM_TYPES = Arrays.asList("nfs", "nfs4", "cifs", "smbfs",
+            "lustre", "gpfs", "beegfs", "fuse.sshfs", "ceph", "fuse.glusterfs");
+
     private FileUtils() {
         throw new IllegalStateException("Utility class.");
     }
@@ -34,6 +41,34 @@ public class FileUtils {
         return Paths.get("");
     }
 
+    /**
+     * Maps a local path to a slash separated object name below the given prefix, e.g. for object stores.
+     * The path is made absolute and its root is dropped, so "/data/out/file.gpg" becomes "prefix/data/out/file.gpg".
+     */
+    public static String toObjectName(final String prefix, final Path path) {
+        final Path absolutePath = path.toAbsolutePath().normalize();
+        final StringBuilder objectName = new StringBuilder(prefix);
+        for (final Path name : absolutePath) {
+            if (objectName.length() > 0 && objectName.charAt(objectName.length() - 1) != '/') {
+                objectName.append('/');
+            }
+            objectName.append(name);
+        }
+        return objectName.toString();
+    }
+
+    public static boolean isOnNetworkFileSystem(final Path path) {
+        try {
+            return isNetworkFileSystem(Files.getFileStore(path));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static boolean isNetworkFileSystem(final FileStore fileStore) {
+        return NETWORK_FILE_SYSTEM_TYPES.contains(fileStore.type().toLowerCase(Locale.ROOT));
+    }
+
     public static void writeToFile(final File file, final String content) throws IOException {
         try (final OutputStream outputStream = Files.newOutputStream(file.toPath())) {
             outputStream.write(content.getBytes());
@@ -21,12 +21,18 @@ import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
 
 public class Hash {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Hash.class);
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-f]{32}");
 
     private Hash() {
         throw new IllegalStateException("Utility class.");
@@ -51,4 +57,18 @@ public class Hash {
         }
         return new String(messageDigest.digest());
     }
+
+    /**
+     * Reads an MD5 checksum file. Accepts the bare checksum written by ega-cryptor as well as the
+     * "checksum  file name" format of md5sum.
+     */
+    public static String readChecksum(final Path md5Path) throws IOException {
+        final String content = new String(Files.readAllBytes(md5Path), StandardCharsets.US_ASCII).trim();
+        final String[] fields = content.split("\\s+", 2);
+        final String checksum = fields[0].toLowerCase();
+        if (!MD5_PATTERN.matcher(checksum).matches()) {
+            throw new IOException("Invalid checksum in file ".concat(md5Path.toString()));
+        }
+        return checksum;
+    }
 }
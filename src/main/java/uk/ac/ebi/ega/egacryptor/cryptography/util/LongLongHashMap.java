@@ -0,0 +1,141 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import java.util.Arrays;
+
+/**
+ * Map of primitive long keys to long values with open addressing and linear probing. Takes 16 bytes per slot
+ * without any per-entry objects, so tens of millions of entries fit into a few hundred megabytes and can be
+ * loaded without garbage collector pressure. Not thread safe.
+ */
+public class LongLongHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int resizeThreshold;
+
+    public LongLongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongLongHashMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        final long minCapacity = (long) Math.ceil(Math.max(expectedSize, MIN_CAPACITY) / LOAD_FACTOR);
+        if (minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) minCapacity - 1) << 1;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return the previous value of the key, or {@code missingValue} if it had none
+     */
+    public long put(final long key, final long value, final long missingValue) {
+        int slot = slotOf(key);
+        if (used[slot]) {
+            final long previousValue = values[slot];
+            values[slot] = value;
+            return previousValue;
+        }
+        if (size >= resizeThreshold) {
+            resize();
+            slot = slotOf(key);
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return missingValue;
+    }
+
+    public long get(final long key, final long missingValue) {
+        final int slot = slotOf(key);
+        return used[slot] ? values[slot] : missingValue;
+    }
+
+    public boolean containsKey(final long key) {
+        return used[slotOf(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * @return the slot holding the key, or the free slot where it would be inserted
+     */
+    private int slotOf(final long key) {
+        final int mask = keys.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        final boolean[] oldUsed = used;
+        if (oldKeys.length >= (1 << 30)) {
+            throw new IllegalStateException("Map is full");
+        }
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                final int slot = slotOf(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads keys with few varying bits, e.g. inode numbers, over the whole table.
+     */
+    public static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cuts the written data into blocks which are sealed independently by a {@link BlockSealer}. Full blocks are
+ * sealed on the given executor while the next ones are filled, and written to the underlying stream in their
+ * original order. At most {@code blocksInFlight} blocks are waiting to be written, so memory use does not depend on
+ * the file size. Without an executor the blocks are sealed by the writing thread.
+ * <p>
+ * Closing the stream writes the last, shorter block but does not close the underlying stream.
+ */
+public final class OrderedBlockOutputStream extends OutputStream {
+
+    /**
+     * Seals one block; called concurrently from the executor threads.
+     */
+    @FunctionalInterface
+    public interface BlockSealer {
+
+        /**
+         * @param index the position of the block in the stream, starting at 0
+         * @return the bytes to write for the first {@code length} bytes of {@code plainText}
+         */
+        byte[] seal(byte[] plainText, int length, long index);
+    }
+
+    private final OutputStream outputStream;
+    private final int blockSize;
+    private final ExecutorService blockExecutor;
+    private final int blocksInFlight;
+    private final BlockSealer blockSealer;
+    private final String blockName;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+    private byte[] block;
+    private int position;
+    private long blockCount;
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * @param blockName how a block is called in error messages, e.g. "a Crypt4GH segment"
+     */
+    public OrderedBlockOutputStream(final OutputStream outputStream, final int blockSize,
+                                    final ExecutorService blockExecutor, final int blocksInFlight,
+                                    final BlockSealer blockSealer, final String blockName) {
+        this.outputStream = outputStream;
+        this.blockSize = blockSize;
+        this.blockExecutor = blockExecutor;
+        this.blocksInFlight = blocksInFlight;
+        this.blockSealer = blockSealer;
+        this.blockName = blockName;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (len > 0) {
+            final int length = Math.min(len, blockSize - position);
+            System.arraycopy(bytes, off, block, position, length);
+            position += length;
+            off += length;
+            len -= length;
+            if (position == blockSize) {
+                sealBlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of blocks sealed so far
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the number of plain bytes sealed so far
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void sealBlock() throws IOException {
+        final byte[] plainText = block;
+        final int length = position;
+        final long index = blockCount++;
+        byteCount += length;
+        block = new byte[blockSize];
+        position = 0;
+
+        if (blockExecutor == null) {
+            outputStream.write(blockSealer.seal(plainText, length, index));
+            return;
+        }
+        pendingBlocks.addLast(blockExecutor.submit(() -> blockSealer.seal(plainText, length, index)));
+        while (pendingBlocks.size() > blocksInFlight) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            outputStream.write(pendingBlocks.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encrypting ".concat(blockName));
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to encrypt " + blockName + " - " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (position > 0) {
+                sealBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeNextBlock();
+            }
+        } finally {
+            pendingBlocks.forEach(pendingBlock -> pendingBlock.cancel(false));
+            pendingBlocks.clear();
+            block = null;
+        }
+    }
+}
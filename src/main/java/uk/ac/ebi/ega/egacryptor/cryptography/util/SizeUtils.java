@@ -0,0 +1,60 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import java.util.Locale;
+
+public class SizeUtils {
+
+    private SizeUtils() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    /**
+     * Parses a size in bytes with an optional K, M or G suffix, e.g. "512M".
+     */
+    public static long parseSize(final String value) {
+        final String trimmedValue = value.trim().toUpperCase(Locale.ROOT);
+        final int lastIndex = trimmedValue.length() - 1;
+        long multiplier = 1;
+        String number = trimmedValue;
+        if (lastIndex > 0) {
+            switch (trimmedValue.charAt(lastIndex)) {
+                case 'K':
+                    multiplier = 1L << 10;
+                    break;
+                case 'M':
+                    multiplier = 1L << 20;
+                    break;
+                case 'G':
+                    multiplier = 1L << 30;
+                    break;
+                default:
+                    break;
+            }
+            if (multiplier > 1) {
+                number = trimmedValue.substring(0, lastIndex);
+            }
+        }
+        try {
+            return Long.parseLong(number.trim()) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size ".concat(value), e);
+        }
+    }
+}
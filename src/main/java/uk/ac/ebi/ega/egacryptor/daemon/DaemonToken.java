@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.daemon;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Shared secret of a daemon and its clients. The daemon writes a random token to a file only its user can read, and
+ * a client has to send it before its job, so other local users can not submit jobs running with the permissions and
+ * keys of the daemon.
+ */
+final class DaemonToken {
+
+    private static final int TOKEN_LENGTH = 32;
+
+    private DaemonToken() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    /**
+     * @return the folder of the token files, ".ega-cryptor" in the home folder of the user.
+     */
+    static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".ega-cryptor");
+    }
+
+    static Path tokenFile(final Path tokenDirectory, final int port) {
+        return tokenDirectory.resolve("daemon-".concat(String.valueOf(port)).concat(".token"));
+    }
+
+    /**
+     * Writes a new random token readable by the owner only. The file is created with its permissions and then moved
+     * to its name, so the token is never readable by others, not even for a moment.
+     */
+    static String create(final Path tokenFile) throws IOException {
+        final byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        final StringBuilder token = new StringBuilder(TOKEN_LENGTH * 2);
+        for (final byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+
+        final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        final Path tokenDirectory = tokenFile.toAbsolutePath().getParent();
+        if (!Files.isDirectory(tokenDirectory)) {
+            Files.createDirectories(tokenDirectory, posix
+                    ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------"))}
+                    : new FileAttribute<?>[0]);
+        }
+        final Path temporaryFile = posix
+                ? Files.createTempFile(tokenDirectory, "daemon-", ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                : Files.createTempFile(tokenDirectory, "daemon-", ".tmp");
+        try {
+            Files.write(temporaryFile, token.toString().getBytes(StandardCharsets.US_ASCII));
+            Files.move(temporaryFile, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        return token.toString();
+    }
+
+    static String read(final Path tokenFile) throws IOException {
+        return new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Compares in constant time, so the token can not be guessed from the response time.
+     */
+    static boolean matches(final String token, final String candidate) {
+        return candidate != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII),
+                candidate.getBytes(StandardCharsets.US_ASCII));
+    }
+}
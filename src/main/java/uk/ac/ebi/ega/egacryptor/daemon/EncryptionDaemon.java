@@ -0,0 +1,303 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.daemon;
+
+import joptsimple.OptionException;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser;
+import uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionProcessor;
+import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.DAEMON_PORT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.FILE_TO_ENCRYPT_PATH;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.OUTPUT_FOLDER_PATH;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.SUBMIT;
+
+/**
+ * Keeps the cryptography beans and a warm worker pool loaded and accepts encryption jobs on a localhost port.
+ * <p>
+ * A job starts with the token of the daemon on the first line, read by the client from the token file of the port
+ * which only the user of the daemon can read. Connections without the token are rejected, as any local user can
+ * connect to the port. The token is followed by the list of command line arguments of a normal run, one argument
+ * per line, terminated by an empty line.
+ * The daemon answers with one status line per event and a final {@code COMPLETED} or {@code ERROR} line.
+ * A job only takes the input and output paths; options which would change the processing, e.g. thread or
+ * configuration options, are rejected, as the daemon runs every job with its own.
+ * <p>
+ * All jobs share the same worker pool, so the thread options given to the daemon are the global concurrency limit.
+ * Each job keeps at most as many files on the pool as it has workers, so the files of jobs submitted at the same
+ * time are interleaved instead of waiting behind the whole backlog of the first job. A client which does not send
+ * its job within the handshake timeout is disconnected, and connections beyond the limit are rejected, so idle
+ * connections can not take up the threads of the daemon.
+ */
+public class EncryptionDaemon implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionDaemon.class);
+
+    static final String ACCEPTED = "ACCEPTED";
+    static final String QUEUED = "QUEUED";
+    static final String STARTED = "STARTED";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+    static final String COMPLETED = "COMPLETED";
+    static final String ERROR = "ERROR";
+
+    static final List<String> JOB_OPTIONS = Arrays.asList(FILE_TO_ENCRYPT_PATH, OUTPUT_FOLDER_PATH, SUBMIT,
+            DAEMON_PORT);
+
+    private static final int DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    private final ITaskExecutorService taskExecutorService;
+    private final IFileDiscoveryService fileDiscoveryService;
+    private final Path defaultOutputFilePath;
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor workerPool;
+    private final ThreadPoolExecutor connectionPool;
+    private final Path tokenFile;
+    private final String token;
+    private final int handshakeTimeoutMillis;
+
+    public EncryptionDaemon(final ITaskExecutorService taskExecutorService,
+                            final IFileDiscoveryService fileDiscoveryService,
+                            final Path defaultOutputFilePath,
+                            final int port,
+                            final int noOfThreads) throws IOException {
+        this(taskExecutorService, fileDiscoveryService, defaultOutputFilePath, port, noOfThreads,
+                DaemonToken.defaultDirectory(), DEFAULT_HANDSHAKE_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param tokenDirectory         Folder of the token file, which is named after the port.
+     * @param handshakeTimeoutMillis Time a client has to send the token and the job after connecting.
+     * @param maxConnections         Maximum number of connections handled at the same time.
+     */
+    EncryptionDaemon(final ITaskExecutorService taskExecutorService,
+                     final IFileDiscoveryService fileDiscoveryService,
+                     final Path defaultOutputFilePath,
+                     final int port,
+                     final int noOfThreads,
+                     final Path tokenDirectory,
+                     final int handshakeTimeoutMillis,
+                     final int maxConnections) throws IOException {
+        this.taskExecutorService = taskExecutorService;
+        this.fileDiscoveryService = fileDiscoveryService;
+        this.defaultOutputFilePath = defaultOutputFilePath;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            this.tokenFile = DaemonToken.tokenFile(tokenDirectory, serverSocket.getLocalPort());
+            this.token = DaemonToken.create(tokenFile);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        this.workerPool = new ThreadPoolExecutor(noOfThreads, noOfThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        this.workerPool.prestartAllCoreThreads();
+        this.connectionPool = new ThreadPoolExecutor(0, maxConnections, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>());
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the daemon is closed.
+     */
+    public void serve() throws IOException {
+        LOGGER.info("Daemon is listening on {}:{} with {} worker thread(s), token in {}",
+                serverSocket.getInetAddress().getHostAddress(), getPort(), workerPool.getCorePoolSize(), tokenFile);
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                throw e;
+            }
+            try {
+                connectionPool.execute(() -> handle(socket));
+            } catch (RejectedExecutionException e) {
+                reject(socket);
+            }
+        }
+        LOGGER.info("Daemon has stopped listening");
+    }
+
+    private void handle(final Socket socket) {
+        try (final Socket client = socket;
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                     StandardCharsets.UTF_8));
+             final PrintWriter writer = new PrintWriter(new OutputStreamWriter(client.getOutputStream(),
+                     StandardCharsets.UTF_8), true)) {
+            // Only the reads of the handshake can time out, the daemon only writes while the job runs
+            client.setSoTimeout(handshakeTimeoutMillis);
+            final List<String> arguments = new ArrayList<>();
+            try {
+                if (!DaemonToken.matches(token, reader.readLine())) {
+                    LOGGER.warn("Rejected daemon client {} without a valid token", client.getRemoteSocketAddress());
+                    send(writer, ERROR, "Invalid daemon token");
+                    return;
+                }
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    arguments.add(line);
+                }
+            } catch (SocketTimeoutException e) {
+                LOGGER.warn("Rejected daemon client {} which sent no job within {} ms",
+                        client.getRemoteSocketAddress(), handshakeTimeoutMillis);
+                send(writer, ERROR, "No job received within " + handshakeTimeoutMillis + " ms");
+                return;
+            }
+            runJob(arguments, writer);
+        } catch (IOException e) {
+            LOGGER.error("Error while handling daemon client - {}", e.getMessage());
+        }
+    }
+
+    private void runJob(final List<String> arguments, final PrintWriter writer) {
+        final List<FileToProcess> fileToProcessList;
+        try {
+            final OptionSet optionSet = CommandLineOptionParser.getOptionParser().parse(arguments.toArray(new String[0]));
+            final List<String> unsupportedOptions = unsupportedOptions(optionSet);
+            if (!unsupportedOptions.isEmpty()) {
+                LOGGER.error("Rejected daemon job {} - unsupported options {}", arguments, unsupportedOptions);
+                send(writer, ERROR, unsupportedOptionsMessage(unsupportedOptions));
+                return;
+            }
+            final CommandLineOptionProcessor options = CommandLineOptionProcessor.processOptions(optionSet,
+                    defaultOutputFilePath);
+            fileToProcessList = fileDiscoveryService.discoverFilesRecursively(options.getFileToEncryptPaths(),
+                    options.getOutputFolderPath());
+        } catch (OptionException | IOException e) {
+            LOGGER.error("Rejected daemon job {} - {}", arguments, e.getMessage());
+            send(writer, ERROR, e.getMessage());
+            return;
+        }
+
+        LOGGER.info("Daemon job accepted with {} file(s)", fileToProcessList.size());
+        send(writer, ACCEPTED, String.valueOf(fileToProcessList.size()));
+
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        taskExecutorService.execute(fileToProcessList, workerPool, workerPool.getCorePoolSize(), new TaskListener() {
+            @Override
+            public void onQueued(final FileToProcess fileToProcess) {
+                send(writer, QUEUED, fileToProcess.getFileToEncryptPath().toString());
+            }
+
+            @Override
+            public void onStarted(final FileToProcess fileToProcess) {
+                send(writer, STARTED, fileToProcess.getFileToEncryptPath().toString());
+            }
+
+            @Override
+            public void onCompleted(final FileToProcess fileToProcess) {
+                succeeded.incrementAndGet();
+                send(writer, DONE, fileToProcess.getFileToEncryptPath().toString());
+            }
+
+            @Override
+            public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+                failed.incrementAndGet();
+                send(writer, FAILED, fileToProcess.getFileToEncryptPath().toString());
+            }
+        });
+        send(writer, COMPLETED, succeeded.get() + " " + failed.get());
+    }
+
+    /**
+     * @return the options and arguments of a job which the daemon does not support, in the order given.
+     */
+    static List<String> unsupportedOptions(final OptionSet optionSet) {
+        final List<String> unsupportedOptions = new ArrayList<>();
+        for (final OptionSpec<?> optionSpec : optionSet.specs()) {
+            if (Collections.disjoint(optionSpec.options(), JOB_OPTIONS)) {
+                unsupportedOptions.add(optionSpec.options().iterator().next());
+            }
+        }
+        optionSet.nonOptionArguments().forEach(argument -> unsupportedOptions.add(String.valueOf(argument)));
+        return unsupportedOptions;
+    }
+
+    static String unsupportedOptionsMessage(final List<String> unsupportedOptions) {
+        return "Option(s) " + unsupportedOptions + " are not supported by daemon jobs, which only take the input "
+                + "and output paths. Give thread and configuration options to the daemon instead";
+    }
+
+    private void reject(final Socket socket) {
+        LOGGER.warn("Rejected daemon client {}, all {} connections are in use", socket.getRemoteSocketAddress(),
+                connectionPool.getMaximumPoolSize());
+        try (final Socket client = socket;
+             final PrintWriter writer = new PrintWriter(new OutputStreamWriter(client.getOutputStream(),
+                     StandardCharsets.UTF_8), true)) {
+            send(writer, ERROR, "Too many connections");
+        } catch (IOException e) {
+            LOGGER.error("Error while rejecting daemon client - {}", e.getMessage());
+        }
+    }
+
+    private static void send(final PrintWriter writer, final String status, final String detail) {
+        synchronized (writer) {
+            writer.println(status.concat(" ").concat(String.valueOf(detail)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connectionPool.shutdownNow();
+        workerPool.shutdown();
+        Files.deleteIfExists(tokenFile);
+    }
+}
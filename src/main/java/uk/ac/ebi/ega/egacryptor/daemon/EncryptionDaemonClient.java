@@ -0,0 +1,139 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.daemon;
+
+import joptsimple.OptionException;
+import joptsimple.OptionSet;
+import uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.DAEMON_PORT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.FILE_TO_ENCRYPT_PATH;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.OUTPUT_FOLDER_PATH;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.SUBMIT;
+
+/**
+ * Thin client which submits a job to a running {@link EncryptionDaemon} without starting the application context.
+ */
+public class EncryptionDaemonClient {
+
+    public static final int SUCCESS = 0;
+    public static final int FAILED = 1;
+    public static final int INVALID_COMMANDLINE_ARGUMENTS = 2;
+
+    private EncryptionDaemonClient() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    public static boolean isClientInvocation(final String... args) {
+        try {
+            return CommandLineOptionParser.getOptionParser().parse(args).has(SUBMIT);
+        } catch (OptionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends the token of the daemon and the input and output paths, resolved against the working directory of the
+     * client, to the daemon and copies the status lines of the daemon to the given stream. Any other option is
+     * rejected instead of being dropped silently, as the daemon runs every job with its own options.
+     *
+     * @return exit code of the client.
+     */
+    public static int submit(final PrintStream out, final String... args) {
+        return submit(DaemonToken.defaultDirectory(), out, args);
+    }
+
+    static int submit(final Path tokenDirectory, final PrintStream out, final String... args) {
+        final OptionSet optionSet;
+        try {
+            optionSet = CommandLineOptionParser.getOptionParser().parse(args);
+        } catch (OptionException e) {
+            out.println(EncryptionDaemon.ERROR.concat(" ").concat(e.getMessage()));
+            return INVALID_COMMANDLINE_ARGUMENTS;
+        }
+        final List<String> unsupportedOptions = EncryptionDaemon.unsupportedOptions(optionSet);
+        if (!unsupportedOptions.isEmpty()) {
+            out.println(EncryptionDaemon.ERROR.concat(" ")
+                    .concat(EncryptionDaemon.unsupportedOptionsMessage(unsupportedOptions)));
+            return INVALID_COMMANDLINE_ARGUMENTS;
+        }
+        if (!optionSet.has(FILE_TO_ENCRYPT_PATH)) {
+            out.println(EncryptionDaemon.ERROR.concat(" Option [").concat(FILE_TO_ENCRYPT_PATH).concat("] is required"));
+            return INVALID_COMMANDLINE_ARGUMENTS;
+        }
+
+        final String fileToEncryptPaths = Arrays.stream(optionSet.valueOf(FILE_TO_ENCRYPT_PATH).toString().split(","))
+                .map(filePath -> Paths.get(filePath.trim()).normalize().toAbsolutePath().toString())
+                .collect(Collectors.joining(","));
+        final String outputFolderPath = Paths.get(optionSet.valueOf(OUTPUT_FOLDER_PATH).toString())
+                .normalize().toAbsolutePath().toString();
+        final int port = (Integer) optionSet.valueOf(DAEMON_PORT);
+        final Path tokenFile = DaemonToken.tokenFile(tokenDirectory, port);
+        final String token;
+        try {
+            token = DaemonToken.read(tokenFile);
+        } catch (IOException e) {
+            out.println(EncryptionDaemon.ERROR.concat(" Unable to read the token of the daemon on port ")
+                    .concat(String.valueOf(port)).concat(" from ").concat(tokenFile.toString()).concat(" - ")
+                    .concat(String.valueOf(e.getMessage())));
+            return FAILED;
+        }
+
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             final PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                     StandardCharsets.UTF_8), true);
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            writer.println(token);
+            writer.println("-".concat(FILE_TO_ENCRYPT_PATH).concat("=").concat(fileToEncryptPaths));
+            writer.println("-".concat(OUTPUT_FOLDER_PATH).concat("=").concat(outputFolderPath));
+            writer.println();
+
+            int exitCode = FAILED;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.println(line);
+                if (line.startsWith(EncryptionDaemon.COMPLETED)) {
+                    exitCode = line.endsWith(" 0") ? SUCCESS : FAILED;
+                } else if (line.startsWith(EncryptionDaemon.ERROR)) {
+                    exitCode = INVALID_COMMANDLINE_ARGUMENTS;
+                }
+            }
+            return exitCode;
+        } catch (IOException e) {
+            out.println(EncryptionDaemon.ERROR.concat(" Unable to reach the daemon on port ")
+                    .concat(String.valueOf(port)).concat(" - ").concat(String.valueOf(e.getMessage())));
+            return FAILED;
+        }
+    }
+}
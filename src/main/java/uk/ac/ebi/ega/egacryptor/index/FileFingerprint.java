@@ -0,0 +1,113 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.index;
+
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.LongLongHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+/**
+ * Identity of the content of a file as far as it can be told without reading it: the canonical path, the size, the
+ * modification time and the inode number.
+ */
+public class FileFingerprint {
+
+    private final long pathHash;
+    private final long size;
+    private final long lastModifiedMillis;
+    private final long inode;
+
+    FileFingerprint(final long pathHash, final long size, final long lastModifiedMillis, final long inode) {
+        this.pathHash = pathHash;
+        this.size = size;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.inode = inode;
+    }
+
+    public static FileFingerprint of(final Path file) throws IOException {
+        final Path realPath = file.toRealPath();
+        final BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        return new FileFingerprint(hashPath(realPath), attributes.size(), attributes.lastModifiedTime().toMillis(),
+                inodeOf(realPath, attributes));
+    }
+
+    /**
+     * First 8 bytes of the MD5 of the canonical path. Keeps the index at a fixed record size whatever the length of
+     * the paths, two paths would also need the same size, modification time and inode to be mistaken.
+     */
+    static long hashPath(final Path realPath) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        return ByteBuffer.wrap(messageDigest.digest(realPath.toString().getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+
+    private static long inodeOf(final Path realPath, final BasicFileAttributes attributes) {
+        try {
+            return ((Number) Files.getAttribute(realPath, "unix:ino")).longValue();
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return attributes.fileKey() == null ? 0 : attributes.fileKey().hashCode();
+        }
+    }
+
+    public long getPathHash() {
+        return pathHash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    /**
+     * @return a 64 bit digest of the size, the modification time and the inode number
+     */
+    long contentHash() {
+        return LongLongHashMap.mix(LongLongHashMap.mix(LongLongHashMap.mix(size) ^ lastModifiedMillis) ^ inode);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final FileFingerprint that = (FileFingerprint) o;
+        return pathHash == that.pathHash && size == that.size && lastModifiedMillis == that.lastModifiedMillis
+                && inode == that.inode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(pathHash ^ contentHash());
+    }
+}
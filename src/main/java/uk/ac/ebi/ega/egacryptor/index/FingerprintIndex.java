@@ -0,0 +1,233 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.LongLongHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Persistent index of the files encrypted by earlier runs, used to skip files which have not changed since.
+ * <p>
+ * The index file is an append-only log of fixed size records: path hash, size, modification time, inode and
+ * plaintext MD5, 48 bytes each. Loading reads it sequentially into a primitive map of path hash to a digest of the
+ * other attributes, which takes a couple of seconds for tens of millions of entries. A record torn by a crash is
+ * dropped, and superseded records are removed when the index is closed if they make up more than half of the file.
+ * The index is locked while it is open so two runs can not write to it at the same time.
+ * <p>
+ * Buffer positions are set through {@link Buffer}, as the covariant overrides of {@link ByteBuffer} do not exist
+ * on Java 8.
+ */
+public class FingerprintIndex implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FingerprintIndex.class);
+
+    private static final byte[] MAGIC = "EGAFPIX1".getBytes(StandardCharsets.US_ASCII);
+    static final int RECORD_SIZE = 48;
+    private static final int READ_BUFFER_SIZE = RECORD_SIZE * 21845;
+    private static final long MIN_RECORDS_TO_COMPACT = 1024;
+
+    private final Path indexPath;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final LongLongHashMap entries;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private long records;
+
+    private FingerprintIndex(final Path indexPath, final FileChannel channel, final FileLock lock,
+                             final LongLongHashMap entries, final long records) {
+        this.indexPath = indexPath;
+        this.channel = channel;
+        this.lock = lock;
+        this.entries = entries;
+        this.records = records;
+    }
+
+    public static FingerprintIndex open(final Path indexPath) throws IOException {
+        final long start = System.currentTimeMillis();
+        final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            final FileLock lock = channel.tryLock();
+            if (lock == null) {
+                throw new IOException("Index ".concat(indexPath.toString()).concat(" is used by another process"));
+            }
+            final long records = readHeader(indexPath, channel);
+            final LongLongHashMap entries = new LongLongHashMap((int) Math.min(records, 1 << 29));
+            forEachRecord(channel, records, (index, record, buffer, offset) ->
+                    entries.put(record.getPathHash(), record.contentHash(), 0));
+            channel.position(MAGIC.length + records * RECORD_SIZE);
+            LOGGER.info("Loaded {} entries of index {} in {} ms", entries.size(), indexPath,
+                    System.currentTimeMillis() - start);
+            return new FingerprintIndex(indexPath, channel, lock, entries, records);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of complete records, after dropping a record torn by a crash
+     */
+    private static long readHeader(final Path indexPath, final FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize == 0) {
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            return 0;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Read the whole header
+        }
+        if (header.hasRemaining() || !Arrays.equals(header.array(), MAGIC)) {
+            throw new IOException(indexPath.toString().concat(" is not a fingerprint index"));
+        }
+        final long records = (fileSize - MAGIC.length) / RECORD_SIZE;
+        if (MAGIC.length + records * RECORD_SIZE != fileSize) {
+            LOGGER.warn("Dropping incomplete last record of index {}", indexPath);
+            channel.truncate(MAGIC.length + records * RECORD_SIZE);
+        }
+        return records;
+    }
+
+    private interface RecordConsumer {
+        /**
+         * @param buffer holds the raw record at {@code offset}, its position must not be changed
+         */
+        void accept(long index, FileFingerprint record, ByteBuffer buffer, int offset) throws IOException;
+    }
+
+    private static void forEachRecord(final FileChannel channel, final long records, final RecordConsumer consumer)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long position = MAGIC.length;
+        long index = 0;
+        while (index < records) {
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), (records - index) * RECORD_SIZE));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of index");
+                }
+            }
+            position += buffer.position();
+            ((Buffer) buffer).flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                final int offset = buffer.position();
+                final FileFingerprint record = new FileFingerprint(buffer.getLong(), buffer.getLong(),
+                        buffer.getLong(), buffer.getLong());
+                ((Buffer) buffer).position(offset + RECORD_SIZE);
+                consumer.accept(index++, record, buffer, offset);
+            }
+        }
+    }
+
+    /**
+     * @return true if a file with the same canonical path, size, modification time and inode has been recorded
+     */
+    public synchronized boolean isUnchanged(final FileFingerprint fingerprint) {
+        return entries.containsKey(fingerprint.getPathHash())
+                && entries.get(fingerprint.getPathHash(), 0) == fingerprint.contentHash();
+    }
+
+    public synchronized void record(final FileFingerprint fingerprint, final String plainTextMD5) throws IOException {
+        ((Buffer) recordBuffer).clear();
+        recordBuffer.putLong(fingerprint.getPathHash())
+                .putLong(fingerprint.getSize())
+                .putLong(fingerprint.getLastModifiedMillis())
+                .putLong(fingerprint.getInode())
+                .putLong(Long.parseUnsignedLong(plainTextMD5.substring(0, 16), 16))
+                .putLong(Long.parseUnsignedLong(plainTextMD5.substring(16, 32), 16));
+        ((Buffer) recordBuffer).flip();
+        while (recordBuffer.hasRemaining()) {
+            channel.write(recordBuffer);
+        }
+        entries.put(fingerprint.getPathHash(), fingerprint.contentHash(), 0);
+        records++;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (records >= MIN_RECORDS_TO_COMPACT && records > 2L * entries.size()) {
+                compact();
+            } else {
+                channel.force(false);
+            }
+        } finally {
+            lock.release();
+            channel.close();
+        }
+    }
+
+    /**
+     * Rewrites the index with the latest record of every path only.
+     */
+    private void compact() throws IOException {
+        final LongLongHashMap latestRecords = new LongLongHashMap(entries.size());
+        forEachRecord(channel, records, (index, record, buffer, offset) ->
+                latestRecords.put(record.getPathHash(), index, 0));
+
+        final Path compactedPath = indexPath.resolveSibling(indexPath.getFileName().toString().concat(".tmp"));
+        try (final FileChannel compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer outputBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            outputBuffer.put(MAGIC);
+            forEachRecord(channel, records, (index, record, buffer, offset) -> {
+                if (latestRecords.get(record.getPathHash(), -1) != index) {
+                    return;
+                }
+                if (outputBuffer.remaining() < RECORD_SIZE) {
+                    writeFully(compactedChannel, outputBuffer);
+                }
+                final ByteBuffer rawRecord = buffer.duplicate();
+                ((Buffer) rawRecord).limit(offset + RECORD_SIZE).position(offset);
+                outputBuffer.put(rawRecord);
+            });
+            writeFully(compactedChannel, outputBuffer);
+            compactedChannel.force(false);
+        }
+        Files.move(compactedPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Compacted index {} from {} to {} records", indexPath, records, latestRecords.size());
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records every successfully encrypted file in the {@link FingerprintIndex}. The fingerprint is taken before the
+ * file is encrypted and checked again afterwards, so a file modified during the encryption is encrypted again by
+ * the next run.
+ */
+public class FingerprintIndexListener implements TaskListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FingerprintIndexListener.class);
+
+    private final FingerprintIndex fingerprintIndex;
+    private final Map<FileToProcess, FileFingerprint> startFingerprints = new ConcurrentHashMap<>();
+
+    public FingerprintIndexListener(final FingerprintIndex fingerprintIndex) {
+        this.fingerprintIndex = fingerprintIndex;
+    }
+
+    @Override
+    public void onStarted(final FileToProcess fileToProcess) {
+        try {
+            startFingerprints.put(fileToProcess, FileFingerprint.of(fileToProcess.getFileToEncryptPath()));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to fingerprint {}, it will not be added to the index - {}",
+                    fileToProcess.getFileToEncryptPath(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+        final FileFingerprint startFingerprint = startFingerprints.remove(fileToProcess);
+        if (startFingerprint == null || encryptionResult == null) {
+            return;
+        }
+        try {
+            if (!startFingerprint.equals(FileFingerprint.of(fileToProcess.getFileToEncryptPath()))) {
+                LOGGER.warn("File {} has changed while it was encrypted, it will not be added to the index",
+                        fileToProcess.getFileToEncryptPath());
+                return;
+            }
+            fingerprintIndex.record(startFingerprint, encryptionResult.getPlainTextMD5());
+        } catch (IOException e) {
+            LOGGER.error("Unable to add {} to the index - {}", fileToProcess.getFileToEncryptPath(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+        startFingerprints.remove(fileToProcess);
+    }
+}
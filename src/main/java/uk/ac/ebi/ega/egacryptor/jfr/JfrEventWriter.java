@@ -0,0 +1,123 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.jfr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Only loaded by {@link JfrEvents} once the JFR API is known to exist.
+ */
+class JfrEventWriter {
+
+    private JfrEventWriter() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    static void fileDiscovered(final Path path) {
+        final FileDiscoveredEvent event = new FileDiscoveredEvent();
+        if (event.isEnabled()) {
+            event.path = path.toString();
+            event.size = sizeOf(path);
+            event.commit();
+        }
+    }
+
+    static void fileQueued(final Path path) {
+        final FileQueuedEvent event = new FileQueuedEvent();
+        if (event.isEnabled()) {
+            event.path = path.toString();
+            event.size = sizeOf(path);
+            event.commit();
+        }
+    }
+
+    static void fileStarted(final Path path) {
+        final FileStartedEvent event = new FileStartedEvent();
+        if (event.isEnabled()) {
+            event.path = path.toString();
+            event.size = sizeOf(path);
+            event.commit();
+        }
+    }
+
+    static void fileCommitted(final Path path, final long bytesRead, final long bytesWritten) {
+        final FileCommittedEvent event = new FileCommittedEvent();
+        if (event.isEnabled()) {
+            event.path = path.toString();
+            event.bytesRead = bytesRead;
+            event.bytesWritten = bytesWritten;
+            event.commit();
+        }
+    }
+
+    static void fileSkipped(final Path path, final String reason) {
+        final FileSkippedEvent event = new FileSkippedEvent();
+        if (event.isEnabled()) {
+            event.path = path.toString();
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    static void fileFailed(final Path path, final Throwable throwable) {
+        final FileFailedEvent event = new FileFailedEvent();
+        if (event.isEnabled()) {
+            Throwable cause = throwable;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            event.path = path.toString();
+            event.message = String.valueOf(cause.getMessage());
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the started stage, or null if the event is disabled.
+     */
+    static JfrEvents.Stage stage(final Path path, final String stage) {
+        final PipelineStageEvent event = new PipelineStageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.path = path.toString();
+        event.stage = stage;
+        event.begin();
+        return new JfrEvents.Stage() {
+            @Override
+            public void setBytes(final long bytes) {
+                event.bytes = bytes;
+            }
+
+            @Override
+            public void close() {
+                event.commit();
+            }
+        };
+    }
+
+    private static long sizeOf(final Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.jfr;
+
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+
+import java.nio.file.Path;
+
+/**
+ * Emits the Java Flight Recorder events of the file lifecycle, so recordings can be tied to files. Events are only
+ * created while a recording has them enabled, which costs a flag check otherwise.
+ * <p>
+ * Java 8 runtimes before 8u262 have no JFR API; the event classes are then never loaded and all methods do nothing.
+ */
+public class JfrEvents {
+
+    /**
+     * Marks the end of a pipeline stage.
+     */
+    public interface Stage extends AutoCloseable {
+
+        void setBytes(long bytes);
+
+        @Override
+        void close();
+    }
+
+    private static final Stage NO_STAGE = new Stage() {
+        @Override
+        public void setBytes(final long bytes) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final boolean AVAILABLE = isJfrAvailable();
+
+    private JfrEvents() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public static void fileDiscovered(final Path path) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileDiscovered(path);
+        }
+    }
+
+    public static void fileQueued(final FileToProcess fileToProcess) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileQueued(fileToProcess.getFileToEncryptPath());
+        }
+    }
+
+    public static void fileStarted(final FileToProcess fileToProcess) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileStarted(fileToProcess.getFileToEncryptPath());
+        }
+    }
+
+    public static void fileCommitted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileCommitted(fileToProcess.getFileToEncryptPath(), encryptionResult.getBytesRead(),
+                    encryptionResult.getBytesWritten());
+        }
+    }
+
+    public static void fileSkipped(final Path path, final String reason) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileSkipped(path, reason);
+        }
+    }
+
+    public static void fileFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+        if (AVAILABLE) {
+            JfrEventWriter.fileFailed(fileToProcess.getFileToEncryptPath(), throwable);
+        }
+    }
+
+    /**
+     * Starts a stage of the encryption of a file, which ends when the returned stage is closed.
+     */
+    public static Stage stage(final Path path, final String stage) {
+        if (AVAILABLE) {
+            final Stage jfrStage = JfrEventWriter.stage(path, stage);
+            if (jfrStage != null) {
+                return jfrStage;
+            }
+        }
+        return NO_STAGE;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Accountant for the buffer memory of all workers. Every file leases the memory its buffers need before it is
+ * processed and workers block while the budget is used up, so raising the number of threads can not exhaust the
+ * heap.
+ * <p>
+ * A file leases all of its buffers at once: leasing them one by one could leave every worker holding part of what
+ * it needs while waiting for the rest. A lease larger than the whole budget is granted when no other file holds a
+ * lease, so a small budget slows the run down but never blocks it. Memory needed for the whole run, e.g. buffer
+ * pools shared by the workers, is reserved up front.
+ */
+public class MemoryBudget implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryBudget.class);
+
+    private final long limit;
+    private long used;
+    private long peak;
+    private int activeLeases;
+
+    public MemoryBudget(final long limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Memory budget should be greater than 0");
+        }
+        this.limit = limit;
+    }
+
+    public static MemoryBudget unlimited() {
+        return new MemoryBudget(Long.MAX_VALUE);
+    }
+
+
+    /**
+     * Leases memory for the buffers of one file, blocking while the budget is used up.
+     */
+    public Lease lease(final long bytes) throws InterruptedIOException {
+        synchronized (this) {
+            try {
+                while (activeLeases > 0 && used + bytes > limit) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + bytes + " bytes of memory");
+            }
+            activeLeases++;
+            acquire(bytes);
+        }
+        return new Lease(bytes, true);
+    }
+
+    /**
+     * Reserves memory for the whole run without waiting.
+     *
+     * @throws IllegalArgumentException if the reservation leaves no memory for the files
+     */
+    public synchronized Lease reserve(final long bytes) {
+        if (used + bytes >= limit) {
+            throw new IllegalArgumentException("Memory budget of " + limit + " bytes is too small to reserve "
+                    + bytes + " bytes");
+        }
+        acquire(bytes);
+        return new Lease(bytes, false);
+    }
+
+    private void acquire(final long bytes) {
+        used += bytes;
+        peak = Math.max(peak, used);
+        LOGGER.trace("Leased {} bytes, {} of {} bytes in use", bytes, used, limit);
+    }
+
+    private synchronized void release(final long bytes, final boolean counted) {
+        used -= bytes;
+        if (counted) {
+            activeLeases--;
+        }
+        notifyAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info(toString());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Memory budget: ".concat(String.valueOf(used)).concat(" bytes in use, peak ")
+                .concat(String.valueOf(peak)).concat(" of ")
+                .concat(limit == Long.MAX_VALUE ? "unlimited" : String.valueOf(limit)).concat(" bytes");
+    }
+
+    public class Lease implements AutoCloseable {
+        private final long bytes;
+        private final boolean counted;
+        private boolean released;
+
+        private Lease(final long bytes, final boolean counted) {
+            this.bytes = bytes;
+            this.counted = counted;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(bytes, counted);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.model;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Output files written for one source file: the ciphertext and the checksum files of the ciphertext and of the
+ * plaintext. Any of them may be missing, e.g. when an earlier run was interrupted or files were moved by hand.
+ */
+public class EncryptedFileSet {
+    private final Path basePath;
+    private final Path encryptedFilePath;
+    private final Path encryptedMD5Path;
+    private final Path plainTextMD5Path;
+
+    public EncryptedFileSet(final Path basePath, final Path encryptedFilePath, final Path encryptedMD5Path,
+                            final Path plainTextMD5Path) {
+        this.basePath = basePath;
+        this.encryptedFilePath = encryptedFilePath;
+        this.encryptedMD5Path = encryptedMD5Path;
+        this.plainTextMD5Path = plainTextMD5Path;
+    }
+
+    /**
+     * @return the common path of the output files without their extensions.
+     */
+    public Path getBasePath() {
+        return basePath;
+    }
+
+    public Optional<Path> getEncryptedFilePath() {
+        return Optional.ofNullable(encryptedFilePath);
+    }
+
+    public Optional<Path> getEncryptedMD5Path() {
+        return Optional.ofNullable(encryptedMD5Path);
+    }
+
+    public Optional<Path> getPlainTextMD5Path() {
+        return Optional.ofNullable(plainTextMD5Path);
+    }
+
+    @Override
+    public String toString() {
+        return "EncryptedFileSet{".concat(
+                "encryptedFilePath=").concat(String.valueOf(encryptedFilePath)).concat(
+                ", encryptedMD5Path=").concat(String.valueOf(encryptedMD5Path)).concat(
+                ", plainTextMD5Path=").concat(String.valueOf(plainTextMD5Path)).concat("}");
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncryptedFileSet)) return false;
+
+        final EncryptedFileSet that = (EncryptedFileSet) o;
+
+        return basePath.equals(that.basePath)
+                && Objects.equals(encryptedFilePath, that.encryptedFilePath)
+                && Objects.equals(encryptedMD5Path, that.encryptedMD5Path)
+                && Objects.equals(plainTextMD5Path, that.plainTextMD5Path);
+    }
+
+    @Override
+    public int hashCode() {
+        return basePath.hashCode();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.model;
+
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+
+public class EncryptionResult {
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final String plainTextMD5;
+    private final String encryptedMD5;
+    private final StageTimings stageTimings;
+
+    public EncryptionResult(final long bytesRead, final long bytesWritten, final String plainTextMD5,
+                            final String encryptedMD5) {
+        this(bytesRead, bytesWritten, plainTextMD5, encryptedMD5, null);
+    }
+
+    public EncryptionResult(final long bytesRead, final long bytesWritten, final String plainTextMD5,
+                            final String encryptedMD5, final StageTimings stageTimings) {
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.plainTextMD5 = plainTextMD5;
+        this.encryptedMD5 = encryptedMD5;
+        this.stageTimings = stageTimings;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String getPlainTextMD5() {
+        return plainTextMD5;
+    }
+
+    public String getEncryptedMD5() {
+        return encryptedMD5;
+    }
+
+    /**
+     * @return the time spent in each stream stage, or null if stage timing is disabled.
+     */
+    public StageTimings getStageTimings() {
+        return stageTimings;
+    }
+
+    @Override
+    public String toString() {
+        return "EncryptionResult{".concat(
+                "bytesRead=").concat(String.valueOf(bytesRead)).concat(
+                ", bytesWritten=").concat(String.valueOf(bytesWritten)).concat(
+                ", plainTextMD5=").concat(plainTextMD5).concat(
+                ", encryptedMD5=").concat(encryptedMD5).concat("}");
+    }
+}
@@ -22,10 +22,20 @@ import java.nio.file.Path;
 public class FileToProcess {
     private final Path fileToEncryptPath;
     private final Path outputFilePath;
+    private final Path rootPath;
 
-    public FileToProcess(final Path fileToEncryptPath, final Path outputFilePath) {
+    /**
+     * @param rootPath Input root the file was discovered under. Files of different roots share the workers fairly.
+     *                 It does not take part in equality.
+     */
+    public FileToProcess(final Path fileToEncryptPath, final Path outputFilePath, final Path rootPath) {
         this.fileToEncryptPath = fileToEncryptPath;
         this.outputFilePath = outputFilePath;
+        this.rootPath = rootPath;
+    }
+
+    public FileToProcess(final Path fileToEncryptPath, final Path outputFilePath) {
+        this(fileToEncryptPath, outputFilePath, fileToEncryptPath);
     }
 
     public FileToProcess(final Path fileToEncryptPath) {
@@ -40,6 +50,10 @@ public class FileToProcess {
         return outputFilePath;
     }
 
+    public Path getRootPath() {
+        return rootPath;
+    }
+
     @Override
     public String toString() {
         return "FileToProcess{".concat(
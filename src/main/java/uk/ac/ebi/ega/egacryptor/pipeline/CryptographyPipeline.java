@@ -17,8 +17,28 @@
  */
 package uk.ac.ebi.ega.egacryptor.pipeline;
 
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
 public interface CryptographyPipeline {
-    void process(final FileToProcess fileToProcess);
+    /**
+     * @return checksums of the encrypted file, or empty if the file was skipped because its output files exist
+     */
+    Optional<EncryptionResult> process(final FileToProcess fileToProcess);
+
+    /**
+     * Encrypts a stream, e.g. stdin or a named pipe, without any file naming or skip logic.
+     * Both streams are closed once the encrypted data has been written.
+     */
+    EncryptionResult process(final InputStream inputStream, final OutputStream outputStream);
+
+    /**
+     * @return the extension of the encrypted files written by this pipeline
+     */
+    FileExtensionType getFileExtensionType();
 }
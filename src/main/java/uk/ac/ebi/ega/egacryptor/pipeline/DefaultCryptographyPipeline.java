@@ -19,95 +19,243 @@ package uk.ac.ebi.ega.egacryptor.pipeline;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
 import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
 import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
 import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
 import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.memory.MemoryBudget;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+import uk.ac.ebi.ega.egacryptor.stream.CountingOutputStream;
 import uk.ac.ebi.ega.egacryptor.stream.pipeline.DefaultStream;
 import uk.ac.ebi.ega.egacryptor.stream.pipeline.PipelineStream;
+import uk.ac.ebi.ega.egacryptor.stream.pipeline.ReadBufferSize;
+import uk.ac.ebi.ega.egacryptor.stream.timing.Stage;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+import uk.ac.ebi.ega.egacryptor.stream.timing.TimedInputStream;
+import uk.ac.ebi.ega.egacryptor.stream.timing.TimedOutputStream;
+import uk.ac.ebi.ega.egacryptor.throttle.BandwidthLimiter;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.Optional;
 
-import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.GPG;
 import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
-import static uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils.writeToFile;
 
 public class DefaultCryptographyPipeline implements CryptographyPipeline {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultCryptographyPipeline.class);
 
-    private final int bufferSize;
+    private final ReadBufferSize readBufferSize;
     private final Cryptography cryptography;
+    private final OutputSink outputSink;
+    private final MemoryBudget memoryBudget;
+    private final boolean stageTiming;
+    private final BandwidthLimiter bandwidthLimiter;
 
     public DefaultCryptographyPipeline(final Cryptography cryptography, final int bufferSize) {
+        this(cryptography, bufferSize, new FileSystemOutputSink());
+    }
+
+    public DefaultCryptographyPipeline(final Cryptography cryptography, final int bufferSize,
+                                       final OutputSink outputSink) {
+        this(cryptography, ReadBufferSize.fixed(bufferSize), outputSink);
+    }
+
+    public DefaultCryptographyPipeline(final Cryptography cryptography, final ReadBufferSize readBufferSize,
+                                       final OutputSink outputSink) {
+        this(cryptography, readBufferSize, outputSink, MemoryBudget.unlimited());
+    }
+
+    public DefaultCryptographyPipeline(final Cryptography cryptography, final ReadBufferSize readBufferSize,
+                                       final OutputSink outputSink, final MemoryBudget memoryBudget) {
+        this(cryptography, readBufferSize, outputSink, memoryBudget, false);
+    }
+
+    /**
+     * @param stageTiming Times each layer of the stream chain and returns the breakdown with the result of each file.
+     *                    Costs two clock reads per layer and buffer, so it is off by default.
+     */
+    public DefaultCryptographyPipeline(final Cryptography cryptography, final ReadBufferSize readBufferSize,
+                                       final OutputSink outputSink, final MemoryBudget memoryBudget,
+                                       final boolean stageTiming) {
+        this(cryptography, readBufferSize, outputSink, memoryBudget, stageTiming, BandwidthLimiter.unlimited());
+    }
+
+    /**
+     * @param bandwidthLimiter Caps the bandwidth of the files read by this pipeline, all together and each.
+     */
+    public DefaultCryptographyPipeline(final Cryptography cryptography, final ReadBufferSize readBufferSize,
+                                       final OutputSink outputSink, final MemoryBudget memoryBudget,
+                                       final boolean stageTiming, final BandwidthLimiter bandwidthLimiter) {
         this.cryptography = cryptography;
-        this.bufferSize = bufferSize;
+        this.readBufferSize = readBufferSize;
+        this.outputSink = outputSink;
+        this.memoryBudget = memoryBudget;
+        this.stageTiming = stageTiming;
+        this.bandwidthLimiter = bandwidthLimiter;
+        if (outputSink.getSharedBufferMemory() > 0) {
+            // Held for as long as the pipeline exists
+            memoryBudget.reserve(outputSink.getSharedBufferMemory());
+        }
     }
 
     @Override
-    public void process(final FileToProcess fileToProcess) {
+    public Optional<EncryptionResult> process(final FileToProcess fileToProcess) {
         LOGGER.trace("Cryptography process is running");
         LOGGER.debug("filePathToEncrypt={}", fileToProcess);
         try {
-            doProcess(fileToProcess);
+            return doProcess(fileToProcess);
         } catch (CryptographyException | IOException e) {
             LOGGER.error("Error while executing cryptography pipeline - {}", e.getMessage());
             throw new RuntimeException("Error while processing request", e);
         }
     }
 
-    private void doProcess(final FileToProcess fileToProcess) throws CryptographyException, IOException {
-        final File inputFile = fileToProcess.getFileToEncryptPath().toFile();
-        final Path outputFilePath = fileToProcess.getOutputFilePath();
-        final File outputFile = outputFilePath.toFile();
-
-        if (!outputFile.exists() && !outputFile.mkdirs()) {
-            final String message = String.format("The \"%s\" directory does not exist and it was not possible " +
-                    "to create it, or one of its parent directories.", outputFilePath);
-            throw new FileNotFoundException(message);
-        }
-
-        final File outputFileMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
-                concat(MD5.getFileExtension())).toFile();
-        final File outputFileGPG = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
-                concat(GPG.getFileExtension())).toFile();
-        final File outputFileGPGMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
-                concat(GPG.getFileExtension().concat(MD5.getFileExtension()))).toFile();
-
-        if (outputFileMD5.exists() || outputFileGPG.exists() || outputFileGPGMD5.exists()) {
-            LOGGER.info("Process skip for file {}. All or some of these files are already exists - {},{},{}", inputFile.getPath(),
-                    outputFileMD5.getPath(), outputFileGPG.getPath(), outputFileGPGMD5.getPath());
-            return;
+    @Override
+    public EncryptionResult process(final InputStream inputStream, final OutputStream outputStream) {
+        LOGGER.trace("Cryptography stream process is running");
+        final int bufferSize = readBufferSize.getDefaultSize();
+        try {
+            final MemoryBudget.Lease lease = memoryBudget.lease(bufferSize + cryptography.getBufferMemory());
+            try (final OutputStream encryptedOutputStream = outputStream) {
+                final EncryptionResult encryptionResult = encrypt(inputStream, encryptedOutputStream, bufferSize);
+                logStageTimings("Stream", encryptionResult);
+                return encryptionResult;
+            } finally {
+                lease.close();
+            }
+        } catch (CryptographyException | IOException e) {
+            LOGGER.error("Error while executing cryptography pipeline - {}", e.getMessage());
+            throw new RuntimeException("Error while processing request", e);
         }
+    }
 
+    /**
+     * Closes the input stream but only flushes the output stream, which the caller closes, or aborts if the
+     * encryption failed.
+     */
+    private EncryptionResult encrypt(final InputStream inputStream, final OutputStream outputStream,
+                                     final int bufferSize) throws CryptographyException, IOException {
         final MessageDigest inputStreamMessageDigest = Hash.getMD5();
         final MessageDigest outputStreamMessageDigest = Hash.getMD5();
 
+        final StageTimings stageTimings = stageTiming ? new StageTimings() : null;
+        final CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        final OutputStream digestOutputStream = TimedOutputStream.wrap(new DigestOutputStream(
+                TimedOutputStream.wrap(countingOutputStream, Stage.WRITE, stageTimings), outputStreamMessageDigest),
+                Stage.ENCRYPTED_MD5, stageTimings);
         long bytesRead;
 
-        try (final DigestInputStream digestInputStream = new DigestInputStream(Files.newInputStream(inputFile.toPath()), inputStreamMessageDigest);
-             final DigestOutputStream digestOutputStream = new DigestOutputStream(Files.newOutputStream(outputFileGPG.toPath()), outputStreamMessageDigest)) {
-            final OutputStream pgpEncryptedOutputStream = cryptography.encrypt(digestOutputStream);
-            try (final PipelineStream pipelineStream = new DefaultStream(digestInputStream, pgpEncryptedOutputStream, bufferSize)) {
-                LOGGER.info("File \"{}\" is being processed", inputFile.getPath());
+        try (final InputStream digestInputStream = TimedInputStream.wrap(new DigestInputStream(
+                TimedInputStream.wrap(inputStream, Stage.READ, stageTimings), inputStreamMessageDigest),
+                Stage.PLAINTEXT_MD5, stageTimings)) {
+            final OutputStream pgpEncryptedOutputStream = cryptography.encrypt(digestOutputStream, stageTimings);
+            try (final PipelineStream pipelineStream = new DefaultStream(digestInputStream,
+                    pgpEncryptedOutputStream, bufferSize, bandwidthLimiter.newFileThrottle())) {
                 bytesRead = pipelineStream.execute();
             }
         }
-        writeToFile(outputFileMD5, Hash.normalize(inputStreamMessageDigest));
-        writeToFile(outputFileGPGMD5, Hash.normalize(outputStreamMessageDigest));
+        digestOutputStream.flush();
+        return new EncryptionResult(bytesRead, countingOutputStream.getCount(), Hash.normalize(inputStreamMessageDigest),
+                Hash.normalize(outputStreamMessageDigest), stageTimings);
+    }
+
+    @Override
+    public FileExtensionType getFileExtensionType() {
+        return cryptography.getFileExtensionType();
+    }
+
+    private Optional<EncryptionResult> doProcess(final FileToProcess fileToProcess)
+            throws CryptographyException, IOException {
+        final File inputFile = fileToProcess.getFileToEncryptPath().toFile();
+        final Path outputFilePath = fileToProcess.getOutputFilePath();
+
+        outputSink.createDirectories(outputFilePath);
+
+        final Path outputFileMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
+                concat(MD5.getFileExtension()));
+        final String encryptedFileExtension = cryptography.getFileExtensionType().getFileExtension();
+        final Path outputFileEncrypted = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
+                concat(encryptedFileExtension));
+        final Path outputFileEncryptedMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(inputFile.getName().
+                concat(encryptedFileExtension.concat(MD5.getFileExtension())));
+
+        if (outputSink.exists(outputFileMD5) || outputSink.exists(outputFileEncrypted) || outputSink.exists(outputFileEncryptedMD5)) {
+            LOGGER.info("Process skip for file {}. All or some of these files are already exists - {},{},{}", inputFile.getPath(),
+                    outputFileMD5, outputFileEncrypted, outputFileEncryptedMD5);
+            JfrEvents.fileSkipped(inputFile.toPath(), "output files already exist");
+            return Optional.empty();
+        }
+
+        final int bufferSize = readBufferSize.forFile(inputFile.toPath());
+        final JfrEvents.Stage leaseStage = JfrEvents.stage(inputFile.toPath(), "lease memory");
+        final MemoryBudget.Lease lease;
+        try {
+            lease = memoryBudget.lease(bufferSize + cryptography.getBufferMemory()
+                    + outputSink.getBufferMemoryPerStream());
+        } finally {
+            leaseStage.close();
+        }
+        final EncryptionResult encryptionResult;
+        try (final JfrEvents.Stage encryptStage = JfrEvents.stage(inputFile.toPath(), "encrypt");
+             final InputStream inputStream = Files.newInputStream(inputFile.toPath())) {
+            LOGGER.info("File \"{}\" is being processed", inputFile.getPath());
+            encryptionResult = encryptToSink(inputStream, outputFileEncrypted, bufferSize);
+            encryptStage.setBytes(encryptionResult.getBytesRead());
+        } finally {
+            lease.close();
+        }
+        final JfrEvents.Stage checksumStage = JfrEvents.stage(inputFile.toPath(), "write checksums");
+        try {
+            outputSink.write(outputFileMD5, encryptionResult.getPlainTextMD5());
+            outputSink.write(outputFileEncryptedMD5, encryptionResult.getEncryptedMD5());
+        } finally {
+            checksumStage.close();
+        }
+        JfrEvents.fileCommitted(fileToProcess, encryptionResult);
         LOGGER.info("File {} is successfully encrypted. " +
                         "Total bytes read: {}. " +
                         "The following files have been generated: {}, {}, {}",
                 inputFile.getPath(),
-                bytesRead,
-                outputFileMD5.getPath(), outputFileGPG.getPath(), outputFileGPGMD5.getPath());
+                encryptionResult.getBytesRead(),
+                outputFileMD5, outputFileEncrypted, outputFileEncryptedMD5);
+        logStageTimings(inputFile.getPath(), encryptionResult);
+        return Optional.of(encryptionResult);
+    }
+
+    /**
+     * Commits the encrypted file only once all of it has been written. A failed file is discarded by the sink, as a
+     * truncated file under the final name would be skipped by every rerun.
+     */
+    private EncryptionResult encryptToSink(final InputStream inputStream, final Path outputFileEncrypted,
+                                           final int bufferSize) throws CryptographyException, IOException {
+        final SinkOutputStream outputStream = outputSink.newOutputStream(outputFileEncrypted);
+        final EncryptionResult encryptionResult;
+        try {
+            encryptionResult = encrypt(inputStream, outputStream, bufferSize);
+        } catch (CryptographyException | IOException | RuntimeException e) {
+            outputStream.abort();
+            throw e;
+        }
+        outputStream.close();
+        return encryptionResult;
+    }
+
+    private static void logStageTimings(final String source, final EncryptionResult encryptionResult) {
+        if (encryptionResult.getStageTimings() != null) {
+            LOGGER.info("{} stage timings: {}", source, encryptionResult.getStageTimings());
+        }
     }
 }
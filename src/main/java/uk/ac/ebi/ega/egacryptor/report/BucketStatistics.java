@@ -0,0 +1,83 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latency percentiles and throughput of the files of one size bucket which were encrypted.
+ */
+public class BucketStatistics {
+
+    private final SizeBucket sizeBucket;
+    private final long[] sortedWallMillis;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long totalWallMillis;
+
+    BucketStatistics(final SizeBucket sizeBucket, final List<FileReport> completedFiles) {
+        this.sizeBucket = sizeBucket;
+        this.sortedWallMillis = completedFiles.stream().mapToLong(FileReport::getWallMillis).sorted().toArray();
+        this.bytesIn = completedFiles.stream().mapToLong(FileReport::getBytesIn).sum();
+        this.bytesOut = completedFiles.stream().mapToLong(FileReport::getBytesOut).sum();
+        this.totalWallMillis = Arrays.stream(sortedWallMillis).sum();
+    }
+
+    public SizeBucket getSizeBucket() {
+        return sizeBucket;
+    }
+
+    public int getFiles() {
+        return sortedWallMillis.length;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100.
+     * @return the wall time in milliseconds not exceeded by the given percentage of files (nearest rank).
+     */
+    public long getWallMillisPercentile(final double percentile) {
+        if (sortedWallMillis.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100.0 * sortedWallMillis.length);
+        return sortedWallMillis[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * @return the average throughput of a single worker in MiB per second.
+     */
+    public double getMibPerSecond() {
+        return FileReport.mibPerSecond(bytesIn, totalWallMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d file(s), p50 %d ms, p90 %d ms, p99 %d ms, max %d ms, %.1f MiB/s per worker",
+                sizeBucket.getLabel(), getFiles(), getWallMillisPercentile(50), getWallMillisPercentile(90),
+                getWallMillisPercentile(99), getWallMillisPercentile(100), getMibPerSecond());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+
+import java.nio.file.Path;
+
+public class FileReport {
+
+    public enum Status {
+        COMPLETED, SKIPPED, FAILED
+    }
+
+    private final Path path;
+    private final Status status;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long queueWaitMillis;
+    private final long wallMillis;
+    private final String thread;
+    private final String reason;
+    private final StageTimings stageTimings;
+
+    public FileReport(final Path path, final Status status, final long bytesIn, final long bytesOut,
+                      final long queueWaitMillis, final long wallMillis, final String thread, final String reason) {
+        this(path, status, bytesIn, bytesOut, queueWaitMillis, wallMillis, thread, reason, null);
+    }
+
+    public FileReport(final Path path, final Status status, final long bytesIn, final long bytesOut,
+                      final long queueWaitMillis, final long wallMillis, final String thread, final String reason,
+                      final StageTimings stageTimings) {
+        this.path = path;
+        this.status = status;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.queueWaitMillis = queueWaitMillis;
+        this.wallMillis = wallMillis;
+        this.thread = thread;
+        this.reason = reason;
+        this.stageTimings = stageTimings;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return encrypted size divided by plaintext size, or 0 if nothing was encrypted.
+     */
+    public double getCompressionRatio() {
+        return bytesIn == 0 || status != Status.COMPLETED ? 0 : (double) bytesOut / bytesIn;
+    }
+
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    public double getMibPerSecond() {
+        return mibPerSecond(bytesIn, wallMillis);
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * @return why the file was skipped or failed, or an empty string.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the time spent in each stream stage, or null if stage timing is disabled.
+     */
+    public StageTimings getStageTimings() {
+        return stageTimings;
+    }
+
+    public SizeBucket getSizeBucket() {
+        return SizeBucket.of(bytesIn);
+    }
+
+    static double mibPerSecond(final long bytes, final long millis) {
+        return millis == 0 ? 0 : bytes / (1024.0 * 1024.0) / (millis / 1000.0);
+    }
+}
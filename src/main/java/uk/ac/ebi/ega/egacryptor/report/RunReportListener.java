@@ -0,0 +1,171 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Records the sizes and timings of every file of a run and writes them as a JSON or CSV report once the run ends,
+ * i.e. when the listener is closed. The format is chosen by the extension of the report file.
+ */
+public class RunReportListener implements TaskListener, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RunReportListener.class);
+
+    private static final String OUTPUT_EXISTS = "output files already exist";
+
+    private final Path reportPath;
+    private final long startedAtMillis = System.currentTimeMillis();
+    private final Map<FileToProcess, Timing> timings = new ConcurrentHashMap<>();
+    private final List<FileReport> fileReports = new ArrayList<>();
+
+    public RunReportListener(final Path reportPath) {
+        this.reportPath = reportPath;
+    }
+
+    @Override
+    public void onQueued(final FileToProcess fileToProcess) {
+        timings.computeIfAbsent(fileToProcess, key -> new Timing()).queuedNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onStarted(final FileToProcess fileToProcess) {
+        final Timing timing = timings.computeIfAbsent(fileToProcess, key -> new Timing());
+        timing.startedNanos = System.nanoTime();
+        timing.thread = Thread.currentThread().getName();
+    }
+
+    @Override
+    public void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+        if (encryptionResult == null) {
+            record(fileToProcess, FileReport.Status.SKIPPED, sizeOf(fileToProcess), 0, OUTPUT_EXISTS, null);
+        } else {
+            record(fileToProcess, FileReport.Status.COMPLETED, encryptionResult.getBytesRead(),
+                    encryptionResult.getBytesWritten(), "", encryptionResult.getStageTimings());
+        }
+    }
+
+    @Override
+    public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        record(fileToProcess, FileReport.Status.FAILED, sizeOf(fileToProcess), 0, String.valueOf(cause.getMessage()),
+                null);
+    }
+
+    private void record(final FileToProcess fileToProcess, final FileReport.Status status, final long bytesIn,
+                        final long bytesOut, final String reason, final StageTimings stageTimings) {
+        final long now = System.nanoTime();
+        final Timing timing = timings.remove(fileToProcess);
+        final long startedNanos = timing == null || timing.startedNanos == 0 ? now : timing.startedNanos;
+        final long queuedNanos = timing == null || timing.queuedNanos == 0 ? startedNanos : timing.queuedNanos;
+        final FileReport fileReport = new FileReport(fileToProcess.getFileToEncryptPath(), status, bytesIn, bytesOut,
+                TimeUnit.NANOSECONDS.toMillis(startedNanos - queuedNanos),
+                TimeUnit.NANOSECONDS.toMillis(now - startedNanos),
+                timing == null || timing.thread == null ? Thread.currentThread().getName() : timing.thread, reason,
+                stageTimings);
+        synchronized (fileReports) {
+            fileReports.add(fileReport);
+        }
+    }
+
+    private static long sizeOf(final FileToProcess fileToProcess) {
+        try {
+            return Files.size(fileToProcess.getFileToEncryptPath());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public List<FileReport> getFileReports() {
+        synchronized (fileReports) {
+            return new ArrayList<>(fileReports);
+        }
+    }
+
+    /**
+     * @return the statistics of the encrypted files of every size bucket which has any.
+     */
+    public Map<SizeBucket, BucketStatistics> getBucketStatistics() {
+        final Map<SizeBucket, BucketStatistics> bucketStatistics = new EnumMap<>(SizeBucket.class);
+        getFileReports().stream()
+                .filter(fileReport -> fileReport.getStatus() == FileReport.Status.COMPLETED)
+                .collect(Collectors.groupingBy(FileReport::getSizeBucket))
+                .forEach((sizeBucket, files) -> bucketStatistics.put(sizeBucket, new BucketStatistics(sizeBucket, files)));
+        return bucketStatistics;
+    }
+
+    /**
+     * @return the stage timings of all files added up, or null if stage timing is disabled.
+     */
+    public StageTimings getStageTimings() {
+        StageTimings runStageTimings = null;
+        for (final FileReport fileReport : getFileReports()) {
+            if (fileReport.getStageTimings() != null) {
+                if (runStageTimings == null) {
+                    runStageTimings = new StageTimings();
+                }
+                runStageTimings.add(fileReport.getStageTimings());
+            }
+        }
+        return runStageTimings;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<FileReport> reports = getFileReports();
+        final Map<SizeBucket, BucketStatistics> bucketStatistics = getBucketStatistics();
+        bucketStatistics.values().forEach(statistics -> LOGGER.info("{}", statistics));
+        final StageTimings stageTimings = getStageTimings();
+        if (stageTimings != null) {
+            LOGGER.info("Run stage timings: {}", stageTimings);
+        }
+        if (reportPath.getFileName().toString().toLowerCase().endsWith(".csv")) {
+            RunReportWriter.writeCsv(reportPath, reports);
+        } else {
+            RunReportWriter.writeJson(reportPath, startedAtMillis, System.currentTimeMillis(), reports,
+                    bucketStatistics.values(), stageTimings);
+        }
+        LOGGER.info("Run report of {} file(s) written to {}", reports.size(), reportPath);
+    }
+
+    private static class Timing {
+        private volatile long queuedNanos;
+        private volatile long startedNanos;
+        private volatile String thread;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+import uk.ac.ebi.ega.egacryptor.stream.timing.Stage;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+public class RunReportWriter {
+
+    private static final String CSV_HEADER = "path,status,bytes_in,bytes_out,compression_ratio,queue_wait_ms," +
+            "wall_ms,mib_per_s,thread,reason";
+
+    private RunReportWriter() {
+        throw new IllegalStateException("Utility class.");
+    }
+
+    public static void writeCsv(final Path reportPath, final List<FileReport> fileReports) throws IOException {
+        try (final BufferedWriter writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            writer.write(CSV_HEADER);
+            for (final Stage stage : Stage.values()) {
+                writer.write(",".concat(stage.name().toLowerCase()).concat("_ms"));
+            }
+            writer.newLine();
+            for (final FileReport fileReport : fileReports) {
+                writer.write(String.join(",",
+                        csv(fileReport.getPath().toString()),
+                        fileReport.getStatus().name(),
+                        String.valueOf(fileReport.getBytesIn()),
+                        String.valueOf(fileReport.getBytesOut()),
+                        decimal(fileReport.getCompressionRatio()),
+                        String.valueOf(fileReport.getQueueWaitMillis()),
+                        String.valueOf(fileReport.getWallMillis()),
+                        decimal(fileReport.getMibPerSecond()),
+                        csv(fileReport.getThread()),
+                        csv(fileReport.getReason())));
+                for (final Stage stage : Stage.values()) {
+                    writer.write(',');
+                    if (fileReport.getStageTimings() != null) {
+                        writer.write(String.valueOf(fileReport.getStageTimings().getMillis(stage)));
+                    }
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    public static void writeJson(final Path reportPath, final long startedAtMillis, final long finishedAtMillis,
+                                 final List<FileReport> fileReports,
+                                 final Collection<BucketStatistics> bucketStatistics,
+                                 final StageTimings stageTimings) throws IOException {
+        long bytesIn = 0;
+        long bytesOut = 0;
+        final int[] statusCounts = new int[FileReport.Status.values().length];
+        for (final FileReport fileReport : fileReports) {
+            statusCounts[fileReport.getStatus().ordinal()]++;
+            if (fileReport.getStatus() == FileReport.Status.COMPLETED) {
+                bytesIn += fileReport.getBytesIn();
+                bytesOut += fileReport.getBytesOut();
+            }
+        }
+        final long runMillis = finishedAtMillis - startedAtMillis;
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"startedAt\": " + json(Instant.ofEpochMilli(startedAtMillis).toString()) + ",\n");
+            writer.write("  \"finishedAt\": " + json(Instant.ofEpochMilli(finishedAtMillis).toString()) + ",\n");
+            writer.write("  \"totals\": {\"files\": " + fileReports.size()
+                    + ", \"completed\": " + statusCounts[FileReport.Status.COMPLETED.ordinal()]
+                    + ", \"skipped\": " + statusCounts[FileReport.Status.SKIPPED.ordinal()]
+                    + ", \"failed\": " + statusCounts[FileReport.Status.FAILED.ordinal()]
+                    + ", \"bytesIn\": " + bytesIn
+                    + ", \"bytesOut\": " + bytesOut
+                    + ", \"compressionRatio\": " + decimal(bytesIn == 0 ? 0 : (double) bytesOut / bytesIn)
+                    + ", \"wallMillis\": " + runMillis
+                    + ", \"mibPerSecond\": " + decimal(FileReport.mibPerSecond(bytesIn, runMillis))
+                    + stageMillis(stageTimings) + "},\n");
+
+            writer.write("  \"sizeBuckets\": [");
+            String separator = "\n";
+            for (final BucketStatistics statistics : bucketStatistics) {
+                writer.write(separator);
+                writer.write("    {\"bucket\": " + json(statistics.getSizeBucket().getLabel())
+                        + ", \"files\": " + statistics.getFiles()
+                        + ", \"bytesIn\": " + statistics.getBytesIn()
+                        + ", \"bytesOut\": " + statistics.getBytesOut()
+                        + ", \"p50WallMillis\": " + statistics.getWallMillisPercentile(50)
+                        + ", \"p90WallMillis\": " + statistics.getWallMillisPercentile(90)
+                        + ", \"p99WallMillis\": " + statistics.getWallMillisPercentile(99)
+                        + ", \"maxWallMillis\": " + statistics.getWallMillisPercentile(100)
+                        + ", \"mibPerSecond\": " + decimal(statistics.getMibPerSecond()) + "}");
+                separator = ",\n";
+            }
+            writer.write("\n  ],\n");
+
+            writer.write("  \"files\": [");
+            separator = "\n";
+            for (final FileReport fileReport : fileReports) {
+                writer.write(separator);
+                writer.write("    {\"path\": " + json(fileReport.getPath().toString())
+                        + ", \"status\": " + json(fileReport.getStatus().name())
+                        + ", \"bytesIn\": " + fileReport.getBytesIn()
+                        + ", \"bytesOut\": " + fileReport.getBytesOut()
+                        + ", \"compressionRatio\": " + decimal(fileReport.getCompressionRatio())
+                        + ", \"queueWaitMillis\": " + fileReport.getQueueWaitMillis()
+                        + ", \"wallMillis\": " + fileReport.getWallMillis()
+                        + ", \"mibPerSecond\": " + decimal(fileReport.getMibPerSecond())
+                        + ", \"thread\": " + json(fileReport.getThread())
+                        + ", \"reason\": " + json(fileReport.getReason())
+                        + stageMillis(fileReport.getStageTimings()) + "}");
+                separator = ",\n";
+            }
+            writer.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String stageMillis(final StageTimings stageTimings) {
+        if (stageTimings == null) {
+            return "";
+        }
+        final StringBuilder builder = new StringBuilder(", \"stageMillis\": {");
+        for (final Stage stage : Stage.values()) {
+            builder.append(stage == Stage.READ ? "" : ", ").append(json(stage.name().toLowerCase())).append(": ")
+                    .append(stageTimings.getMillis(stage));
+        }
+        return builder.append("}, \"limitingStage\": ")
+                .append(json(stageTimings.getLimitingStage().name().toLowerCase())).toString();
+    }
+
+    private static String decimal(final double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String csv(final String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"".concat(value.replace("\"", "\"\"")).concat("\"");
+    }
+
+    private static String json(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+/**
+ * File size ranges the run totals are broken down by, as small and large files have very different latencies.
+ */
+public enum SizeBucket {
+    UP_TO_1_MIB("<1MiB", 1L << 20),
+    UP_TO_100_MIB("1MiB-100MiB", 100L << 20),
+    UP_TO_1_GIB("100MiB-1GiB", 1L << 30),
+    UP_TO_10_GIB("1GiB-10GiB", 10L << 30),
+    UP_TO_100_GIB("10GiB-100GiB", 100L << 30),
+    LARGER(">=100GiB", Long.MAX_VALUE);
+
+    private final String label;
+    private final long upperBound;
+
+    SizeBucket(final String label, final long upperBound) {
+        this.label = label;
+        this.upperBound = upperBound;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static SizeBucket of(final long size) {
+        for (final SizeBucket sizeBucket : values()) {
+            if (size < sizeBucket.upperBound) {
+                return sizeBucket;
+            }
+        }
+        return LARGER;
+    }
+}
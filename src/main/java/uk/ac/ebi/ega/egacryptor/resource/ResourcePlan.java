@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.resource;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CPU and memory this process may use as found by the {@link ResourcePlanner}, with the worker count and
+ * buffer budget derived from it and the reasons for each decision.
+ */
+public class ResourcePlan {
+
+    private final int cpus;
+    private final boolean allocated;
+    private final long memoryLimit;
+    private final long maxHeap;
+    private final long bufferBudget;
+    private final List<String> decisions;
+
+    ResourcePlan(final int cpus, final boolean allocated, final long memoryLimit, final long maxHeap,
+                 final long bufferBudget, final List<String> decisions) {
+        this.cpus = cpus;
+        this.allocated = allocated;
+        this.memoryLimit = memoryLimit;
+        this.maxHeap = maxHeap;
+        this.bufferBudget = bufferBudget;
+        this.decisions = Collections.unmodifiableList(decisions);
+    }
+
+    /**
+     * Number of CPUs this process may use, the smallest of the processors visible to the JVM, the cgroup CPU quota
+     * and the Slurm allocation.
+     */
+    public int getCpus() {
+        return cpus;
+    }
+
+    /**
+     * Whether the CPUs were allocated to this process by a cgroup quota or a Slurm job, so that no core has to be
+     * left over for other users of the machine.
+     */
+    public boolean isAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Number of worker threads used when all resources should be used.
+     */
+    public int getFullWorkers() {
+        return allocated ? cpus : Math.max(1, cpus - 1);
+    }
+
+    /**
+     * @return the memory limit of the cgroup or Slurm job in bytes, -1 if there is none.
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public long getMaxHeap() {
+        return maxHeap;
+    }
+
+    /**
+     * Default memory budget for the buffers of all workers in bytes.
+     */
+    public long getBufferBudget() {
+        return bufferBudget;
+    }
+
+    public List<String> getDecisions() {
+        return decisions;
+    }
+}
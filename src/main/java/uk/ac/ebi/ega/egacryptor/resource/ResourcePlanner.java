@@ -0,0 +1,301 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds out how much CPU and memory this process may really use. Batch schedulers and container runtimes limit a
+ * process with cgroups, which the processor count and the heap size seen by the JVM do not always reflect: a CPU
+ * quota leaves all cores of the machine visible and the maximum heap may be set larger than the memory limit of the
+ * container. Both cgroup v1 and v2 are read, including the limits of parent cgroups, as well as the allocation of
+ * the Slurm job the process runs in.
+ * <p>
+ * The worker count and the default buffer budget are derived from the smallest limit found and every decision is
+ * logged, so the sizing of a run can be understood from its log.
+ */
+public class ResourcePlanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourcePlanner.class);
+
+    /**
+     * Memory the JVM needs outside of the heap, e.g. for metaspace, thread stacks, direct buffers and the GC.
+     */
+    static final long NON_HEAP_RESERVE = 256L << 20;
+
+    private static final long MIN_BUFFER_BUDGET = 16L << 20;
+
+    /**
+     * cgroup v1 reports a missing memory limit as a value close to {@link Long#MAX_VALUE}.
+     */
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    private static final String CGROUP_MOUNT = "sys/fs/cgroup";
+
+    private final Path root;
+    private final Map<String, String> environment;
+    private final int availableProcessors;
+    private final long maxHeap;
+
+    public ResourcePlanner() {
+        this(Paths.get("/"), System.getenv(), Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * @param root                file system root below which proc and sys/fs/cgroup are read.
+     * @param environment         environment variables of the process.
+     * @param availableProcessors processors visible to the JVM.
+     * @param maxHeap             maximum heap size in bytes.
+     */
+    ResourcePlanner(final Path root, final Map<String, String> environment, final int availableProcessors,
+                    final long maxHeap) {
+        this.root = root;
+        this.environment = environment;
+        this.availableProcessors = availableProcessors;
+        this.maxHeap = maxHeap;
+    }
+
+    /**
+     * @return the plan for this process, created and logged on first use.
+     */
+    public static ResourcePlan getPlan() {
+        return PlanHolder.PLAN;
+    }
+
+    public ResourcePlan plan() {
+        final List<String> decisions = new ArrayList<>();
+        final Map<String, String> cgroups = readCgroups();
+        final boolean cgroupV2 = Files.exists(root.resolve(CGROUP_MOUNT).resolve("cgroup.controllers"));
+
+        int cpus = availableProcessors;
+        boolean allocated = false;
+        decisions.add(String.format("The JVM sees %d processor(s)", availableProcessors));
+
+        final double cpuQuota = cgroupV2 ? readCpuQuotaV2(cgroups) : readCpuQuotaV1(cgroups);
+        if (cpuQuota > 0) {
+            allocated = true;
+            final int quotaCpus = Math.max(1, (int) Math.ceil(cpuQuota));
+            decisions.add(String.format("The cgroup CPU quota allows %.2f CPU(s)", cpuQuota));
+            if (quotaCpus < cpus) {
+                cpus = quotaCpus;
+                decisions.add(String.format("Limiting to %d CPU(s) because of the CPU quota", cpus));
+            }
+        }
+
+        final int slurmCpus = readInt(environment.get("SLURM_CPUS_PER_TASK"));
+        if (environment.containsKey("SLURM_JOB_ID")) {
+            allocated = true;
+            decisions.add("Running in Slurm job ".concat(environment.get("SLURM_JOB_ID")));
+        }
+        if (slurmCpus > 0 && slurmCpus < cpus) {
+            cpus = slurmCpus;
+            decisions.add(String.format("Limiting to %d CPU(s) allocated per Slurm task", cpus));
+        }
+        decisions.add(allocated
+                ? String.format("All %d allocated CPU(s) can be used by workers", cpus)
+                : "One CPU is left over for other processes when all resources are used");
+
+        long memoryLimit = cgroupV2 ? readMemoryLimitV2(cgroups) : readMemoryLimitV1(cgroups);
+        if (memoryLimit > 0) {
+            decisions.add(String.format("The cgroup memory limit is %d MiB", memoryLimit >> 20));
+        }
+        final long slurmMemory = readSlurmMemory(cpus);
+        if (slurmMemory > 0 && (memoryLimit <= 0 || slurmMemory < memoryLimit)) {
+            memoryLimit = slurmMemory;
+            decisions.add(String.format("The Slurm job allows %d MiB of memory", memoryLimit >> 20));
+        }
+
+        long bufferBudget = maxHeap / 4 * 3;
+        decisions.add(String.format("The maximum heap is %d MiB, 75%% of it is used for buffers", maxHeap >> 20));
+        if (memoryLimit > 0 && maxHeap > memoryLimit - NON_HEAP_RESERVE) {
+            final long memoryLimitBudget = Math.max(MIN_BUFFER_BUDGET, (memoryLimit - NON_HEAP_RESERVE) / 4 * 3);
+            if (memoryLimitBudget < bufferBudget) {
+                bufferBudget = memoryLimitBudget;
+                decisions.add(String.format("The maximum heap does not fit the memory limit with %d MiB reserved " +
+                                "outside the heap, buffers are limited to %d MiB. Lower -Xmx or " +
+                                "-XX:MaxRAMPercentage to avoid the process being killed", NON_HEAP_RESERVE >> 20,
+                        bufferBudget >> 20));
+            }
+        }
+        return new ResourcePlan(cpus, allocated, memoryLimit > 0 ? memoryLimit : -1, maxHeap, bufferBudget,
+                decisions);
+    }
+
+    /**
+     * Maps every controller in /proc/self/cgroup to the path of the cgroup of this process. The cgroup v2 hierarchy
+     * has no controllers and is mapped to the empty name.
+     */
+    private Map<String, String> readCgroups() {
+        final Map<String, String> cgroups = new HashMap<>();
+        for (final String line : readLines(root.resolve("proc/self/cgroup"))) {
+            final String[] fields = line.split(":", 3);
+            if (fields.length == 3) {
+                for (final String controller : fields[1].split(",")) {
+                    cgroups.put(controller, fields[2]);
+                }
+            }
+        }
+        return cgroups;
+    }
+
+    private double readCpuQuotaV2(final Map<String, String> cgroups) {
+        double quota = -1;
+        for (final Path directory : cgroupDirectories(root.resolve(CGROUP_MOUNT), cgroups.get(""))) {
+            final String[] fields = readFirstLine(directory.resolve("cpu.max")).split(" ");
+            if (fields.length == 2 && !"max".equals(fields[0])) {
+                quota = minPositive(quota, ratio(readLong(fields[0]), readLong(fields[1])));
+            }
+        }
+        return quota;
+    }
+
+    private double readCpuQuotaV1(final Map<String, String> cgroups) {
+        double quota = -1;
+        final Path mount = findMount("cpu,cpuacct", "cpuacct,cpu", "cpu");
+        if (mount != null) {
+            for (final Path directory : cgroupDirectories(mount, cgroups.get("cpu"))) {
+                quota = minPositive(quota, ratio(readLong(readFirstLine(directory.resolve("cpu.cfs_quota_us"))),
+                        readLong(readFirstLine(directory.resolve("cpu.cfs_period_us")))));
+            }
+        }
+        return quota;
+    }
+
+    private long readMemoryLimitV2(final Map<String, String> cgroups) {
+        long limit = -1;
+        for (final Path directory : cgroupDirectories(root.resolve(CGROUP_MOUNT), cgroups.get(""))) {
+            limit = minLimit(limit, readLong(readFirstLine(directory.resolve("memory.max"))));
+        }
+        return limit;
+    }
+
+    private long readMemoryLimitV1(final Map<String, String> cgroups) {
+        long limit = -1;
+        final Path mount = findMount("memory");
+        if (mount != null) {
+            for (final Path directory : cgroupDirectories(mount, cgroups.get("memory"))) {
+                limit = minLimit(limit, readLong(readFirstLine(directory.resolve("memory.limit_in_bytes"))));
+            }
+        }
+        return limit;
+    }
+
+    private long readSlurmMemory(final int cpus) {
+        final long memoryPerNode = readInt(environment.get("SLURM_MEM_PER_NODE"));
+        if (memoryPerNode > 0) {
+            return memoryPerNode << 20;
+        }
+        final long memoryPerCpu = readInt(environment.get("SLURM_MEM_PER_CPU"));
+        return memoryPerCpu > 0 ? (memoryPerCpu * cpus) << 20 : -1;
+    }
+
+    private Path findMount(final String... names) {
+        for (final String name : names) {
+            final Path mount = root.resolve(CGROUP_MOUNT).resolve(name);
+            if (Files.isDirectory(mount)) {
+                return mount;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the directory of the cgroup of this process and all of its parents up to the mount point. Inside a
+     * container the cgroup of the process is often mounted as the root, so the mount point itself is used when the
+     * cgroup path can not be found below it.
+     */
+    private static List<Path> cgroupDirectories(final Path mount, final String cgroupPath) {
+        final List<Path> directories = new ArrayList<>();
+        Path directory = cgroupPath == null ? mount : mount.resolve(cgroupPath.replaceFirst("^/+", "")).normalize();
+        if (!directory.startsWith(mount) || !Files.isDirectory(directory)) {
+            directory = mount;
+        }
+        while (directory != null && directory.startsWith(mount)) {
+            directories.add(directory);
+            directory = directory.getParent();
+        }
+        return directories;
+    }
+
+    private static double ratio(final long quota, final long period) {
+        return quota > 0 && period > 0 ? (double) quota / period : -1;
+    }
+
+    private static double minPositive(final double current, final double value) {
+        return value > 0 && (current <= 0 || value < current) ? value : current;
+    }
+
+    private static long minLimit(final long current, final long value) {
+        return value > 0 && value < UNLIMITED && (current <= 0 || value < current) ? value : current;
+    }
+
+    private static List<String> readLines(final Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private static String readFirstLine(final Path file) {
+        final List<String> lines = readLines(file);
+        return lines.isEmpty() ? "" : lines.get(0).trim();
+    }
+
+    private static long readLong(final String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int readInt(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class PlanHolder {
+
+        private static final ResourcePlan PLAN = createPlan();
+
+        private static ResourcePlan createPlan() {
+            final ResourcePlan plan = new ResourcePlanner().plan();
+            plan.getDecisions().forEach(LOGGER::info);
+            return plan;
+        }
+    }
+}
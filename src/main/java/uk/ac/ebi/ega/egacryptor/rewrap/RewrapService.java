@@ -0,0 +1,75 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.rewrap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rewraps the ".gpg" files found below the input folders for new recipients, running several files in parallel
+ * like the encryption of plain files.
+ */
+public class RewrapService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RewrapService.class);
+
+    private final IFileDiscoveryService fileDiscoveryService;
+    private final RewrappingCryptographyPipeline rewrappingPipeline;
+    private final TaskListener taskListener;
+
+    /**
+     * @param taskListener Listener notified about every file, e.g. to write the run report.
+     */
+    public RewrapService(final IFileDiscoveryService fileDiscoveryService,
+                         final RewrappingCryptographyPipeline rewrappingPipeline,
+                         final TaskListener taskListener) {
+        this.fileDiscoveryService = fileDiscoveryService;
+        this.rewrappingPipeline = rewrappingPipeline;
+        this.taskListener = taskListener;
+    }
+
+    /**
+     * @return the number of files which failed
+     */
+    public long rewrap(final List<Path> rootFilePaths, final Path outputFilePath, final int noOfThreads)
+            throws IOException {
+        final List<FileToProcess> fileToProcessList = fileDiscoveryService.discoverFilesToTranscode(rootFilePaths,
+                outputFilePath);
+        LOGGER.info("Rewrapping {} encrypted file(s) using {} thread(s)", fileToProcessList.size(), noOfThreads);
+
+        final LongAdder failedFiles = new LongAdder();
+        final TaskExecutorService taskExecutorService = new TaskExecutorService(rewrappingPipeline,
+                TaskListener.of(taskListener, new TaskListener() {
+                    @Override
+                    public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+                        failedFiles.increment();
+                    }
+                }));
+        taskExecutorService.execute(fileToProcessList, noOfThreads);
+        return failedFiles.sum();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.rewrap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPRewrapper;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.GPG;
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
+
+/**
+ * Gives ".gpg" files to new recipients by replacing only their session key packets. The encrypted data is copied
+ * unchanged after the new packets and hashed in the same pass, so a file is read once and its ".gpg.md5" file is
+ * written without reading the new file again.
+ * <p>
+ * The new file is written next to its final location and moved over it at the end, so the output folder may also
+ * be the input folder to rewrap the files in place. Each thread copies with one large direct buffer like the audit.
+ */
+public class RewrappingCryptographyPipeline implements CryptographyPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RewrappingCryptographyPipeline.class);
+
+    public static final int DEFAULT_COPY_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final String TEMPORARY_FILE_EXTENSION = FileExtensionType.REWRAP.getFileExtension();
+
+    private final PGPRewrapper pgpRewrapper;
+    private final ThreadLocal<ByteBuffer> copyBuffer;
+
+    public RewrappingCryptographyPipeline(final PGPRewrapper pgpRewrapper) {
+        this(pgpRewrapper, DEFAULT_COPY_BUFFER_SIZE);
+    }
+
+    public RewrappingCryptographyPipeline(final PGPRewrapper pgpRewrapper, final int copyBufferSize) {
+        this.pgpRewrapper = pgpRewrapper;
+        this.copyBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(copyBufferSize));
+    }
+
+    /**
+     * @return the sizes and checksums of the rewrapped file; the plain text MD5 is the one of the ".md5" file next
+     * to the ".gpg" file, or null if there is none
+     */
+    @Override
+    public Optional<EncryptionResult> process(final FileToProcess fileToProcess) {
+        LOGGER.debug("filePathToRewrap={}", fileToProcess);
+        try {
+            return doProcess(fileToProcess);
+        } catch (CryptographyException | IOException e) {
+            LOGGER.error("Error while executing rewrap pipeline - {}", e.getMessage());
+            throw new RuntimeException("Error while processing request", e);
+        }
+    }
+
+    /**
+     * Streams are not rewrapped: the encrypted data after the session key packets is found by its offset in a file.
+     */
+    @Override
+    public EncryptionResult process(final InputStream inputStream, final OutputStream outputStream) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileExtensionType getFileExtensionType() {
+        return GPG;
+    }
+
+    private Optional<EncryptionResult> doProcess(final FileToProcess fileToProcess)
+            throws CryptographyException, IOException {
+        final Path encryptedFile = fileToProcess.getFileToEncryptPath();
+        final String encryptedFileName = encryptedFile.getFileName().toString();
+        final Path outputFilePath = FileUtils.newEmptyPath().resolve(fileToProcess.getOutputFilePath());
+        final Path outputFileEncrypted = outputFilePath.resolve(encryptedFileName);
+        final Path outputFileEncryptedMD5 = outputFilePath.resolve(encryptedFileName.concat(MD5.getFileExtension()));
+
+        final boolean inPlace = Files.exists(outputFileEncrypted) && Files.isSameFile(encryptedFile, outputFileEncrypted);
+        if (!inPlace && (Files.exists(outputFileEncrypted) || Files.exists(outputFileEncryptedMD5))) {
+            LOGGER.info("Process skip for file {}. All or some of these files are already exists - {},{}",
+                    encryptedFile, outputFileEncrypted, outputFileEncryptedMD5);
+            JfrEvents.fileSkipped(encryptedFile, "output files already exist");
+            return Optional.empty();
+        }
+
+        Files.createDirectories(outputFilePath);
+        final Path temporaryFile = outputFilePath.resolve(encryptedFileName.concat(TEMPORARY_FILE_EXTENSION));
+        final MessageDigest messageDigest = Hash.getMD5();
+        final long bytesCopied;
+        final long bytesRead;
+        final long bytesWritten;
+        try (final FileChannel inputChannel = FileChannel.open(encryptedFile, StandardOpenOption.READ);
+             final FileChannel outputChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            final ByteArrayOutputStream sessionKeyPackets = new ByteArrayOutputStream();
+            final long dataOffset = pgpRewrapper.rewrap(new BufferedInputStream(
+                    Channels.newInputStream(inputChannel)), sessionKeyPackets);
+            final ByteBuffer header = ByteBuffer.wrap(sessionKeyPackets.toByteArray());
+            messageDigest.update(header.duplicate());
+            while (header.hasRemaining()) {
+                outputChannel.write(header);
+            }
+            inputChannel.position(dataOffset);
+            bytesCopied = copy(inputChannel, outputChannel, messageDigest);
+            outputChannel.force(false);
+            bytesRead = dataOffset + bytesCopied;
+            bytesWritten = sessionKeyPackets.size() + bytesCopied;
+        } catch (CryptographyException | IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+
+        Files.move(temporaryFile, outputFileEncrypted, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        final String encryptedMD5 = Hash.normalize(messageDigest);
+        FileUtils.writeToFile(outputFileEncryptedMD5.toFile(), encryptedMD5);
+
+        String plainTextMD5 = null;
+        if (encryptedFileName.endsWith(GPG.getFileExtension())) {
+            final String fileName = encryptedFileName.substring(0,
+                    encryptedFileName.length() - GPG.getFileExtension().length());
+            final Path plainTextMD5File = encryptedFile.resolveSibling(fileName.concat(MD5.getFileExtension()));
+            final Path outputFileMD5 = outputFilePath.resolve(fileName.concat(MD5.getFileExtension()));
+            if (Files.isRegularFile(plainTextMD5File)) {
+                plainTextMD5 = Hash.readChecksum(plainTextMD5File);
+                if (!inPlace && !Files.exists(outputFileMD5)) {
+                    Files.copy(plainTextMD5File, outputFileMD5);
+                }
+            }
+        }
+        LOGGER.info("File {} is successfully rewrapped to {}. {} bytes of encrypted data copied. Encrypted MD5 {}",
+                encryptedFile, outputFileEncrypted, bytesCopied, encryptedMD5);
+        return Optional.of(new EncryptionResult(bytesRead, bytesWritten, plainTextMD5, encryptedMD5));
+    }
+
+    private long copy(final FileChannel inputChannel, final FileChannel outputChannel,
+                      final MessageDigest messageDigest) throws IOException {
+        final ByteBuffer buffer = copyBuffer.get();
+        long bytesCopied = 0;
+        ((Buffer) buffer).clear();
+        while (inputChannel.read(buffer) != -1) {
+            ((Buffer) buffer).flip();
+            bytesCopied += buffer.remaining();
+            messageDigest.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                outputChannel.write(buffer);
+            }
+            ((Buffer) buffer).clear();
+        }
+        return bytesCopied;
+    }
+}
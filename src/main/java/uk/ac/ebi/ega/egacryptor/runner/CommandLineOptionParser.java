@@ -33,8 +33,40 @@ public class CommandLineOptionParser {
     public static final String UTILIZE_HALF_RESOURCE = "l";
     //User specified no of threads
     public static final String USER_THREADS = "t";
+    //Encrypt a single stream, "-" reads stdin
+    public static final String STREAM_INPUT = "stream-in";
+    //Destination of the encrypted stream, "-" writes stdout
+    public static final String STREAM_OUTPUT = "stream-out";
+    public static final String STANDARD_STREAM = "-";
     //Help option
     public static final String OPTIONS_HELP = "h";
+    //Run as a long-running daemon accepting jobs on a local port
+    public static final String DAEMON = "daemon";
+    //Submit the job to a running daemon instead of processing it in this process
+    public static final String SUBMIT = "submit";
+    //Local port of the daemon
+    public static final String DAEMON_PORT = "port";
+    public static final int DEFAULT_DAEMON_PORT = 7878;
+    //Keep watching the input folders and encrypt new files once they are stable
+    public static final String WATCH = "watch";
+    //Poll the input folders instead of relying on file system events
+    public static final String WATCH_POLL = "watch-poll";
+    //Seconds a file's size and modification time must stay unchanged before it is encrypted
+    public static final String STABLE_TIME = "stable-time";
+    //Seconds between two scans of a polled input folder
+    public static final String POLL_INTERVAL = "poll-interval";
+    //Re-verify existing encrypted files against their checksum files instead of encrypting
+    public static final String AUDIT = "audit";
+    //Re-encrypt existing .gpg files to the configured format instead of encrypting plain files
+    public static final String TRANSCODE = "transcode";
+    //Replace the recipients of existing .gpg files without re-encrypting their data
+    public static final String REWRAP = "rewrap";
+    //Pack the files below each input folder into encrypted tar bundles instead of encrypting them one by one
+    public static final String BUNDLE = "bundle";
+    //Share the files with other processes using the same inputs through lease files in a shared work directory
+    public static final String COORDINATE = "coordinate";
+    //Seconds after which a lease which has not been refreshed by its process is taken over
+    public static final String LEASE_TIMEOUT = "lease-timeout";
     private static final OptionParser optionParser = buildParser();
 
     private CommandLineOptionParser() {
@@ -43,9 +75,20 @@ public class CommandLineOptionParser {
 
     private static OptionParser buildParser() {
         final OptionParser parser = new OptionParser();
+        parser.accepts(STREAM_INPUT, "Encrypt data read from a stream instead of files. " +
+                "Provide the path of a named pipe, or - to read from stdin").
+                withRequiredArg().
+                ofType(String.class);
+        parser.accepts(STREAM_OUTPUT, "Destination of the encrypted stream. Provide a file or named pipe path, " +
+                "or - to write to stdout. The checksums of both streams are printed to stderr at the end").
+                withRequiredArg().
+                ofType(String.class).
+                defaultsTo(STANDARD_STREAM);
+        parser.accepts(DAEMON, "Run as a daemon which keeps the keys and the worker threads loaded " +
+                "and accepts encryption jobs on a localhost port. Thread options set the shared concurrency limit");
         parser.accepts(FILE_TO_ENCRYPT_PATH, "File(s) to encrypt. Provide file/folder path or comma separated file path if multiple files in double quotes").
+                requiredUnless(DAEMON, STREAM_INPUT).
                 withRequiredArg().
-                required().
                 ofType(String.class);
         parser.accepts(OUTPUT_FOLDER_PATH, "Path of the output file. This is optional. If not provided then output files will be generated in the same path as that of source file").
                 withRequiredArg().
@@ -58,6 +101,45 @@ public class CommandLineOptionParser {
                 "Application will calculate the number of cores/processors available on the machine and will create threads accordingly").
                 withRequiredArg().
                 ofType(Integer.class);
+        parser.accepts(SUBMIT, "Submit the files to a running daemon and print the status of each file");
+        parser.accepts(DAEMON_PORT, "Localhost port the daemon listens on, or the client connects to").
+                withRequiredArg().
+                ofType(Integer.class).
+                defaultsTo(DEFAULT_DAEMON_PORT);
+        parser.accepts(WATCH, "Keep watching the input folders and encrypt each new file as soon as it is stable");
+        parser.accepts(WATCH_POLL, "Detect new files by periodically scanning the input folders. " +
+                "Used automatically for folders on network file systems");
+        parser.accepts(STABLE_TIME, "Seconds a new file's size and modification time must stay unchanged " +
+                "before it is encrypted in watch mode").
+                withRequiredArg().
+                ofType(Long.class).
+                defaultsTo(60L);
+        parser.accepts(POLL_INTERVAL, "Seconds between two scans of a polled input folder in watch mode").
+                withRequiredArg().
+                ofType(Long.class).
+                defaultsTo(30L);
+        parser.accepts(AUDIT, "Re-verify the encrypted files below the -i paths against their checksum files " +
+                "and report mismatched, missing and orphan files. Thread options set the number of files hashed in parallel");
+        parser.accepts(TRANSCODE, "Decrypt the .gpg files below the -i paths with --pgp.private.key and re-encrypt " +
+                "them, e.g. to Crypt4GH, without writing the plain text. The plain text MD5 is checked against the " +
+                ".md5 file next to each .gpg file");
+        parser.accepts(REWRAP, "Decrypt only the session key of the .gpg files below the -i paths with " +
+                "--pgp.private.key and encrypt it for the --pgp.public.key recipients, which replace the current ones. " +
+                "The encrypted data is copied unchanged. Use the input folder as -o to rewrap the files in place");
+        parser.accepts(BUNDLE, "Pack the files below each -i folder into tar archives encrypted as one stream, " +
+                "split at --bundle.max-files files or --bundle.max-size bytes, with an index of the offset and MD5 " +
+                "of every file. Thread options set the number of bundles written in parallel");
+        parser.accepts(COORDINATE, "Share the files with other ega-cryptor processes, e.g. Slurm jobs on other " +
+                "nodes, started with the same -i and -o paths and the same work directory on a shared file system. " +
+                "Each file is claimed through a lease file, largest files first, and finished files are skipped " +
+                "when the run is restarted").
+                withRequiredArg().
+                ofType(String.class);
+        parser.accepts(LEASE_TIMEOUT, "Seconds after which the lease of a process which stopped refreshing it, " +
+                "e.g. because its node failed, is taken over by another process in coordinated mode").
+                withRequiredArg().
+                ofType(Long.class).
+                defaultsTo(120L);
         parser.accepts(OPTIONS_HELP, "Use this option to get help");
         parser.allowsUnrecognizedOptions();
         return parser;
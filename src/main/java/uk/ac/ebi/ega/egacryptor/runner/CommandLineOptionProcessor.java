@@ -21,6 +21,8 @@ import joptsimple.OptionSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
+import uk.ac.ebi.ega.egacryptor.resource.ResourcePlan;
+import uk.ac.ebi.ega.egacryptor.resource.ResourcePlanner;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -28,6 +30,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -61,19 +64,22 @@ public class CommandLineOptionProcessor {
             throw new FileNotFoundException(message);
         }
 
-        fileToEncryptPaths = Arrays.asList(optionSet.valueOf(FILE_TO_ENCRYPT_PATH).toString().split(",")).
-                parallelStream().map(filePath -> Paths.get(filePath.trim()).normalize().toAbsolutePath()).collect(Collectors.toList());
+        fileToEncryptPaths = optionSet.has(FILE_TO_ENCRYPT_PATH)
+                ? Arrays.asList(optionSet.valueOf(FILE_TO_ENCRYPT_PATH).toString().split(",")).
+                parallelStream().map(filePath -> Paths.get(filePath.trim()).normalize().toAbsolutePath()).collect(Collectors.toList())
+                : Collections.emptyList();
         noOfThreads = determineNoOfThreads(optionSet);
         LOGGER.info("Maximum {} threads will be created to process the file(s)", noOfThreads);
     }
 
-    static CommandLineOptionProcessor processOptions(final OptionSet optionSet, final Path defaultOutputFilePath) throws IOException {
+    public static CommandLineOptionProcessor processOptions(final OptionSet optionSet, final Path defaultOutputFilePath) throws IOException {
         return new CommandLineOptionProcessor(optionSet, defaultOutputFilePath);
     }
 
     private int determineNoOfThreads(final OptionSet optionSet) {
-        final int availableProcessors = Runtime.getRuntime().availableProcessors();
-        LOGGER.info("The application has detected {} cores/processors.", availableProcessors);
+        final ResourcePlan resourcePlan = ResourcePlanner.getPlan();
+        final int availableProcessors = resourcePlan.getCpus();
+        LOGGER.info("The application has detected {} usable cores/processors.", availableProcessors);
 
         if (availableProcessors == 1) {
             LOGGER.info("Single processor has been detected. File(s) will be processed sequentially. " +
@@ -87,15 +93,17 @@ public class CommandLineOptionProcessor {
             return (int) (availableProcessors * (75.0f / 100.0f));
         } else if (optionSet.has(UTILIZE_FULL_RESOURCE)) {
             LOGGER.info("Full resource option has been selected");
-            return availableProcessors - 1;
+            return resourcePlan.getFullWorkers();
         } else if (optionSet.has(USER_THREADS)) {
             LOGGER.info("User defined resource option has been selected");
             final int userDefinedThreads = Integer.parseInt(optionSet.valueOf(USER_THREADS).toString());
-            if (userDefinedThreads >= availableProcessors) {
-                LOGGER.warn("The requested number of threads is greater than or equal " +
-                        "to the number of available cores on this machine. " +
-                        "The application will try to use the maximum number of available cores to process the file(s)");
-                return availableProcessors - 1;
+            if (userDefinedThreads > resourcePlan.getFullWorkers()) {
+                LOGGER.warn("The requested {} threads are more than the {} worker thread(s) allowed by the {} " +
+                                "usable cores/processors of the cgroup, Slurm allocation or machine. " +
+                                "The application will process the file(s) using {} thread(s)",
+                        userDefinedThreads, resourcePlan.getFullWorkers(), availableProcessors,
+                        resourcePlan.getFullWorkers());
+                return resourcePlan.getFullWorkers();
             } else if (userDefinedThreads <= 0) {
                 LOGGER.warn("The requested number of threads is less than or equal to zero. " +
                         "The application will process the file(s) sequentially, using a single thread");
@@ -26,33 +26,101 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.ExitCodeGenerator;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ApplicationContext;
+import uk.ac.ebi.ega.egacryptor.audit.AuditReport;
+import uk.ac.ebi.ega.egacryptor.audit.AuditResult;
+import uk.ac.ebi.ega.egacryptor.audit.AuditService;
+import uk.ac.ebi.ega.egacryptor.bundle.BundleService;
+import uk.ac.ebi.ega.egacryptor.coordination.LeaseCoordinator;
+import uk.ac.ebi.ega.egacryptor.daemon.EncryptionDaemon;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.rewrap.RewrapService;
 import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
 import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+import uk.ac.ebi.ega.egacryptor.transcode.TranscodeService;
+import uk.ac.ebi.ega.egacryptor.watch.WatchFolderService;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
+import static uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils.writeToFile;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.AUDIT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.BUNDLE;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.COORDINATE;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.DAEMON;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.DAEMON_PORT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.LEASE_TIMEOUT;
 import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.OPTIONS_HELP;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.POLL_INTERVAL;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.REWRAP;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.STABLE_TIME;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.STANDARD_STREAM;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.STREAM_INPUT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.STREAM_OUTPUT;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.TRANSCODE;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.WATCH;
+import static uk.ac.ebi.ega.egacryptor.runner.CommandLineOptionParser.WATCH_POLL;
 
 public class EgaCryptorCommandLinerRunner implements CommandLineRunner {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EgaCryptorCommandLinerRunner.class);
 
     private final ITaskExecutorService taskExecutorService;
+    private final CryptographyPipeline cryptographyPipeline;
     private final IFileDiscoveryService fileDiscoveryService;
+    private final TranscodeService transcodeService;
+    private final RewrapService rewrapService;
+    private final BundleService bundleService;
     private final ApplicationContext applicationContext;
     private final Path defaultOutputFilePath;
 
     public EgaCryptorCommandLinerRunner(final ITaskExecutorService taskExecutorService,
+                                        final CryptographyPipeline cryptographyPipeline,
                                         final IFileDiscoveryService fileDiscoveryService,
                                         final ApplicationContext applicationContext,
                                         final String defaultOutputFilePath) {
+        this(taskExecutorService, cryptographyPipeline, fileDiscoveryService, null, null, null, applicationContext,
+                defaultOutputFilePath);
+    }
+
+    /**
+     * @param transcodeService service re-encrypting existing .gpg files, or null if no private key is configured
+     * @param rewrapService    service replacing the recipients of existing .gpg files, or null if no private key is
+     *                         configured
+     * @param bundleService    service packing files into encrypted tar bundles, or null if not supported
+     */
+    public EgaCryptorCommandLinerRunner(final ITaskExecutorService taskExecutorService,
+                                        final CryptographyPipeline cryptographyPipeline,
+                                        final IFileDiscoveryService fileDiscoveryService,
+                                        final TranscodeService transcodeService,
+                                        final RewrapService rewrapService,
+                                        final BundleService bundleService,
+                                        final ApplicationContext applicationContext,
+                                        final String defaultOutputFilePath) {
         this.taskExecutorService = taskExecutorService;
+        this.cryptographyPipeline = cryptographyPipeline;
         this.fileDiscoveryService = fileDiscoveryService;
+        this.transcodeService = transcodeService;
+        this.rewrapService = rewrapService;
+        this.bundleService = bundleService;
         this.applicationContext = applicationContext;
         this.defaultOutputFilePath = Paths.get(defaultOutputFilePath);
     }
@@ -68,8 +136,39 @@ public class EgaCryptorCommandLinerRunner implements CommandLineRunner {
                 terminateApplication(ApplicationStatus.SUCCESS::getValue);
             }
 
+            if (optionSet.has(STREAM_INPUT)) {
+                terminateApplication(() -> doRunStream(optionSet.valueOf(STREAM_INPUT).toString(),
+                        optionSet.valueOf(STREAM_OUTPUT).toString()));
+            }
+
             final CommandLineOptionProcessor commandLineOptionProcessor = CommandLineOptionProcessor
                     .processOptions(optionSet, defaultOutputFilePath);
+            if (optionSet.has(AUDIT)) {
+                terminateApplication(() -> doRunAudit(commandLineOptionProcessor));
+            }
+            if (optionSet.has(TRANSCODE)) {
+                terminateApplication(() -> doRunTranscode(commandLineOptionProcessor));
+            }
+            if (optionSet.has(REWRAP)) {
+                terminateApplication(() -> doRunRewrap(commandLineOptionProcessor));
+            }
+            if (optionSet.has(BUNDLE)) {
+                terminateApplication(() -> doRunBundle(commandLineOptionProcessor));
+            }
+            if (optionSet.has(DAEMON)) {
+                terminateApplication(() -> doRunDaemon(commandLineOptionProcessor, (Integer) optionSet.valueOf(DAEMON_PORT)));
+            }
+            if (optionSet.has(WATCH)) {
+                terminateApplication(() -> doRunWatch(commandLineOptionProcessor,
+                        TimeUnit.SECONDS.toMillis((Long) optionSet.valueOf(STABLE_TIME)),
+                        TimeUnit.SECONDS.toMillis((Long) optionSet.valueOf(POLL_INTERVAL)),
+                        optionSet.has(WATCH_POLL)));
+            }
+            if (optionSet.has(COORDINATE)) {
+                terminateApplication(() -> doRunCoordinated(commandLineOptionProcessor,
+                        Paths.get(optionSet.valueOf(COORDINATE).toString()),
+                        TimeUnit.SECONDS.toMillis((Long) optionSet.valueOf(LEASE_TIMEOUT))));
+            }
             terminateApplication(() -> doRun(commandLineOptionProcessor));
         } catch (OptionException e) {
             LOGGER.error("Passed invalid command line arguments");
@@ -96,6 +195,217 @@ public class EgaCryptorCommandLinerRunner implements CommandLineRunner {
         }
     }
 
+    private int doRunStream(final String streamInput, final String streamOutput) {
+        LOGGER.info("Stream encryption started at {} ---------------", new Date());
+        try (final InputStream inputStream = STANDARD_STREAM.equals(streamInput)
+                ? new FileInputStream(FileDescriptor.in)
+                : Files.newInputStream(Paths.get(streamInput))) {
+            final EncryptionResult encryptionResult = STANDARD_STREAM.equals(streamOutput)
+                    ? cryptographyPipeline.process(inputStream, new BufferedOutputStream(
+                    new FileOutputStream(FileDescriptor.out), FileSystemOutputSink.DEFAULT_WRITE_BUFFER_SIZE))
+                    : encryptToFile(inputStream, Paths.get(streamOutput));
+
+            final String encryptedFileExtension = cryptographyPipeline.getFileExtensionType().getFileExtension();
+            if (streamOutput.endsWith(encryptedFileExtension)) {
+                final Path outputFileEncrypted = Paths.get(streamOutput);
+                final String outputFileName = outputFileEncrypted.getFileName().toString();
+                writeToFile(outputFileEncrypted.resolveSibling(outputFileName.substring(0,
+                        outputFileName.length() - encryptedFileExtension.length()).concat(MD5.getFileExtension())).toFile(),
+                        encryptionResult.getPlainTextMD5());
+                writeToFile(outputFileEncrypted.resolveSibling(outputFileName.concat(MD5.getFileExtension())).toFile(),
+                        encryptionResult.getEncryptedMD5());
+            }
+            System.err.println("plaintext-md5 ".concat(encryptionResult.getPlainTextMD5()));
+            System.err.println("encrypted-md5 ".concat(encryptionResult.getEncryptedMD5()));
+            LOGGER.info("Stream encryption completed at {}. Total bytes read: {} ---------------", new Date(),
+                    encryptionResult.getBytesRead());
+            return ApplicationStatus.SUCCESS.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while encrypting the stream - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    /**
+     * Commits the output file only once the whole stream has been encrypted, like the files encrypted by the
+     * pipeline, so a failed or killed stream does not leave a truncated file under the final name.
+     */
+    private EncryptionResult encryptToFile(final InputStream inputStream, final Path outputFile) throws IOException {
+        final SinkOutputStream outputStream = new FileSystemOutputSink().newOutputStream(outputFile);
+        final EncryptionResult encryptionResult;
+        try {
+            encryptionResult = cryptographyPipeline.process(inputStream, outputStream.uncommitted());
+        } catch (RuntimeException e) {
+            outputStream.abort();
+            throw e;
+        }
+        outputStream.close();
+        return encryptionResult;
+    }
+
+    /**
+     * Encrypted data written to stdout must not be mixed with the banner or log output, which are therefore sent to
+     * stderr. Has to be called before the application starts.
+     */
+    public static void redirectConsoleIfStreamingToStdout(final String... args) {
+        try {
+            final OptionSet optionSet = CommandLineOptionParser.getOptionParser().parse(args);
+            if (optionSet.has(STREAM_INPUT) && STANDARD_STREAM.equals(optionSet.valueOf(STREAM_OUTPUT))) {
+                System.setOut(System.err);
+            }
+        } catch (OptionException e) {
+            // Reported once the application has started
+        }
+    }
+
+    private int doRunAudit(final CommandLineOptionProcessor parser) {
+        LOGGER.info("Audit started at {} ---------------", new Date());
+        try {
+            final AuditReport auditReport = new AuditService(fileDiscoveryService)
+                    .audit(parser.getFileToEncryptPaths(), parser.getNoOfThreads());
+            for (final AuditResult auditResult : auditReport.getResults()) {
+                if (auditResult.getStatus() != AuditResult.Status.OK) {
+                    System.out.println(auditResult);
+                }
+            }
+            LOGGER.info("{}", auditReport);
+            LOGGER.info("Audit completed at {} ---------------", new Date());
+            return auditReport.isSuccessful()
+                    ? ApplicationStatus.SUCCESS.getValue()
+                    : ApplicationStatus.AUDIT_FAILED.getValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Audit interrupted");
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while auditing the encrypted files - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunTranscode(final CommandLineOptionProcessor parser) {
+        if (transcodeService == null) {
+            LOGGER.error("--pgp.private.key is required to transcode encrypted files");
+            return ApplicationStatus.INVALID_COMMANDLINE_ARGUMENTS.getValue();
+        }
+        LOGGER.info("Transcoding started at {} ---------------", new Date());
+        try {
+            final long failedFiles = transcodeService.transcode(parser.getFileToEncryptPaths(),
+                    parser.getOutputFolderPath(), parser.getNoOfThreads());
+            LOGGER.info("Transcoding completed at {}. {} file(s) failed ---------------", new Date(), failedFiles);
+            return failedFiles == 0
+                    ? ApplicationStatus.SUCCESS.getValue()
+                    : ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while transcoding the encrypted files - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunRewrap(final CommandLineOptionProcessor parser) {
+        if (rewrapService == null) {
+            LOGGER.error("--pgp.private.key is required to rewrap encrypted files");
+            return ApplicationStatus.INVALID_COMMANDLINE_ARGUMENTS.getValue();
+        }
+        LOGGER.info("Rewrapping started at {} ---------------", new Date());
+        try {
+            final long failedFiles = rewrapService.rewrap(parser.getFileToEncryptPaths(),
+                    parser.getOutputFolderPath(), parser.getNoOfThreads());
+            LOGGER.info("Rewrapping completed at {}. {} file(s) failed ---------------", new Date(), failedFiles);
+            return failedFiles == 0
+                    ? ApplicationStatus.SUCCESS.getValue()
+                    : ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while rewrapping the encrypted files - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunBundle(final CommandLineOptionProcessor parser) {
+        if (bundleService == null) {
+            LOGGER.error("Bundle mode is not available");
+            return ApplicationStatus.INVALID_COMMANDLINE_ARGUMENTS.getValue();
+        }
+        LOGGER.info("Bundling started at {} ---------------", new Date());
+        try {
+            final long failedBundles = bundleService.bundle(parser.getFileToEncryptPaths(),
+                    parser.getOutputFolderPath(), parser.getNoOfThreads());
+            LOGGER.info("Bundling completed at {}. {} bundle(s) failed ---------------", new Date(), failedBundles);
+            return failedBundles == 0
+                    ? ApplicationStatus.SUCCESS.getValue()
+                    : ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while bundling the files - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunCoordinated(final CommandLineOptionProcessor parser, final Path workDirectory,
+                                 final long leaseTimeoutMillis) {
+        LOGGER.info("Coordinated process started at {} ---------------", new Date());
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(taskExecutorService, workDirectory,
+                leaseTimeoutMillis, leaseTimeoutMillis / 4)) {
+            closeOnShutdown(leaseCoordinator, "Error while releasing the leases - {}");
+            final List<FileToProcess> fileToProcessList = fileDiscoveryService.discoverFilesRecursively(
+                    parser.getFileToEncryptPaths(), parser.getOutputFolderPath());
+            final long failedFiles = leaseCoordinator.execute(fileToProcessList, parser.getNoOfThreads());
+            LOGGER.info("Coordinated process completed at {}. {} file(s) failed ---------------", new Date(),
+                    failedFiles);
+            return failedFiles == 0
+                    ? ApplicationStatus.SUCCESS.getValue()
+                    : ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Coordinated process interrupted");
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while running a coordinated process - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunDaemon(final CommandLineOptionProcessor parser, final int port) {
+        try (final EncryptionDaemon encryptionDaemon = new EncryptionDaemon(taskExecutorService, fileDiscoveryService,
+                defaultOutputFilePath, port, parser.getNoOfThreads())) {
+            closeOnShutdown(encryptionDaemon, "Error while stopping the daemon - {}");
+            encryptionDaemon.serve();
+            return ApplicationStatus.SUCCESS.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while running the daemon - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        }
+    }
+
+    private int doRunWatch(final CommandLineOptionProcessor parser, final long stableTimeMillis,
+                           final long pollIntervalMillis, final boolean forcePolling) {
+        final ExecutorService executorService = Executors.newFixedThreadPool(parser.getNoOfThreads());
+        try (final WatchFolderService watchFolderService = new WatchFolderService(taskExecutorService,
+                fileDiscoveryService, executorService, TaskListener.NONE, stableTimeMillis, pollIntervalMillis,
+                forcePolling)) {
+            closeOnShutdown(watchFolderService, "Error while stopping the watch mode - {}");
+            watchFolderService.watch(parser.getFileToEncryptPaths(), parser.getOutputFolderPath());
+            return ApplicationStatus.SUCCESS.getValue();
+        } catch (Exception e) {
+            LOGGER.error("Error while watching for new files - ", e);
+            return ApplicationStatus.APPLICATION_FAILED.getValue();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Also closes the resource when the JVM is stopped, e.g. by SIGTERM, before its try block ends.
+     */
+    private static void closeOnShutdown(final Closeable closeable, final String errorMessage) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOGGER.error(errorMessage, e.getMessage());
+            }
+        }));
+    }
+
     private void terminateApplication(final ExitCodeGenerator exitCodeGenerator) {
         System.exit(SpringApplication.exit(applicationContext, exitCodeGenerator));
     }
@@ -103,7 +413,8 @@ public class EgaCryptorCommandLinerRunner implements CommandLineRunner {
     private enum ApplicationStatus {
         SUCCESS(0),
         APPLICATION_FAILED(1),
-        INVALID_COMMANDLINE_ARGUMENTS(2);
+        INVALID_COMMANDLINE_ARGUMENTS(2),
+        AUDIT_FAILED(3);
 
         private final int value;
 
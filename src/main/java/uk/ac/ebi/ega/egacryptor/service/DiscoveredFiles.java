@@ -0,0 +1,157 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.LongLongHashMap;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the files found by a discovery. A file reached twice, through overlapping roots, symbolic links or hard
+ * links, is only kept the first time, so two workers never encrypt the same file. Files are told apart by the
+ * device and inode numbers their paths resolve to.
+ * <p>
+ * Different files which would be written to the same output path are collected as collisions. Both the inodes and
+ * the output paths are kept in primitive hash maps of about 50 bytes per file, so tens of millions of files can be
+ * checked.
+ */
+class DiscoveredFiles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveredFiles.class);
+
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private final List<FileToProcess> files = new ArrayList<>();
+    private final List<String> outputCollisions = new ArrayList<>();
+    private final LongLongHashMap deviceByInode = new LongLongHashMap();
+    private final LongLongHashMap fileByOutputHash = new LongLongHashMap();
+    private final Set<Object> otherFileKeys = new HashSet<>();
+    private long duplicates;
+
+    /**
+     * @return false if the file was found before and is skipped.
+     */
+    boolean add(final FileToProcess fileToProcess) {
+        final Path file = fileToProcess.getFileToEncryptPath();
+        try {
+            if (!addFileKey(file)) {
+                duplicates++;
+                LOGGER.warn("The {} file is skipped because it was already found under another path.", file);
+                return false;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Exception while identifying the {} path: {}", file, e.getMessage());
+        }
+
+        final Path outputPath = outputPathOf(fileToProcess);
+        final long outputHash = LongLongHashMap.mix(hash(outputPath.toString()));
+        final long otherFile = fileByOutputHash.put(outputHash, files.size(), MISSING);
+        if (otherFile != MISSING) {
+            final FileToProcess other = files.get((int) otherFile);
+            if (outputPathOf(other).equals(outputPath)) {
+                outputCollisions.add(String.format("%s and %s would both be encrypted to %s",
+                        other.getFileToEncryptPath(), file, outputPath));
+            }
+        }
+        files.add(fileToProcess);
+        return true;
+    }
+
+    /**
+     * Adds the device and inode numbers of the file, or its file key where the file system does not expose them.
+     * Inode numbers are only unique per device, the rare inode seen on a second device goes to the general set.
+     */
+    private boolean addFileKey(final Path file) throws IOException {
+        final Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(file, "unix:dev,ino");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            final BasicFileAttributes basicAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return otherFileKeys.add(basicAttributes.fileKey() != null
+                    ? basicAttributes.fileKey()
+                    : file.toRealPath().toString());
+        }
+        final long device = ((Number) attributes.get("dev")).longValue();
+        final long inode = ((Number) attributes.get("ino")).longValue();
+        final long knownDevice = deviceByInode.get(inode, MISSING);
+        if (knownDevice == MISSING) {
+            deviceByInode.put(inode, device, MISSING);
+            return true;
+        }
+        return knownDevice != device && otherFileKeys.add(device + ":" + inode);
+    }
+
+    /**
+     * Files without an output folder, e.g. relative paths without a parent, are written next to themselves.
+     */
+    private static Path outputPathOf(final FileToProcess fileToProcess) {
+        final Path file = fileToProcess.getFileToEncryptPath();
+        final Path outputFilePath = fileToProcess.getOutputFilePath();
+        return (outputFilePath == null ? file : outputFilePath.resolve(file.getFileName()))
+                .toAbsolutePath()
+                .normalize();
+    }
+
+    /**
+     * 64 bit FNV-1a hash. Outputs with equal hashes are compared by path, so a hash collision can not be reported
+     * as an output collision.
+     */
+    private static long hash(final String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    List<FileToProcess> getFiles() {
+        return files;
+    }
+
+    long getDuplicates() {
+        return duplicates;
+    }
+
+    List<String> getOutputCollisions() {
+        return outputCollisions;
+    }
+
+    /**
+     * Logs every output collision and fails, before any file is encrypted.
+     */
+    void checkOutputCollisions() throws IOException {
+        if (outputCollisions.isEmpty()) {
+            return;
+        }
+        outputCollisions.forEach(collision -> LOGGER.error("Output collision: {}", collision));
+        throw new IOException(outputCollisions.size() + " file(s) would be encrypted to the same output path as " +
+                "another file. Rename them or encrypt them to separate output folders.");
+    }
+}
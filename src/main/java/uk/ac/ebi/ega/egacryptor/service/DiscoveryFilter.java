@@ -0,0 +1,161 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.service;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the files to discover by glob, size and modification time. Globs are matched against the path relative to
+ * the root it was found under: a glob without a slash matches the name at any depth, e.g. "*.bai", a glob with a
+ * slash matches the whole relative path, e.g. "run1/**.bam", and a trailing slash restricts a glob to directories,
+ * e.g. "tmp/". Excluded directories are not walked at all.
+ * <p>
+ * A file is discovered if it matches no exclude glob, at least one include glob if there are any, and the size and
+ * age limits. Include globs only apply to files, so the directories leading to them are still walked.
+ */
+public class DiscoveryFilter {
+
+    private static final DiscoveryFilter ACCEPT_ALL = new DiscoveryFilter(Collections.emptyList(),
+            Collections.emptyList(), -1, -1, null, null);
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final long minSize;
+    private final long maxSize;
+    private final Duration minAge;
+    private final Duration maxAge;
+
+    /**
+     * @param includes Globs of the files to discover, all files if empty.
+     * @param excludes Globs of the files and directories to skip.
+     * @param minSize  Minimum file size in bytes, or -1.
+     * @param maxSize  Maximum file size in bytes, or -1.
+     * @param minAge   Minimum time since the last modification, e.g. to skip files still being written, or null.
+     * @param maxAge   Maximum time since the last modification, or null.
+     */
+    public DiscoveryFilter(final List<String> includes, final List<String> excludes, final long minSize,
+                           final long maxSize, final Duration minAge, final Duration maxAge) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+    }
+
+    public static DiscoveryFilter acceptAll() {
+        return ACCEPT_ALL;
+    }
+
+    private static List<Glob> compile(final List<String> patterns) {
+        final List<Glob> globs = new ArrayList<>(patterns.size());
+        for (final String pattern : patterns) {
+            if (!pattern.trim().isEmpty()) {
+                globs.add(new Glob(pattern.trim()));
+            }
+        }
+        return globs;
+    }
+
+    /**
+     * @param relativePath Path of the directory relative to its root.
+     * @return true if the directory and everything below it is skipped.
+     */
+    public boolean isExcludedDirectory(final Path relativePath) {
+        return relativePath.getFileName() != null && !relativePath.toString().isEmpty()
+                && matchesAny(excludes, relativePath, true);
+    }
+
+    /**
+     * Checks the name and the size of a file, e.g. one reported by the watch mode.
+     *
+     * @param relativePath Path of the file relative to its root, the directories of which are checked too.
+     * @param size         Size of the file in bytes.
+     */
+    public boolean acceptsFile(final Path relativePath, final long size) {
+        for (Path directory = relativePath.getParent(); directory != null; directory = directory.getParent()) {
+            if (isExcludedDirectory(directory)) {
+                return false;
+            }
+        }
+        return acceptsName(relativePath) && acceptsSize(size);
+    }
+
+    /**
+     * Checks a file found by a walk, whose directories have already been checked.
+     *
+     * @param relativePath Path of the file relative to its root.
+     * @param attributes   Attributes of the file, of its target for a symbolic link.
+     * @param nowMillis    Current time in milliseconds.
+     */
+    public boolean acceptsFile(final Path relativePath, final BasicFileAttributes attributes, final long nowMillis) {
+        return acceptsName(relativePath) && acceptsSize(attributes.size())
+                && acceptsAge(nowMillis - attributes.lastModifiedTime().toMillis());
+    }
+
+    public boolean hasSizeOrAgeLimits() {
+        return minSize >= 0 || maxSize >= 0 || minAge != null || maxAge != null;
+    }
+
+    private boolean acceptsName(final Path relativePath) {
+        return !matchesAny(excludes, relativePath, false)
+                && (includes.isEmpty() || matchesAny(includes, relativePath, false));
+    }
+
+    private boolean acceptsSize(final long size) {
+        return (minSize < 0 || size >= minSize) && (maxSize < 0 || size <= maxSize);
+    }
+
+    private boolean acceptsAge(final long ageMillis) {
+        return (minAge == null || ageMillis >= minAge.toMillis()) && (maxAge == null || ageMillis <= maxAge.toMillis());
+    }
+
+    private static boolean matchesAny(final List<Glob> globs, final Path relativePath, final boolean directory) {
+        for (final Glob glob : globs) {
+            if ((directory || !glob.directoryOnly) && glob.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Glob {
+
+        private final PathMatcher matcher;
+        private final boolean directoryOnly;
+        private final boolean nameOnly;
+
+        private Glob(final String pattern) {
+            directoryOnly = pattern.endsWith("/");
+            final String glob = directoryOnly ? pattern.substring(0, pattern.length() - 1) : pattern;
+            nameOnly = !glob.contains("/");
+            matcher = FileSystems.getDefault().getPathMatcher("glob:".concat(glob));
+        }
+
+        private boolean matches(final Path relativePath) {
+            return matcher.matches(nameOnly ? relativePath.getFileName() : relativePath);
+        }
+    }
+}
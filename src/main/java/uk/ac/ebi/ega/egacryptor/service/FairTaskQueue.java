@@ -0,0 +1,70 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.service;
+
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out files round-robin across their input roots, so a root with many files can not hold back the files of
+ * the other roots. The files of each root keep their order. Not thread safe.
+ */
+class FairTaskQueue {
+
+    private final Deque<Deque<FileToProcess>> roots = new ArrayDeque<>();
+    private int size;
+
+    FairTaskQueue(final List<FileToProcess> fileToProcessList) {
+        final Map<Path, Deque<FileToProcess>> filesByRoot = new LinkedHashMap<>();
+        for (final FileToProcess fileToProcess : fileToProcessList) {
+            filesByRoot.computeIfAbsent(fileToProcess.getRootPath(), root -> new ArrayDeque<>()).addLast(fileToProcess);
+        }
+        roots.addAll(filesByRoot.values());
+        size = fileToProcessList.size();
+    }
+
+    /**
+     * @return the next file of the root whose turn it is, or null if the queue is empty.
+     */
+    FileToProcess poll() {
+        final Deque<FileToProcess> root = roots.pollFirst();
+        if (root == null) {
+            return null;
+        }
+        final FileToProcess fileToProcess = root.pollFirst();
+        if (!root.isEmpty()) {
+            roots.addLast(root);
+        }
+        size--;
+        return fileToProcess;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
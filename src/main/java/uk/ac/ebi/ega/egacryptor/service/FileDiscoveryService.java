@@ -20,42 +20,255 @@ package uk.ac.ebi.ega.egacryptor.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.index.FileFingerprint;
+import uk.ac.ebi.ega.egacryptor.index.FingerprintIndex;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.model.EncryptedFileSet;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.C4GH;
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.GPG;
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
+
 
 public class FileDiscoveryService implements IFileDiscoveryService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDiscoveryService.class);
 
+    private static final List<FileExtensionType> ENCRYPTED_FILE_EXTENSIONS = Arrays.asList(GPG, C4GH);
+
+    private final FingerprintIndex fingerprintIndex;
+    private final DiscoveryFilter discoveryFilter;
+
+    public FileDiscoveryService() {
+        this(null);
+    }
+
+    /**
+     * @param fingerprintIndex Index of the files encrypted by earlier runs, which are skipped if unchanged, or null
+     *                         to process every file.
+     */
+    public FileDiscoveryService(final FingerprintIndex fingerprintIndex) {
+        this(fingerprintIndex, DiscoveryFilter.acceptAll());
+    }
+
+    /**
+     * @param fingerprintIndex Index of the files encrypted by earlier runs, which are skipped if unchanged, or null
+     *                         to process every file.
+     * @param discoveryFilter  Globs, sizes and ages of the files to encrypt.
+     */
+    public FileDiscoveryService(final FingerprintIndex fingerprintIndex, final DiscoveryFilter discoveryFilter) {
+        this.fingerprintIndex = fingerprintIndex;
+        this.discoveryFilter = discoveryFilter;
+    }
+
+    /**
+     * Files found more than once, e.g. below overlapping roots or through links, are returned once.
+     *
+     * @throws IOException if different files would be encrypted to the same output path.
+     */
     @Override
-    public List<FileToProcess> discoverFilesRecursively(final List<Path> rootFilePaths, final Path outputFilePath) {
+    public List<FileToProcess> discoverFilesRecursively(final List<Path> rootFilePaths, final Path outputFilePath)
+            throws IOException {
         LOGGER.trace("Executing file discovery service. rootFilePaths: \"{}\" , outputFilePath: \"{}\" ...",
                 rootFilePaths, outputFilePath);
 
-        return rootFilePaths.stream()
+        final DiscoveredFiles discoveredFiles = new DiscoveredFiles();
+        rootFilePaths.stream()
                 .map(rootFilePath -> discoverFiles(rootFilePath, outputFilePath))
                 .flatMap(List::stream)
-                .collect(Collectors.toList());
+                .forEach(discoveredFiles::add);
+        return checkDiscoveredFiles(discoveredFiles);
+    }
+
+    /**
+     * Checks a single file found below the given root, e.g. by the watch mode.
+     *
+     * @param rootFilePath   Root path the file was found under.
+     * @param filePath       Path of the file.
+     * @param outputFilePath Output folder path, or an empty path to write next to the source file.
+     * @return the file to process, or empty if the file has to be skipped.
+     */
+    @Override
+    public Optional<FileToProcess> discoverFile(final Path rootFilePath, final Path filePath, final Path outputFilePath) {
+        if (!isValidFilePath(filePath) || !isSelected(rootFilePath, filePath) || !isChanged(filePath)) {
+            return Optional.empty();
+        }
+        JfrEvents.fileDiscovered(filePath);
+        return Optional.of(calculateOutputPath(rootFilePath, filePath, outputFilePath));
+    }
+
+    /**
+     * Groups the output files found below the given roots by the source file they were written for. A set is
+     * returned for every source file with at least one output file, so missing files can be reported.
+     *
+     * @param rootFilePaths Output files or folders to search.
+     * @return the output files of each source file, sorted by path.
+     */
+    @Override
+    public List<EncryptedFileSet> discoverEncryptedFiles(final List<Path> rootFilePaths) throws IOException {
+        final Map<Path, Path[]> outputFiles = new TreeMap<>();
+        for (final Path rootFilePath : rootFilePaths) {
+            try (final Stream<Path> paths = Files.walk(rootFilePath)) {
+                paths.filter(Files::isRegularFile).forEach(path -> addOutputFile(outputFiles, path));
+            }
+        }
+        final List<EncryptedFileSet> encryptedFileSets = new ArrayList<>(outputFiles.size());
+        outputFiles.forEach((basePath, files) ->
+                encryptedFileSets.add(new EncryptedFileSet(basePath, files[0], files[1], files[2])));
+        return encryptedFileSets;
+    }
+
+    /**
+     * Finds the OpenPGP encrypted files below the given roots, e.g. to re-encrypt them in another format. The output
+     * folders mirror the input folders below each root, as for files to encrypt.
+     *
+     * @param rootFilePaths  Encrypted files or folders to search.
+     * @param outputFilePath Output folder path, or an empty path to write next to the encrypted file.
+     * @return the encrypted files, sorted by path. Files found more than once are returned once.
+     * @throws IOException if different files would be written to the same output path.
+     */
+    @Override
+    public List<FileToProcess> discoverFilesToTranscode(final List<Path> rootFilePaths, final Path outputFilePath)
+            throws IOException {
+        final DiscoveredFiles discoveredFiles = new DiscoveredFiles();
+        for (final Path rootFilePath : rootFilePaths) {
+            try (final Stream<Path> paths = Files.walk(rootFilePath)) {
+                paths.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(GPG.getFileExtension()))
+                        .sorted()
+                        .peek(JfrEvents::fileDiscovered)
+                        .map(path -> calculateOutputPath(rootFilePath, path, outputFilePath))
+                        .forEach(discoveredFiles::add);
+            }
+        }
+        return checkDiscoveredFiles(discoveredFiles);
+    }
+
+    private static List<FileToProcess> checkDiscoveredFiles(final DiscoveredFiles discoveredFiles) throws IOException {
+        if (discoveredFiles.getDuplicates() > 0) {
+            LOGGER.info("{} file(s) are skipped because they were found more than once",
+                    discoveredFiles.getDuplicates());
+        }
+        discoveredFiles.checkOutputCollisions();
+        return discoveredFiles.getFiles();
+    }
+
+    private static void addOutputFile(final Map<Path, Path[]> outputFiles, final Path path) {
+        final String fileName = path.getFileName().toString();
+        for (final FileExtensionType encryptedFileExtension : ENCRYPTED_FILE_EXTENSIONS) {
+            final String encryptedMD5Extension = encryptedFileExtension.getFileExtension().concat(MD5.getFileExtension());
+            if (fileName.endsWith(encryptedMD5Extension)) {
+                addOutputFile(outputFiles, path, encryptedMD5Extension, 1);
+                return;
+            } else if (fileName.endsWith(encryptedFileExtension.getFileExtension())) {
+                addOutputFile(outputFiles, path, encryptedFileExtension.getFileExtension(), 0);
+                return;
+            }
+        }
+        if (fileName.endsWith(MD5.getFileExtension())) {
+            addOutputFile(outputFiles, path, MD5.getFileExtension(), 2);
+        }
     }
 
+    private static void addOutputFile(final Map<Path, Path[]> outputFiles, final Path path, final String extension,
+                                      final int index) {
+        final String fileName = path.getFileName().toString();
+        final Path basePath = path.resolveSibling(fileName.substring(0, fileName.length() - extension.length()));
+        outputFiles.computeIfAbsent(basePath, key -> new Path[3])[index] = path;
+    }
+
+    /**
+     * Walks the files below the root. Directories matching an exclude glob are not entered, the other filters are
+     * checked with the attributes read by the walk, before the more expensive checks.
+     */
     private List<FileToProcess> discoverFiles(final Path rootFilePath, final Path outputFilePath) {
-        try (final Stream<Path> paths = Files.walk(rootFilePath)) {
-            return paths
-                    .filter(this::isValidFilePath)
-                    .map(validFilePath -> calculateOutputPath(rootFilePath, validFilePath, outputFilePath))
-                    .collect(Collectors.toList());
+        final List<FileToProcess> fileToProcessList = new ArrayList<>();
+        final long nowMillis = System.currentTimeMillis();
+        final LongAdder unchangedFiles = new LongAdder();
+        final LongAdder filteredFiles = new LongAdder();
+        final LongAdder excludedDirectories = new LongAdder();
+        try {
+            Files.walkFileTree(rootFilePath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes) {
+                    if (discoveryFilter.isExcludedDirectory(rootFilePath.relativize(directory))) {
+                        LOGGER.debug("The {} directory is skipped because it is excluded.", directory);
+                        excludedDirectories.increment();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+                        throws IOException {
+                    if (!isValidFilePath(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final BasicFileAttributes fileAttributes = attributes.isSymbolicLink()
+                            && discoveryFilter.hasSizeOrAgeLimits()
+                            ? Files.readAttributes(file, BasicFileAttributes.class)
+                            : attributes;
+                    if (!discoveryFilter.acceptsFile(relativePath(rootFilePath, file), fileAttributes, nowMillis)) {
+                        LOGGER.debug("The {} file is skipped because it does not match the discovery filter.", file);
+                        filteredFiles.increment();
+                    } else if (!isChanged(file)) {
+                        unchangedFiles.increment();
+                    } else {
+                        JfrEvents.fileDiscovered(file);
+                        fileToProcessList.add(calculateOutputPath(rootFilePath, file, outputFilePath));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         } catch (IOException e) {
             LOGGER.error("Error in file discovery - {}", e.getMessage());
             return Collections.emptyList();
         }
+        if (unchangedFiles.sum() > 0) {
+            LOGGER.info("{} file(s) under {} are skipped because they have not changed since they were encrypted",
+                    unchangedFiles.sum(), rootFilePath);
+        }
+        if (filteredFiles.sum() > 0 || excludedDirectories.sum() > 0) {
+            LOGGER.info("{} file(s) and {} excluded directory(ies) under {} are skipped by the discovery filter",
+                    filteredFiles.sum(), excludedDirectories.sum(), rootFilePath);
+        }
+        return fileToProcessList;
+    }
+
+    private boolean isSelected(final Path rootFilePath, final Path filePath) {
+        try {
+            if (discoveryFilter.acceptsFile(relativePath(rootFilePath, filePath), Files.size(filePath))) {
+                return true;
+            }
+            LOGGER.debug("The {} file is skipped because it does not match the discovery filter.", filePath);
+        } catch (IOException exception) {
+            LOGGER.error("Exception while checking the {} path: {}", filePath, exception.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * A root which is a file itself is matched by its name.
+     */
+    private static Path relativePath(final Path rootFilePath, final Path filePath) {
+        return filePath.equals(rootFilePath) ? filePath.getFileName() : rootFilePath.relativize(filePath);
     }
 
     private boolean isValidFilePath(final Path path) {
@@ -89,17 +302,33 @@ public class FileDiscoveryService implements IFileDiscoveryService {
         return true;
     }
 
+    private boolean isChanged(final Path path) {
+        if (fingerprintIndex == null) {
+            return true;
+        }
+        try {
+            if (fingerprintIndex.isUnchanged(FileFingerprint.of(path))) {
+                LOGGER.debug("The {} file is skipped because it has not changed since it was encrypted.", path);
+                JfrEvents.fileSkipped(path, "unchanged since it was encrypted");
+                return false;
+            }
+        } catch (IOException exception) {
+            LOGGER.error("Exception while fingerprinting the {} path: {}", path, exception.getMessage());
+        }
+        return true;
+    }
+
     private FileToProcess calculateOutputPath(final Path rootFilePath, final Path subFilePath, final Path outputFilePath) {
         if (outputFilePath.toString().isEmpty()) {
-            return new FileToProcess(subFilePath);
+            return new FileToProcess(subFilePath, subFilePath.getParent(), rootFilePath);
         }
 
         final Path subPathMinusRootPath;
         if (!subFilePath.equals(rootFilePath) &&
                 (subPathMinusRootPath = subFilePath.subpath(rootFilePath.getNameCount(), subFilePath.getNameCount())).getParent() != null) {
             final Path newOutputFilePath = outputFilePath.resolve(subPathMinusRootPath.getParent());
-            return new FileToProcess(subFilePath, newOutputFilePath);
+            return new FileToProcess(subFilePath, newOutputFilePath, rootFilePath);
         }
-        return new FileToProcess(subFilePath, outputFilePath);
+        return new FileToProcess(subFilePath, outputFilePath, rootFilePath);
     }
 }
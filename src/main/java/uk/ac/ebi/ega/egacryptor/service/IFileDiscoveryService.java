@@ -17,12 +17,20 @@
  */
 package uk.ac.ebi.ega.egacryptor.service;
 
+import uk.ac.ebi.ega.egacryptor.model.EncryptedFileSet;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 
 public interface IFileDiscoveryService {
     List<FileToProcess> discoverFilesRecursively(final List<Path> filePaths, final Path outputFilePath) throws IOException;
+
+    Optional<FileToProcess> discoverFile(final Path rootFilePath, final Path filePath, final Path outputFilePath);
+
+    List<EncryptedFileSet> discoverEncryptedFiles(final List<Path> rootFilePaths) throws IOException;
+
+    List<FileToProcess> discoverFilesToTranscode(final List<Path> rootFilePaths, final Path outputFilePath) throws IOException;
 }
@@ -20,9 +20,17 @@ package uk.ac.ebi.ega.egacryptor.service;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public interface ITaskExecutorService {
     void execute(final List<FileToProcess> fileToProcessList);
 
     void execute(final List<FileToProcess> fileToProcessList, int noOfThreads);
+
+    void execute(final List<FileToProcess> fileToProcessList, final ExecutorService executorService,
+                 final int noOfThreads, final TaskListener taskListener);
+
+    Future<String> submit(final FileToProcess fileToProcess, final ExecutorService executorService,
+                          final TaskListener taskListener);
 }
@@ -19,15 +19,19 @@ package uk.ac.ebi.ega.egacryptor.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
 
 public class TaskExecutorService implements ITaskExecutorService {
 
@@ -38,9 +42,18 @@ public class TaskExecutorService implements ITaskExecutorService {
 
 
     private final CryptographyPipeline cryptographyPipeline;
+    private final TaskListener taskListener;
 
     public TaskExecutorService(final CryptographyPipeline cryptographyPipeline) {
+        this(cryptographyPipeline, TaskListener.NONE);
+    }
+
+    /**
+     * @param taskListener Listener notified about every file, in addition to the listener of each call.
+     */
+    public TaskExecutorService(final CryptographyPipeline cryptographyPipeline, final TaskListener taskListener) {
         this.cryptographyPipeline = cryptographyPipeline;
+        this.taskListener = taskListener;
     }
 
     /**
@@ -57,12 +70,16 @@ public class TaskExecutorService implements ITaskExecutorService {
 
         LOGGER.trace("Sequential task executor is running");
         LOGGER.debug("File to process list size={}", fileToProcessList.size());
-        fileToProcessList.forEach(cryptographyPipeline::process);
+        fileToProcessList.forEach(fileToProcess -> process(fileToProcess, taskListener));
     }
 
     /**
      * Executes process in parallel based on thread specified by user or
      * calculated by application based on the number of cores/processors.
+     * <p>
+     * Files are handed to a work-stealing pool round-robin across their input roots, and only when a worker is free,
+     * so a large folder does not keep the files of the other folders waiting behind its backlog. Results are
+     * collected in the order the files finish.
      *
      * @param fileToProcessList List of files to process.
      * @param noOfThreads       No of threads to process list of files.
@@ -78,25 +95,120 @@ public class TaskExecutorService implements ITaskExecutorService {
         LOGGER.debug("File to process list size={}, No of threads={}", fileToProcessList.size(), noOfThreads);
 
         final int noOfThreadsToCreate = Math.min(fileToProcessList.size(), noOfThreads);
-        LOGGER.info("Based on the number of file(s), {} threads will process the file(s)", noOfThreads);
-
-        final ExecutorService executor = Executors.newFixedThreadPool(noOfThreadsToCreate);
-        final List<? extends Future<String>> futureList = fileToProcessList
-                .stream()
-                .map(fileToProcess -> executor.submit(() -> cryptographyPipeline
-                        .process(fileToProcess), fileToProcess.getFileToEncryptPath().toString()))
-                .collect(Collectors.toList());
-
-        for (final Future<String> stringFuture : futureList) {
-            try {
-                stringFuture.get();
-            } catch (ExecutionException e) {
-                LOGGER.error("Error while iterating over future list: {}", e.getMessage(), e);
-            } catch (InterruptedException e) {
-                LOGGER.error("Error while iterating over future list: {}", e.getMessage(), e);
-                Thread.currentThread().interrupt();
+        LOGGER.info("Based on the number of file(s), {} threads will process the file(s)", noOfThreadsToCreate);
+
+        final ForkJoinPool executor = new ForkJoinPool(noOfThreadsToCreate,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            executeFairly(fileToProcessList, executor, noOfThreadsToCreate, taskListener);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Executes process on a caller owned executor, e.g. the shared worker pool of the daemon.
+     * Blocks until every file of the list has been processed. The executor is not shut down.
+     * <p>
+     * As in the parallel execute, files are handed over round-robin across their input roots and only when one of
+     * the files of this call has finished, so the calls sharing the executor take turns instead of each queueing its
+     * whole list.
+     *
+     * @param fileToProcessList List of files to process.
+     * @param executorService   Executor which runs the files.
+     * @param noOfThreads       No of files of this call running or waiting on the executor at the same time.
+     * @param taskListener      Listener notified about the status of each file.
+     */
+    @Override
+    public void execute(final List<FileToProcess> fileToProcessList, final ExecutorService executorService,
+                        final int noOfThreads, final TaskListener taskListener) {
+        if (fileToProcessList.isEmpty()) {
+            LOGGER.warn(NO_FILES_TO_PROCESS);
+            return;
+        }
+
+        executeFairly(fileToProcessList, executorService, noOfThreads,
+                TaskListener.of(this.taskListener, taskListener));
+    }
+
+    private void executeFairly(final List<FileToProcess> fileToProcessList, final ExecutorService executorService,
+                               final int noOfThreads, final TaskListener taskListener) {
+        final FairTaskQueue fairTaskQueue = new FairTaskQueue(fileToProcessList);
+        fileToProcessList.forEach(fileToProcess -> queue(fileToProcess, taskListener));
+
+        final CompletionService<String> completionService = new ExecutorCompletionService<>(executorService);
+        int running = 0;
+        while (running < noOfThreads && !fairTaskQueue.isEmpty()) {
+            submit(fairTaskQueue.poll(), completionService, taskListener);
+            running++;
+        }
+        while (running > 0) {
+            if (!awaitNext(completionService)) {
+                return;
+            }
+            running--;
+            if (!fairTaskQueue.isEmpty()) {
+                submit(fairTaskQueue.poll(), completionService, taskListener);
+                running++;
             }
         }
-        executor.shutdownNow();
+    }
+
+    private void submit(final FileToProcess fileToProcess, final CompletionService<String> completionService,
+                        final TaskListener taskListener) {
+        completionService.submit(() -> process(fileToProcess, taskListener),
+                fileToProcess.getFileToEncryptPath().toString());
+    }
+
+    /**
+     * @return false if the calling thread was interrupted while waiting.
+     */
+    private static boolean awaitNext(final CompletionService<String> completionService) {
+        try {
+            completionService.take().get();
+        } catch (ExecutionException e) {
+            LOGGER.error("Error while iterating over future list: {}", e.getMessage(), e);
+        } catch (InterruptedException e) {
+            LOGGER.error("Error while iterating over future list: {}", e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a single file on a caller owned executor without waiting for it.
+     *
+     * @param fileToProcess   File to process.
+     * @param executorService Executor which runs the file.
+     * @param taskListener    Listener notified about the status of the file.
+     * @return future completing with the path of the file.
+     */
+    @Override
+    public Future<String> submit(final FileToProcess fileToProcess, final ExecutorService executorService,
+                                 final TaskListener taskListener) {
+        final TaskListener listener = TaskListener.of(this.taskListener, taskListener);
+        queue(fileToProcess, listener);
+        return executorService.submit(() -> process(fileToProcess, listener),
+                fileToProcess.getFileToEncryptPath().toString());
+    }
+
+    private static void queue(final FileToProcess fileToProcess, final TaskListener taskListener) {
+        JfrEvents.fileQueued(fileToProcess);
+        taskListener.onQueued(fileToProcess);
+    }
+
+    private void process(final FileToProcess fileToProcess, final TaskListener taskListener) {
+        JfrEvents.fileStarted(fileToProcess);
+        taskListener.onStarted(fileToProcess);
+        final Optional<EncryptionResult> encryptionResult;
+        try {
+            encryptionResult = cryptographyPipeline.process(fileToProcess);
+        } catch (RuntimeException e) {
+            JfrEvents.fileFailed(fileToProcess, e);
+            taskListener.onFailed(fileToProcess, e);
+            throw e;
+        }
+        taskListener.onCompleted(fileToProcess, encryptionResult.orElse(null));
     }
 }
@@ -0,0 +1,82 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.service;
+
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Receives the status of each file handled by {@link ITaskExecutorService}.
+ * Callbacks may be invoked concurrently from worker threads.
+ */
+public interface TaskListener {
+
+    TaskListener NONE = new TaskListener() {
+    };
+
+    default void onQueued(final FileToProcess fileToProcess) {
+    }
+
+    default void onStarted(final FileToProcess fileToProcess) {
+    }
+
+    default void onCompleted(final FileToProcess fileToProcess) {
+    }
+
+    /**
+     * @param encryptionResult checksums of the encrypted file, or null if the file was skipped because its output
+     *                         files already exist
+     */
+    default void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+        onCompleted(fileToProcess);
+    }
+
+    default void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+    }
+
+    /**
+     * @return a listener notifying all given listeners in order
+     */
+    static TaskListener of(final TaskListener... taskListeners) {
+        final List<TaskListener> listeners = Arrays.asList(taskListeners);
+        return new TaskListener() {
+            @Override
+            public void onQueued(final FileToProcess fileToProcess) {
+                listeners.forEach(listener -> listener.onQueued(fileToProcess));
+            }
+
+            @Override
+            public void onStarted(final FileToProcess fileToProcess) {
+                listeners.forEach(listener -> listener.onStarted(fileToProcess));
+            }
+
+            @Override
+            public void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+                listeners.forEach(listener -> listener.onCompleted(fileToProcess, encryptionResult));
+            }
+
+            @Override
+            public void onFailed(final FileToProcess fileToProcess, final Throwable throwable) {
+                listeners.forEach(listener -> listener.onFailed(fileToProcess, throwable));
+            }
+        };
+    }
+}
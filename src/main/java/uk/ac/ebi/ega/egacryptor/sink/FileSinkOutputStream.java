@@ -0,0 +1,115 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Writes to "&lt;file&gt;.&lt;random&gt;.part" and renames it to the final name once the stream is closed and its data is
+ * on disk, so a file with the final name is always complete, also after the process or the node died. Every stream
+ * has its own part file, so two processes writing the same file, e.g. a stalled process whose lease was taken over
+ * and the process which took it over, never write into each other's data.
+ */
+class FileSinkOutputStream extends SinkOutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSinkOutputStream.class);
+
+    static final String PART_SUFFIX = FileExtensionType.PART.getFileExtension();
+
+    private final Path file;
+    private final Path partFile;
+    private final FileChannel channel;
+    private final OutputStream outputStream;
+    private boolean closed;
+
+    FileSinkOutputStream(final Path file, final int writeBufferSize) throws IOException {
+        this.file = file;
+        this.partFile = file.resolveSibling(file.getFileName().toString().concat(".")
+                .concat(UUID.randomUUID().toString().substring(0, 8)).concat(PART_SUFFIX));
+        this.channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), writeBufferSize);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        outputStream.write(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+        outputStream.write(bytes, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            outputStream.flush();
+            channel.force(true);
+            outputStream.close();
+            try {
+                Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error while closing {} - {}", partFile, e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(partFile);
+        } catch (IOException e) {
+            LOGGER.error("Unable to delete {} - {}", partFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils.writeToFile;
+
+public class FileSystemOutputSink implements OutputSink {
+
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final int writeBufferSize;
+
+    public FileSystemOutputSink() {
+        this(DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * @param writeBufferSize the encrypted data is collected into blocks of this size before it is written, as the
+     *                        encryption hands it over in chunks of the partial packet size
+     */
+    public FileSystemOutputSink(final int writeBufferSize) {
+        if (writeBufferSize < 1) {
+            throw new IllegalArgumentException("Write buffer size should be greater than 0");
+        }
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    @Override
+    public void createDirectories(final Path directory) throws IOException {
+        final File outputFile = directory.toFile();
+
+        if (!outputFile.exists() && !outputFile.mkdirs()) {
+            final String message = String.format("The \"%s\" directory does not exist and it was not possible " +
+                    "to create it, or one of its parent directories.", directory);
+            throw new FileNotFoundException(message);
+        }
+    }
+
+    @Override
+    public boolean exists(final Path file) {
+        return file.toFile().exists();
+    }
+
+    @Override
+    public SinkOutputStream newOutputStream(final Path file) throws IOException {
+        return new FileSinkOutputStream(file, writeBufferSize);
+    }
+
+    @Override
+    public long getBufferMemoryPerStream() {
+        return writeBufferSize;
+    }
+
+    @Override
+    public void write(final Path file, final String content) throws IOException {
+        writeToFile(file.toFile(), content);
+    }
+
+    @Override
+    public String read(final Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
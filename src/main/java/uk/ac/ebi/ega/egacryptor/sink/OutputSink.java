@@ -0,0 +1,59 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Destination of the files generated by the pipeline. Paths are the ones the files would have on the local file
+ * system; remote sinks map them to their own naming scheme.
+ */
+public interface OutputSink {
+
+    void createDirectories(Path directory) throws IOException;
+
+    boolean exists(Path file) throws IOException;
+
+    /**
+     * Opens a stream for the encrypted data. The file is committed once the stream has been closed, and discarded if
+     * the stream is aborted instead.
+     */
+    SinkOutputStream newOutputStream(Path file) throws IOException;
+
+    void write(Path file, String content) throws IOException;
+
+    /**
+     * Reads back a small file written before, e.g. an index checked by a rerun.
+     */
+    String read(Path file) throws IOException;
+
+    /**
+     * @return the memory, in bytes, held by the buffers of one stream returned by {@link #newOutputStream(Path)}
+     */
+    default long getBufferMemoryPerStream() {
+        return 0;
+    }
+
+    /**
+     * @return the memory, in bytes, held by buffers shared by all streams
+     */
+    default long getSharedBufferMemory() {
+        return 0;
+    }
+}
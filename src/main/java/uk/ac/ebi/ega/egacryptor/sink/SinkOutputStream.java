@@ -0,0 +1,53 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream returned by an {@link OutputSink}. Closing the stream commits the file under its final name. A stream which
+ * is aborted instead discards the data written so far, so a failed file never shows up under its final name.
+ */
+public abstract class SinkOutputStream extends OutputStream {
+
+    /**
+     * Discards the data written so far and closes the stream. Errors while cleaning up are logged, as the caller is
+     * already handling the failure which made it abort. Does nothing if the stream is already closed.
+     */
+    public abstract void abort();
+
+    /**
+     * @return a view of this stream for code which closes the stream it writes to, e.g. a pipeline encrypting a
+     * stream. Closing the view only flushes, which leaves committing or aborting the file to the owner of this stream.
+     */
+    public OutputStream uncommitted() {
+        return new FilterOutputStream(this) {
+            @Override
+            public void write(final byte[] bytes, final int off, final int len) throws IOException {
+                out.write(bytes, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Collects the written bytes into part buffers and uploads every full buffer as a part of a multipart upload on the
+ * shared upload executor. Data smaller than one part is stored with a single put request.
+ * <p>
+ * S3 allows at most 10000 parts per upload, so the part size is doubled every 1000 parts. With the default part
+ * size of 16 MiB the first 16 GiB use 16 MiB parts and the 5 TiB object size limit is reached before the part limit.
+ * <p>
+ * Buffer memory is taken from the shared semaphore in units of the initial part size, so a doubled part holds two
+ * units. A part never grows beyond all units of the sink, which keeps the buffers within the memory the sink reports
+ * but also limits the object size if only few buffers are configured.
+ * <p>
+ * The object is only created once the stream is closed. An aborted stream aborts the multipart upload instead, so
+ * a failed file never shows up as an object.
+ */
+class S3MultipartOutputStream extends SinkOutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int MAX_PART_SIZE = 1 << 30;
+    private static final int PARTS_PER_SIZE_STEP = 1000;
+    private static final int MAX_PARTS = 10000;
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final ExecutorService uploadExecutor;
+    private final Semaphore partBuffers;
+    private final int maxBufferUnits;
+    private final List<Future<CompletedPart>> parts = new ArrayList<>();
+
+    private byte[] buffer;
+    private int bufferUnits;
+    private int position;
+    private String uploadId;
+    private volatile Throwable uploadFailure;
+    private volatile boolean aborted;
+    private boolean closed;
+
+    S3MultipartOutputStream(final S3Client s3Client, final String bucket, final String key, final int partSize,
+                            final ExecutorService uploadExecutor, final Semaphore partBuffers,
+                            final int maxBufferUnits) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.uploadExecutor = uploadExecutor;
+        this.partBuffers = partBuffers;
+        this.maxBufferUnits = maxBufferUnits;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream to object ".concat(key).concat(" is closed"));
+        }
+        checkUploadFailure();
+        while (len > 0) {
+            if (buffer == null) {
+                allocateBuffer();
+            }
+            final int length = Math.min(len, buffer.length - position);
+            System.arraycopy(bytes, off, buffer, position, length);
+            position += length;
+            off += length;
+            len -= length;
+            if (position == buffer.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    private void allocateBuffer() throws IOException {
+        final long currentPartSize = Math.min(Math.min((long) partSize << (parts.size() / PARTS_PER_SIZE_STEP),
+                MAX_PART_SIZE), (long) partSize * maxBufferUnits);
+        final int units = (int) ((currentPartSize + partSize - 1) / partSize);
+        try {
+            partBuffers.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part buffer of object ".concat(key));
+        }
+        buffer = new byte[(int) currentPartSize];
+        bufferUnits = units;
+        position = 0;
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            buffer = null;
+            partBuffers.release(bufferUnits);
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        if (parts.size() == MAX_PARTS) {
+            throw new IOException("Object ".concat(key).concat(" exceeds the maximum number of parts"));
+        }
+        try {
+            if (uploadId == null) {
+                uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket).key(key).build()).uploadId();
+            }
+        } catch (SdkException e) {
+            throw new IOException("Unable to start upload of object ".concat(key).concat(" - ").concat(e.getMessage()), e);
+        }
+
+        final int partNumber = parts.size() + 1;
+        final byte[] data = buffer;
+        final int length = position;
+        final int units = bufferUnits;
+        buffer = null;
+        position = 0;
+        parts.add(uploadExecutor.submit(() -> {
+            try {
+                if (aborted) {
+                    return null;
+                }
+                final String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket).key(key).uploadId(uploadId)
+                                .partNumber(partNumber).contentLength((long) length).build(),
+                        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                                "application/octet-stream")).eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException e) {
+                uploadFailure = e;
+                throw e;
+            } finally {
+                partBuffers.release(units);
+            }
+        }));
+    }
+
+    private void checkUploadFailure() throws IOException {
+        if (uploadFailure != null) {
+            throw new IOException("Upload of object ".concat(key).concat(" failed - ")
+                    .concat(String.valueOf(uploadFailure.getMessage())), uploadFailure);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                putObject();
+            } else {
+                completeUpload();
+            }
+        } catch (IOException | RuntimeException e) {
+            abortUpload();
+            throw e;
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    private void putObject() throws IOException {
+        final byte[] data = buffer == null ? new byte[0] : buffer;
+        final int length = position;
+        try {
+            s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key).contentLength((long) length).build(),
+                    RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                            "application/octet-stream"));
+        } catch (SdkException e) {
+            throw new IOException("Unable to write object ".concat(key).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    private void completeUpload() throws IOException {
+        if (position > 0) {
+            uploadPart();
+        }
+        final List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+        for (final Future<CompletedPart> part : parts) {
+            try {
+                completedParts.add(part.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while uploading object ".concat(key));
+            } catch (ExecutionException e) {
+                throw new IOException("Upload of object ".concat(key).concat(" failed - ")
+                        .concat(String.valueOf(e.getCause().getMessage())), e.getCause());
+            }
+        }
+        try {
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (SdkException e) {
+            throw new IOException("Unable to complete upload of object ".concat(key).concat(" - ")
+                    .concat(e.getMessage()), e);
+        }
+        LOGGER.debug("Object {} uploaded in {} part(s)", key, completedParts.size());
+    }
+
+    @Override
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        aborted = true;
+        // Parts already being uploaded would otherwise be stored after the upload was aborted
+        for (final Future<CompletedPart> part : parts) {
+            try {
+                part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // The upload is aborted anyway
+            }
+        }
+        abortUpload();
+        releaseBuffer();
+        LOGGER.debug("Upload of object {} aborted", key);
+    }
+
+    private void abortUpload() {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket).key(key).uploadId(uploadId).build());
+        } catch (SdkException e) {
+            LOGGER.error("Unable to abort upload of object {} - {}", key, e.getMessage());
+        }
+    }
+}
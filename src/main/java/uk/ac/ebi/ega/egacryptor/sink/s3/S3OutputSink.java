@@ -0,0 +1,145 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams the encrypted data straight into S3 compatible object storage using multipart uploads, so the
+ * ciphertext never touches the local disk. Checksum files are stored as small objects next to it.
+ * <p>
+ * Parts are uploaded in parallel by a pool shared by all workers. The memory of the part buffers held at the same
+ * time, filling or uploading, is limited to {@code maxBufferedParts} times the part size for the whole sink, so
+ * memory use does not grow with the file size or the number of workers.
+ */
+public class S3OutputSink implements OutputSink, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3OutputSink.class);
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String prefix;
+    private final int partSize;
+    private final ExecutorService uploadExecutor;
+    private final int maxBufferedParts;
+    private final Semaphore partBuffers;
+
+    public S3OutputSink(final S3Client s3Client, final String bucket, final String prefix, final int partSize,
+                        final int maxBufferedParts, final int uploadThreads) {
+        if (partSize < S3MultipartOutputStream.MIN_PART_SIZE) {
+            throw new IllegalArgumentException("S3 part size should be at least 5 MiB");
+        }
+        if (maxBufferedParts < 1 || uploadThreads < 1) {
+            throw new IllegalArgumentException("S3 buffered parts and upload threads should be at least 1");
+        }
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.partSize = partSize;
+        this.uploadExecutor = Executors.newFixedThreadPool(uploadThreads);
+        this.maxBufferedParts = maxBufferedParts;
+        this.partBuffers = new Semaphore(maxBufferedParts);
+    }
+
+    @Override
+    public void createDirectories(final Path directory) {
+        // Object storage has no directories
+    }
+
+    @Override
+    public boolean exists(final Path file) throws IOException {
+        try {
+            s3Client.headObject(HeadObjectRequest.builder().bucket(bucket).key(toKey(file)).build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw new IOException("Unable to check object ".concat(toKey(file)).concat(" - ").concat(e.getMessage()), e);
+        } catch (SdkException e) {
+            throw new IOException("Unable to check object ".concat(toKey(file)).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public SinkOutputStream newOutputStream(final Path file) {
+        LOGGER.debug("Streaming to s3://{}/{}", bucket, toKey(file));
+        return new S3MultipartOutputStream(s3Client, bucket, toKey(file), partSize, uploadExecutor, partBuffers,
+                maxBufferedParts);
+    }
+
+    @Override
+    public void write(final Path file, final String content) throws IOException {
+        try {
+            s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(toKey(file)).build(),
+                    RequestBody.fromString(content, StandardCharsets.UTF_8));
+        } catch (SdkException e) {
+            throw new IOException("Unable to write object ".concat(toKey(file)).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public String read(final Path file) throws IOException {
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(toKey(file)).build())
+                    .asUtf8String();
+        } catch (SdkException e) {
+            throw new IOException("Unable to read object ".concat(toKey(file)).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Larger parts of objects with more than 1000 parts take several units of the shared buffer memory.
+     */
+    @Override
+    public long getSharedBufferMemory() {
+        return (long) partSize * maxBufferedParts;
+    }
+
+    private String toKey(final Path file) {
+        return FileUtils.toObjectName(prefix, file);
+    }
+
+    @Override
+    public void close() {
+        uploadExecutor.shutdown();
+        s3Client.close();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.sftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams the encrypted data and the checksum files straight to a directory on an SFTP server, e.g. a submission
+ * inbox, so no local scratch space is needed. Local paths are mapped below the remote directory the same way object
+ * names are built, e.g. "/data/out/file.gpg" is uploaded to "&lt;remote directory&gt;/data/out/file.gpg".
+ */
+public class SftpOutputSink implements OutputSink, Closeable {
+
+    private static final int MIN_RESUME_BUFFER_SIZE = 64 * 1024;
+
+    private final SftpSessionPool sessionPool;
+    private final String remoteDirectory;
+    private final int resumeBufferSize;
+    private final int maxRetries;
+    private final Set<String> createdDirectories = ConcurrentHashMap.newKeySet();
+
+    public SftpOutputSink(final SftpSessionPool sessionPool, final String remoteDirectory, final int resumeBufferSize,
+                          final int maxRetries) {
+        if (resumeBufferSize < MIN_RESUME_BUFFER_SIZE) {
+            throw new IllegalArgumentException("SFTP resume buffer size should be at least 64 KiB");
+        }
+        this.sessionPool = sessionPool;
+        this.remoteDirectory = remoteDirectory;
+        this.resumeBufferSize = resumeBufferSize;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public void createDirectories(final Path directory) throws IOException {
+        final String remotePath = toRemotePath(directory);
+        if (remotePath.isEmpty() || createdDirectories.contains(remotePath)) {
+            return;
+        }
+        final ChannelSftp channel = sessionPool.borrow();
+        try {
+            final StringBuilder path = new StringBuilder(remotePath.startsWith("/") ? "/" : "");
+            for (final String name : remotePath.split("/")) {
+                if (name.isEmpty()) {
+                    continue;
+                }
+                path.append(name);
+                if (!createdDirectories.contains(path.toString()) && stat(channel, path.toString()) == null) {
+                    mkdir(channel, path.toString());
+                }
+                createdDirectories.add(path.toString());
+                path.append('/');
+            }
+        } catch (IOException | RuntimeException e) {
+            sessionPool.invalidate(channel);
+            throw e;
+        }
+        sessionPool.release(channel);
+    }
+
+    private static void mkdir(final ChannelSftp channel, final String path) throws IOException {
+        try {
+            channel.mkdir(path);
+        } catch (SftpException e) {
+            // Another worker may have created it in the meantime
+            if (stat(channel, path) == null) {
+                throw new IOException("Unable to create remote directory ".concat(path).concat(" - ")
+                        .concat(e.getMessage()), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(final Path file) throws IOException {
+        final ChannelSftp channel = sessionPool.borrow();
+        try {
+            final boolean exists = stat(channel, toRemotePath(file)) != null;
+            sessionPool.release(channel);
+            return exists;
+        } catch (IOException | RuntimeException e) {
+            sessionPool.invalidate(channel);
+            throw e;
+        }
+    }
+
+    private static SftpATTRS stat(final ChannelSftp channel, final String path) throws IOException {
+        try {
+            return channel.stat(path);
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw new IOException("Unable to check remote path ".concat(path).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public SinkOutputStream newOutputStream(final Path file) throws IOException {
+        return new SftpUploadOutputStream(sessionPool, toRemotePath(file), resumeBufferSize, maxRetries);
+    }
+
+    @Override
+    public void write(final Path file, final String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        try (final OutputStream outputStream = new SftpUploadOutputStream(sessionPool, toRemotePath(file),
+                Math.max(bytes.length, 1), maxRetries)) {
+            outputStream.write(bytes);
+        }
+    }
+
+    @Override
+    public String read(final Path file) throws IOException {
+        final String remotePath = toRemotePath(file);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final ChannelSftp channel = sessionPool.borrow();
+        try (final InputStream inputStream = channel.get(remotePath)) {
+            final byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, bytesRead);
+            }
+        } catch (SftpException e) {
+            sessionPool.invalidate(channel);
+            throw new IOException("Unable to read remote file ".concat(remotePath).concat(" - ")
+                    .concat(e.getMessage()), e);
+        } catch (IOException | RuntimeException e) {
+            sessionPool.invalidate(channel);
+            throw e;
+        }
+        sessionPool.release(channel);
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getBufferMemoryPerStream() {
+        return resumeBufferSize;
+    }
+
+    private String toRemotePath(final Path path) {
+        return FileUtils.toObjectName(remoteDirectory, path);
+    }
+
+    @Override
+    public void close() {
+        sessionPool.close();
+    }
+}
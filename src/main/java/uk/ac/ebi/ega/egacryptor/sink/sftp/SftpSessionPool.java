@@ -0,0 +1,150 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.sftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of SFTP channels, each on its own SSH session, shared by all worker threads. Sessions are opened lazily and
+ * kept open between files, so only the first files pay for the key exchange and authentication.
+ */
+public class SftpSessionPool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SftpSessionPool.class);
+
+    private final JSch jsch;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final Properties sessionConfig;
+    private final int connectTimeoutMillis;
+    private final Semaphore sessions;
+    private final ConcurrentLinkedDeque<ChannelSftp> idleChannels = new ConcurrentLinkedDeque<>();
+
+    public SftpSessionPool(final JSch jsch, final String host, final int port, final String username,
+                           final String password, final Properties sessionConfig, final int maxSessions,
+                           final int connectTimeoutMillis) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("Number of SFTP sessions should be at least 1");
+        }
+        this.jsch = jsch;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.sessionConfig = sessionConfig;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.sessions = new Semaphore(maxSessions);
+    }
+
+    /**
+     * Returns a connected channel, blocking while all sessions are in use. The channel must be handed back with
+     * {@link #release(ChannelSftp)}, or with {@link #invalidate(ChannelSftp)} if it is no longer usable.
+     */
+    public ChannelSftp borrow() throws IOException {
+        try {
+            sessions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an SFTP session");
+        }
+        try {
+            ChannelSftp channel;
+            while ((channel = idleChannels.pollFirst()) != null) {
+                if (channel.isConnected() && isSessionConnected(channel)) {
+                    return channel;
+                }
+                disconnect(channel);
+            }
+            return connect();
+        } catch (IOException | RuntimeException e) {
+            sessions.release();
+            throw e;
+        }
+    }
+
+    public void release(final ChannelSftp channel) {
+        idleChannels.addFirst(channel);
+        sessions.release();
+    }
+
+    public void invalidate(final ChannelSftp channel) {
+        disconnect(channel);
+        sessions.release();
+    }
+
+    private ChannelSftp connect() throws IOException {
+        Session session = null;
+        try {
+            session = jsch.getSession(username, host, port);
+            if (password != null && !password.isEmpty()) {
+                session.setPassword(password);
+            }
+            session.setConfig(sessionConfig);
+            session.connect(connectTimeoutMillis);
+            final ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect(connectTimeoutMillis);
+            LOGGER.debug("Opened SFTP session to {}@{}:{}", username, host, port);
+            return channel;
+        } catch (JSchException e) {
+            if (session != null) {
+                session.disconnect();
+            }
+            throw new IOException("Unable to open SFTP session to ".concat(host).concat(" - ")
+                    .concat(e.getMessage()), e);
+        }
+    }
+
+    private static boolean isSessionConnected(final ChannelSftp channel) {
+        try {
+            return channel.getSession().isConnected();
+        } catch (JSchException e) {
+            return false;
+        }
+    }
+
+    private static void disconnect(final ChannelSftp channel) {
+        channel.disconnect();
+        try {
+            channel.getSession().disconnect();
+        } catch (JSchException e) {
+            LOGGER.debug("SFTP session already closed - {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        ChannelSftp channel;
+        while ((channel = idleChannels.pollFirst()) != null) {
+            disconnect(channel);
+        }
+    }
+}
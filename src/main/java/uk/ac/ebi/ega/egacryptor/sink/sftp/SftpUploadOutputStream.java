@@ -0,0 +1,228 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.sftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes to "&lt;file&gt;.part" on the SFTP server and renames it to the final name once the stream is closed, so a
+ * file with the final name is always complete. A stream which failed or was aborted is never renamed, and an aborted
+ * stream deletes its ".part" file.
+ * <p>
+ * The data written since the last checkpoint is kept in a replay buffer. A checkpoint waits for the server to
+ * acknowledge all pending writes, which happens every time the buffer is full. If the connection breaks, the stream
+ * takes a new session from the pool, continues after the bytes the server already holds and replays the rest of the
+ * buffer. A partial file left by an earlier run can not be resumed, as every run encrypts with a new session key,
+ * so it is overwritten.
+ */
+class SftpUploadOutputStream extends SinkOutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SftpUploadOutputStream.class);
+
+    static final String PART_SUFFIX = FileExtensionType.PART.getFileExtension();
+
+    private final SftpSessionPool sessionPool;
+    private final String remotePath;
+    private final String partPath;
+    private final int maxRetries;
+    private final byte[] replayBuffer;
+
+    private ChannelSftp channel;
+    private OutputStream remoteOutputStream;
+    private int bufferedLength;
+    private int sentLength;
+    private long confirmedOffset;
+    private boolean closed;
+    private boolean failed;
+
+    SftpUploadOutputStream(final SftpSessionPool sessionPool, final String remotePath, final int resumeBufferSize,
+                           final int maxRetries) throws IOException {
+        this.sessionPool = sessionPool;
+        this.remotePath = remotePath;
+        this.partPath = remotePath.concat(PART_SUFFIX);
+        this.maxRetries = maxRetries;
+        this.replayBuffer = new byte[resumeBufferSize];
+        this.channel = sessionPool.borrow();
+        try {
+            this.remoteOutputStream = channel.put(partPath, ChannelSftp.OVERWRITE);
+        } catch (SftpException e) {
+            sessionPool.invalidate(channel);
+            throw new IOException("Unable to create ".concat(partPath).concat(" - ").concat(e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] bytes, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream to ".concat(remotePath).concat(" is closed"));
+        }
+        while (len > 0) {
+            final int length = Math.min(len, replayBuffer.length - bufferedLength);
+            System.arraycopy(bytes, off, replayBuffer, bufferedLength, length);
+            bufferedLength += length;
+            off += length;
+            len -= length;
+            if (bufferedLength == replayBuffer.length) {
+                checkpoint();
+            } else {
+                sendBuffered(false);
+            }
+        }
+    }
+
+    private void checkpoint() throws IOException {
+        sendBuffered(true);
+        confirmedOffset += bufferedLength;
+        bufferedLength = 0;
+        sentLength = 0;
+    }
+
+    /**
+     * Sends the buffered bytes the server has not received yet and, for a checkpoint, waits until all of them are
+     * acknowledged. Resumes on a new session if the connection breaks.
+     */
+    private void sendBuffered(final boolean flush) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                remoteOutputStream.write(replayBuffer, sentLength, bufferedLength - sentLength);
+                sentLength = bufferedLength;
+                if (flush) {
+                    remoteOutputStream.flush();
+                }
+                return;
+            } catch (IOException e) {
+                resumeOrFail(attempt, e);
+            }
+        }
+    }
+
+    private void resumeOrFail(final int attempt, final Exception e) throws IOException {
+        if (attempt >= maxRetries) {
+            failed = true;
+            throw new IOException("Upload of ".concat(remotePath).concat(" failed - ")
+                    .concat(String.valueOf(e.getMessage())), e);
+        }
+        LOGGER.warn("Upload of {} interrupted at {} bytes, resuming - {}", remotePath, confirmedOffset + sentLength,
+                e.getMessage());
+        try {
+            resume();
+        } catch (IOException | RuntimeException resumeException) {
+            failed = true;
+            throw resumeException;
+        }
+    }
+
+    private void resume() throws IOException {
+        invalidateChannel();
+        final ChannelSftp newChannel = sessionPool.borrow();
+        try {
+            final long remoteSize = newChannel.stat(partPath).getSize();
+            if (remoteSize < confirmedOffset || remoteSize > confirmedOffset + bufferedLength) {
+                throw new IOException("Unable to resume upload of ".concat(remotePath).concat(", the server holds ")
+                        .concat(String.valueOf(remoteSize)).concat(" bytes but ")
+                        .concat(String.valueOf(confirmedOffset)).concat(" were acknowledged"));
+            }
+            remoteOutputStream = newChannel.put(partPath, ChannelSftp.RESUME);
+            sentLength = (int) (remoteSize - confirmedOffset);
+            channel = newChannel;
+        } catch (SftpException e) {
+            sessionPool.invalidate(newChannel);
+            throw new IOException("Unable to resume upload of ".concat(remotePath).concat(" - ")
+                    .concat(e.getMessage()), e);
+        } catch (IOException | RuntimeException e) {
+            sessionPool.invalidate(newChannel);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (failed) {
+            invalidateChannel();
+            return;
+        }
+        try {
+            checkpoint();
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    remoteOutputStream.close();
+                    channel.rename(partPath, remotePath);
+                    break;
+                } catch (IOException e) {
+                    resumeOrFail(attempt, e);
+                } catch (SftpException e) {
+                    if (channel.isConnected()) {
+                        throw new IOException("Unable to rename ".concat(partPath).concat(" - ")
+                                .concat(e.getMessage()), e);
+                    }
+                    resumeOrFail(attempt, e);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            invalidateChannel();
+            throw e;
+        }
+        sessionPool.release(channel);
+        channel = null;
+    }
+
+    @Override
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Pending writes of the current session must not reach the file after it was deleted
+        invalidateChannel();
+        ChannelSftp cleanupChannel = null;
+        try {
+            cleanupChannel = sessionPool.borrow();
+            cleanupChannel.rm(partPath);
+            sessionPool.release(cleanupChannel);
+        } catch (IOException | SftpException | RuntimeException e) {
+            if (cleanupChannel != null) {
+                sessionPool.invalidate(cleanupChannel);
+            }
+            LOGGER.warn("Unable to delete {} after the upload was aborted - {}", partPath, e.getMessage());
+        }
+    }
+
+    private void invalidateChannel() {
+        if (channel != null) {
+            sessionPool.invalidate(channel);
+            channel = null;
+        }
+    }
+}
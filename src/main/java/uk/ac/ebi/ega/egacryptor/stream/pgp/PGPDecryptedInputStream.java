@@ -0,0 +1,91 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.pgp;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Literal data of a decrypted OpenPGP message. The modification detection code is checked once the end of the data
+ * has been reached, so tampered or truncated files fail with an exception instead of ending silently.
+ * Closing the stream closes the encrypted input stream.
+ */
+public class PGPDecryptedInputStream extends FilterInputStream {
+
+    private final PGPPublicKeyEncryptedData pgpPublicKeyEncryptedData;
+    private final InputStream encryptedInputStream;
+    private boolean verified;
+
+    public PGPDecryptedInputStream(final InputStream literalDataInputStream,
+                                   final PGPPublicKeyEncryptedData pgpPublicKeyEncryptedData,
+                                   final InputStream encryptedInputStream) {
+        super(literalDataInputStream);
+        this.pgpPublicKeyEncryptedData = pgpPublicKeyEncryptedData;
+        this.encryptedInputStream = encryptedInputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b == -1) {
+            verify();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int off, final int len) throws IOException {
+        final int read = super.read(bytes, off, len);
+        if (read == -1) {
+            verify();
+        }
+        return read;
+    }
+
+    private void verify() throws IOException {
+        if (verified || !pgpPublicKeyEncryptedData.isIntegrityProtected()) {
+            return;
+        }
+        try {
+            if (!pgpPublicKeyEncryptedData.verify()) {
+                throw new IOException("Integrity check of the encrypted data failed");
+            }
+        } catch (PGPException e) {
+            throw new IOException("Integrity check of the encrypted data failed - ".concat(e.getMessage()), e);
+        }
+        verified = true;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            encryptedInputStream.close();
+        }
+    }
+}
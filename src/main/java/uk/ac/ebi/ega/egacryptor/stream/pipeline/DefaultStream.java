@@ -18,6 +18,7 @@
 package uk.ac.ebi.ega.egacryptor.stream.pipeline;
 
 import org.bouncycastle.util.Arrays;
+import uk.ac.ebi.ega.egacryptor.throttle.Throttle;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,12 +29,22 @@ public class DefaultStream implements PipelineStream {
     private final InputStream sourceInputStream;
     private final OutputStream targetOutputStream;
     private final int bufferSize;
+    private final Throttle throttle;
 
     public DefaultStream(final InputStream sourceInputStream, final OutputStream targetOutputStream,
                          final int bufferSize) {
+        this(sourceInputStream, targetOutputStream, bufferSize, Throttle.NONE);
+    }
+
+    /**
+     * @param throttle paces the copy; every block read is acquired from it before it is written
+     */
+    public DefaultStream(final InputStream sourceInputStream, final OutputStream targetOutputStream,
+                         final int bufferSize, final Throttle throttle) {
         this.sourceInputStream = sourceInputStream;
         this.targetOutputStream = targetOutputStream;
         this.bufferSize = bufferSize;
+        this.throttle = throttle;
     }
 
     @Override
@@ -44,6 +55,7 @@ public class DefaultStream implements PipelineStream {
             int bytesRead;
             while ((bytesRead = sourceInputStream.read(buffer)) > 0) {
                 totalRead += bytesRead;
+                throttle.acquire(bytesRead);
                 targetOutputStream.write(buffer, 0, bytesRead);
             }
             targetOutputStream.flush();
@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size of the blocks read from the files to encrypt. Either a fixed size or "auto", which probes the file store of
+ * every file once: network and parallel file systems (NFS, Lustre, GPFS, ...) are read in large blocks so each
+ * request to the server carries enough data, local file systems in blocks that still fit the CPU caches.
+ */
+public class ReadBufferSize {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadBufferSize.class);
+
+    public static final String AUTO = "auto";
+    static final int LOCAL_FILE_SYSTEM_SIZE = 256 * 1024;
+    static final int NETWORK_FILE_SYSTEM_SIZE = 4 * 1024 * 1024;
+
+    private final int fixedSize;
+    private final Map<FileStore, Integer> fileStoreSizes = new ConcurrentHashMap<>();
+
+    private ReadBufferSize(final int fixedSize) {
+        this.fixedSize = fixedSize;
+    }
+
+    public static ReadBufferSize fixed(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Read buffer size should be greater than 0");
+        }
+        return new ReadBufferSize(size);
+    }
+
+    public static ReadBufferSize auto() {
+        return new ReadBufferSize(0);
+    }
+
+    /**
+     * Parses a size in bytes or {@link #AUTO}.
+     */
+    public static ReadBufferSize parse(final String value) {
+        final String trimmedValue = value.trim();
+        if (AUTO.equalsIgnoreCase(trimmedValue)) {
+            return auto();
+        }
+        try {
+            return fixed(Integer.parseInt(trimmedValue));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Read buffer size should be a number of bytes or \"auto\" but was "
+                    .concat(value), e);
+        }
+    }
+
+    public boolean isAuto() {
+        return fixedSize == 0;
+    }
+
+    /**
+     * Size used for streams that do not come from a file, e.g. stdin.
+     */
+    public int getDefaultSize() {
+        return isAuto() ? LOCAL_FILE_SYSTEM_SIZE : fixedSize;
+    }
+
+    public int forFile(final Path file) {
+        if (!isAuto()) {
+            return fixedSize;
+        }
+        try {
+            return fileStoreSizes.computeIfAbsent(Files.getFileStore(file), this::probe);
+        } catch (IOException e) {
+            return getDefaultSize();
+        }
+    }
+
+    private int probe(final FileStore fileStore) {
+        final int size = FileUtils.isNetworkFileSystem(fileStore) ? NETWORK_FILE_SYSTEM_SIZE : LOCAL_FILE_SYSTEM_SIZE;
+        LOGGER.info("Reading files on {} ({}) in blocks of {} bytes", fileStore.name(), fileStore.type(), size);
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return isAuto() ? AUTO : String.valueOf(fixedSize);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.timing;
+
+/**
+ * Layers of the encryption stream chain, in the order the data passes them.
+ */
+public enum Stage {
+    READ("read"),
+    PLAINTEXT_MD5("plaintext md5"),
+    LITERAL("literal packets"),
+    COMPRESS("compress"),
+    ENCRYPT("encrypt"),
+    ENCRYPTED_MD5("encrypted md5"),
+    WRITE("write");
+
+    private final String label;
+
+    Stage(final String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the stage which is called from within this stage, whose time is included in the time of this stage,
+     * or null for the innermost stages.
+     */
+    Stage getInner() {
+        switch (this) {
+            case PLAINTEXT_MD5:
+                return READ;
+            case LITERAL:
+                return COMPRESS;
+            case COMPRESS:
+                return ENCRYPT;
+            case ENCRYPT:
+                return ENCRYPTED_MD5;
+            case ENCRYPTED_MD5:
+                return WRITE;
+            default:
+                return null;
+        }
+    }
+}
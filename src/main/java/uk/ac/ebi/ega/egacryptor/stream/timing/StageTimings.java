@@ -0,0 +1,88 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.timing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each stage of the encryption stream chain. The timed streams record the time of each call including
+ * the stages it calls, the time of a stage alone is derived by subtracting the time of the stage below it.
+ * Not thread safe; one instance is used per file and merged into run totals afterwards.
+ */
+public class StageTimings {
+
+    private final long[] inclusiveNanos = new long[Stage.values().length];
+
+    public void add(final Stage stage, final long nanos) {
+        inclusiveNanos[stage.ordinal()] += nanos;
+    }
+
+    public void add(final StageTimings stageTimings) {
+        for (int i = 0; i < inclusiveNanos.length; i++) {
+            inclusiveNanos[i] += stageTimings.inclusiveNanos[i];
+        }
+    }
+
+    /**
+     * @return the nanoseconds spent in the given stage itself, excluding the stages it calls.
+     */
+    public long getNanos(final Stage stage) {
+        final Stage inner = stage.getInner();
+        final long nanos = inclusiveNanos[stage.ordinal()] - (inner == null ? 0 : inclusiveNanos[inner.ordinal()]);
+        return Math.max(nanos, 0);
+    }
+
+    public long getMillis(final Stage stage) {
+        return TimeUnit.NANOSECONDS.toMillis(getNanos(stage));
+    }
+
+    public long getTotalNanos() {
+        long totalNanos = 0;
+        for (final Stage stage : Stage.values()) {
+            totalNanos += getNanos(stage);
+        }
+        return totalNanos;
+    }
+
+    /**
+     * @return the stage the most time was spent in, which limits the throughput.
+     */
+    public Stage getLimitingStage() {
+        Stage limitingStage = Stage.READ;
+        for (final Stage stage : Stage.values()) {
+            if (getNanos(stage) > getNanos(limitingStage)) {
+                limitingStage = stage;
+            }
+        }
+        return limitingStage;
+    }
+
+    @Override
+    public String toString() {
+        final long totalNanos = Math.max(getTotalNanos(), 1);
+        final StringBuilder builder = new StringBuilder();
+        for (final Stage stage : Stage.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(stage.getLabel()).append(' ').append(getMillis(stage)).append(" ms (")
+                    .append(getNanos(stage) * 100 / totalNanos).append("%)");
+        }
+        return builder.append(", limited by ").append(getLimitingStage().getLabel()).toString();
+    }
+}
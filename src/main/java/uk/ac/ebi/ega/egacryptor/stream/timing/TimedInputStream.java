@@ -0,0 +1,65 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.timing;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the time of every read from the wrapped stream to a stage.
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private final Stage stage;
+    private final StageTimings stageTimings;
+
+    private TimedInputStream(final InputStream inputStream, final Stage stage, final StageTimings stageTimings) {
+        super(inputStream);
+        this.stage = stage;
+        this.stageTimings = stageTimings;
+    }
+
+    /**
+     * @return the stream timed as the given stage, or the stream itself if the stage timings are null.
+     */
+    public static InputStream wrap(final InputStream inputStream, final Stage stage,
+                                   final StageTimings stageTimings) {
+        return stageTimings == null ? inputStream : new TimedInputStream(inputStream, stage, stageTimings);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return in.read();
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int off, final int len) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return in.read(bytes, off, len);
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+}
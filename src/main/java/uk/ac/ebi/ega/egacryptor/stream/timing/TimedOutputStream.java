@@ -0,0 +1,85 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.timing;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Adds the time of every call to the wrapped stream to a stage.
+ */
+public class TimedOutputStream extends FilterOutputStream {
+
+    private final Stage stage;
+    private final StageTimings stageTimings;
+
+    private TimedOutputStream(final OutputStream outputStream, final Stage stage, final StageTimings stageTimings) {
+        super(outputStream);
+        this.stage = stage;
+        this.stageTimings = stageTimings;
+    }
+
+    /**
+     * @return the stream timed as the given stage, or the stream itself if the stage timings are null.
+     */
+    public static OutputStream wrap(final OutputStream outputStream, final Stage stage,
+                                    final StageTimings stageTimings) {
+        return stageTimings == null ? outputStream : new TimedOutputStream(outputStream, stage, stageTimings);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            out.write(b);
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            out.write(bytes, off, len);
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            out.flush();
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            out.close();
+        } finally {
+            stageTimings.add(stage, System.nanoTime() - start);
+        }
+    }
+}
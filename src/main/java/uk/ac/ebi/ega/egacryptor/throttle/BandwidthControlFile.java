@@ -0,0 +1,99 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.throttle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.SizeUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the rates of a properties file to the bandwidth limiter whenever the file changes, e.g. from a cron job
+ * raising the limits at night:
+ * <pre>
+ * aggregate=200M
+ * per-file=50M
+ * </pre>
+ * Rates are bytes per second with an optional K, M or G suffix, 0 removes the limit. Missing keys keep their rate.
+ */
+public class BandwidthControlFile implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BandwidthControlFile.class);
+
+    public static final String AGGREGATE = "aggregate";
+    public static final String PER_FILE = "per-file";
+
+    private final Path controlFile;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ScheduledExecutorService scheduler;
+    private FileTime lastModified;
+
+    public BandwidthControlFile(final Path controlFile, final BandwidthLimiter bandwidthLimiter,
+                                final long pollIntervalSeconds) {
+        this.controlFile = controlFile;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "bandwidth-control-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poll();
+        scheduler.scheduleWithFixedDelay(this::poll, pollIntervalSeconds, pollIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void poll() {
+        try {
+            final FileTime modified = Files.getLastModifiedTime(controlFile);
+            if (modified.equals(lastModified)) {
+                return;
+            }
+            lastModified = modified;
+            final Properties properties = new Properties();
+            try (final Reader reader = Files.newBufferedReader(controlFile, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            if (properties.containsKey(AGGREGATE)) {
+                bandwidthLimiter.setAggregateRate(SizeUtils.parseSize(properties.getProperty(AGGREGATE)));
+            }
+            if (properties.containsKey(PER_FILE)) {
+                bandwidthLimiter.setPerFileRate(SizeUtils.parseSize(properties.getProperty(PER_FILE)));
+            }
+        } catch (NoSuchFileException e) {
+            lastModified = null;
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Unable to apply bandwidth control file {} - {}", controlFile, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
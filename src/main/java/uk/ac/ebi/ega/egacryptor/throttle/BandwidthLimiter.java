@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.throttle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Caps the bandwidth of all files together and of each file, so encryption on storage shared with other jobs can be
+ * kept in the background. Every file copies through its own throttle, which takes the bytes from a bucket of its own
+ * and from the bucket shared by all files, and waits for whichever of the two is slower.
+ * <p>
+ * Both rates can be changed while files are being copied, through the setters, the control file or JMX.
+ */
+public class BandwidthLimiter implements BandwidthLimiterMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BandwidthLimiter.class);
+
+    public static final String OBJECT_NAME = "uk.ac.ebi.ega.egacryptor:type=BandwidthLimiter";
+
+    private final TokenBucket aggregateBucket;
+    private volatile long perFileRate;
+
+    /**
+     * @param aggregateRate bytes per second of all files together, 0 for no limit
+     * @param perFileRate   bytes per second of each file, 0 for no limit
+     */
+    public BandwidthLimiter(final long aggregateRate, final long perFileRate) {
+        this.aggregateBucket = new TokenBucket(aggregateRate);
+        this.perFileRate = Math.max(perFileRate, 0);
+    }
+
+    public static BandwidthLimiter unlimited() {
+        return new BandwidthLimiter(0, 0);
+    }
+
+    public Throttle newFileThrottle() {
+        final TokenBucket fileBucket = new TokenBucket(perFileRate);
+        return bytes -> {
+            final long currentPerFileRate = perFileRate;
+            if (fileBucket.getRate() != currentPerFileRate) {
+                fileBucket.setRate(currentPerFileRate);
+            }
+            final long now = System.nanoTime();
+            TokenBucket.sleep(Math.max(fileBucket.reserve(bytes, now), aggregateBucket.reserve(bytes, now)));
+        };
+    }
+
+    /**
+     * Registers the limiter with the platform MBean server, so its rates can be changed over JMX.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.warn("Bandwidth limiter could not be registered with JMX - {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public long getAggregateRate() {
+        return aggregateBucket.getRate();
+    }
+
+    @Override
+    public void setAggregateRate(final long bytesPerSecond) {
+        if (bytesPerSecond != getAggregateRate()) {
+            LOGGER.info("Aggregate bandwidth limit changed to {} bytes/s", Math.max(bytesPerSecond, 0));
+        }
+        aggregateBucket.setRate(bytesPerSecond);
+    }
+
+    @Override
+    public long getPerFileRate() {
+        return perFileRate;
+    }
+
+    @Override
+    public void setPerFileRate(final long bytesPerSecond) {
+        if (bytesPerSecond != perFileRate) {
+            LOGGER.info("Per file bandwidth limit changed to {} bytes/s", Math.max(bytesPerSecond, 0));
+        }
+        perFileRate = Math.max(bytesPerSecond, 0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.throttle;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the bytes per second of everything acquiring from it. Tokens are added continuously at the
+ * rate and up to a quarter second of them may be saved for a burst. A caller takes its tokens right away, even if
+ * that leaves the bucket in debt, and sleeps until the debt would be paid off; callers arriving later wait for the
+ * debt of the earlier ones as well, so concurrent callers share the rate fairly.
+ * <p>
+ * The rate can be changed while the bucket is in use. A rate of 0 or less removes the limit.
+ */
+public class TokenBucket implements Throttle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long BURST_NANOS = NANOS_PER_SECOND / 4;
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(final long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+        this.tokens = capacity();
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    public synchronized void setRate(final long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+        tokens = this.bytesPerSecond == 0 ? 0 : Math.min(tokens, capacity());
+    }
+
+    @Override
+    public void acquire(final long bytes) throws InterruptedIOException {
+        sleep(reserve(bytes, System.nanoTime()));
+    }
+
+    /**
+     * @return the nanoseconds the caller has to wait before using the bytes
+     */
+    synchronized long reserve(final long bytes, final long now) {
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        refill(now);
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+    }
+
+    private void refill(final long now) {
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(capacity(), tokens + (double) (now - lastRefill) * bytesPerSecond / NANOS_PER_SECOND);
+        }
+        lastRefill = now;
+    }
+
+    private double capacity() {
+        return (double) bytesPerSecond * BURST_NANOS / NANOS_PER_SECOND;
+    }
+
+    static void sleep(final long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.transcode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.constant.FileExtensionType;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPDecryptor;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.jfr.JfrEvents;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.sink.OutputSink;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.GPG;
+import static uk.ac.ebi.ega.egacryptor.constant.FileExtensionType.MD5;
+
+/**
+ * Re-encrypts OpenPGP files, e.g. to Crypt4GH, without writing the plain text anywhere: the decrypted stream is
+ * piped straight into the encryption pipeline. The plain text MD5 computed on the way is checked against the
+ * ".md5" file next to the ".gpg" file; the new file is only committed if they match, otherwise it is discarded and
+ * the file fails.
+ */
+public class TranscodingCryptographyPipeline implements CryptographyPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TranscodingCryptographyPipeline.class);
+
+    private final PGPDecryptor pgpDecryptor;
+    private final CryptographyPipeline encryptionPipeline;
+    private final OutputSink outputSink;
+
+    /**
+     * @param encryptionPipeline pipeline encrypting the decrypted stream, which also leases its memory
+     */
+    public TranscodingCryptographyPipeline(final PGPDecryptor pgpDecryptor, final CryptographyPipeline encryptionPipeline,
+                                           final OutputSink outputSink) {
+        this.pgpDecryptor = pgpDecryptor;
+        this.encryptionPipeline = encryptionPipeline;
+        this.outputSink = outputSink;
+    }
+
+    @Override
+    public Optional<EncryptionResult> process(final FileToProcess fileToProcess) {
+        LOGGER.debug("filePathToTranscode={}", fileToProcess);
+        try {
+            return doProcess(fileToProcess);
+        } catch (CryptographyException | IOException e) {
+            LOGGER.error("Error while executing transcoding pipeline - {}", e.getMessage());
+            throw new RuntimeException("Error while processing request", e);
+        }
+    }
+
+    @Override
+    public EncryptionResult process(final InputStream inputStream, final OutputStream outputStream) {
+        try {
+            return encryptionPipeline.process(pgpDecryptor.decrypt(inputStream), outputStream);
+        } catch (CryptographyException e) {
+            LOGGER.error("Error while executing transcoding pipeline - {}", e.getMessage());
+            throw new RuntimeException("Error while processing request", e);
+        }
+    }
+
+    @Override
+    public FileExtensionType getFileExtensionType() {
+        return encryptionPipeline.getFileExtensionType();
+    }
+
+    private Optional<EncryptionResult> doProcess(final FileToProcess fileToProcess)
+            throws CryptographyException, IOException {
+        final Path encryptedFile = fileToProcess.getFileToEncryptPath();
+        final String encryptedFileName = encryptedFile.getFileName().toString();
+        if (!encryptedFileName.endsWith(GPG.getFileExtension())) {
+            throw new IOException("File ".concat(encryptedFile.toString()).concat(" is not a .gpg file"));
+        }
+        final String fileName = encryptedFileName.substring(0, encryptedFileName.length() - GPG.getFileExtension().length());
+        final Path plainTextMD5File = encryptedFile.resolveSibling(fileName.concat(MD5.getFileExtension()));
+        if (!Files.isRegularFile(plainTextMD5File)) {
+            throw new IOException("Checksum file ".concat(plainTextMD5File.toString()).concat(" does not exist"));
+        }
+        final String expectedPlainTextMD5 = Hash.readChecksum(plainTextMD5File);
+
+        final Path outputFilePath = fileToProcess.getOutputFilePath();
+        outputSink.createDirectories(outputFilePath);
+
+        final String encryptedFileExtension = getFileExtensionType().getFileExtension();
+        final Path outputFileMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(fileName.
+                concat(MD5.getFileExtension()));
+        final Path outputFileEncrypted = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(fileName.
+                concat(encryptedFileExtension));
+        final Path outputFileEncryptedMD5 = FileUtils.newEmptyPath().resolve(outputFilePath).resolve(fileName.
+                concat(encryptedFileExtension.concat(MD5.getFileExtension())));
+
+        if (outputSink.exists(outputFileEncrypted) || outputSink.exists(outputFileEncryptedMD5)) {
+            LOGGER.info("Process skip for file {}. All or some of these files are already exists - {},{}",
+                    encryptedFile, outputFileEncrypted, outputFileEncryptedMD5);
+            JfrEvents.fileSkipped(encryptedFile, "output files already exist");
+            return Optional.empty();
+        }
+
+        LOGGER.info("File \"{}\" is being transcoded", encryptedFile);
+        final EncryptionResult encryptionResult;
+        final SinkOutputStream outputStream = outputSink.newOutputStream(outputFileEncrypted);
+        try (final JfrEvents.Stage transcodeStage = JfrEvents.stage(encryptedFile, "transcode")) {
+            encryptionResult = encryptionPipeline.process(pgpDecryptor.decrypt(Files.newInputStream(encryptedFile)),
+                    outputStream.uncommitted());
+            transcodeStage.setBytes(encryptionResult.getBytesRead());
+            if (!expectedPlainTextMD5.equals(encryptionResult.getPlainTextMD5())) {
+                throw new IOException("Plain text MD5 " + encryptionResult.getPlainTextMD5() + " of " + encryptedFile
+                        + " does not match " + expectedPlainTextMD5 + " of " + plainTextMD5File);
+            }
+        } catch (CryptographyException | IOException | RuntimeException e) {
+            outputStream.abort();
+            throw e;
+        }
+        outputStream.close();
+
+        if (!outputFileMD5.toAbsolutePath().normalize().equals(plainTextMD5File.toAbsolutePath().normalize())) {
+            outputSink.write(outputFileMD5, encryptionResult.getPlainTextMD5());
+        }
+        outputSink.write(outputFileEncryptedMD5, encryptionResult.getEncryptedMD5());
+        JfrEvents.fileCommitted(fileToProcess, encryptionResult);
+        LOGGER.info("File {} is successfully transcoded to {}. Total bytes read: {}. Plain text MD5 {} verified",
+                encryptedFile, outputFileEncrypted, encryptionResult.getBytesRead(), expectedPlainTextMD5);
+        return Optional.of(encryptionResult);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.watch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+import uk.ac.ebi.ega.egacryptor.service.IFileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.ITaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the input folders and queues every new file as soon as its size and modification time have not changed
+ * for the configured stable time.
+ * <p>
+ * New files are detected with a {@link WatchService}. Input folders on network file systems, where the kernel does
+ * not report changes made by other hosts, and every folder if polling is forced, are rescanned periodically instead.
+ * <p>
+ * A queued file is remembered with its modification time, so it is not queued again by the next event or rescan.
+ * It is forgotten once it disappears, and a file re-created or rewritten under the same name is queued again.
+ */
+public class WatchFolderService implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchFolderService.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 500;
+
+    private final ITaskExecutorService taskExecutorService;
+    private final IFileDiscoveryService fileDiscoveryService;
+    private final ExecutorService executorService;
+    private final TaskListener taskListener;
+    private final long stableTimeMillis;
+    private final long pollIntervalMillis;
+    private final boolean forcePolling;
+
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final Map<Path, FileTime> queuedFiles = new HashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Path> directoryRoots = new HashMap<>();
+    private final WatchService watchService;
+    private volatile boolean closed;
+
+    public WatchFolderService(final ITaskExecutorService taskExecutorService,
+                              final IFileDiscoveryService fileDiscoveryService,
+                              final ExecutorService executorService,
+                              final TaskListener taskListener,
+                              final long stableTimeMillis,
+                              final long pollIntervalMillis,
+                              final boolean forcePolling) throws IOException {
+        this.taskExecutorService = taskExecutorService;
+        this.fileDiscoveryService = fileDiscoveryService;
+        this.executorService = executorService;
+        this.taskListener = taskListener;
+        this.stableTimeMillis = stableTimeMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.forcePolling = forcePolling;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches the given root paths until the service is closed.
+     *
+     * @param rootFilePaths  Files or folders to watch.
+     * @param outputFilePath Output folder path.
+     */
+    public void watch(final List<Path> rootFilePaths, final Path outputFilePath) {
+        final Map<Path, Boolean> pollingRoots = new HashMap<>();
+        for (final Path rootFilePath : rootFilePaths) {
+            final boolean polling = forcePolling || FileUtils.isOnNetworkFileSystem(rootFilePath);
+            pollingRoots.put(rootFilePath, polling);
+            LOGGER.info("Watching \"{}\" for new files using {}", rootFilePath, polling ? "polling" : "file system events");
+            scan(rootFilePath, rootFilePath, !polling);
+        }
+
+        long lastPoll = System.currentTimeMillis();
+        while (!closed) {
+            try {
+                final WatchKey watchKey = watchService.poll(CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    handleEvents(watchKey);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            }
+
+            if (System.currentTimeMillis() - lastPoll >= pollIntervalMillis) {
+                pollingRoots.forEach((rootFilePath, polling) -> {
+                    if (polling) {
+                        scan(rootFilePath, rootFilePath, false);
+                    }
+                });
+                forgetDeletedFiles();
+                lastPoll = System.currentTimeMillis();
+            }
+            queueStableFiles(outputFilePath);
+        }
+        LOGGER.info("Stopped watching for new files");
+    }
+
+    private void handleEvents(final WatchKey watchKey) {
+        final Path directory = watchedDirectories.get(watchKey);
+        final Path rootFilePath = directoryRoots.get(directory);
+        for (final WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+            if (watchEvent.kind() == OVERFLOW) {
+                LOGGER.warn("File system events were lost, rescanning \"{}\"", directory);
+                scan(rootFilePath, directory, true);
+                continue;
+            }
+            final Path path = directory.resolve((Path) watchEvent.context());
+            if (Files.isDirectory(path)) {
+                scan(rootFilePath, path, true);
+            } else {
+                try {
+                    addCandidate(rootFilePath, path, Files.getLastModifiedTime(path));
+                } catch (IOException e) {
+                    LOGGER.debug("File {} disappeared before it was checked", path);
+                }
+            }
+        }
+        if (!watchKey.reset()) {
+            directoryRoots.remove(watchedDirectories.remove(watchKey));
+        }
+    }
+
+    private void scan(final Path rootFilePath, final Path startPath, final boolean register) {
+        if (!Files.exists(startPath)) {
+            LOGGER.warn("The {} path does not exist and is not watched.", startPath);
+            return;
+        }
+        try {
+            Files.walkFileTree(startPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                    if (register && !directoryRoots.containsKey(dir)) {
+                        watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), dir);
+                        directoryRoots.put(dir, rootFilePath);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    addCandidate(rootFilePath, file, attrs.lastModifiedTime());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    LOGGER.error("Exception while checking the {} path: {}", file, exc.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.error("Error in file discovery - {}", e.getMessage());
+        }
+    }
+
+    private void addCandidate(final Path rootFilePath, final Path path, final FileTime lastModified) {
+        final FileTime queuedLastModified = queuedFiles.get(path);
+        if (queuedLastModified != null) {
+            if (queuedLastModified.equals(lastModified)) {
+                return;
+            }
+            LOGGER.info("File \"{}\" has been re-created or modified since it was queued", path);
+            queuedFiles.remove(path);
+        }
+        if (!candidates.containsKey(path)) {
+            LOGGER.debug("New file detected: {}", path);
+            candidates.put(path, new Candidate(rootFilePath));
+        }
+    }
+
+    /**
+     * Forgets the queued files which no longer exist, e.g. because they are deleted once they are encrypted.
+     */
+    private void forgetDeletedFiles() {
+        queuedFiles.keySet().removeIf(path -> !Files.exists(path));
+    }
+
+    private void queueStableFiles(final Path outputFilePath) {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Candidate> entry = iterator.next();
+            final Path path = entry.getKey();
+            final Candidate candidate = entry.getValue();
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                LOGGER.debug("File {} disappeared before it became stable", path);
+                iterator.remove();
+                continue;
+            }
+
+            if (candidate.hasChanged(attributes, now) || now - candidate.stableSince < stableTimeMillis) {
+                continue;
+            }
+
+            iterator.remove();
+            queuedFiles.put(path, attributes.lastModifiedTime());
+            fileDiscoveryService.discoverFile(candidate.rootFilePath, path, outputFilePath)
+                    .ifPresent(fileToProcess -> {
+                        LOGGER.info("File \"{}\" is stable and has been queued", path);
+                        taskExecutorService.submit(fileToProcess, executorService, taskListener);
+                    });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private static class Candidate {
+        private final Path rootFilePath;
+        private long size = -1;
+        private long lastModified = -1;
+        private long stableSince;
+
+        private Candidate(final Path rootFilePath) {
+            this.rootFilePath = rootFilePath;
+        }
+
+        /**
+         * A file is never queued on the first observation. A file which was last modified more than the stable time
+         * ago is considered stable from its modification time on.
+         */
+        private boolean hasChanged(final BasicFileAttributes attributes, final long now) {
+            final long currentSize = attributes.size();
+            final long currentLastModified = attributes.lastModifiedTime().toMillis();
+            if (currentSize == size && currentLastModified == lastModified) {
+                return false;
+            }
+            final boolean firstObservation = size < 0;
+            size = currentSize;
+            lastModified = currentLastModified;
+            stableSince = firstObservation ? Math.min(now, currentLastModified) : now;
+            return true;
+        }
+    }
+}
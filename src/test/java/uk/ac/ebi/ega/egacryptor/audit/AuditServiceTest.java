@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class AuditServiceTest extends BaseTest {
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void audit_WhenOutputFilesAreDamaged_ThenReportsEachProblem() throws IOException, InterruptedException {
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        final Path subFolder = createSubDirs(outputFolder, "sub", "folder");
+        final byte[] content = new byte[100_000];
+        Arrays.fill(content, (byte) 42);
+
+        writeOutputFiles(outputFolder, "valid.txt", content);
+        writeOutputFiles(subFolder, "nested.txt", content);
+        writeOutputFiles(outputFolder, "truncated.txt", content);
+        Files.write(outputFolder.resolve("truncated.txt.gpg"), Arrays.copyOf(content, 50_000));
+        writeOutputFiles(outputFolder, "noChecksum.txt", content);
+        Files.delete(outputFolder.resolve("noChecksum.txt.gpg.md5"));
+        writeOutputFiles(outputFolder, "orphan.txt", content);
+        Files.delete(outputFolder.resolve("orphan.txt.gpg"));
+        Files.write(outputFolder.resolve("md5sum.txt.gpg"), content);
+        Files.write(outputFolder.resolve("md5sum.txt.gpg.md5"),
+                md5(content).toUpperCase().concat("  md5sum.txt.gpg\n").getBytes(StandardCharsets.US_ASCII));
+        Files.write(outputFolder.resolve("md5sum.txt.md5"), md5(content).getBytes(StandardCharsets.US_ASCII));
+
+        final AuditReport auditReport = new AuditService(new FileDiscoveryService(), 4096)
+                .audit(Collections.singletonList(outputFolder), 3);
+
+        assertThat(auditReport.getResults())
+                .extracting(AuditResult::getStatus, AuditResult::getPath)
+                .containsExactlyInAnyOrder(
+                        tuple(AuditResult.Status.OK, outputFolder.resolve("valid.txt.gpg")),
+                        tuple(AuditResult.Status.OK, subFolder.resolve("nested.txt.gpg")),
+                        tuple(AuditResult.Status.OK, outputFolder.resolve("md5sum.txt.gpg")),
+                        tuple(AuditResult.Status.MISMATCH, outputFolder.resolve("truncated.txt.gpg")),
+                        tuple(AuditResult.Status.MISSING_CHECKSUM, outputFolder.resolve("noChecksum.txt.gpg")),
+                        tuple(AuditResult.Status.ORPHAN, outputFolder.resolve("orphan.txt")));
+        assertThat(auditReport.isSuccessful()).isFalse();
+        assertThat(auditReport.getCount(AuditResult.Status.OK)).isEqualTo(3);
+        assertThat(auditReport.getBytesRead()).isEqualTo(3 * 100_000 + 50_000);
+    }
+
+    @Test
+    void audit_WhenAllOutputFilesMatch_ThenReportIsSuccessful() throws IOException, InterruptedException {
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        writeOutputFiles(outputFolder, "first.txt", "first".getBytes(StandardCharsets.UTF_8));
+        writeOutputFiles(outputFolder, "second.txt", new byte[0]);
+
+        final AuditReport auditReport = new AuditService(new FileDiscoveryService())
+                .audit(Collections.singletonList(outputFolder), 1);
+
+        assertThat(auditReport.getResults()).hasSize(2);
+        assertThat(auditReport.isSuccessful()).isTrue();
+    }
+
+    private static void writeOutputFiles(final Path folder, final String fileName, final byte[] encryptedContent)
+            throws IOException {
+        Files.write(folder.resolve(fileName.concat(".gpg")), encryptedContent);
+        Files.write(folder.resolve(fileName.concat(".gpg.md5")),
+                md5(encryptedContent).getBytes(StandardCharsets.US_ASCII));
+        Files.write(folder.resolve(fileName.concat(".md5")),
+                "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String md5(final byte[] content) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(content);
+        return Hash.normalize(messageDigest);
+    }
+}
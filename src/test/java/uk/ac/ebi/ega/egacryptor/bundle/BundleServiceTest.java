@@ -0,0 +1,239 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.bundle;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPTestKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.memory.MemoryBudget;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+import uk.ac.ebi.ega.egacryptor.throttle.BandwidthLimiter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BundleServiceTest extends BaseTest {
+
+    private static PGPTestKeys keys;
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        keys = PGPTestKeys.generate("bundle@ega");
+    }
+
+    @Test
+    void bundle_WhenFolderExceedsFileLimit_ThenWritesSeveralBundlesWithIndex() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "cells");
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("a.vcf", randomBytes(1000));
+        files.put("b.vcf", randomBytes(0));
+        files.put("shard/c.vcf", randomBytes(70 * 1024));
+        files.put("shard/" + String.join("", Collections.nCopies(12, "long-folder-name/")) + "d.vcf", randomBytes(513));
+        files.put("shard/e.vcf", randomBytes(5));
+        for (final Map.Entry<String, byte[]> file : files.entrySet()) {
+            final Path path = inputFolder.resolve(file.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getValue());
+        }
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+
+        final long failedBundles = newService(2, 1L << 30).bundle(Collections.singletonList(inputFolder),
+                outputFolder, 2);
+
+        assertThat(failedBundles).isZero();
+        final Map<String, byte[]> unpacked = new LinkedHashMap<>();
+        for (int number = 1; number <= 3; number++) {
+            final String bundle = String.format("cells-%05d.tar", number);
+            final byte[] encrypted = Files.readAllBytes(outputFolder.resolve(bundle + ".gpg"));
+            final byte[] tar = keys.decrypt(new ByteArrayInputStream(encrypted));
+            assertThat(outputFolder.resolve(bundle + ".gpg.md5")).hasContent(md5Of(encrypted));
+            assertThat(outputFolder.resolve(bundle + ".md5")).hasContent(md5Of(tar));
+
+            final List<String> index = Files.readAllLines(outputFolder.resolve(bundle + ".index.tsv"),
+                    StandardCharsets.UTF_8);
+            assertThat(index.get(0)).startsWith("#path");
+            for (final String line : index.subList(1, index.size())) {
+                final String[] fields = line.split("\t");
+                final byte[] content = files.get(fields[0]);
+                final int dataOffset = Integer.parseInt(fields[2]);
+                assertThat(Arrays.copyOfRange(tar, dataOffset, dataOffset + content.length)).isEqualTo(content);
+                assertThat(Long.parseLong(fields[3])).isEqualTo(content.length);
+                assertThat(fields[4]).isEqualTo(md5Of(content));
+            }
+            unpacked.putAll(untar(tar));
+        }
+        assertThat(outputFolder.resolve("cells-00004.tar.gpg")).doesNotExist();
+        assertThat(unpacked).containsOnlyKeys(files.keySet());
+        files.forEach((name, content) -> assertThat(unpacked.get(name)).isEqualTo(content));
+    }
+
+    @Test
+    void write_WhenMemberCanNotBeRead_ThenFailsWithoutLeavingBundleFiles() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "data");
+        Files.write(inputFolder.resolve("1.bin"), randomBytes(100 * 1024));
+        final Path missingFile = inputFolder.resolve("2.bin");
+        Files.write(missingFile, randomBytes(10));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+        final BundleService bundleService = newService(100, 1L << 30);
+        final List<BundleService.Bundle> bundles = bundleService.planBundles(new FileDiscoveryService()
+                .discoverFilesRecursively(Collections.singletonList(inputFolder), outputFolder), outputFolder);
+        Files.delete(missingFile);
+
+        assertThatThrownBy(() -> bundleService.write(bundles.get(0))).isInstanceOf(IOException.class);
+
+        try (final Stream<Path> outputFiles = Files.list(outputFolder)) {
+            assertThat(outputFiles).isEmpty();
+        }
+    }
+
+    @Test
+    void bundle_WhenBundleFilesExist_ThenSkipsTheBundle() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "data");
+        Files.write(inputFolder.resolve("1.bin"), randomBytes(1024));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+        final BundleService bundleService = newService(100, 1L << 30);
+        assertThat(bundleService.bundle(Collections.singletonList(inputFolder), outputFolder, 1)).isZero();
+        final byte[] encrypted = Files.readAllBytes(outputFolder.resolve("data-00001.tar.gpg"));
+
+        assertThat(bundleService.bundle(Collections.singletonList(inputFolder), outputFolder, 1)).isZero();
+
+        assertThat(outputFolder.resolve("data-00001.tar.gpg")).hasBinaryContent(encrypted);
+    }
+
+    @Test
+    void bundle_WhenFolderChangedSinceEarlierRun_ThenFailsTheShiftedBundlesInsteadOfSkippingThem() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "data");
+        Files.write(inputFolder.resolve("2.bin"), randomBytes(10));
+        Files.write(inputFolder.resolve("3.bin"), randomBytes(20));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+        final BundleService bundleService = newService(1, 1L << 30);
+        assertThat(bundleService.bundle(Collections.singletonList(inputFolder), outputFolder, 2)).isZero();
+        final byte[] encrypted = Files.readAllBytes(outputFolder.resolve("data-00001.tar.gpg"));
+
+        // A file sorted first moves every member of the earlier bundles to the next bundle
+        Files.write(inputFolder.resolve("1.bin"), randomBytes(30));
+
+        assertThat(bundleService.bundle(Collections.singletonList(inputFolder), outputFolder, 2)).isEqualTo(2);
+        assertThat(outputFolder.resolve("data-00001.tar.gpg")).hasBinaryContent(encrypted);
+        assertThat(outputFolder.resolve("data-00003.tar.index.tsv")).exists();
+    }
+
+    @Test
+    void bundle_WhenRunReportListens_ThenNotifiesEveryBundle() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "data");
+        Files.write(inputFolder.resolve("1.bin"), randomBytes(10));
+        Files.write(inputFolder.resolve("2.bin"), randomBytes(20));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+        final List<Path> completed = Collections.synchronizedList(new ArrayList<>());
+        final BundleService bundleService = new BundleService(new FileDiscoveryService(),
+                new PGPCryptography(Collections.singletonList(keys.getPublicKey()), 512, 512),
+                new FileSystemOutputSink(), 1, 1L << 30, MemoryBudget.unlimited(), BandwidthLimiter.unlimited(),
+                new TaskListener() {
+                    @Override
+                    public void onCompleted(final FileToProcess fileToProcess,
+                                            final EncryptionResult encryptionResult) {
+                        completed.add(fileToProcess.getFileToEncryptPath());
+                    }
+                });
+
+        assertThat(bundleService.bundle(Collections.singletonList(inputFolder), outputFolder, 2)).isZero();
+
+        assertThat(completed).containsExactlyInAnyOrder(outputFolder.resolve("data-00001.tar"),
+                outputFolder.resolve("data-00002.tar"));
+    }
+
+    @Test
+    void planBundles_WhenSizeLimitIsReached_ThenStartsNewBundleAndKeepsLargeFilesAlone() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "data");
+        Files.write(inputFolder.resolve("1.bin"), new byte[40]);
+        Files.write(inputFolder.resolve("2.bin"), new byte[40]);
+        Files.write(inputFolder.resolve("3.bin"), new byte[150]);
+        Files.write(inputFolder.resolve("4.bin"), new byte[10]);
+        final BundleService bundleService = newService(100, 100);
+
+        final List<BundleService.Bundle> bundles = bundleService.planBundles(new FileDiscoveryService()
+                .discoverFilesRecursively(Collections.singletonList(inputFolder), temporaryFolder), temporaryFolder);
+
+        final List<List<String>> memberNames = new ArrayList<>();
+        bundles.forEach(bundle -> memberNames.add(bundle.getMemberNames()));
+        assertThat(memberNames).containsExactly(Arrays.asList("1.bin", "2.bin"), Collections.singletonList("3.bin"),
+                Collections.singletonList("4.bin"));
+    }
+
+    private static BundleService newService(final int maxFiles, final long maxBytes) {
+        return new BundleService(new FileDiscoveryService(),
+                new PGPCryptography(Collections.singletonList(keys.getPublicKey()), 512, 512),
+                new FileSystemOutputSink(), maxFiles, maxBytes);
+    }
+
+    private static Map<String, byte[]> untar(final byte[] tar) throws Exception {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (final TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new ByteArrayInputStream(tar))) {
+            TarArchiveEntry entry;
+            while ((entry = tarInputStream.getNextEntry()) != null) {
+                final byte[] content = new byte[(int) entry.getSize()];
+                int offset = 0;
+                while (offset < content.length) {
+                    offset += tarInputStream.read(content, offset, content.length - offset);
+                }
+                entries.put(entry.getName(), content);
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String md5Of(final byte[] bytes) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(bytes);
+        return Hash.normalize(messageDigest);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.coordination;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPTestKeys;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LeaseCoordinatorTest extends BaseTest {
+
+    @TempDir
+    public Path temporaryFolder;
+
+    @Test
+    void execute_WhenSeveralProcessesShareTheWorkDirectory_ThenEachFileIsProcessedOnce() throws Exception {
+        final List<FileToProcess> files = createFiles(40);
+        final Path workDirectory = temporaryFolder.resolve("work");
+        final ConcurrentLinkedQueue<Path> processedFiles = new ConcurrentLinkedQueue<>();
+
+        final ExecutorService processes = Executors.newFixedThreadPool(3);
+        try {
+            final List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                results.add(processes.submit(() -> {
+                    try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(
+                            new TaskExecutorService(recordingPipeline(processedFiles)), workDirectory, 5000, 1000)) {
+                        return leaseCoordinator.execute(files, 2);
+                    }
+                }));
+            }
+            for (final Future<Long> result : results) {
+                assertThat(result.get()).isZero();
+            }
+        } finally {
+            processes.shutdownNow();
+        }
+
+        assertThat(processedFiles).hasSize(files.size()).doesNotHaveDuplicates();
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(
+                new TaskExecutorService(recordingPipeline(processedFiles)), workDirectory, 5000, 1000)) {
+            for (final FileToProcess fileToProcess : files) {
+                assertThat(leaseCoordinator.markerOf(fileToProcess, LeaseCoordinator.DONE_EXTENSION)).exists();
+                assertThat(leaseCoordinator.markerOf(fileToProcess, LeaseCoordinator.LEASE_EXTENSION)).doesNotExist();
+            }
+            // A restarted run skips the finished files
+            assertThat(leaseCoordinator.execute(files, 2)).isZero();
+        }
+        assertThat(processedFiles).hasSize(files.size());
+    }
+
+    @Test
+    void execute_WhenLeaseIsNotRefreshed_ThenTakesItOverAfterTimeout() throws Exception {
+        final List<FileToProcess> files = createFiles(2);
+        final Path workDirectory = temporaryFolder.resolve("work");
+        final ConcurrentLinkedQueue<Path> processedFiles = new ConcurrentLinkedQueue<>();
+
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(
+                new TaskExecutorService(recordingPipeline(processedFiles)), workDirectory, 300, 50)) {
+            final Path deadLease = leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.LEASE_EXTENSION);
+            Files.createDirectories(deadLease.getParent());
+            Files.write(deadLease, "12345@node-that-died".getBytes());
+
+            assertThat(leaseCoordinator.execute(files, 1)).isZero();
+
+            assertThat(processedFiles).containsExactlyInAnyOrder(files.get(0).getFileToEncryptPath(),
+                    files.get(1).getFileToEncryptPath());
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).exists();
+            assertThat(deadLease).doesNotExist();
+        }
+    }
+
+    @Test
+    void execute_WhenFileFails_ThenWritesFailedMarkerAndDoesNotRetryIt() throws Exception {
+        final List<FileToProcess> files = createFiles(1);
+        final Path workDirectory = temporaryFolder.resolve("work");
+        final CryptographyPipeline pipeline = mock(CryptographyPipeline.class);
+        when(pipeline.process(any(FileToProcess.class))).thenThrow(new IllegalStateException("disk full"));
+
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(new TaskExecutorService(pipeline),
+                workDirectory, 5000, 1000)) {
+            assertThat(leaseCoordinator.execute(files, 1)).isEqualTo(1);
+            assertThat(new String(Files.readAllBytes(
+                    leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.FAILED_EXTENSION)))).contains("disk full");
+            assertThat(leaseCoordinator.execute(files, 1)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void execute_WhenDeadProcessLeftPartFile_ThenTakesOverAndWritesCompleteOutput() throws Exception {
+        final List<FileToProcess> files = createFiles(1);
+        final byte[] plainText = randomBytes(100 * 1024);
+        Files.write(files.get(0).getFileToEncryptPath(), plainText);
+        final Path partFile = temporaryFolder.resolve("output").resolve("file-0.bin.gpg.5f1c2a9e.part");
+        Files.write(partFile, randomBytes(1024));
+        final PGPTestKeys keys = PGPTestKeys.generate("lease@ega");
+
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(
+                new TaskExecutorService(pgpPipeline(keys)), temporaryFolder.resolve("work"), 300, 50)) {
+            writeDeadLease(leaseCoordinator, files.get(0));
+
+            assertThat(leaseCoordinator.execute(files, 1)).isZero();
+
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).exists();
+        }
+        final Path encryptedFile = temporaryFolder.resolve("output").resolve("file-0.bin.gpg");
+        assertThat(keys.decrypt(Files.newInputStream(encryptedFile))).isEqualTo(plainText);
+        // The new writer has its own part file and never writes into the one of the dead process
+        assertThat(partFile).hasBinaryContent(randomBytes(1024));
+    }
+
+    @Test
+    void execute_WhenLeaseIsTakenOverWhileProcessing_ThenCancelsFileAndLeavesTheLeaseAlone() throws Exception {
+        final List<FileToProcess> files = createFiles(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final CryptographyPipeline pipeline = mock(CryptographyPipeline.class);
+        when(pipeline.process(any(FileToProcess.class))).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                started.countDown();
+                try {
+                    Thread.sleep(30000);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                    throw new IllegalStateException("Interrupted", e);
+                }
+            }
+            return Optional.of(new EncryptionResult(0, 0, "", ""));
+        });
+
+        final ExecutorService process = Executors.newSingleThreadExecutor();
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(new TaskExecutorService(pipeline),
+                temporaryFolder.resolve("work"), 1000, 50)) {
+            final Future<Long> result = process.submit(() -> leaseCoordinator.execute(files, 1));
+            started.await();
+            final Path lease = leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.LEASE_EXTENSION);
+            final byte[] otherLease = "67890@node-that-took-over\nfile-0.bin".getBytes();
+            Files.write(lease, otherLease);
+
+            assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(lease).hasBinaryContent(otherLease);
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).doesNotExist();
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.FAILED_EXTENSION)).doesNotExist();
+
+            // The other process never refreshes its lease, so this process takes it over once it expired
+            assertThat(result.get()).isZero();
+            assertThat(calls.get()).isEqualTo(2);
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).exists();
+        } finally {
+            process.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_WhenDeadProcessLeftTruncatedOutput_ThenWritesFailedMarkerInsteadOfDoneMarker() throws Exception {
+        final List<FileToProcess> files = createFiles(1);
+        Files.write(files.get(0).getFileToEncryptPath(), randomBytes(100 * 1024));
+        final Path encryptedFile = temporaryFolder.resolve("output").resolve("file-0.bin.gpg");
+        Files.write(encryptedFile, randomBytes(1024));
+
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(
+                new TaskExecutorService(pgpPipeline(PGPTestKeys.generate("lease@ega"))),
+                temporaryFolder.resolve("work"), 300, 50)) {
+            writeDeadLease(leaseCoordinator, files.get(0));
+
+            assertThat(leaseCoordinator.execute(files, 1)).isEqualTo(1);
+
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).doesNotExist();
+            assertThat(new String(Files.readAllBytes(leaseCoordinator.markerOf(files.get(0),
+                    LeaseCoordinator.FAILED_EXTENSION)))).contains("Output files already exist");
+        }
+        assertThat(encryptedFile).hasBinaryContent(randomBytes(1024));
+    }
+
+    @Test
+    void close_WhenFileIsBeingProcessed_ThenKeepsItsLease() throws Exception {
+        final List<FileToProcess> files = createFiles(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CryptographyPipeline pipeline = mock(CryptographyPipeline.class);
+        when(pipeline.process(any(FileToProcess.class))).thenAnswer(invocation -> {
+            started.countDown();
+            closed.await();
+            return Optional.of(new EncryptionResult(0, 0, "", ""));
+        });
+
+        final ExecutorService process = Executors.newSingleThreadExecutor();
+        try (final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(new TaskExecutorService(pipeline),
+                temporaryFolder.resolve("work"), 5000, 1000)) {
+            final Future<Long> result = process.submit(() -> leaseCoordinator.execute(files, 1));
+            started.await();
+            final Path lease = leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.LEASE_EXTENSION);
+
+            leaseCoordinator.close();
+
+            assertThat(lease).exists();
+            closed.countDown();
+            assertThat(result.get()).isZero();
+            assertThat(leaseCoordinator.markerOf(files.get(0), LeaseCoordinator.DONE_EXTENSION)).exists();
+        } finally {
+            process.shutdownNow();
+        }
+    }
+
+    private static void writeDeadLease(final LeaseCoordinator leaseCoordinator, final FileToProcess fileToProcess)
+            throws Exception {
+        final Path deadLease = leaseCoordinator.markerOf(fileToProcess, LeaseCoordinator.LEASE_EXTENSION);
+        Files.createDirectories(deadLease.getParent());
+        Files.write(deadLease, "12345@node-that-died".getBytes());
+    }
+
+    private static CryptographyPipeline pgpPipeline(final PGPTestKeys keys) {
+        return new DefaultCryptographyPipeline(new PGPCryptography(Collections.singletonList(keys.getPublicKey()),
+                256, 256), 4096);
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private List<FileToProcess> createFiles(final int count) throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        final List<FileToProcess> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final Path file = inputFolder.resolve("file-" + i + ".bin");
+            Files.write(file, new byte[i * 100]);
+            files.add(new FileToProcess(file, outputFolder, inputFolder));
+        }
+        return files;
+    }
+
+    private static CryptographyPipeline recordingPipeline(final ConcurrentLinkedQueue<Path> processedFiles) {
+        final CryptographyPipeline pipeline = mock(CryptographyPipeline.class);
+        when(pipeline.process(any(FileToProcess.class))).thenAnswer(invocation -> {
+            final FileToProcess fileToProcess = invocation.getArgument(0);
+            processedFiles.add(fileToProcess.getFileToEncryptPath());
+            Thread.sleep(5);
+            return Optional.of(new EncryptionResult(0, 0, "", ""));
+        });
+        return pipeline;
+    }
+}
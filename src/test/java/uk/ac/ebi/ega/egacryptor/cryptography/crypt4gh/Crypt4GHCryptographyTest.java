@@ -0,0 +1,102 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Crypt4GHCryptographyTest {
+
+    private static final int HEADER_PACKET_SIZE = 108;
+    private static final int SEGMENT_OVERHEAD = 12 + 16;
+
+    private final ExecutorService segmentExecutor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        segmentExecutor.shutdownNow();
+    }
+
+    @Test
+    void encrypt_WhenSegmentsAreEncryptedInParallel_ThenEveryRecipientDecryptsTheDataInOrder() throws Exception {
+        final Crypt4GHTestKeys archive = Crypt4GHTestKeys.generate();
+        final Crypt4GHTestKeys escrow = Crypt4GHTestKeys.generate();
+        final byte[] plainText = randomBytes(20 * 65536 + 5);
+
+        final byte[] encrypted = encrypt(new Crypt4GHCryptography(
+                Arrays.asList(archive.getPublicKey(), escrow.getPublicKey()), segmentExecutor, 2), plainText);
+
+        assertThat(encrypted).hasSize(16 + 2 * HEADER_PACKET_SIZE + plainText.length + 21 * SEGMENT_OVERHEAD);
+        assertThat(archive.decrypt(encrypted)).isEqualTo(plainText);
+        assertThat(escrow.decrypt(encrypted)).isEqualTo(plainText);
+    }
+
+    @Test
+    void encrypt_WhenDataIsMultipleOfSegmentSize_ThenNoEmptySegmentIsWritten() throws Exception {
+        final Crypt4GHTestKeys reader = Crypt4GHTestKeys.generate();
+        final byte[] plainText = randomBytes(3 * 65536);
+
+        final byte[] encrypted = encrypt(new Crypt4GHCryptography(
+                Collections.singletonList(reader.getPublicKey()), null, 1), plainText);
+
+        assertThat(encrypted).hasSize(16 + HEADER_PACKET_SIZE + plainText.length + 3 * SEGMENT_OVERHEAD);
+        assertThat(reader.decrypt(encrypted)).isEqualTo(plainText);
+    }
+
+    @Test
+    void readPublicKey_WhenGivenCrypt4GHKeyFile_ThenReturnsRawKey() throws IOException {
+        final Crypt4GHTestKeys reader = Crypt4GHTestKeys.generate();
+
+        assertThat(Crypt4GHKeys.readPublicKey(new ByteArrayInputStream(
+                reader.getPublicKeyFile().getBytes(StandardCharsets.US_ASCII)))).isEqualTo(reader.getPublicKey());
+        assertThatThrownBy(() -> Crypt4GHKeys.readPublicKey(new ByteArrayInputStream(
+                "-----BEGIN CRYPT4GH PUBLIC KEY-----\nAAAA\n".getBytes(StandardCharsets.US_ASCII))))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static byte[] encrypt(final Crypt4GHCryptography cryptography, final byte[] plainText) throws Exception {
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = cryptography.encrypt(encrypted)) {
+            // Odd write sizes so writes cross the segment boundaries
+            for (int off = 0; off < plainText.length; off += 10007) {
+                outputStream.write(plainText, off, Math.min(10007, plainText.length - off));
+            }
+        }
+        return encrypted.toByteArray();
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Generates throw-away X25519 key pairs and decrypts Crypt4GH data with them, following the specification rather
+ * than the code under test.
+ */
+public class Crypt4GHTestKeys {
+
+    private final X25519PrivateKeyParameters privateKey;
+    private final byte[] publicKey;
+
+    private Crypt4GHTestKeys(final X25519PrivateKeyParameters privateKey) {
+        this.privateKey = privateKey;
+        this.publicKey = privateKey.generatePublicKey().getEncoded();
+    }
+
+    public static Crypt4GHTestKeys generate() {
+        return new Crypt4GHTestKeys(new X25519PrivateKeyParameters(new SecureRandom()));
+    }
+
+    public byte[] getPublicKey() {
+        return publicKey;
+    }
+
+    public String getPublicKeyFile() {
+        return "-----BEGIN CRYPT4GH PUBLIC KEY-----\n"
+                .concat(Base64.getEncoder().encodeToString(publicKey))
+                .concat("\n-----END CRYPT4GH PUBLIC KEY-----\n");
+    }
+
+    public byte[] decrypt(final byte[] encrypted) throws InvalidCipherTextException {
+        final ByteBuffer buffer = ByteBuffer.wrap(encrypted).order(ByteOrder.LITTLE_ENDIAN);
+        final byte[] magic = new byte[8];
+        buffer.get(magic);
+        if (!"crypt4gh".equals(new String(magic, StandardCharsets.US_ASCII)) || buffer.getInt() != 1) {
+            throw new IllegalArgumentException("Not a Crypt4GH file");
+        }
+        final int packetCount = buffer.getInt();
+        byte[] dataKey = null;
+        for (int i = 0; i < packetCount; i++) {
+            final int packetLength = buffer.getInt();
+            final int method = buffer.getInt();
+            final byte[] writerPublicKey = new byte[32];
+            buffer.get(writerPublicKey);
+            final byte[] nonce = new byte[12];
+            buffer.get(nonce);
+            final byte[] sealed = new byte[packetLength - 8 - 32 - 12];
+            buffer.get(sealed);
+            if (method != 0 || dataKey != null) {
+                continue;
+            }
+            final byte[] sharedKey = Crypt4GHKeys.deriveSharedKey(privateKey,
+                    new X25519PublicKeyParameters(writerPublicKey, 0), publicKey, writerPublicKey);
+            try {
+                final ByteBuffer payload = ByteBuffer.wrap(open(sharedKey, nonce, sealed, 0, sealed.length))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (payload.getInt() == 0 && payload.getInt() == 0) {
+                    dataKey = new byte[32];
+                    payload.get(dataKey);
+                }
+            } catch (InvalidCipherTextException e) {
+                // Packet of another recipient
+            }
+        }
+        if (dataKey == null) {
+            throw new InvalidCipherTextException("No header packet for this key");
+        }
+
+        final ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+        while (buffer.hasRemaining()) {
+            final int segmentLength = Math.min(buffer.remaining(), 12 + 65536 + 16);
+            final byte[] nonce = new byte[12];
+            buffer.get(nonce);
+            final byte[] sealed = new byte[segmentLength - 12];
+            buffer.get(sealed);
+            final byte[] segment = open(dataKey, nonce, sealed, 0, sealed.length);
+            plainText.write(segment, 0, segment.length);
+        }
+        return plainText.toByteArray();
+    }
+
+    private static byte[] open(final byte[] key, final byte[] nonce, final byte[] sealed, final int off,
+                               final int len) throws InvalidCipherTextException {
+        final ChaCha20Poly1305 cipher = new ChaCha20Poly1305();
+        cipher.init(false, new AEADParameters(new KeyParameter(key), 128, nonce));
+        final byte[] plainText = new byte[cipher.getOutputSize(len)];
+        final int written = cipher.processBytes(sealed, off, len, plainText, 0);
+        return Arrays.copyOf(plainText, written + cipher.doFinal(plainText, written));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.util.io.Streams;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PGPAeadCryptographyTest {
+
+    private static PGPTestKeys keys;
+
+    private final ExecutorService chunkExecutor = Executors.newFixedThreadPool(4);
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        keys = PGPTestKeys.generate("archive@ega");
+    }
+
+    @AfterEach
+    void shutdown() {
+        chunkExecutor.shutdownNow();
+    }
+
+    @Test
+    void encrypt_WhenChunksAreEncryptedInParallel_ThenBouncyCastleDecryptsAeadPacket() throws Exception {
+        final byte[] plainText = randomBytes(300 * 1024 + 7);
+
+        final byte[] encrypted = encrypt(newCryptography(chunkExecutor), plainText);
+
+        final PGPEncryptedDataList encryptedDataList = (PGPEncryptedDataList) new JcaPGPObjectFactory(
+                new ByteArrayInputStream(encrypted)).nextObject();
+        assertThat(((PGPPublicKeyEncryptedData) encryptedDataList.get(0)).isAEAD()).isTrue();
+        assertThat(keys.decrypt(new ByteArrayInputStream(encrypted))).isEqualTo(plainText);
+    }
+
+    @Test
+    void encrypt_WhenChunksAreEncryptedInline_ThenDecryptorReadsTheData() throws Exception {
+        final byte[] plainText = randomBytes(8 * 1024);
+
+        final byte[] encrypted = encrypt(newCryptography(null), plainText);
+
+        final PGPDecryptor pgpDecryptor = new PGPDecryptor(new ByteArrayInputStream(keys.getSecretKeyring()),
+                new char[0]);
+        try (final InputStream inputStream = pgpDecryptor.decrypt(new ByteArrayInputStream(encrypted))) {
+            assertThat(Streams.readAll(inputStream)).isEqualTo(plainText);
+        }
+    }
+
+    @Test
+    void encrypt_WhenChunkIsTampered_ThenDecryptionFails() throws Exception {
+        final byte[] encrypted = encrypt(newCryptography(chunkExecutor), randomBytes(64 * 1024));
+        encrypted[encrypted.length / 2] ^= 1;
+
+        assertThatThrownBy(() -> keys.decrypt(new ByteArrayInputStream(encrypted)));
+    }
+
+    private static PGPAeadCryptography newCryptography(final ExecutorService chunkExecutor) {
+        return new PGPAeadCryptography(Collections.singletonList(keys.getPublicKey()), 512, 4096, 1024,
+                chunkExecutor, 3);
+    }
+
+    private static byte[] encrypt(final PGPAeadCryptography cryptography, final byte[] plainText) throws Exception {
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = cryptography.encrypt(encrypted)) {
+            outputStream.write(plainText);
+        }
+        return encrypted.toByteArray();
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PGPMultiRecipientTest {
+
+    private static PGPTestKeys archive;
+    private static PGPTestKeys escrow;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        archive = PGPTestKeys.generate("archive@ega");
+        escrow = PGPTestKeys.generate("escrow@ega");
+    }
+
+    @Test
+    void encrypt_WhenGivenSeveralRecipients_ThenEveryRecipientDecryptsTheSameData() throws Exception {
+        final byte[] plainText = "multi recipient test data".getBytes(StandardCharsets.UTF_8);
+        final PGPCryptography cryptography = new PGPCryptography(
+                Arrays.asList(archive.getPublicKey(), escrow.getPublicKey()), 256, 256);
+
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (final OutputStream outputStream = cryptography.encrypt(encrypted)) {
+            outputStream.write(plainText);
+        }
+
+        final PGPEncryptedDataList encryptedDataList = (PGPEncryptedDataList) new JcaPGPObjectFactory(
+                PGPUtil.getDecoderStream(new ByteArrayInputStream(encrypted.toByteArray()))).nextObject();
+        final List<Long> recipientKeyIds = new ArrayList<>();
+        for (final Object encryptedData : encryptedDataList) {
+            recipientKeyIds.add(((PGPPublicKeyEncryptedData) encryptedData).getKeyID());
+        }
+        assertThat(recipientKeyIds).containsExactly(archive.getKeyID(), escrow.getKeyID());
+        assertThat(archive.decrypt(new ByteArrayInputStream(encrypted.toByteArray()))).isEqualTo(plainText);
+        assertThat(escrow.decrypt(new ByteArrayInputStream(encrypted.toByteArray()))).isEqualTo(plainText);
+    }
+
+    @Test
+    void readPublicKeys_WhenGivenKeyringWithSeveralKeyRings_ThenReturnsOneKeyPerRing() throws Exception {
+        final ByteArrayOutputStream keyring = new ByteArrayOutputStream();
+        archive.getPublicKeyRing().encode(keyring);
+        escrow.getPublicKeyRing().encode(keyring);
+
+        final List<PGPPublicKey> publicKeys = PGPUtils.readPublicKeys(new ByteArrayInputStream(keyring.toByteArray()));
+
+        assertThat(publicKeys).extracting(PGPPublicKey::getKeyID).containsExactlyInAnyOrder(archive.getKeyID(), escrow.getKeyID());
+    }
+}
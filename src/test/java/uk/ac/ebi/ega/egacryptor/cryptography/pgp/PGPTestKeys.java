@@ -0,0 +1,130 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.pgp;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
+import org.bouncycastle.util.io.Streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Date;
+
+/**
+ * Generates throw-away RSA key rings and decrypts with them, so tests can check what a recipient gets.
+ */
+public class PGPTestKeys {
+
+    private final PGPPublicKeyRing publicKeyRing;
+    private final PGPSecretKeyRing secretKeyRing;
+    private final PGPPrivateKey privateKey;
+
+    private PGPTestKeys(final PGPPublicKeyRing publicKeyRing, final PGPSecretKeyRing secretKeyRing,
+                        final PGPPrivateKey privateKey) {
+        this.publicKeyRing = publicKeyRing;
+        this.secretKeyRing = secretKeyRing;
+        this.privateKey = privateKey;
+    }
+
+    public static PGPTestKeys generate(final String userId) throws GeneralSecurityException, PGPException {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", "BC");
+        keyPairGenerator.initialize(2048);
+        final PGPKeyPair pgpKeyPair = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, keyPairGenerator.generateKeyPair(),
+                new Date());
+        final PGPDigestCalculator sha1 = new JcaPGPDigestCalculatorProviderBuilder().build().get(HashAlgorithmTags.SHA1);
+        final PGPKeyRingGenerator keyRingGenerator = new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION,
+                pgpKeyPair, userId, sha1, null, null,
+                new JcaPGPContentSignerBuilder(pgpKeyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256),
+                null);
+        final PGPSecretKeyRing secretKeyRing = keyRingGenerator.generateSecretKeyRing();
+        return new PGPTestKeys(keyRingGenerator.generatePublicKeyRing(), secretKeyRing, secretKeyRing.getSecretKey()
+                .extractPrivateKey(new JcePBESecretKeyDecryptorBuilder().setProvider("BC").build(new char[0])));
+    }
+
+    public PGPPublicKeyRing getPublicKeyRing() {
+        return publicKeyRing;
+    }
+
+    /**
+     * @return the unprotected secret key ring, encoded as a keyring file
+     */
+    public byte[] getSecretKeyring() throws IOException {
+        return secretKeyRing.getEncoded();
+    }
+
+    public PGPPublicKey getPublicKey() {
+        return publicKeyRing.getPublicKey();
+    }
+
+    public long getKeyID() {
+        return privateKey.getKeyID();
+    }
+
+    /**
+     * Decrypts an encrypted file of this tool with the private key, returning the literal data.
+     */
+    public byte[] decrypt(final InputStream encryptedInputStream) throws IOException, PGPException {
+        final JcaPGPObjectFactory objectFactory = new JcaPGPObjectFactory(PGPUtil.getDecoderStream(encryptedInputStream));
+        final PGPEncryptedDataList encryptedDataList = (PGPEncryptedDataList) objectFactory.nextObject();
+        for (final Object encryptedData : encryptedDataList) {
+            final PGPPublicKeyEncryptedData publicKeyEncryptedData = (PGPPublicKeyEncryptedData) encryptedData;
+            if (publicKeyEncryptedData.getKeyID() != privateKey.getKeyID()) {
+                continue;
+            }
+            final InputStream clearInputStream = publicKeyEncryptedData.getDataStream(
+                    new JcePublicKeyDataDecryptorFactoryBuilder().setProvider("BC").build(privateKey));
+            final PGPCompressedData compressedData = (PGPCompressedData) new JcaPGPObjectFactory(clearInputStream)
+                    .nextObject();
+            final PGPLiteralData literalData = (PGPLiteralData) new JcaPGPObjectFactory(compressedData.getDataStream())
+                    .nextObject();
+            final byte[] plainText = Streams.readAll(literalData.getDataStream());
+            // AEAD encrypted data is authenticated chunk by chunk while reading
+            if (publicKeyEncryptedData.isIntegrityProtected() && !publicKeyEncryptedData.verify()) {
+                throw new PGPException("Integrity check failed");
+            }
+            return plainText;
+        }
+        throw new PGPException("No session key for KeyID ".concat(Long.toHexString(privateKey.getKeyID())));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongLongHashMapTest {
+
+    @Test
+    void put_WhenMapGrowsBeyondInitialCapacity_ThenKeepsAllEntries() {
+        final LongLongHashMap map = new LongLongHashMap();
+
+        for (long key = -50_000; key < 50_000; key++) {
+            assertThat(map.put(key * 4096, key, Long.MIN_VALUE)).isEqualTo(Long.MIN_VALUE);
+        }
+
+        assertThat(map.size()).isEqualTo(100_000);
+        for (long key = -50_000; key < 50_000; key++) {
+            assertThat(map.get(key * 4096, Long.MIN_VALUE)).isEqualTo(key);
+        }
+        assertThat(map.containsKey(0)).isTrue();
+        assertThat(map.containsKey(1)).isFalse();
+        assertThat(map.get(1, -1)).isEqualTo(-1);
+    }
+
+    @Test
+    void put_WhenKeyExists_ThenReplacesValueAndReturnsPreviousOne() {
+        final LongLongHashMap map = new LongLongHashMap(4);
+
+        map.put(42, 1, -1);
+
+        assertThat(map.put(42, 2, -1)).isEqualTo(1);
+        assertThat(map.get(42, -1)).isEqualTo(2);
+        assertThat(map.size()).isEqualTo(1);
+
+        map.clear();
+        assertThat(map.size()).isZero();
+        assertThat(map.containsKey(42)).isFalse();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OrderedBlockOutputStreamTest {
+
+    private final ExecutorService blockExecutor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        blockExecutor.shutdownNow();
+    }
+
+    @Test
+    void write_WhenBlocksAreSealedInParallel_ThenWritesThemInOrder() throws IOException {
+        final byte[] data = new byte[10 * 100 + 7];
+        ThreadLocalRandom.current().nextBytes(data);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        final OrderedBlockOutputStream blockOutputStream = new OrderedBlockOutputStream(outputStream, 100,
+                blockExecutor, 2, (plainText, length, index) -> {
+                    // Early blocks take longest, so they finish after the later ones
+                    sleep(10 - index);
+                    return Arrays.copyOf(plainText, length);
+                }, "a block");
+        blockOutputStream.write(data, 0, 333);
+        blockOutputStream.write(data, 333, data.length - 333);
+        blockOutputStream.close();
+        blockOutputStream.close();
+
+        assertThat(outputStream.toByteArray()).isEqualTo(data);
+        assertThat(blockOutputStream.getBlockCount()).isEqualTo(11);
+        assertThat(blockOutputStream.getByteCount()).isEqualTo(data.length);
+        assertThatThrownBy(() -> blockOutputStream.write(1)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void close_WhenSealerFails_ThenThrowsIOException() {
+        final OrderedBlockOutputStream blockOutputStream = new OrderedBlockOutputStream(new ByteArrayOutputStream(),
+                100, blockExecutor, 2, (plainText, length, index) -> {
+                    throw new IllegalStateException("broken cipher");
+                }, "a block");
+
+        assertThatThrownBy(() -> {
+            blockOutputStream.write(new byte[50]);
+            blockOutputStream.close();
+        }).isInstanceOf(IOException.class).hasMessage("Unable to encrypt a block - broken cipher");
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.cryptography.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SizeUtilsTest {
+
+    @Test
+    void parseSize_WhenGivenSuffix_ThenReturnsBytes() {
+        assertThat(SizeUtils.parseSize("1048576")).isEqualTo(1048576);
+        assertThat(SizeUtils.parseSize("64k")).isEqualTo(64 * 1024);
+        assertThat(SizeUtils.parseSize("512M")).isEqualTo(512L * 1024 * 1024);
+        assertThat(SizeUtils.parseSize(" 2G ")).isEqualTo(2L * 1024 * 1024 * 1024);
+        assertThatThrownBy(() -> SizeUtils.parseSize("lots")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.daemon;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class EncryptionDaemonTest extends BaseTest {
+
+    @TempDir
+    private Path temporaryFolder;
+
+    private CryptographyPipeline pipeline;
+    private EncryptionDaemon encryptionDaemon;
+    private Path tokenDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        pipeline = mock(CryptographyPipeline.class);
+        tokenDirectory = temporaryFolder.resolve("tokens");
+        encryptionDaemon = new EncryptionDaemon(new TaskExecutorService(pipeline), new FileDiscoveryService(),
+                temporaryFolder, 0, 2, tokenDirectory, 500, 2);
+        final Thread serverThread = new Thread(() -> {
+            try {
+                encryptionDaemon.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        encryptionDaemon.close();
+    }
+
+    @Test
+    void submittedJobIsProcessedByDaemonAndStatusIsStreamedBack() throws IOException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        final Path inputFile = createFile(inputFolder, "fileToProcess.txt");
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int exitCode = EncryptionDaemonClient.submit(tokenDirectory, new PrintStream(output, true),
+                "--submit", "--port=" + encryptionDaemon.getPort(),
+                "-i=" + inputFile, "-o=" + outputFolder);
+
+        assertThat(exitCode).isEqualTo(EncryptionDaemonClient.SUCCESS);
+        assertThat(output.toString(StandardCharsets.UTF_8.name()))
+                .contains("ACCEPTED 1")
+                .contains("DONE " + inputFile)
+                .contains("COMPLETED 1 0");
+        verify(pipeline).process(new FileToProcess(inputFile, outputFolder));
+    }
+
+    @Test
+    void failedFileIsReportedToClient() throws IOException {
+        final Path inputFile = createFile(createSubDirs(temporaryFolder, "input"), "fileToProcess.txt");
+        doThrow(new RuntimeException("Error while processing request")).when(pipeline).process(any());
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int exitCode = EncryptionDaemonClient.submit(tokenDirectory, new PrintStream(output, true),
+                "--submit", "--port=" + encryptionDaemon.getPort(), "-i=" + inputFile,
+                "-o=" + temporaryFolder.resolve("output"));
+
+        assertThat(exitCode).isEqualTo(EncryptionDaemonClient.FAILED);
+        assertThat(output.toString(StandardCharsets.UTF_8.name()))
+                .contains("FAILED " + inputFile)
+                .contains("COMPLETED 0 1");
+    }
+
+    @Test
+    void jobWithoutValidTokenIsRejected() throws IOException {
+        final Path inputFile = createFile(createSubDirs(temporaryFolder, "input"), "fileToProcess.txt");
+
+        final String response;
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                     StandardCharsets.UTF_8), true);
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            writer.println("-i=" + inputFile);
+            writer.println();
+            response = reader.readLine();
+        }
+
+        assertThat(response).isEqualTo("ERROR Invalid daemon token");
+        verify(pipeline, never()).process(any());
+    }
+
+    @Test
+    void jobWithUnsupportedOptionsIsRejectedByClient() throws IOException {
+        final Path inputFile = createFile(createSubDirs(temporaryFolder, "input"), "fileToProcess.txt");
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int exitCode = EncryptionDaemonClient.submit(tokenDirectory, new PrintStream(output, true),
+                "--submit", "--port=" + encryptionDaemon.getPort(), "-i=" + inputFile, "-t=8",
+                "--cryptography.format=crypt4gh");
+
+        assertThat(exitCode).isEqualTo(EncryptionDaemonClient.INVALID_COMMANDLINE_ARGUMENTS);
+        assertThat(output.toString(StandardCharsets.UTF_8.name()))
+                .startsWith("ERROR Option(s) [t, --cryptography.format=crypt4gh] are not supported");
+        verify(pipeline, never()).process(any());
+    }
+
+    @Test
+    void jobWithUnsupportedOptionsIsRejectedByDaemon() throws IOException {
+        final Path inputFile = createFile(createSubDirs(temporaryFolder, "input"), "fileToProcess.txt");
+
+        final String response;
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                     StandardCharsets.UTF_8), true);
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            writer.println(DaemonToken.read(tokenDirectory.resolve("daemon-" + encryptionDaemon.getPort()
+                    + ".token")));
+            writer.println("-i=" + inputFile);
+            writer.println("--audit");
+            writer.println();
+            response = reader.readLine();
+        }
+
+        assertThat(response).startsWith("ERROR Option(s) [audit] are not supported");
+        verify(pipeline, never()).process(any());
+    }
+
+    @Test
+    void clientWhichSendsNoJobIsDisconnectedAfterHandshakeTimeout() throws IOException {
+        final String response;
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            socket.setSoTimeout(10000);
+            response = reader.readLine();
+            assertThat(reader.readLine()).isNull();
+        }
+
+        assertThat(response).isEqualTo("ERROR No job received within 500 ms");
+    }
+
+    @Test
+    void connectionsBeyondTheLimitAreRejected() throws IOException {
+        try (final Socket first = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final Socket second = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final Socket third = new Socket(InetAddress.getLoopbackAddress(), encryptionDaemon.getPort());
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(third.getInputStream(),
+                     StandardCharsets.UTF_8))) {
+            third.setSoTimeout(10000);
+
+            assertThat(reader.readLine()).isEqualTo("ERROR Too many connections");
+        }
+    }
+
+    @Test
+    void tokenFileIsReadableByOwnerOnlyAndDeletedOnClose() throws IOException {
+        final Path tokenFile = tokenDirectory.resolve("daemon-" + encryptionDaemon.getPort() + ".token");
+        assertThat(tokenFile).exists();
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertThat(Files.getPosixFilePermissions(tokenFile))
+                    .containsExactlyInAnyOrder(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+        }
+
+        encryptionDaemon.close();
+
+        assertThat(tokenFile).doesNotExist();
+    }
+
+    @Test
+    void submitFailsWhenDaemonIsNotReachable() throws IOException {
+        final int port = encryptionDaemon.getPort();
+        encryptionDaemon.close();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int exitCode = EncryptionDaemonClient.submit(tokenDirectory, new PrintStream(output, true),
+                "--submit", "--port=" + port, "-i=" + temporaryFolder);
+
+        assertThat(exitCode).isEqualTo(EncryptionDaemonClient.FAILED);
+        assertThat(output.toString(StandardCharsets.UTF_8.name())).startsWith("ERROR");
+    }
+}
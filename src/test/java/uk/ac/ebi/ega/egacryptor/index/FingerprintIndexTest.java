@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FingerprintIndexTest extends BaseTest {
+
+    private static final String MD5 = "0123456789abcdef0123456789abcdef";
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void isUnchanged_WhenIndexIsReopened_ThenRecognisesRecordedFilesUntilTheyChange() throws IOException {
+        final Path indexPath = temporaryFolder.resolve("ega-cryptor.idx");
+        final Path file = createFile(temporaryFolder, "fileToProcess.txt");
+        Files.write(file, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            assertThat(fingerprintIndex.isUnchanged(FileFingerprint.of(file))).isFalse();
+            fingerprintIndex.record(FileFingerprint.of(file), MD5);
+        }
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            assertThat(fingerprintIndex.size()).isEqualTo(1);
+            assertThat(fingerprintIndex.isUnchanged(FileFingerprint.of(file))).isTrue();
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+            assertThat(fingerprintIndex.isUnchanged(FileFingerprint.of(file))).isFalse();
+        }
+    }
+
+    @Test
+    void open_WhenLastRecordIsIncomplete_ThenDropsIt() throws IOException {
+        final Path indexPath = temporaryFolder.resolve("ega-cryptor.idx");
+        final Path file = createFile(temporaryFolder, "fileToProcess.txt");
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            fingerprintIndex.record(FileFingerprint.of(file), MD5);
+        }
+        final long completeSize = Files.size(indexPath);
+        Files.write(indexPath, new byte[FingerprintIndex.RECORD_SIZE / 2], StandardOpenOption.APPEND);
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            assertThat(fingerprintIndex.size()).isEqualTo(1);
+            assertThat(fingerprintIndex.isUnchanged(FileFingerprint.of(file))).isTrue();
+        }
+        assertThat(Files.size(indexPath)).isEqualTo(completeSize);
+    }
+
+    @Test
+    void close_WhenMostRecordsAreSuperseded_ThenCompactsIndex() throws IOException {
+        final Path indexPath = temporaryFolder.resolve("ega-cryptor.idx");
+        final Path file = createFile(temporaryFolder, "fileToProcess.txt");
+        final FileFingerprint fingerprint = FileFingerprint.of(file);
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            for (int i = 0; i < 2000; i++) {
+                fingerprintIndex.record(new FileFingerprint(i % 10, i, i, i), MD5);
+            }
+            fingerprintIndex.record(fingerprint, MD5);
+        }
+
+        assertThat(Files.size(indexPath)).isEqualTo(8 + 11L * FingerprintIndex.RECORD_SIZE);
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(indexPath)) {
+            assertThat(fingerprintIndex.size()).isEqualTo(11);
+            assertThat(fingerprintIndex.isUnchanged(fingerprint)).isTrue();
+            assertThat(fingerprintIndex.isUnchanged(new FileFingerprint(9, 1999, 1999, 1999))).isTrue();
+            assertThat(fingerprintIndex.isUnchanged(new FileFingerprint(9, 1989, 1989, 1989))).isFalse();
+        }
+    }
+
+    @Test
+    void open_WhenFileIsNotAnIndex_ThenThrowsException() throws IOException {
+        final Path indexPath = createFile(temporaryFolder, "notAnIndex.txt");
+        Files.write(indexPath, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> FingerprintIndex.open(indexPath)).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JfrEventsTest extends BaseTest {
+
+    private static final String PREFIX = "uk.ac.ebi.ega.egacryptor.";
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void execute_WhenRecordingWithShippedSettings_ThenEmitsFileLifecycleEvents()
+            throws IOException, ParseException, PGPException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        Files.write(inputFolder.resolve("encrypted.txt"), "File to encrypt".getBytes(StandardCharsets.UTF_8));
+        Files.write(inputFolder.resolve("skipped.txt"), "File to skip".getBytes(StandardCharsets.UTF_8));
+        createFile(outputFolder, "skipped.txt.gpg");
+
+        final TaskExecutorService taskExecutorService;
+        try (final InputStream publicKey = getClass().getResourceAsStream("/pubring.gpg")) {
+            taskExecutorService = new TaskExecutorService(
+                    new DefaultCryptographyPipeline(new PGPCryptography(publicKey, 256), 256));
+        }
+
+        final Path recordingPath = temporaryFolder.resolve("recording.jfr");
+        try (final Reader settings = new InputStreamReader(
+                getClass().getResourceAsStream("/jfr/ega-cryptor.jfc"), StandardCharsets.UTF_8);
+             final Recording recording = new Recording(Configuration.create(settings))) {
+            recording.start();
+            final List<FileToProcess> fileToProcessList = new FileDiscoveryService()
+                    .discoverFilesRecursively(Collections.singletonList(inputFolder), outputFolder);
+            taskExecutorService.execute(fileToProcessList, 2);
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath).stream()
+                .filter(event -> event.getEventType().getName().startsWith(PREFIX))
+                .collect(Collectors.toList());
+        assertThat(events).extracting(event -> event.getEventType().getName().substring(PREFIX.length()))
+                .contains("FileDiscovered", "FileQueued", "FileStarted", "FileCommitted", "FileSkipped",
+                        "PipelineStage")
+                .doesNotContain("FileFailed");
+        final RecordedEvent committed = events.stream()
+                .filter(event -> event.getEventType().getName().endsWith("FileCommitted"))
+                .findFirst().get();
+        assertThat(committed.getString("path")).endsWith("encrypted.txt");
+        assertThat(committed.getLong("bytesRead")).isEqualTo(15);
+        assertThat(committed.getLong("bytesWritten")).isGreaterThan(0);
+        assertThat(events).filteredOn(event -> event.getEventType().getName().endsWith("PipelineStage"))
+                .extracting(event -> event.getString("stage"))
+                .containsExactlyInAnyOrder("lease memory", "encrypt", "write checksums");
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.loadtest;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Encrypts synthetic workloads with the packaged application, exactly as a submitter runs it, and fails when the
+ * files or bytes per second fall more than the tolerance below the committed baseline. Run it with
+ * {@code mvn -Pload-test verify}, see the load-test profile for its settings.
+ * <p>
+ * Every workload runs {@code loadtest.rounds} times and the slowest round is compared, so a soak run with many
+ * rounds also catches throughput that degrades over time.
+ * <p>
+ * The baseline records the scale and the number of processors it was measured with. A run with another scale or on
+ * another number of processors still reports its results, but skips the comparison, as its throughput is not
+ * comparable.
+ */
+class CryptorLoadIT {
+
+    private static final String FILES_PER_SECOND = ".files-per-second";
+    private static final String MB_PER_SECOND = ".mb-per-second";
+    private static final String SCALE_KEY = "scale";
+    private static final String PROCESSORS_KEY = "processors";
+
+    private static final Path WORK_FOLDER = Paths.get(System.getProperty("loadtest.work-folder", "target/loadtest"));
+    private static final Path BASELINE = Paths.get(System.getProperty("loadtest.baseline",
+            "src/test/resources/loadtest/baseline.properties"));
+    private static final double SCALE = Double.parseDouble(System.getProperty("loadtest.scale", "0.02"));
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("loadtest.tolerance", "20"));
+    private static final int ROUNDS = Integer.parseInt(System.getProperty("loadtest.rounds", "1"));
+
+    private static final Properties RESULTS = new Properties();
+
+    private static double startupSeconds = -1;
+
+    @TestFactory
+    Stream<DynamicTest> encryptWorkloads() throws IOException {
+        final Properties baseline = loadBaseline();
+        return Arrays.stream(System.getProperty("loadtest.workloads",
+                        "tiny,medium,large-compressible,large-incompressible").split(","))
+                .map(Workload::forName)
+                .map(workload -> DynamicTest.dynamicTest(workload.getName(), () -> run(workload, baseline)));
+    }
+
+    private void run(final Workload workload, final Properties baseline) throws IOException, InterruptedException {
+        final Path inputFolder = WORK_FOLDER.resolve("input").resolve(workload.getName());
+        final Path outputFolder = WORK_FOLDER.resolve("output").resolve(workload.getName());
+        final int fileCount = workload.getFileCount(SCALE);
+        final long totalBytes = fileCount * workload.getFileSize(SCALE);
+        checkUsableSpace(totalBytes * 3);
+
+        workload.generate(inputFolder, SCALE);
+        final double startup = measureStartup();
+        double filesPerSecond = Double.MAX_VALUE;
+        double mbPerSecond = Double.MAX_VALUE;
+        for (int round = 1; round <= ROUNDS; round++) {
+            Workload.deleteRecursively(outputFolder);
+            Files.createDirectories(outputFolder);
+            final long start = System.nanoTime();
+            final int exitCode = encrypt(inputFolder, outputFolder,
+                    WORK_FOLDER.resolve(workload.getName() + "-" + round + ".log"));
+            final double seconds = Math.max(secondsSince(start) - startup, 0.001);
+
+            assertThat(exitCode).as("exit code of %s round %d", workload.getName(), round).isZero();
+            assertThat(countEncryptedFiles(outputFolder)).as("encrypted files of %s", workload.getName())
+                    .isEqualTo(fileCount);
+            System.out.printf(Locale.ROOT, "%s round %d: %d files, %d bytes in %.1f s without %.1f s startup, " +
+                            "%.1f files/s, %.1f MB/s%n",
+                    workload.getName(), round, fileCount, totalBytes, seconds, startup, fileCount / seconds,
+                    totalBytes / seconds / 1e6);
+            filesPerSecond = Math.min(filesPerSecond, fileCount / seconds);
+            mbPerSecond = Math.min(mbPerSecond, totalBytes / seconds / 1e6);
+        }
+        Workload.deleteRecursively(outputFolder);
+
+        RESULTS.setProperty(workload.getName() + FILES_PER_SECOND, format(filesPerSecond));
+        RESULTS.setProperty(workload.getName() + MB_PER_SECOND, format(mbPerSecond));
+        if (!Boolean.getBoolean("loadtest.record-baseline")) {
+            assumeComparable(baseline);
+            checkBaseline(baseline, workload.getName() + FILES_PER_SECOND, filesPerSecond);
+            checkBaseline(baseline, workload.getName() + MB_PER_SECOND, mbPerSecond);
+        }
+    }
+
+    /**
+     * Skips the comparison, after the results were reported, if the baseline was measured with another scale or
+     * number of processors.
+     */
+    private static void assumeComparable(final Properties baseline) {
+        final String scale = baseline.getProperty(SCALE_KEY);
+        final String processors = baseline.getProperty(PROCESSORS_KEY);
+        assumeTrue(scale != null && processors != null, "Baseline " + BASELINE + " does not record its scale "
+                + "and processors, record a new baseline to compare the results");
+        assumeTrue(Double.parseDouble(scale) == SCALE, "Baseline was recorded at scale " + scale + ", run with "
+                + "-Dloadtest.scale=" + scale + " to compare the results at scale " + SCALE);
+        assumeTrue(Integer.parseInt(processors) == Runtime.getRuntime().availableProcessors(), "Baseline was "
+                + "recorded on " + processors + " processor(s), this run has "
+                + Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Time to start and stop the application, measured once on an empty folder and left out of the throughput, so
+     * small scales measure the encryption and not the start of the JVM.
+     */
+    private static synchronized double measureStartup() throws IOException, InterruptedException {
+        if (startupSeconds < 0) {
+            final Path emptyFolder = WORK_FOLDER.resolve("input").resolve("empty");
+            final Path outputFolder = WORK_FOLDER.resolve("output").resolve("empty");
+            Files.createDirectories(emptyFolder);
+            Files.createDirectories(outputFolder);
+            final long start = System.nanoTime();
+            assertThat(encrypt(emptyFolder, outputFolder, WORK_FOLDER.resolve("startup.log"))).isZero();
+            startupSeconds = secondsSince(start);
+        }
+        return startupSeconds;
+    }
+
+    private static double secondsSince(final long start) {
+        return (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static int encrypt(final Path inputFolder, final Path outputFolder, final Path log)
+            throws IOException, InterruptedException {
+        final String jar = System.getProperty("loadtest.jar");
+        if (jar == null || !Files.exists(Paths.get(jar))) {
+            fail("Packaged application " + jar + " not found, run the load tests with mvn -Pload-test verify");
+        }
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.stream(System.getProperty("loadtest.jvm-args", "").trim().split("\\s+"))
+                .filter(argument -> !argument.isEmpty()).collect(Collectors.toList()));
+        command.add("-jar");
+        command.add(jar);
+        command.add("--i=" + inputFolder.toAbsolutePath());
+        command.add("--o=" + outputFolder.toAbsolutePath());
+        final String threads = System.getProperty("loadtest.threads", "");
+        command.add(threads.trim().isEmpty() ? "-f" : "-t=" + threads.trim());
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start()
+                .waitFor();
+    }
+
+    private static long countEncryptedFiles(final Path outputFolder) throws IOException {
+        try (final Stream<Path> paths = Files.walk(outputFolder)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".gpg")).count();
+        }
+    }
+
+    private static void checkUsableSpace(final long bytes) throws IOException {
+        Files.createDirectories(WORK_FOLDER);
+        final long usableSpace = Files.getFileStore(WORK_FOLDER).getUsableSpace();
+        if (usableSpace < bytes) {
+            fail(String.format("Workload needs about %d bytes but only %d are free in %s, lower loadtest.scale",
+                    bytes, usableSpace, WORK_FOLDER.toAbsolutePath()));
+        }
+    }
+
+    private static void checkBaseline(final Properties baseline, final String metric, final double value) {
+        final String expected = baseline.getProperty(metric);
+        if (expected == null) {
+            return;
+        }
+        final double minimum = Double.parseDouble(expected) * (1 - TOLERANCE / 100);
+        assertThat(value).as("%s dropped more than %.0f%% below the baseline of %s", metric, TOLERANCE, expected)
+                .isGreaterThanOrEqualTo(minimum);
+    }
+
+    private static Properties loadBaseline() throws IOException {
+        final Properties baseline = new Properties();
+        if (Files.exists(BASELINE)) {
+            try (final InputStream inputStream = Files.newInputStream(BASELINE)) {
+                baseline.load(inputStream);
+            }
+        }
+        return baseline;
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    @AfterAll
+    static void writeResults() throws IOException {
+        Files.createDirectories(WORK_FOLDER);
+        try (final OutputStream outputStream = Files.newOutputStream(WORK_FOLDER.resolve("results.properties"))) {
+            RESULTS.store(outputStream, "Load test results at scale " + SCALE);
+        }
+        if (Boolean.getBoolean("loadtest.record-baseline")) {
+            final Properties baseline = loadBaseline();
+            baseline.putAll(RESULTS);
+            baseline.setProperty(SCALE_KEY, String.valueOf(SCALE));
+            baseline.setProperty(PROCESSORS_KEY, String.valueOf(Runtime.getRuntime().availableProcessors()));
+            try (final OutputStream outputStream = Files.newOutputStream(BASELINE)) {
+                baseline.store(outputStream, "Load test baseline recorded at scale " + SCALE + " on "
+                        + Runtime.getRuntime().availableProcessors() + " processor(s)");
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic input of the load tests. The full sizes are multiplied by the scale of the run, so a small scale gives
+ * a quick smoke test with the same shape.
+ */
+enum Workload {
+
+    TINY("tiny", 1_000_000, 1024, true),
+    MEDIUM("medium", 2_000, 4L << 20, false),
+    LARGE_COMPRESSIBLE("large-compressible", 2, 2L << 30, true),
+    LARGE_INCOMPRESSIBLE("large-incompressible", 2, 2L << 30, false);
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final String name;
+    private final int fileCount;
+    private final long fileSize;
+    private final boolean compressible;
+
+    Workload(final String name, final int fileCount, final long fileSize, final boolean compressible) {
+        this.name = name;
+        this.fileCount = fileCount;
+        this.fileSize = fileSize;
+        this.compressible = compressible;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Workloads of many files scale with the number of files, workloads of large files with their size.
+     */
+    int getFileCount(final double scale) {
+        return fileCount > FILES_PER_DIRECTORY ? (int) Math.max(1, Math.round(fileCount * scale)) : fileCount;
+    }
+
+    long getFileSize(final double scale) {
+        return fileCount > FILES_PER_DIRECTORY ? fileSize : Math.max(CHUNK_SIZE, Math.round(fileSize * scale));
+    }
+
+    static Workload forName(final String name) {
+        for (final Workload workload : values()) {
+            if (workload.name.equals(name.trim())) {
+                return workload;
+            }
+        }
+        throw new IllegalArgumentException("Unknown workload ".concat(name));
+    }
+
+    /**
+     * Generates the files below the given folder unless they were generated for the same scale before, which
+     * saves the time to write a million files again on every run.
+     */
+    void generate(final Path folder, final double scale) throws IOException {
+        final Path marker = folder.resolve(".generated");
+        final String description = getFileCount(scale) + " x " + getFileSize(scale);
+        if (Files.exists(marker)
+                && description.equals(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8))) {
+            return;
+        }
+        deleteRecursively(folder);
+        final Random random = new Random(name.hashCode());
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        if (compressible) {
+            fillCompressible(chunk, random);
+        }
+        for (int i = 0; i < getFileCount(scale); i++) {
+            final Path directory = folder.resolve(String.format("d%05d", i / FILES_PER_DIRECTORY));
+            Files.createDirectories(directory);
+            try (final OutputStream outputStream = Files.newOutputStream(directory.resolve(String.format("f%07d.dat", i)))) {
+                long remaining = getFileSize(scale);
+                while (remaining > 0) {
+                    if (!compressible) {
+                        random.nextBytes(chunk);
+                    }
+                    final int length = (int) Math.min(remaining, chunk.length);
+                    outputStream.write(chunk, 0, length);
+                    remaining -= length;
+                }
+            }
+        }
+        Files.write(marker, description.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sequencing read like text, which compresses about as well as real FASTQ or SAM files.
+     */
+    private static void fillCompressible(final byte[] chunk, final Random random) {
+        final byte[] bases = "ACGT".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = i % 101 == 100 ? (byte) '\n' : bases[random.nextInt(bases.length)];
+        }
+    }
+
+    static void deleteRecursively(final Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
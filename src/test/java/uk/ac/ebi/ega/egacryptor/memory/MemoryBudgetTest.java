@@ -0,0 +1,76 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryBudgetTest {
+
+    @Test
+    void lease_WhenBudgetIsUsedUp_ThenBlocksUntilMemoryIsReleased() throws Exception {
+        final MemoryBudget memoryBudget = new MemoryBudget(100);
+        final MemoryBudget.Lease firstLease = memoryBudget.lease(60);
+
+        final CompletableFuture<MemoryBudget.Lease> secondLease = CompletableFuture.supplyAsync(() -> {
+            try {
+                return memoryBudget.lease(60);
+            } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertThat(secondLease).isNotDone();
+
+        firstLease.close();
+        secondLease.get(5, TimeUnit.SECONDS).close();
+
+        assertThat(memoryBudget.getUsed()).isZero();
+        assertThat(memoryBudget.getPeak()).isEqualTo(60);
+    }
+
+    @Test
+    void lease_WhenLeaseIsLargerThanBudgetAndNoOtherLeaseIsHeld_ThenGrantsIt() throws InterruptedIOException {
+        final MemoryBudget memoryBudget = new MemoryBudget(100);
+        final MemoryBudget.Lease reservation = memoryBudget.reserve(50);
+
+        try (final MemoryBudget.Lease lease = memoryBudget.lease(150)) {
+            assertThat(lease.getBytes()).isEqualTo(150);
+            assertThat(memoryBudget.getUsed()).isEqualTo(200);
+        }
+
+        reservation.close();
+        reservation.close();
+        assertThat(memoryBudget.getUsed()).isZero();
+        assertThat(memoryBudget.getPeak()).isEqualTo(200);
+    }
+
+    @Test
+    void reserve_WhenReservationLeavesNoMemory_ThenThrowsException() {
+        final MemoryBudget memoryBudget = new MemoryBudget(100);
+
+        assertThatThrownBy(() -> memoryBudget.reserve(100)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -26,11 +26,32 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import uk.ac.ebi.ega.egacryptor.BaseTest;
 import uk.ac.ebi.ega.egacryptor.configuration.EgaCryptorConfiguration;
+import uk.ac.ebi.ega.egacryptor.cryptography.Cryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHTestKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.exception.CryptographyException;
+import uk.ac.ebi.ega.egacryptor.memory.MemoryBudget;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+import uk.ac.ebi.ega.egacryptor.stream.pipeline.ReadBufferSize;
+import uk.ac.ebi.ega.egacryptor.stream.timing.Stage;
+import uk.ac.ebi.ega.egacryptor.stream.timing.StageTimings;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -47,6 +68,12 @@ class DefaultCryptographyPipelineTest extends BaseTest {
     @Autowired
     private CryptographyPipeline cryptographyPipeline;
 
+    @Autowired
+    private Cryptography cryptography;
+
+    @Autowired
+    private MemoryBudget memoryBudget;
+
     @Test
     void process_WhenGivenValidFilePathToProcess_ThenEncryptFiles() throws IOException {
         final Path outputFolder = createSubDirs(temporaryFolder, "path", "to", "process", "files");
@@ -67,6 +94,24 @@ class DefaultCryptographyPipelineTest extends BaseTest {
         assertThat(outputFolderPath.resolve(createdFile.getFileName().toString().concat(".gpg.md5"))).exists();
     }
 
+    @Test
+    void process_WhenCryptographyIsCrypt4GH_ThenWritesC4ghFiles() throws Exception {
+        final Path outputFolder = createSubDirs(temporaryFolder, "path", "to", "process", "files");
+        final Path createdFile = createFile(outputFolder, "fileToProcess.txt");
+        Files.write(createdFile, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+        final Crypt4GHTestKeys reader = Crypt4GHTestKeys.generate();
+        final CryptographyPipeline crypt4ghPipeline = new DefaultCryptographyPipeline(
+                new Crypt4GHCryptography(Collections.singletonList(reader.getPublicKey()), null, 1), 256);
+
+        crypt4ghPipeline.process(new FileToProcess(createdFile.toAbsolutePath(), outputFolder.toAbsolutePath()));
+
+        final Path encryptedFile = outputFolder.resolve("fileToProcess.txt.c4gh");
+        assertThat(reader.decrypt(Files.readAllBytes(encryptedFile))).isEqualTo(Files.readAllBytes(createdFile));
+        assertThat(outputFolder.resolve("fileToProcess.txt.c4gh.md5")).exists();
+        assertThat(outputFolder.resolve("fileToProcess.txt.md5")).exists();
+        assertThat(outputFolder.resolve("fileToProcess.txt.gpg")).doesNotExist();
+    }
+
     @Test
     void process_WhenGivenInvalidInputPath_ThenThrowsException() throws IOException {
         final Path outputFolder = createSubDirs(temporaryFolder, "path", "to", "process", "files");
@@ -81,6 +126,47 @@ class DefaultCryptographyPipelineTest extends BaseTest {
                 .hasRootCauseMessage("Is a directory");
     }
 
+    @Test
+    void process_WhenEncryptionFails_ThenLeavesNoOutputFiles() throws IOException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        final Path inputFile = inputFolder.resolve("fileToProcess.bin");
+        Files.write(inputFile, new byte[1024 * 1024]);
+        final Cryptography failingCryptography = new Cryptography() {
+            @Override
+            public OutputStream encrypt(final OutputStream fileOutputStream) throws CryptographyException {
+                final OutputStream encryptedOutputStream = cryptography.encrypt(fileOutputStream);
+                return new FilterOutputStream(encryptedOutputStream) {
+                    private long written;
+
+                    @Override
+                    public void write(final byte[] bytes, final int off, final int len) throws IOException {
+                        if (written > 64 * 1024) {
+                            throw new IOException("Input/output error");
+                        }
+                        encryptedOutputStream.write(bytes, off, len);
+                        written += len;
+                    }
+                };
+            }
+
+            @Override
+            public InputStream decrypt(final InputStream fileToDecryptInputStream, final char[] password)
+                    throws CryptographyException {
+                return cryptography.decrypt(fileToDecryptInputStream, password);
+            }
+        };
+        final CryptographyPipeline failingPipeline = new DefaultCryptographyPipeline(failingCryptography, 4096);
+
+        assertThatThrownBy(() -> failingPipeline.process(new FileToProcess(inputFile, outputFolder)))
+                .isInstanceOf(RuntimeException.class)
+                .hasRootCauseMessage("Input/output error");
+
+        try (final Stream<Path> outputFiles = Files.list(outputFolder)) {
+            assertThat(outputFiles).isEmpty();
+        }
+    }
+
     @Test
     void process_WhenGivenInvalidOutputPath_ThenThrowsException() {
         // This emptyPath will be an empty string ("").
@@ -169,4 +255,53 @@ class DefaultCryptographyPipelineTest extends BaseTest {
         assertThat(outputFolderPath.resolve(inputFile.getFileName().toString().concat(".gpg"))).doesNotExist();
         assertThat(outputFolderPath.resolve(inputFile.getFileName().toString().concat(".gpg.md5"))).exists();
     }
+
+    @Test
+    void process_WhenGivenStreams_ThenEncryptsAndReturnsChecksumsOfBothStreams() {
+        final byte[] plainText = "File to encrypt".getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        final EncryptionResult encryptionResult = cryptographyPipeline.process(new ByteArrayInputStream(plainText), encrypted);
+
+        assertThat(encryptionResult.getBytesRead()).isEqualTo(plainText.length);
+        assertThat(encryptionResult.getBytesWritten()).isEqualTo(encrypted.size());
+        assertThat(encryptionResult.getPlainTextMD5()).isEqualTo(md5(plainText));
+        assertThat(encrypted.size()).isGreaterThan(0);
+        assertThat(encryptionResult.getEncryptedMD5()).isEqualTo(md5(encrypted.toByteArray()));
+    }
+
+    @Test
+    void process_WhenFileIsEncrypted_ThenLeasesBufferMemoryFromBudgetAndReleasesIt() throws IOException {
+        final Path outputFolder = createSubDirs(temporaryFolder, "path", "to", "process", "files");
+        final Path inputFile = createFile(outputFolder, "fileToProcess.txt");
+
+        cryptographyPipeline.process(new FileToProcess(inputFile.toAbsolutePath(), outputFolder.toAbsolutePath()));
+
+        assertThat(memoryBudget.getUsed()).isZero();
+        assertThat(memoryBudget.getPeak()).isGreaterThan(cryptography.getBufferMemory());
+    }
+
+    @Test
+    void process_WhenStageTimingIsEnabled_ThenReturnsTimingsOfEachStage() {
+        final CryptographyPipeline timedPipeline = new DefaultCryptographyPipeline(cryptography,
+                ReadBufferSize.fixed(256), new FileSystemOutputSink(), MemoryBudget.unlimited(), true);
+        final byte[] plainText = new byte[1024 * 1024];
+        final ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        final EncryptionResult encryptionResult = timedPipeline.process(new ByteArrayInputStream(plainText), encrypted);
+
+        final StageTimings stageTimings = encryptionResult.getStageTimings();
+        assertThat(stageTimings).isNotNull();
+        assertThat(stageTimings.getTotalNanos()).isGreaterThan(0);
+        assertThat(stageTimings.getNanos(Stage.COMPRESS)).isGreaterThan(0);
+        assertThat(encryptionResult.getEncryptedMD5()).isEqualTo(md5(encrypted.toByteArray()));
+        assertThat(cryptographyPipeline.process(new ByteArrayInputStream(plainText), new ByteArrayOutputStream())
+                .getStageTimings()).isNull();
+    }
+
+    private static String md5(final byte[] bytes) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(bytes);
+        return Hash.normalize(messageDigest);
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.report;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class RunReportListenerTest {
+
+    private static final Path OUTPUT_PATH = Paths.get("output");
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void close_WhenReportPathIsJson_ThenWritesFilesAndBucketTotals() throws IOException {
+        final Path reportPath = temporaryFolder.resolve("run-report.json");
+        final RunReportListener runReportListener = new RunReportListener(reportPath);
+        final FileToProcess encrypted = new FileToProcess(Paths.get("encrypted, \"quoted\".txt"), OUTPUT_PATH);
+        final FileToProcess skipped = new FileToProcess(Paths.get("skipped.txt"), OUTPUT_PATH);
+        final FileToProcess failed = new FileToProcess(Paths.get("failed.txt"), OUTPUT_PATH);
+
+        runReportListener.onQueued(encrypted);
+        runReportListener.onStarted(encrypted);
+        runReportListener.onCompleted(encrypted, new EncryptionResult(2000, 1000, "md5", "md5"));
+        runReportListener.onStarted(skipped);
+        runReportListener.onCompleted(skipped, null);
+        runReportListener.onStarted(failed);
+        runReportListener.onFailed(failed, new RuntimeException("Error while processing request",
+                new IOException("Disk full")));
+        runReportListener.close();
+
+        assertThat(runReportListener.getFileReports())
+                .extracting(FileReport::getStatus, FileReport::getReason)
+                .containsExactly(
+                        tuple(FileReport.Status.COMPLETED, ""),
+                        tuple(FileReport.Status.SKIPPED, "output files already exist"),
+                        tuple(FileReport.Status.FAILED, "Disk full"));
+        assertThat(runReportListener.getFileReports().get(0).getCompressionRatio()).isEqualTo(0.5);
+        assertThat(runReportListener.getFileReports().get(0).getThread()).isEqualTo(Thread.currentThread().getName());
+        assertThat(runReportListener.getBucketStatistics()).containsOnlyKeys(SizeBucket.UP_TO_1_MIB);
+
+        final String report = new String(Files.readAllBytes(reportPath), StandardCharsets.UTF_8);
+        assertThat(report)
+                .contains("\"completed\": 1, \"skipped\": 1, \"failed\": 1, \"bytesIn\": 2000, \"bytesOut\": 1000")
+                .contains("{\"bucket\": \"<1MiB\", \"files\": 1")
+                .contains("\"path\": \"encrypted, \\\"quoted\\\".txt\"")
+                .contains("\"reason\": \"Disk full\"");
+    }
+
+    @Test
+    void close_WhenReportPathIsCsv_ThenWritesOneRowPerFile() throws IOException {
+        final Path reportPath = temporaryFolder.resolve("run-report.csv");
+        final RunReportListener runReportListener = new RunReportListener(reportPath);
+        final FileToProcess encrypted = new FileToProcess(Paths.get("encrypted, \"quoted\".txt"), OUTPUT_PATH);
+
+        runReportListener.onStarted(encrypted);
+        runReportListener.onCompleted(encrypted, new EncryptionResult(4096, 1024, "md5", "md5"));
+        runReportListener.close();
+
+        final List<String> lines = Files.readAllLines(reportPath);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).startsWith("path,status,bytes_in,bytes_out,compression_ratio");
+        assertThat(lines.get(1)).startsWith("\"encrypted, \"\"quoted\"\".txt\",COMPLETED,4096,1024,0.250,");
+    }
+
+    @Test
+    void getWallMillisPercentile_ReturnsNearestRank() {
+        final BucketStatistics bucketStatistics = new BucketStatistics(SizeBucket.UP_TO_1_MIB, Arrays.asList(
+                completed(40), completed(10), completed(30), completed(20), completed(1000)));
+
+        assertThat(bucketStatistics.getWallMillisPercentile(50)).isEqualTo(30);
+        assertThat(bucketStatistics.getWallMillisPercentile(90)).isEqualTo(1000);
+        assertThat(bucketStatistics.getWallMillisPercentile(20)).isEqualTo(10);
+        assertThat(bucketStatistics.getWallMillisPercentile(100)).isEqualTo(1000);
+    }
+
+    private static FileReport completed(final long wallMillis) {
+        return new FileReport(Paths.get("file"), FileReport.Status.COMPLETED, 100, 50, 0, wallMillis, "main", "");
+    }
+}
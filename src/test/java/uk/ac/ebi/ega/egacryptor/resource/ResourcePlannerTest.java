@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.resource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResourcePlannerTest {
+
+    private static final long GIB = 1L << 30;
+
+    @TempDir
+    private Path root;
+
+    @Test
+    void plan_WithoutLimits_LeavesOneCpuAndUsesHeap() {
+        final ResourcePlan plan = new ResourcePlanner(root, Collections.emptyMap(), 8, 4 * GIB).plan();
+
+        assertThat(plan.getCpus()).isEqualTo(8);
+        assertThat(plan.isAllocated()).isFalse();
+        assertThat(plan.getFullWorkers()).isEqualTo(7);
+        assertThat(plan.getMemoryLimit()).isEqualTo(-1);
+        assertThat(plan.getBufferBudget()).isEqualTo(3 * GIB);
+    }
+
+    @Test
+    void plan_WithCgroupV2Limits_UsesSmallestLimitOfHierarchy() throws IOException {
+        write("proc/self/cgroup", "0::/job/task\n");
+        write("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        write("sys/fs/cgroup/job/cpu.max", "400000 100000\n");
+        write("sys/fs/cgroup/job/memory.max", String.valueOf(2 * GIB));
+        write("sys/fs/cgroup/job/task/cpu.max", "250000 100000\n");
+        write("sys/fs/cgroup/job/task/memory.max", "max\n");
+
+        final ResourcePlan plan = new ResourcePlanner(root, Collections.emptyMap(), 16, 4 * GIB).plan();
+
+        assertThat(plan.getCpus()).isEqualTo(3);
+        assertThat(plan.isAllocated()).isTrue();
+        assertThat(plan.getFullWorkers()).isEqualTo(3);
+        assertThat(plan.getMemoryLimit()).isEqualTo(2 * GIB);
+        assertThat(plan.getBufferBudget()).isEqualTo((2 * GIB - ResourcePlanner.NON_HEAP_RESERVE) / 4 * 3);
+    }
+
+    @Test
+    void plan_WithCgroupV1Limits_ReadsQuotaAndMemoryLimit() throws IOException {
+        write("proc/self/cgroup", "4:memory:/docker/abc\n2:cpu,cpuacct:/docker/abc\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_quota_us", "200000\n");
+        write("sys/fs/cgroup/cpu,cpuacct/cpu.cfs_period_us", "100000\n");
+        write("sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712\n");
+
+        final ResourcePlan plan = new ResourcePlanner(root, Collections.emptyMap(), 8, GIB).plan();
+
+        assertThat(plan.getCpus()).isEqualTo(2);
+        assertThat(plan.getMemoryLimit()).isEqualTo(-1);
+        assertThat(plan.getBufferBudget()).isEqualTo(GIB / 4 * 3);
+    }
+
+    @Test
+    void plan_InSlurmJob_UsesAllocatedCpusAndMemory() {
+        final Map<String, String> environment = new HashMap<>();
+        environment.put("SLURM_JOB_ID", "42");
+        environment.put("SLURM_CPUS_PER_TASK", "4");
+        environment.put("SLURM_MEM_PER_CPU", "256");
+
+        final ResourcePlan plan = new ResourcePlanner(root, environment, 32, 2 * GIB).plan();
+
+        assertThat(plan.getCpus()).isEqualTo(4);
+        assertThat(plan.getFullWorkers()).isEqualTo(4);
+        assertThat(plan.getMemoryLimit()).isEqualTo(GIB);
+        assertThat(plan.getBufferBudget()).isEqualTo((GIB - ResourcePlanner.NON_HEAP_RESERVE) / 4 * 3);
+        assertThat(plan.getDecisions()).anyMatch(decision -> decision.contains("-XX:MaxRAMPercentage"));
+    }
+
+    private void write(final String file, final String content) throws IOException {
+        final Path path = root.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.rewrap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPDecryptor;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPRewrapper;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPTestKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RewrapServiceTest extends BaseTest {
+
+    private static PGPTestKeys oldKeys;
+    private static PGPTestKeys newKeys;
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        oldKeys = PGPTestKeys.generate("old@ega");
+        newKeys = PGPTestKeys.generate("new@ega");
+    }
+
+    @Test
+    void rewrap_WhenOutputFolderDiffers_ThenWritesFileForNewRecipientWithSameEncryptedData() throws Exception {
+        final byte[] plainText = randomBytes(300 * 1024);
+        final Path encryptedFile = writeGpgFile("data.bam", plainText);
+        final byte[] encrypted = Files.readAllBytes(encryptedFile);
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+
+        final long failedFiles = newService(newKeys).rewrap(Collections.singletonList(encryptedFile.getParent()),
+                outputFolder, 2);
+
+        assertThat(failedFiles).isZero();
+        final byte[] rewrapped = Files.readAllBytes(outputFolder.resolve("data.bam.gpg"));
+        assertThat(newKeys.decrypt(new ByteArrayInputStream(rewrapped))).isEqualTo(plainText);
+        assertThatThrownBy(() -> oldKeys.decrypt(new ByteArrayInputStream(rewrapped)));
+        assertThat(outputFolder.resolve("data.bam.gpg.md5")).hasContent(md5Of(rewrapped));
+        assertThat(outputFolder.resolve("data.bam.md5")).hasContent(md5Of(plainText));
+        assertThat(tail(rewrapped, 64 * 1024)).isEqualTo(tail(encrypted, 64 * 1024));
+        assertThat(encryptedFile).hasBinaryContent(encrypted);
+    }
+
+    @Test
+    void rewrap_WhenOutputFolderIsInputFolder_ThenReplacesFileInPlace() throws Exception {
+        final byte[] plainText = randomBytes(10 * 1024);
+        final Path encryptedFile = writeGpgFile("data.bam", plainText);
+
+        final long failedFiles = newService(newKeys).rewrap(Collections.singletonList(encryptedFile.getParent()),
+                encryptedFile.getParent(), 1);
+
+        assertThat(failedFiles).isZero();
+        final byte[] rewrapped = Files.readAllBytes(encryptedFile);
+        assertThat(newKeys.decrypt(new ByteArrayInputStream(rewrapped))).isEqualTo(plainText);
+        assertThat(encryptedFile.resolveSibling("data.bam.gpg.md5")).hasContent(md5Of(rewrapped));
+        assertThat(encryptedFile.resolveSibling("data.bam.gpg.rewrap")).doesNotExist();
+    }
+
+    @Test
+    void rewrap_WhenFileIsNotEncryptedForPrivateKey_ThenFailsWithoutOutput() throws Exception {
+        final Path encryptedFile = writeGpgFile("data.bam", randomBytes(1024));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+
+        final long failedFiles = newService(oldKeys, newKeys).rewrap(
+                Collections.singletonList(encryptedFile.getParent()), outputFolder, 1);
+
+        assertThat(failedFiles).isEqualTo(1);
+        assertThat(outputFolder).isEmptyDirectory();
+    }
+
+    @Test
+    void rewrap_WhenFileIsRewrappedOrSkipped_ThenNotifiesTaskListener() throws Exception {
+        final byte[] plainText = randomBytes(20 * 1024);
+        final Path encryptedFile = writeGpgFile("data.bam", plainText);
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+        final List<EncryptionResult> results = new ArrayList<>();
+        final TaskListener taskListener = new TaskListener() {
+            @Override
+            public void onCompleted(final FileToProcess fileToProcess, final EncryptionResult encryptionResult) {
+                results.add(encryptionResult);
+            }
+        };
+        final RewrapService rewrapService = new RewrapService(new FileDiscoveryService(null),
+                new RewrappingCryptographyPipeline(new PGPRewrapper(newDecryptor(oldKeys),
+                        Collections.singletonList(newKeys.getPublicKey())), 4096), taskListener);
+
+        rewrapService.rewrap(Collections.singletonList(encryptedFile.getParent()), outputFolder, 1);
+        rewrapService.rewrap(Collections.singletonList(encryptedFile.getParent()), outputFolder, 1);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getBytesRead()).isEqualTo(Files.size(encryptedFile));
+        assertThat(results.get(0).getBytesWritten()).isEqualTo(Files.size(outputFolder.resolve("data.bam.gpg")));
+        assertThat(results.get(0).getPlainTextMD5()).isEqualTo(md5Of(plainText));
+        assertThat(outputFolder.resolve("data.bam.gpg.md5")).hasContent(results.get(0).getEncryptedMD5());
+        assertThat(results.get(1)).isNull();
+    }
+
+    private RewrapService newService(final PGPTestKeys recipientKeys) throws Exception {
+        return newService(recipientKeys, oldKeys);
+    }
+
+    private RewrapService newService(final PGPTestKeys recipientKeys, final PGPTestKeys privateKeys)
+            throws Exception {
+        return new RewrapService(new FileDiscoveryService(null), new RewrappingCryptographyPipeline(
+                new PGPRewrapper(newDecryptor(privateKeys), Collections.singletonList(recipientKeys.getPublicKey())), 4096),
+                TaskListener.NONE);
+    }
+
+    private static PGPDecryptor newDecryptor(final PGPTestKeys privateKeys) throws Exception {
+        return new PGPDecryptor(new ByteArrayInputStream(privateKeys.getSecretKeyring()), new char[0]);
+    }
+
+    private Path writeGpgFile(final String fileName, final byte[] plainText) throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "in");
+        final Path encryptedFile = inputFolder.resolve(fileName.concat(".gpg"));
+        final PGPCryptography pgpCryptography = new PGPCryptography(
+                Collections.singletonList(oldKeys.getPublicKey()), 256, 256);
+        try (final OutputStream fileOutputStream = Files.newOutputStream(encryptedFile)) {
+            try (final OutputStream outputStream = pgpCryptography.encrypt(fileOutputStream)) {
+                outputStream.write(plainText);
+            }
+        }
+        Files.write(inputFolder.resolve(fileName.concat(".md5")), md5Of(plainText).getBytes(StandardCharsets.US_ASCII));
+        return encryptedFile;
+    }
+
+    private static byte[] tail(final byte[] bytes, final int length) {
+        return Arrays.copyOfRange(bytes, bytes.length - length, bytes.length);
+    }
+
+    private static String md5Of(final byte[] bytes) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(bytes);
+        return Hash.normalize(messageDigest);
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
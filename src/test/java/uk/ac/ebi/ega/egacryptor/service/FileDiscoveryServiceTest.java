@@ -23,17 +23,22 @@ import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.index.FileFingerprint;
+import uk.ac.ebi.ega.egacryptor.index.FingerprintIndex;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils.newEmptyPath;
 
 class FileDiscoveryServiceTest extends BaseTest {
@@ -79,7 +84,23 @@ class FileDiscoveryServiceTest extends BaseTest {
     }
 
     @Test
-    void discoverFilesRecursively_WhenCallWithEmptyFilePath_ReturnsListFilesInBaseDirectory() {
+    void discoverFilesRecursively_WhenOutputOfKilledRunIsInInputFolder_ThenSkipsTemporaryAndIndexFiles()
+            throws IOException {
+        final Path inputFolderPath = createSubDirs(temporaryFolder, "delivery");
+        final Path fileToProcess = createFile(inputFolderPath, "data.bam");
+        createFile(inputFolderPath, "data.bam.gpg.part");
+        createFile(inputFolderPath, "data.bam.gpg.5f1c2a9e.part");
+        createFile(inputFolderPath, "old.bam.gpg.rewrap");
+        createFile(inputFolderPath, "bundle-00001.tar.index.tsv");
+
+        final List<FileToProcess> fileToProcessList = new FileDiscoveryService().discoverFilesRecursively(
+                Collections.singletonList(inputFolderPath), inputFolderPath);
+
+        assertThat(fileToProcessList).extracting(FileToProcess::getFileToEncryptPath).containsExactly(fileToProcess);
+    }
+
+    @Test
+    void discoverFilesRecursively_WhenCallWithEmptyFilePath_ReturnsListFilesInBaseDirectory() throws IOException {
         final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService();
 
         final List<FileToProcess> filesToProcess = fileDiscoveryService.discoverFilesRecursively(
@@ -95,7 +116,7 @@ class FileDiscoveryServiceTest extends BaseTest {
     }
 
     @Test
-    void discoverFilesRecursively_WhenCallDotAsFilePath_ReturnsListFilesInBaseDirectory() {
+    void discoverFilesRecursively_WhenCallDotAsFilePath_ReturnsListFilesInBaseDirectory() throws IOException {
         final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService();
 
         final List<FileToProcess> filesToProcess = fileDiscoveryService.discoverFilesRecursively(
@@ -200,7 +221,7 @@ class FileDiscoveryServiceTest extends BaseTest {
     }
 
     @Test
-    void symlinksAndHardlinksAreSupported() throws IOException {
+    void symlinksAndHardlinksToTheSameFileAreDiscoveredOnce() throws IOException {
         final String tempDir = createSubDirs(temporaryFolder, "subDir1").toString();
 
         final Path symlink = createSymlink(
@@ -217,9 +238,72 @@ class FileDiscoveryServiceTest extends BaseTest {
                 filesToProcess, newEmptyPath());
 
         assertThat(discoveredFiles)
-                .containsExactlyInAnyOrder(
-                        new FileToProcess(symlink),
-                        new FileToProcess(hardlink));
+                .containsExactly(new FileToProcess(symlink));
+    }
+
+    @Test
+    void discoverFilesRecursively_WhenRootsOverlap_ThenReturnsEachFileOnce() throws IOException {
+        final Path inputFolderPath = createSubDirs(temporaryFolder, "data", "project");
+        final Path firstFile = createFile(inputFolderPath, "first.bam");
+        createFile(inputFolderPath.getParent(), "second.bam");
+
+        final List<FileToProcess> discoveredFiles = new FileDiscoveryService().discoverFilesRecursively(
+                Arrays.asList(inputFolderPath.getParent(), inputFolderPath, firstFile), newEmptyPath());
+
+        assertThat(discoveredFiles).hasSize(2);
+        assertThat(discoveredFiles).extracting(FileToProcess::getFileToEncryptPath)
+                .extracting(path -> path.getFileName().toString())
+                .containsExactlyInAnyOrder("first.bam", "second.bam");
+    }
+
+    @Test
+    void discoverFilesRecursively_WhenFilesMapToTheSameOutputPath_ThenFailsBeforeProcessing() throws IOException {
+        final Path firstFile = createFile(createSubDirs(temporaryFolder, "run1"), "reads.bam");
+        final Path secondFile = createFile(createSubDirs(temporaryFolder, "run2"), "reads.bam");
+        final Path outputFolderPath = createSubDirs(temporaryFolder, "output");
+
+        final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService();
+
+        assertThatThrownBy(() -> fileDiscoveryService.discoverFilesRecursively(
+                Arrays.asList(firstFile, secondFile), outputFolderPath))
+                .isInstanceOf(IOException.class)
+                .hasMessageStartingWith("1 file(s) would be encrypted to the same output path");
+    }
+
+    @Test
+    void discoverFilesRecursively_WithGlobFilter_ThenSkipsExcludedFilesAndDirectories() throws IOException {
+        final Path inputFolderPath = createSubDirs(temporaryFolder, "input");
+        createFile(inputFolderPath, "reads.bam");
+        createFile(inputFolderPath, "reads.bam.bai");
+        createFile(createSubDirs(inputFolderPath, "tmp"), "partial.bam");
+        createFile(createSubDirs(inputFolderPath, "run1", "tmp"), "partial.bam");
+        createFile(createSubDirs(inputFolderPath, "run1"), "reads.cram");
+        createFile(inputFolderPath, "notes.txt");
+
+        final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService(null, new DiscoveryFilter(
+                Arrays.asList("*.bam", "*.cram", "*.bai"), Arrays.asList("*.bai", "tmp/"), -1, -1, null, null));
+        final List<FileToProcess> discoveredFiles = fileDiscoveryService.discoverFilesRecursively(
+                Collections.singletonList(inputFolderPath), newEmptyPath());
+
+        assertThat(discoveredFiles).extracting(FileToProcess::getFileToEncryptPath)
+                .containsExactlyInAnyOrder(inputFolderPath.resolve("reads.bam"),
+                        inputFolderPath.resolve("run1").resolve("reads.cram"));
+    }
+
+    @Test
+    void discoverFilesRecursively_WithSizeAndAgeFilter_ThenSkipsEmptyAndRecentFiles() throws IOException {
+        final Path inputFolderPath = createSubDirs(temporaryFolder, "input");
+        createFile(inputFolderPath, "empty.bam");
+        final Path recentFile = Files.write(inputFolderPath.resolve("recent.bam"), new byte[10]);
+        final Path oldFile = Files.write(inputFolderPath.resolve("old.bam"), new byte[10]);
+        Files.setLastModifiedTime(oldFile, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+
+        final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService(null, new DiscoveryFilter(
+                Collections.emptyList(), Collections.emptyList(), 1, -1, Duration.ofMinutes(10), null));
+
+        assertThat(fileDiscoveryService.discoverFilesRecursively(Collections.singletonList(inputFolderPath),
+                newEmptyPath())).extracting(FileToProcess::getFileToEncryptPath).containsExactly(oldFile);
+        assertThat(fileDiscoveryService.discoverFile(inputFolderPath, recentFile, newEmptyPath())).isPresent();
     }
 
     private Path createSymlink(final Path link, final Path existing) throws IOException {
@@ -230,4 +314,25 @@ class FileDiscoveryServiceTest extends BaseTest {
         return Files.createLink(link, existing);
     }
 
+
+    @Test
+    void discoverFilesRecursively_WhenFileIsRecordedInFingerprintIndex_ThenSkipsItUntilItChanges() throws IOException {
+        final Path inputFolderPath = createSubDirs(temporaryFolder, "path", "to", "process", "files");
+        final Path unchangedFilePath = createFile(inputFolderPath, "unchangedFile.txt");
+        final Path newFilePath = createFile(inputFolderPath, "newFile.txt");
+
+        try (final FingerprintIndex fingerprintIndex = FingerprintIndex.open(temporaryFolder.resolve("ega-cryptor.idx"))) {
+            fingerprintIndex.record(FileFingerprint.of(unchangedFilePath), "0123456789abcdef0123456789abcdef");
+            final FileDiscoveryService fileDiscoveryService = new FileDiscoveryService(fingerprintIndex);
+
+            final List<FileToProcess> fileToProcessList = fileDiscoveryService.discoverFilesRecursively(
+                    Collections.singletonList(inputFolderPath), newEmptyPath());
+
+            assertThat(fileToProcessList).extracting(FileToProcess::getFileToEncryptPath).containsExactly(newFilePath);
+
+            Files.write(unchangedFilePath, "Changed".getBytes());
+            assertThat(fileDiscoveryService.discoverFilesRecursively(Collections.singletonList(inputFolderPath),
+                    newEmptyPath())).hasSize(2);
+        }
+    }
 }
@@ -6,14 +6,23 @@ import org.junit.jupiter.api.Test;
 import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
 import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class TaskExecutorServiceTest {
 
@@ -83,4 +92,52 @@ class TaskExecutorServiceTest {
 
         verify(pipeline, times(2)).process(FILE_TO_PROCESS);
     }
+
+    @Test
+    void taskExecutorServiceSharesWorkersFairlyBetweenInputRoots() {
+        final Path bigRoot = Paths.get("big");
+        final Path smallRoot = Paths.get("small");
+        final List<FileToProcess> fileToProcessList = Lists.list(
+                fileOfRoot(bigRoot, "1"), fileOfRoot(bigRoot, "2"), fileOfRoot(bigRoot, "3"),
+                fileOfRoot(bigRoot, "4"), fileOfRoot(smallRoot, "1"), fileOfRoot(smallRoot, "2"));
+        final List<Path> processed = Collections.synchronizedList(new ArrayList<>());
+        when(pipeline.process(any())).thenAnswer(invocation -> {
+            processed.add(invocation.<FileToProcess>getArgument(0).getFileToEncryptPath());
+            return Optional.empty();
+        });
+        final ITaskExecutorService service = new TaskExecutorService(pipeline);
+
+        service.execute(fileToProcessList, 1);
+
+        assertThat(processed).containsExactly(
+                bigRoot.resolve("1"), smallRoot.resolve("1"), bigRoot.resolve("2"), smallRoot.resolve("2"),
+                bigRoot.resolve("3"), bigRoot.resolve("4"));
+    }
+
+    @Test
+    void taskExecutorServiceKeepsAtMostNumberOfThreadsFilesOnCallerOwnedExecutor() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        when(pipeline.process(any())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            running.decrementAndGet();
+            return Optional.empty();
+        });
+        final ITaskExecutorService service = new TaskExecutorService(pipeline);
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            service.execute(Collections.nCopies(6, FILE_TO_PROCESS), executorService, 2, TaskListener.NONE);
+        } finally {
+            executorService.shutdown();
+        }
+
+        verify(pipeline, times(6)).process(FILE_TO_PROCESS);
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+    }
+
+    private static FileToProcess fileOfRoot(final Path rootPath, final String fileName) {
+        return new FileToProcess(rootPath.resolve(fileName), Paths.get("output"), rootPath);
+    }
 }
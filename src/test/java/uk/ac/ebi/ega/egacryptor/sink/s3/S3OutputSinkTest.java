@@ -0,0 +1,288 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.s3;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3OutputSinkTest {
+
+    private static final int PART_SIZE = S3MultipartOutputStream.MIN_PART_SIZE;
+
+    @Test
+    void newOutputStream_WhenDataIsLargerThanOnePart_ThenUploadsPartsAndReassemblesObject() throws IOException {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+        final byte[] data = randomBytes(2 * PART_SIZE + 1234);
+
+        try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "prefix", PART_SIZE, 2, 2)) {
+            try (final OutputStream outputStream = outputSink.newOutputStream(Paths.get("/data/out/file.gpg"))) {
+                for (int offset = 0; offset < data.length; offset += 100_000) {
+                    outputStream.write(data, offset, Math.min(100_000, data.length - offset));
+                }
+            }
+        }
+
+        assertThat(s3Client.uploadedParts.get()).isEqualTo(3);
+        assertThat(s3Client.objects.get("prefix/data/out/file.gpg")).isEqualTo(data);
+        assertThat(s3Client.pendingUploads).isEmpty();
+    }
+
+    @Test
+    void newOutputStream_WhenDataIsSmallerThanOnePart_ThenStoresObjectWithSinglePut() throws IOException {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+        final byte[] data = randomBytes(1024);
+
+        try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "", PART_SIZE, 1, 1)) {
+            try (final OutputStream outputStream = outputSink.newOutputStream(Paths.get("/file.gpg"))) {
+                outputStream.write(data);
+            }
+        }
+
+        assertThat(s3Client.uploadedParts.get()).isZero();
+        assertThat(s3Client.objects.get("file.gpg")).isEqualTo(data);
+    }
+
+    @Test
+    void newOutputStream_WhenPartUploadFails_ThenAbortsMultipartUpload() {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+        s3Client.failUploads = true;
+
+        assertThatThrownBy(() -> {
+            try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "", PART_SIZE, 1, 1)) {
+                try (final OutputStream outputStream = outputSink.newOutputStream(Paths.get("/file.gpg"))) {
+                    outputStream.write(randomBytes(2 * PART_SIZE));
+                }
+            }
+        }).isInstanceOf(IOException.class);
+
+        assertThat(s3Client.abortedUploads.get()).isEqualTo(1);
+        assertThat(s3Client.pendingUploads).isEmpty();
+        assertThat(s3Client.objects).isEmpty();
+    }
+
+    @Test
+    void newOutputStream_WhenStreamIsAborted_ThenAbortsMultipartUploadWithoutStoringObject() throws IOException {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+
+        try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "", PART_SIZE, 2, 2)) {
+            final SinkOutputStream outputStream = outputSink.newOutputStream(Paths.get("/file.gpg"));
+            outputStream.write(randomBytes(2 * PART_SIZE + 1234));
+            outputStream.abort();
+            outputStream.close();
+        }
+
+        assertThat(s3Client.abortedUploads.get()).isEqualTo(1);
+        assertThat(s3Client.pendingUploads).isEmpty();
+        assertThat(s3Client.objects).isEmpty();
+    }
+
+    @Test
+    void newOutputStream_WhenPartSizeDoubles_ThenKeepsPartBuffersWithinSharedBufferMemory() throws IOException {
+        final int partSize = 16;
+        final byte[] data = randomBytes(1000 * partSize + 1000 * 2 * partSize + 5);
+        final ExecutorService uploadExecutor = Executors.newFixedThreadPool(2);
+        try {
+            for (final int bufferUnits : new int[]{1, 4}) {
+                final InMemoryS3Client s3Client = new InMemoryS3Client();
+                final Semaphore partBuffers = new Semaphore(bufferUnits);
+                try (final OutputStream outputStream = new S3MultipartOutputStream(s3Client, "bucket", "file.gpg",
+                        partSize, uploadExecutor, partBuffers, bufferUnits)) {
+                    outputStream.write(data);
+                }
+
+                // A single unit keeps every part at the initial size, four units allow the doubled parts
+                assertThat(s3Client.uploadedParts.get()).isEqualTo(bufferUnits == 1 ? 3001 : 2001);
+                assertThat(s3Client.objects.get("file.gpg")).isEqualTo(data);
+                assertThat(partBuffers.availablePermits()).isEqualTo(bufferUnits);
+            }
+        } finally {
+            uploadExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void exists_WhenObjectIsStored_ThenReturnsTrue() throws IOException {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+
+        try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "prefix/", PART_SIZE, 1, 1)) {
+            assertThat(outputSink.exists(Paths.get("/file.md5"))).isFalse();
+            outputSink.write(Paths.get("/file.md5"), "checksum");
+            assertThat(outputSink.exists(Paths.get("/file.md5"))).isTrue();
+        }
+
+        assertThat(new String(s3Client.objects.get("prefix/file.md5"), StandardCharsets.UTF_8)).isEqualTo("checksum");
+    }
+
+    @Test
+    void process_WhenPipelineUsesS3OutputSink_ThenStoresEncryptedFileAndChecksums(@TempDir final Path temporaryFolder)
+            throws IOException, PGPException {
+        final InMemoryS3Client s3Client = new InMemoryS3Client();
+        final Path inputFile = temporaryFolder.resolve("fileToProcess.txt");
+        Files.write(inputFile, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+
+        try (final S3OutputSink outputSink = new S3OutputSink(s3Client, "bucket", "", PART_SIZE, 1, 1);
+             final InputStream publicKey = getClass().getClassLoader().getResourceAsStream("pubring.gpg")) {
+            new DefaultCryptographyPipeline(new PGPCryptography(publicKey, 8192), 8192, outputSink)
+                    .process(new FileToProcess(inputFile, Paths.get("/output")));
+        }
+
+        final String encryptedMD5 = new String(s3Client.objects.get("output/fileToProcess.txt.gpg.md5"),
+                StandardCharsets.UTF_8);
+        assertThat(s3Client.objects).containsKeys("output/fileToProcess.txt.md5", "output/fileToProcess.txt.gpg");
+        assertThat(encryptedMD5).isEqualTo(md5(s3Client.objects.get("output/fileToProcess.txt.gpg")));
+        assertThat(new String(s3Client.objects.get("output/fileToProcess.txt.md5"), StandardCharsets.UTF_8))
+                .isEqualTo(md5("File to encrypt".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String md5(final byte[] bytes) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(bytes);
+        return Hash.normalize(messageDigest);
+    }
+
+    private static byte[] read(final RequestBody requestBody) {
+        try (final InputStream inputStream = requestBody.contentStreamProvider().newStream()) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class InMemoryS3Client implements S3Client {
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        private final Map<String, Map<Integer, byte[]>> pendingUploads = new ConcurrentHashMap<>();
+        private final AtomicInteger uploadedParts = new AtomicInteger();
+        private final AtomicInteger abortedUploads = new AtomicInteger();
+        private volatile boolean failUploads;
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(final CreateMultipartUploadRequest request) {
+            final String uploadId = request.key().concat("#").concat(String.valueOf(pendingUploads.size()));
+            pendingUploads.put(uploadId, new ConcurrentHashMap<>());
+            return CreateMultipartUploadResponse.builder().uploadId(uploadId).build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(final UploadPartRequest request, final RequestBody requestBody) {
+            if (failUploads) {
+                throw S3Exception.builder().statusCode(500).message("Simulated failure").build();
+            }
+            pendingUploads.get(request.uploadId()).put(request.partNumber(), read(requestBody));
+            uploadedParts.incrementAndGet();
+            return UploadPartResponse.builder().eTag("etag-".concat(String.valueOf(request.partNumber()))).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+            final Map<Integer, byte[]> parts = pendingUploads.remove(request.uploadId());
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            for (final CompletedPart completedPart : request.multipartUpload().parts()) {
+                final byte[] part = parts.get(completedPart.partNumber());
+                outputStream.write(part, 0, part.length);
+            }
+            objects.put(request.key(), outputStream.toByteArray());
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(final AbortMultipartUploadRequest request) {
+            pendingUploads.remove(request.uploadId());
+            abortedUploads.incrementAndGet();
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public PutObjectResponse putObject(final PutObjectRequest request, final RequestBody requestBody) {
+            objects.put(request.key(), read(requestBody));
+            return PutObjectResponse.builder().build();
+        }
+
+        @Override
+        public HeadObjectResponse headObject(final HeadObjectRequest request) {
+            if (!objects.containsKey(request.key())) {
+                throw NoSuchKeyException.builder().statusCode(404).build();
+            }
+            return HeadObjectResponse.builder().contentLength((long) objects.get(request.key()).length).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
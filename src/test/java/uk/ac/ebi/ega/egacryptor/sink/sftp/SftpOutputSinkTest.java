@@ -0,0 +1,191 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.sink.sftp;
+
+import com.jcraft.jsch.JSch;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.sink.SinkOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SftpOutputSinkTest extends BaseTest {
+
+    private static final int RESUME_BUFFER_SIZE = 256 * 1024;
+
+    @TempDir
+    private Path temporaryFolder;
+
+    private Path remoteRoot;
+    private SshServer sshServer;
+    private final AtomicInteger openedSessions = new AtomicInteger();
+    private final AtomicLong disconnectAfterBytes = new AtomicLong(Long.MAX_VALUE);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        remoteRoot = createSubDirs(temporaryFolder, "remote");
+        final SftpSubsystemFactory sftpSubsystemFactory = new SftpSubsystemFactory();
+        sftpSubsystemFactory.addSftpEventListener(new SftpEventListener() {
+            @Override
+            public void written(final ServerSession session, final String remoteHandle, final FileHandle localHandle,
+                                final long offset, final byte[] data, final int dataOffset, final int dataLen,
+                                final Throwable thrown) throws IOException {
+                if (offset + dataLen > disconnectAfterBytes.get()) {
+                    disconnectAfterBytes.set(Long.MAX_VALUE);
+                    session.close(true);
+                }
+            }
+        });
+
+        sshServer = SshServer.setUpDefaultServer();
+        sshServer.setHost("127.0.0.1");
+        sshServer.setPort(0);
+        sshServer.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshServer.setPasswordAuthenticator((username, password, session) -> {
+            openedSessions.incrementAndGet();
+            return "ega-box".equals(username) && "secret".equals(password);
+        });
+        sshServer.setSubsystemFactories(Collections.singletonList(sftpSubsystemFactory));
+        sshServer.setFileSystemFactory(new VirtualFileSystemFactory(remoteRoot));
+        sshServer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sshServer.stop(true);
+    }
+
+    private SftpOutputSink newSftpOutputSink(final int maxSessions) {
+        final Properties sessionConfig = new Properties();
+        sessionConfig.put("StrictHostKeyChecking", "no");
+        final SftpSessionPool sessionPool = new SftpSessionPool(new JSch(), "127.0.0.1", sshServer.getPort(),
+                "ega-box", "secret", sessionConfig, maxSessions, 10000);
+        return new SftpOutputSink(sessionPool, "inbox", RESUME_BUFFER_SIZE, 3);
+    }
+
+    @Test
+    void newOutputStream_WhenStreamIsClosed_ThenRenamesPartFileToFinalName() throws IOException {
+        final byte[] data = randomBytes(3 * RESUME_BUFFER_SIZE + 17);
+
+        try (final SftpOutputSink outputSink = newSftpOutputSink(1)) {
+            outputSink.createDirectories(Paths.get("/data/out"));
+            try (final OutputStream outputStream = outputSink.newOutputStream(Paths.get("/data/out/file.gpg"))) {
+                outputStream.write(data);
+                assertThat(remoteRoot.resolve("inbox/data/out/file.gpg")).doesNotExist();
+            }
+            assertThat(outputSink.exists(Paths.get("/data/out/file.gpg"))).isTrue();
+            assertThat(outputSink.exists(Paths.get("/data/out/file.gpg.md5"))).isFalse();
+        }
+
+        assertThat(remoteRoot.resolve("inbox/data/out/file.gpg")).hasBinaryContent(data);
+        assertThat(remoteRoot.resolve("inbox/data/out/file.gpg.part")).doesNotExist();
+        assertThat(openedSessions.get()).isEqualTo(1);
+    }
+
+    @Test
+    void newOutputStream_WhenStreamIsAborted_ThenDeletesPartFileWithoutRenamingIt() throws IOException {
+        try (final SftpOutputSink outputSink = newSftpOutputSink(1)) {
+            outputSink.createDirectories(Paths.get("/out"));
+            final SinkOutputStream outputStream = outputSink.newOutputStream(Paths.get("/out/file.gpg"));
+            outputStream.write(randomBytes(2 * RESUME_BUFFER_SIZE + 17));
+            outputStream.abort();
+            outputStream.close();
+
+            assertThat(outputSink.exists(Paths.get("/out/file.gpg"))).isFalse();
+        }
+
+        try (final Stream<Path> files = Files.list(remoteRoot.resolve("inbox/out"))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void newOutputStream_WhenConnectionBreaksDuringUpload_ThenResumesOnNewSession() throws IOException {
+        final byte[] data = randomBytes(10 * RESUME_BUFFER_SIZE + 1234);
+        disconnectAfterBytes.set(4L * RESUME_BUFFER_SIZE + 100);
+
+        try (final SftpOutputSink outputSink = newSftpOutputSink(2)) {
+            outputSink.createDirectories(Paths.get("/out"));
+            try (final OutputStream outputStream = outputSink.newOutputStream(Paths.get("/out/file.gpg"))) {
+                for (int offset = 0; offset < data.length; offset += 10000) {
+                    outputStream.write(data, offset, Math.min(10000, data.length - offset));
+                }
+            }
+        }
+
+        assertThat(openedSessions.get()).isGreaterThan(1);
+        assertThat(remoteRoot.resolve("inbox/out/file.gpg")).hasBinaryContent(data);
+    }
+
+    @Test
+    void process_WhenPipelineUsesSftpOutputSink_ThenUploadsEncryptedFileAndChecksums() throws IOException,
+            PGPException {
+        final Path inputFile = createFile(createSubDirs(temporaryFolder, "input"), "fileToProcess.txt");
+        Files.write(inputFile, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+
+        try (final SftpOutputSink outputSink = newSftpOutputSink(2);
+             final InputStream publicKey = getClass().getClassLoader().getResourceAsStream("pubring.gpg")) {
+            new DefaultCryptographyPipeline(new PGPCryptography(publicKey, 8192), 8192, outputSink)
+                    .process(new FileToProcess(inputFile, Paths.get("/submission")));
+            assertThat(outputSink.read(Paths.get("/submission/fileToProcess.txt.md5"))).isEqualTo(new String(
+                    Files.readAllBytes(remoteRoot.resolve("inbox/submission/fileToProcess.txt.md5")),
+                    StandardCharsets.UTF_8));
+        }
+
+        assertThat(remoteRoot.resolve("inbox/submission/fileToProcess.txt.md5")).exists();
+        assertThat(remoteRoot.resolve("inbox/submission/fileToProcess.txt.gpg")).exists();
+        assertThat(remoteRoot.resolve("inbox/submission/fileToProcess.txt.gpg.md5")).exists();
+        try (final Stream<Path> files = Files.list(remoteRoot.resolve("inbox/submission"))) {
+            assertThat(files).noneMatch(file -> file.toString().endsWith(SftpUploadOutputStream.PART_SUFFIX));
+        }
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
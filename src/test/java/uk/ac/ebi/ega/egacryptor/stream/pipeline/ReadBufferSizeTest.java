@@ -0,0 +1,65 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReadBufferSizeTest extends BaseTest {
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void parse_WhenGivenNumberOfBytes_ThenUsesFixedSizeForEveryFile() throws IOException {
+        final Path file = createFile(temporaryFolder, "fileToProcess.txt");
+
+        final ReadBufferSize readBufferSize = ReadBufferSize.parse("65536");
+
+        assertThat(readBufferSize.isAuto()).isFalse();
+        assertThat(readBufferSize.forFile(file)).isEqualTo(65536);
+        assertThat(readBufferSize.getDefaultSize()).isEqualTo(65536);
+    }
+
+    @Test
+    void parse_WhenGivenAuto_ThenChoosesSizeFromFileStore() throws IOException {
+        final Path file = createFile(temporaryFolder, "fileToProcess.txt");
+
+        final ReadBufferSize readBufferSize = ReadBufferSize.parse(" AUTO ");
+
+        assertThat(readBufferSize.isAuto()).isTrue();
+        assertThat(readBufferSize.forFile(file)).isEqualTo(FileUtils.isOnNetworkFileSystem(file)
+                ? ReadBufferSize.NETWORK_FILE_SYSTEM_SIZE
+                : ReadBufferSize.LOCAL_FILE_SYSTEM_SIZE);
+        assertThat(readBufferSize.getDefaultSize()).isEqualTo(ReadBufferSize.LOCAL_FILE_SYSTEM_SIZE);
+    }
+
+    @Test
+    void parse_WhenGivenInvalidValue_ThenThrowsException() {
+        assertThatThrownBy(() -> ReadBufferSize.parse("large")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReadBufferSize.parse("0")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.stream.timing;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StageTimingsTest {
+
+    @Test
+    void getNanos_WhenStagesAreNested_ThenExcludesTheTimeOfTheInnerStage() {
+        final StageTimings stageTimings = new StageTimings();
+        stageTimings.add(Stage.READ, 100);
+        stageTimings.add(Stage.PLAINTEXT_MD5, 150);
+        stageTimings.add(Stage.LITERAL, 1000);
+        stageTimings.add(Stage.COMPRESS, 900);
+        stageTimings.add(Stage.ENCRYPT, 300);
+        stageTimings.add(Stage.ENCRYPTED_MD5, 120);
+        stageTimings.add(Stage.WRITE, 100);
+
+        assertThat(stageTimings.getNanos(Stage.READ)).isEqualTo(100);
+        assertThat(stageTimings.getNanos(Stage.PLAINTEXT_MD5)).isEqualTo(50);
+        assertThat(stageTimings.getNanos(Stage.LITERAL)).isEqualTo(100);
+        assertThat(stageTimings.getNanos(Stage.COMPRESS)).isEqualTo(600);
+        assertThat(stageTimings.getNanos(Stage.ENCRYPT)).isEqualTo(180);
+        assertThat(stageTimings.getNanos(Stage.ENCRYPTED_MD5)).isEqualTo(20);
+        assertThat(stageTimings.getNanos(Stage.WRITE)).isEqualTo(100);
+        assertThat(stageTimings.getTotalNanos()).isEqualTo(1150);
+        assertThat(stageTimings.getLimitingStage()).isEqualTo(Stage.COMPRESS);
+    }
+
+    @Test
+    void add_WhenTimingsAreMerged_ThenAddsEachStage() {
+        final StageTimings first = new StageTimings();
+        first.add(Stage.WRITE, 10);
+        final StageTimings second = new StageTimings();
+        second.add(Stage.WRITE, 5);
+        second.add(Stage.READ, 7);
+
+        first.add(second);
+
+        assertThat(first.getNanos(Stage.WRITE)).isEqualTo(15);
+        assertThat(first.getNanos(Stage.READ)).isEqualTo(7);
+    }
+}
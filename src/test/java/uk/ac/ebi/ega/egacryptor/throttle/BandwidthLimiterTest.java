@@ -0,0 +1,94 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.throttle;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.stream.pipeline.DefaultStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BandwidthLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void reserve_WhenBurstIsUsedUp_ThenCallersWaitForTheDebtInTurn() {
+        final TokenBucket tokenBucket = new TokenBucket(1000);
+        final long now = System.nanoTime();
+
+        assertThat(tokenBucket.reserve(250, now)).isZero();
+        assertThat(tokenBucket.reserve(500, now)).isEqualTo(SECOND / 2);
+        assertThat(tokenBucket.reserve(500, now)).isEqualTo(SECOND);
+        assertThat(tokenBucket.reserve(250, now + 2 * SECOND)).isZero();
+    }
+
+    @Test
+    void reserve_WhenRateIsRemoved_ThenDoesNotWait() {
+        final TokenBucket tokenBucket = new TokenBucket(1000);
+        tokenBucket.reserve(10_000, System.nanoTime());
+
+        tokenBucket.setRate(0);
+
+        assertThat(tokenBucket.reserve(10_000, System.nanoTime())).isZero();
+    }
+
+    @Test
+    void execute_WhenThrottled_ThenAcquiresEveryByteCopied() throws Exception {
+        final AtomicLong acquired = new AtomicLong();
+        final byte[] data = new byte[10_000];
+
+        final long copied = new DefaultStream(new ByteArrayInputStream(data), new ByteArrayOutputStream(), 4096,
+                acquired::addAndGet).execute();
+
+        assertThat(copied).isEqualTo(data.length);
+        assertThat(acquired).hasValue(data.length);
+    }
+
+    @Test
+    void poll_WhenControlFileChanges_ThenAppliesNewRates() throws Exception {
+        final Path controlFile = temporaryFolder.resolve("throttle.properties");
+        Files.write(controlFile, "aggregate=200M\nper-file=10K\n".getBytes(StandardCharsets.UTF_8));
+        final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.unlimited();
+
+        try (final BandwidthControlFile bandwidthControlFile = new BandwidthControlFile(controlFile,
+                bandwidthLimiter, 3600)) {
+            assertThat(bandwidthLimiter.getAggregateRate()).isEqualTo(200L << 20);
+            assertThat(bandwidthLimiter.getPerFileRate()).isEqualTo(10L << 10);
+
+            Files.write(controlFile, "aggregate=0\n".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(controlFile, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+            bandwidthControlFile.poll();
+
+            assertThat(bandwidthLimiter.getAggregateRate()).isZero();
+            assertThat(bandwidthLimiter.getPerFileRate()).isEqualTo(10L << 10);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.transcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TranscodeServiceTest extends BaseTest {
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @Test
+    void transcode_WhenOneOfSeveralFilesFails_ThenTranscodesTheOthersAndCountsTheFailure() throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "archive");
+        createFile(inputFolder, "a.bam.gpg");
+        final Path brokenFile = createFile(inputFolder, "b.bam.gpg");
+        createFile(inputFolder, "c.bam.gpg");
+        final TranscodingCryptographyPipeline transcodingPipeline = mock(TranscodingCryptographyPipeline.class);
+        when(transcodingPipeline.process(any(FileToProcess.class))).thenAnswer(invocation -> {
+            final FileToProcess fileToProcess = invocation.getArgument(0);
+            if (fileToProcess.getFileToEncryptPath().equals(brokenFile)) {
+                throw new RuntimeException("Error while processing request");
+            }
+            return Optional.empty();
+        });
+
+        final long failedFiles = new TranscodeService(new FileDiscoveryService(), transcodingPipeline, TaskListener.NONE)
+                .transcode(Collections.singletonList(inputFolder), createSubDirs(temporaryFolder, "out"), 1);
+
+        assertThat(failedFiles).isEqualTo(1);
+        verify(transcodingPipeline, times(3)).process(any(FileToProcess.class));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.transcode;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.crypt4gh.Crypt4GHTestKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPCryptography;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPDecryptor;
+import uk.ac.ebi.ega.egacryptor.cryptography.pgp.PGPTestKeys;
+import uk.ac.ebi.ega.egacryptor.cryptography.util.Hash;
+import uk.ac.ebi.ega.egacryptor.model.EncryptionResult;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.DefaultCryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.sink.FileSystemOutputSink;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TranscodingCryptographyPipelineTest extends BaseTest {
+
+    private static PGPTestKeys pgpKeys;
+    private static Crypt4GHTestKeys crypt4ghKeys;
+
+    @TempDir
+    private Path temporaryFolder;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        pgpKeys = PGPTestKeys.generate("archive@ega");
+        crypt4ghKeys = Crypt4GHTestKeys.generate();
+    }
+
+    @Test
+    void process_WhenChecksumMatches_ThenWritesCrypt4GHFileOfTheSamePlainText() throws Exception {
+        final byte[] plainText = randomBytes(200 * 1024);
+        final Path encryptedFile = writeGpgFile("data.bam", plainText, md5Of(plainText));
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+
+        final Optional<EncryptionResult> encryptionResult = newPipeline()
+                .process(new FileToProcess(encryptedFile, outputFolder));
+
+        assertThat(encryptionResult).isPresent();
+        assertThat(encryptionResult.get().getBytesRead()).isEqualTo(plainText.length);
+        assertThat(crypt4ghKeys.decrypt(Files.readAllBytes(outputFolder.resolve("data.bam.c4gh")))).isEqualTo(plainText);
+        assertThat(outputFolder.resolve("data.bam.c4gh.md5")).exists();
+        assertThat(outputFolder.resolve("data.bam.md5")).hasContent(md5Of(plainText));
+    }
+
+    @Test
+    void process_WhenChecksumDoesNotMatch_ThenFailsWithoutWritingOutputFiles() throws Exception {
+        final Path encryptedFile = writeGpgFile("data.bam", randomBytes(1024), "0123456789abcdef0123456789abcdef");
+        final Path outputFolder = createSubDirs(temporaryFolder, "out");
+
+        assertThatThrownBy(() -> newPipeline().process(new FileToProcess(encryptedFile, outputFolder)))
+                .isInstanceOf(RuntimeException.class)
+                .hasRootCauseMessage("Plain text MD5 " + md5Of(randomBytes(1024)) + " of " + encryptedFile
+                        + " does not match 0123456789abcdef0123456789abcdef of "
+                        + encryptedFile.resolveSibling("data.bam.md5"));
+        // Neither the output files nor their part files are left behind
+        assertThat(outputFolder).isEmptyDirectory();
+    }
+
+    @Test
+    void process_WhenEncryptedFileIsTampered_ThenFails() throws Exception {
+        final byte[] plainText = randomBytes(64 * 1024);
+        final Path encryptedFile = writeGpgFile("data.bam", plainText, md5Of(plainText));
+        final byte[] encrypted = Files.readAllBytes(encryptedFile);
+        encrypted[encrypted.length - 10] ^= 1;
+        Files.write(encryptedFile, encrypted);
+
+        assertThatThrownBy(() -> newPipeline().process(new FileToProcess(encryptedFile,
+                createSubDirs(temporaryFolder, "out"))))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    private TranscodingCryptographyPipeline newPipeline() throws Exception {
+        final PGPDecryptor pgpDecryptor = new PGPDecryptor(new ByteArrayInputStream(pgpKeys.getSecretKeyring()),
+                new char[0]);
+        final Crypt4GHCryptography crypt4GHCryptography = new Crypt4GHCryptography(
+                Collections.singletonList(crypt4ghKeys.getPublicKey()), null, 1);
+        final FileSystemOutputSink outputSink = new FileSystemOutputSink();
+        return new TranscodingCryptographyPipeline(pgpDecryptor,
+                new DefaultCryptographyPipeline(crypt4GHCryptography, 256, outputSink), outputSink);
+    }
+
+    private Path writeGpgFile(final String fileName, final byte[] plainText, final String plainTextMD5)
+            throws Exception {
+        final Path inputFolder = createSubDirs(temporaryFolder, "in");
+        final Path encryptedFile = inputFolder.resolve(fileName.concat(".gpg"));
+        final PGPCryptography pgpCryptography = new PGPCryptography(
+                Collections.singletonList(pgpKeys.getPublicKey()), 256, 256);
+        try (final OutputStream fileOutputStream = Files.newOutputStream(encryptedFile)) {
+            try (final OutputStream outputStream = pgpCryptography.encrypt(fileOutputStream)) {
+                outputStream.write(plainText);
+            }
+        }
+        Files.write(inputFolder.resolve(fileName.concat(".md5")), plainTextMD5.getBytes(StandardCharsets.US_ASCII));
+        return encryptedFile;
+    }
+
+    private static String md5Of(final byte[] bytes) {
+        final MessageDigest messageDigest = Hash.getMD5();
+        messageDigest.update(bytes);
+        return Hash.normalize(messageDigest);
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
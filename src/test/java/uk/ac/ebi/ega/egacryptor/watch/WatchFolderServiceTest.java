@@ -0,0 +1,127 @@
+/*
+ *
+ * Copyright 2019 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.ac.ebi.ega.egacryptor.watch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import uk.ac.ebi.ega.egacryptor.BaseTest;
+import uk.ac.ebi.ega.egacryptor.model.FileToProcess;
+import uk.ac.ebi.ega.egacryptor.pipeline.CryptographyPipeline;
+import uk.ac.ebi.ega.egacryptor.service.FileDiscoveryService;
+import uk.ac.ebi.ega.egacryptor.service.TaskExecutorService;
+import uk.ac.ebi.ega.egacryptor.service.TaskListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class WatchFolderServiceTest extends BaseTest {
+
+    private static final long STABLE_TIME_MILLIS = 1500;
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    @TempDir
+    private Path temporaryFolder;
+
+    private CryptographyPipeline pipeline;
+    private ExecutorService executorService;
+    private WatchFolderService watchFolderService;
+
+    @BeforeEach
+    void setUp() {
+        pipeline = mock(CryptographyPipeline.class);
+        executorService = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        watchFolderService.close();
+        executorService.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void newFileIsQueuedOnceItIsStable(final boolean forcePolling) throws IOException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        final Path outputFolder = createSubDirs(temporaryFolder, "output");
+        startWatching(inputFolder, outputFolder, forcePolling);
+
+        final Path subFolder = createSubDirs(inputFolder, "run1");
+        final Path newFile = createFile(subFolder, "fileToProcess.txt");
+        Files.write(newFile, "File to encrypt".getBytes(StandardCharsets.UTF_8));
+
+        verify(pipeline, timeout(10000)).process(new FileToProcess(newFile, outputFolder.resolve("run1")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void fileStillBeingWrittenIsNotQueued(final boolean forcePolling) throws IOException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        startWatching(inputFolder, createSubDirs(temporaryFolder, "output"), forcePolling);
+
+        final Path growingFile = createFile(inputFolder, "growingFile.txt");
+        for (int i = 0; i < 10; i++) {
+            Files.write(growingFile, "more data".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            verify(pipeline, after(300).never()).process(any());
+        }
+
+        verify(pipeline, timeout(10000)).process(any());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void fileRecreatedUnderSameNameIsQueuedAgain(final boolean forcePolling) throws IOException {
+        final Path inputFolder = createSubDirs(temporaryFolder, "input");
+        startWatching(inputFolder, createSubDirs(temporaryFolder, "output"), forcePolling);
+
+        final Path file = createFile(inputFolder, "fileToProcess.txt");
+        Files.write(file, "First delivery".getBytes(StandardCharsets.UTF_8));
+        verify(pipeline, timeout(10000)).process(any());
+        verify(pipeline, after(STABLE_TIME_MILLIS + 2 * POLL_INTERVAL_MILLIS).times(1)).process(any());
+
+        Files.delete(file);
+        Files.write(file, "Second delivery".getBytes(StandardCharsets.UTF_8));
+
+        verify(pipeline, timeout(10000).times(2)).process(any());
+    }
+
+    private void startWatching(final Path inputFolder, final Path outputFolder, final boolean forcePolling)
+            throws IOException {
+        watchFolderService = new WatchFolderService(new TaskExecutorService(pipeline), new FileDiscoveryService(),
+                executorService, TaskListener.NONE, STABLE_TIME_MILLIS, POLL_INTERVAL_MILLIS, forcePolling);
+        final Thread watchThread = new Thread(() -> watchFolderService.watch(
+                Collections.singletonList(inputFolder), outputFolder));
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+}